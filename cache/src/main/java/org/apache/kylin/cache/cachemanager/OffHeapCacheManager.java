@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.cache.cachemanager;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.kylin.cache.offheap.OffHeapCache;
+import org.apache.kylin.common.KylinConfig;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.support.AbstractCacheManager;
+
+import org.apache.kylin.shaded.com.google.common.collect.Lists;
+
+/**
+ * CacheManager keeping the query cache in an {@link OffHeapCache}, other caches are taken from the delegate,
+ * usually an EhCache manager. It can be used alone or as the local cache manager of
+ * {@link RemoteLocalFailOverCacheManager}.
+ */
+public class OffHeapCacheManager extends AbstractCacheManager {
+
+    private CacheManager delegate;
+    private long maxBytes = KylinConfig.getInstanceFromEnv().getQueryCacheOffHeapMaxBytes();
+    private long maxEntryBytes = KylinConfig.getInstanceFromEnv().getQueryCacheOffHeapMaxEntryBytes();
+    private Map<String, String> metricsConfig = KylinConfig.getInstanceFromEnv().getKylinMetricsConf();
+
+    public void setDelegate(CacheManager delegate) {
+        this.delegate = delegate;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void setMaxEntryBytes(long maxEntryBytes) {
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    @Override
+    protected Collection<? extends Cache> loadCaches() {
+        OffHeapCache queryCache = new OffHeapCache(CacheConstants.QUERY_CACHE, maxBytes, maxEntryBytes);
+        if ("true".equalsIgnoreCase(metricsConfig.get("ehcache.enabled"))) {
+            queryCache.registerMetrics();
+        }
+        return Lists.newArrayList(queryCache);
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        Cache cache = super.getCache(name);
+        if (cache == null && delegate != null) {
+            cache = delegate.getCache(name);
+        }
+        return cache;
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        Collection<String> names = Lists.newArrayList(super.getCacheNames());
+        if (delegate != null) {
+            for (String name : delegate.getCacheNames()) {
+                if (!names.contains(name))
+                    names.add(name);
+            }
+        }
+        return names;
+    }
+}
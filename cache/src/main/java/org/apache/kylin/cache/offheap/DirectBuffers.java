@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.cache.offheap;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frees direct buffers without waiting for GC, and tells the limit of direct memory of the JVM.
+ */
+class DirectBuffers {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectBuffers.class);
+
+    private static final String MAX_DIRECT_MEMORY_OPTION = "-XX:MaxDirectMemorySize=";
+
+    // Unsafe.invokeCleaner() since java 9, null on java 8 where DirectBuffer.cleaner() is used instead
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    private static volatile boolean freeable = true;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (Exception e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private DirectBuffers() {
+    }
+
+    /**
+     * Releases the memory of the direct buffer at once, the buffer must not be accessed any more.
+     * If the JVM does not allow it, the memory is left to be released by GC.
+     */
+    static void free(ByteBuffer buffer) {
+        if (!freeable || buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            freeable = false;
+            logger.warn("Cannot free direct buffers explicitly, leave them to GC", e);
+        }
+    }
+
+    /**
+     * @return the limit of direct memory, set by -XX:MaxDirectMemorySize or the max heap size by default
+     */
+    static long maxDirectMemory() {
+        return maxDirectMemory(ManagementFactory.getRuntimeMXBean().getInputArguments(),
+                Runtime.getRuntime().maxMemory());
+    }
+
+    static long maxDirectMemory(List<String> jvmArguments, long maxHeap) {
+        long max = maxHeap;
+        // the last one takes effect
+        for (String argument : jvmArguments) {
+            if (argument.startsWith(MAX_DIRECT_MEMORY_OPTION)) {
+                String size = argument.substring(MAX_DIRECT_MEMORY_OPTION.length()).toLowerCase(Locale.ROOT);
+                try {
+                    max = parseBytes(size);
+                } catch (NumberFormatException e) {
+                    logger.warn("Unrecognized JVM option {}", argument);
+                }
+            }
+        }
+        // 0 means the default
+        return max > 0 ? max : maxHeap;
+    }
+
+    private static long parseBytes(String size) {
+        long unit = 1;
+        switch (size.isEmpty() ? ' ' : size.charAt(size.length() - 1)) {
+        case 'k':
+            unit = 1024L;
+            break;
+        case 'm':
+            unit = 1024L * 1024;
+            break;
+        case 'g':
+            unit = 1024L * 1024 * 1024;
+            break;
+        case 't':
+            unit = 1024L * 1024 * 1024 * 1024;
+            break;
+        default:
+            return Long.parseLong(size);
+        }
+        return Long.parseLong(size.substring(0, size.length() - 1)) * unit;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.cache.offheap;
+
+import static org.apache.kylin.metrics.lib.impl.MetricsSystem.Metrics;
+import static org.apache.kylin.metrics.lib.impl.MetricsSystem.name;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.kylin.common.util.CompressionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import org.apache.kylin.shaded.com.google.common.collect.Lists;
+
+import com.codahale.metrics.Gauge;
+
+/**
+ * {@link Cache} storing values serialized, and compressed if large, in direct buffers out of the java heap.
+ *
+ * The cache is bounded by the total bytes of stored values. Entries are kept in LRU order, and a new entry
+ * replaces the least recently used ones only if it is accessed more frequently than each of them, so that
+ * a few large results queried once do not push out many small hot ones.
+ *
+ * Buffers are freed as soon as their entries are removed rather than by GC, and the bound is limited to
+ * half of the JVM's direct memory, which is shared with Spark and Netty.
+ */
+public class OffHeapCache implements Cache {
+
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapCache.class);
+
+    static final int COMPRESS_THRESHOLD = 4096;
+
+    private static final byte RAW = 0;
+    private static final byte COMPRESSED = 1;
+
+    private final String name;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+
+    // guarded by this
+    private final LinkedHashMap<Object, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private long bytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    public OffHeapCache(String name, long maxBytes, long maxEntryBytes) {
+        this(name, maxBytes, maxEntryBytes, DirectBuffers.maxDirectMemory());
+    }
+
+    OffHeapCache(String name, long maxBytes, long maxEntryBytes, long maxDirectMemory) {
+        this.name = name;
+        if (maxBytes > maxDirectMemory / 2) {
+            logger.warn("Cache {} is bounded to {} bytes, half of the max direct memory {}, instead of {} bytes",
+                    name, maxDirectMemory / 2, maxDirectMemory, maxBytes);
+            maxBytes = maxDirectMemory / 2;
+        }
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+        // assume 16KB per entry on average to size the sketch
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maxBytes / 16384));
+    }
+
+    /**
+     * Registers the cache metrics, named by the cache like those of the other local caches.
+     */
+    public void registerMetrics() {
+        final String prefix = name(getClass(), name);
+        register(name(prefix, "hits"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return hits.get();
+            }
+        });
+        register(name(prefix, "misses"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return misses.get();
+            }
+        });
+        register(name(prefix, "hit-ratio"), new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return getHitRatio();
+            }
+        });
+        register(name(prefix, "objects"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return (long) size();
+            }
+        });
+        register(name(prefix, "bytes"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getBytes();
+            }
+        });
+        register(name(prefix, "eviction-count"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return evictions.get();
+            }
+        });
+        register(name(prefix, "rejection-count"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return rejections.get();
+            }
+        });
+    }
+
+    private static void register(String metricName, Gauge<?> gauge) {
+        Metrics.remove(metricName);
+        Metrics.register(metricName, gauge);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return this;
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        byte[] data = null;
+        synchronized (this) {
+            sketch.increment(key);
+            ByteBuffer buffer = entries.get(key);
+            // copied in the lock, as the buffer is freed once evicted
+            if (buffer != null) {
+                data = new byte[buffer.remaining()];
+                buffer.duplicate().get(data);
+            }
+        }
+        if (data == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new SimpleValueWrapper(decode(data));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper wrapper = get(key);
+        Object value = wrapper == null ? null : wrapper.get();
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper wrapper = get(key);
+        if (wrapper != null) {
+            return (T) wrapper.get();
+        }
+        T value;
+        try {
+            value = valueLoader.call();
+        } catch (Throwable ex) {
+            throw new ValueRetrievalException(key, valueLoader, ex);
+        }
+        put(key, value);
+        return value;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        if (value == null) {
+            evict(key);
+            return;
+        }
+        ByteBuffer buffer = encode(value);
+        if (buffer == null || buffer.capacity() > maxEntryBytes) {
+            DirectBuffers.free(buffer);
+            rejections.incrementAndGet();
+            evict(key);
+            return;
+        }
+
+        int evicted;
+        synchronized (this) {
+            sketch.increment(key);
+            remove(key);
+            evicted = makeRoom(key, buffer.capacity());
+            if (evicted < 0) {
+                DirectBuffers.free(buffer);
+                rejections.incrementAndGet();
+                return;
+            }
+            entries.put(key, buffer);
+            bytes += buffer.capacity();
+        }
+        if (evicted > 0) {
+            evictions.addAndGet(evicted);
+            logger.debug("Evicted {} entries from cache {} for a new entry of {} bytes", evicted, name,
+                    buffer.capacity());
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries for the new one, unless any of them is accessed more frequently.
+     *
+     * @return the number of evicted entries, or -1 if the new entry is rejected
+     */
+    private int makeRoom(Object key, int size) {
+        long toFree = bytes + size - maxBytes;
+        if (toFree <= 0) {
+            return 0;
+        }
+
+        int frequency = sketch.frequency(key);
+        List<Object> victims = Lists.newArrayList();
+        Iterator<Map.Entry<Object, ByteBuffer>> it = entries.entrySet().iterator();
+        while (toFree > 0 && it.hasNext()) {
+            Map.Entry<Object, ByteBuffer> victim = it.next();
+            if (sketch.frequency(victim.getKey()) > frequency) {
+                return -1;
+            }
+            victims.add(victim.getKey());
+            toFree -= victim.getValue().capacity();
+        }
+        for (Object victim : victims) {
+            remove(victim);
+        }
+        return victims.size();
+    }
+
+    // guarded by this
+    private void remove(Object key) {
+        ByteBuffer old = entries.remove(key);
+        if (old != null) {
+            bytes -= old.capacity();
+            DirectBuffers.free(old);
+        }
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = get(key);
+        if (existing == null) {
+            put(key, value);
+        }
+        return existing;
+    }
+
+    @Override
+    public synchronized void evict(Object key) {
+        remove(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (ByteBuffer buffer : entries.values()) {
+            DirectBuffers.free(buffer);
+        }
+        entries.clear();
+        bytes = 0;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    private ByteBuffer encode(Object value) {
+        byte[] data;
+        try {
+            data = SerializationUtils.serialize((Serializable) value);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to serialize value of type " + value.getClass().getName() + " for cache " + name,
+                    e);
+            return null;
+        }
+
+        byte flag = RAW;
+        if (data.length > COMPRESS_THRESHOLD) {
+            try {
+                data = CompressionUtils.compress(data);
+                flag = COMPRESSED;
+            } catch (IOException e) {
+                logger.warn("Compressing value bytes error.", e);
+            }
+        }
+        if (data.length + 1 > maxEntryBytes) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length + 1);
+        buffer.put(flag).put(data);
+        buffer.flip();
+        return buffer;
+    }
+
+    private Object decode(byte[] encoded) {
+        byte flag = encoded[0];
+        byte[] data = Arrays.copyOfRange(encoded, 1, encoded.length);
+        if (flag == COMPRESSED) {
+            try {
+                data = CompressionUtils.decompress(data);
+            } catch (IOException | DataFormatException e) {
+                throw new IllegalStateException("Decompressing value bytes of cache " + name + " error.", e);
+            }
+        }
+        return SerializationUtils.deserialize(data);
+    }
+}
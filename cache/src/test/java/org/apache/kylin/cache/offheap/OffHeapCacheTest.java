@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.cache.offheap;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OffHeapCacheTest {
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testPutAndGet() {
+        OffHeapCache cache = new OffHeapCache("test", 1024 * 1024, 1024 * 1024);
+        String large = StringUtils.repeat("kylin", 10000);
+        cache.put("small", "value");
+        cache.put("large", large);
+
+        Assert.assertEquals("value", cache.get("small").get());
+        Assert.assertEquals(large, cache.get("large", String.class));
+        // compressed as it is large and repetitive
+        Assert.assertTrue(cache.getBytes() < OffHeapCache.COMPRESS_THRESHOLD);
+        Assert.assertNull(cache.get("absent"));
+        Assert.assertEquals(2.0 / 3, cache.getHitRatio(), 0.001);
+
+        cache.evict("small");
+        Assert.assertNull(cache.get("small"));
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testRejectLargeEntry() {
+        OffHeapCache cache = new OffHeapCache("test", 64 * 1024, 16 * 1024);
+        cache.put("key", "value");
+        cache.put("key", randomBytes(32 * 1024));
+        // the old value is not kept for a rejected update
+        Assert.assertNull(cache.get("key"));
+        Assert.assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testFrequencyAwareEviction() {
+        OffHeapCache cache = new OffHeapCache("test", 20 * 1024, 20 * 1024);
+        for (int i = 0; i < 8; i++) {
+            cache.put("hot" + i, randomBytes(2000));
+            for (int j = 0; j < 3; j++) {
+                Assert.assertNotNull(cache.get("hot" + i));
+            }
+        }
+        long bytesOfHot = cache.getBytes();
+
+        // a cold large entry does not push out the hot ones
+        cache.put("cold", randomBytes(10 * 1024));
+        Assert.assertNull(cache.get("cold"));
+        Assert.assertEquals(8, cache.size());
+        Assert.assertEquals(bytesOfHot, cache.getBytes());
+
+        // once accessed more frequently, it replaces the least recently used ones
+        for (int j = 0; j < 6; j++) {
+            cache.get("cold");
+        }
+        cache.put("cold", randomBytes(10 * 1024));
+        Assert.assertNotNull(cache.get("cold"));
+        Assert.assertNull(cache.get("hot0"));
+        Assert.assertNotNull(cache.get("hot7"));
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+        Assert.assertTrue(cache.getBytes() <= 20 * 1024);
+    }
+
+    private static long directMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        throw new IllegalStateException("No direct buffer pool");
+    }
+
+    @Test
+    public void testFreeOnEviction() {
+        OffHeapCache cache = new OffHeapCache("test", 4 * 1024 * 1024, 4 * 1024 * 1024);
+        long used = directMemoryUsed();
+        cache.put("a", randomBytes(1024 * 1024));
+        cache.put("b", randomBytes(1024 * 1024));
+        Assert.assertTrue(directMemoryUsed() - used >= 2 * 1024 * 1024);
+
+        // released without GC
+        cache.put("a", randomBytes(1024));
+        cache.evict("b");
+        Assert.assertTrue(directMemoryUsed() - used < 1024 * 1024);
+        cache.clear();
+        Assert.assertTrue(directMemoryUsed() - used < 1024);
+    }
+
+    @Test
+    public void testBoundedByDirectMemory() {
+        OffHeapCache cache = new OffHeapCache("test", 1024 * 1024, 1024 * 1024, 1024 * 1024);
+        Assert.assertEquals(512 * 1024, cache.getMaxBytes());
+        cache = new OffHeapCache("test", 1024 * 1024, 1024 * 1024, 4 * 1024 * 1024);
+        Assert.assertEquals(1024 * 1024, cache.getMaxBytes());
+
+        Assert.assertEquals(100, DirectBuffers.maxDirectMemory(Collections.<String> emptyList(), 100));
+        Assert.assertEquals(512L * 1024 * 1024,
+                DirectBuffers.maxDirectMemory(Arrays.asList("-Xmx1g", "-XX:MaxDirectMemorySize=512m"), 100));
+        Assert.assertEquals(2L * 1024 * 1024 * 1024, DirectBuffers.maxDirectMemory(
+                Arrays.asList("-XX:MaxDirectMemorySize=1024", "-XX:MaxDirectMemorySize=2G"), 100));
+        Assert.assertEquals(100, DirectBuffers.maxDirectMemory(Arrays.asList("-XX:MaxDirectMemorySize=0"), 100));
+    }
+}
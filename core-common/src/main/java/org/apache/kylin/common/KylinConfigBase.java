@@ -502,6 +502,26 @@ public abstract class KylinConfigBase implements Serializable {
         return getOptional("kylin.resourcestore.connection-exceptions", "");
     }
 
+    public boolean isResourceStoreCacheEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.resourcestore.cache-enabled", FALSE));
+    }
+
+    public long getResourceStoreCacheMaxBytes() {
+        return Long.parseLong(getOptional("kylin.resourcestore.cache-max-bytes", String.valueOf(64L * 1024 * 1024)));
+    }
+
+    public int getResourceStoreCacheMaxEntryBytes() {
+        return Integer.parseInt(getOptional("kylin.resourcestore.cache-max-entry-bytes", String.valueOf(1024 * 1024)));
+    }
+
+    /**
+     * How long a cached resource is trusted before its timestamp is checked against the backing store again.
+     * A broadcast event makes all cached resources stale immediately.
+     */
+    public long getResourceStoreCacheRevalidateMs() {
+        return Long.parseLong(getOptional("kylin.resourcestore.cache-revalidate-ms", "10000"));
+    }
+
     public String getDataModelImpl() {
         return getOptional("kylin.metadata.data-model-impl", null);
     }
@@ -557,6 +577,13 @@ public abstract class KylinConfigBase implements Serializable {
         return Boolean.parseBoolean(getOptional("kylin.metadata.able-change-string-to-datetime", "false"));
     }
 
+    /**
+     * Metadata entities whose JSON is larger than this are saved gzip compressed, -1 to disable.
+     */
+    public int getMetadataCompressThresholdBytes() {
+        return Integer.parseInt(getOptional("kylin.metadata.compress-threshold-bytes", "-1"));
+    }
+
     // ============================================================================
     // Hive Global Dictionary
     //
@@ -1492,6 +1519,99 @@ public abstract class KylinConfigBase implements Serializable {
         return Long.parseLong(getOptional("kylin.query.lazy-query-waiting-timeout-milliseconds", "60000"));
     }
 
+    /**
+     * Identical queries running at the same time on this server are executed once, the others wait for the result.
+     */
+    public boolean isQueryCoalescingEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.query.coalescing-enabled", FALSE));
+    }
+
+    /**
+     * Also coalesce identical queries across servers with the distributed lock, the result is shared
+     * through the query cache, so it takes effect only with a shared cache like memcached.
+     */
+    public boolean isQueryCoalescingAcrossNodesEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.query.coalescing-across-nodes-enabled", FALSE));
+    }
+
+    /**
+     * Beyond this, a waiting query stops waiting and executes on its own.
+     */
+    public long getQueryCoalescingMaxWaitMillis() {
+        return Long.parseLong(getOptional("kylin.query.coalescing-max-wait-milliseconds", "300000"));
+    }
+
+    /**
+     * Allow approximate queries on a sample of cuboid files, asked by hint or backdoor toggle.
+     */
+    public boolean isQuerySampleEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.query.sample-enabled", TRUE));
+    }
+
+    public int getQueryBatchMaxStatements() {
+        return Integer.parseInt(getOptional("kylin.query.batch.max-statements", "50"));
+    }
+
+    /**
+     * Statements of a query batch filtering the same cuboid of the same segments alike share one scan.
+     */
+    public boolean isQueryBatchSharedScanEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.query.batch.shared-scan-enabled", TRUE));
+    }
+
+    /**
+     * A shared scan is cached, when a second statement of a batch reads it, only if it reads no more bytes
+     * than this.
+     */
+    public long getQueryBatchSharedScanMaxCacheBytes() {
+        return Long.parseLong(getOptional("kylin.query.batch.shared-scan-max-cache-bytes", String.valueOf(1L << 30)));
+    }
+
+    /**
+     * Queries of a project are admitted into Sparder within its concurrency and CPU time budget,
+     * the others wait in a queue of the project.
+     */
+    public boolean isQueryAdmissionControlEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.query.admission-control-enabled", FALSE));
+    }
+
+    /**
+     * A query estimated to scan more bytes than this is heavy.
+     */
+    public long getQueryAdmissionHeavyScanBytes() {
+        return Long.parseLong(getOptional("kylin.query.admission.heavy-scan-bytes", String.valueOf(10L << 30)));
+    }
+
+    /**
+     * Max queries of a project running in Sparder, 0 means no limitation.
+     */
+    public int getQueryAdmissionMaxConcurrent() {
+        return Integer.parseInt(getOptional("kylin.query.admission.max-concurrent", "0"));
+    }
+
+    /**
+     * Max heavy queries of a project running in Sparder, 0 means no limitation.
+     */
+    public int getQueryAdmissionMaxHeavyConcurrent() {
+        return Integer.parseInt(getOptional("kylin.query.admission.max-heavy-concurrent", "2"));
+    }
+
+    /**
+     * Executor CPU seconds a project may spend per minute before its heavy queries wait for the next minute,
+     * 0 means no limitation.
+     */
+    public long getQueryAdmissionCpuSecondsPerMinute() {
+        return Long.parseLong(getOptional("kylin.query.admission.cpu-seconds-per-minute", "0"));
+    }
+
+    public int getQueryAdmissionMaxQueueSize() {
+        return Integer.parseInt(getOptional("kylin.query.admission.max-queue-size", "100"));
+    }
+
+    public long getQueryAdmissionQueueTimeoutSeconds() {
+        return Long.parseLong(getOptional("kylin.query.admission.queue-timeout-seconds", "60"));
+    }
+
     public int getQueryConcurrentRunningThresholdForProject() {
         // by default there's no limitation
         return Integer.parseInt(getOptional("kylin.query.project-concurrent-running-threshold", "0"));
@@ -1561,6 +1681,18 @@ public abstract class KylinConfigBase implements Serializable {
         return Boolean.parseBoolean(this.getOptional("kylin.query.ignore-unknown-function", FALSE));
     }
 
+    /**
+     * Total bytes of the serialized results in the off-heap query cache, no more than half of the JVM's
+     * -XX:MaxDirectMemorySize.
+     */
+    public long getQueryCacheOffHeapMaxBytes() {
+        return Long.parseLong(this.getOptional("kylin.query.cache-offheap-max-mb", "1024")) * 1024 * 1024;
+    }
+
+    public long getQueryCacheOffHeapMaxEntryBytes() {
+        return Long.parseLong(this.getOptional("kylin.query.cache-offheap-max-entry-mb", "64")) * 1024 * 1024;
+    }
+
     public boolean isMemcachedEnabled() {
         return !StringUtil.isEmpty(getMemCachedHosts());
     }
@@ -1581,6 +1713,26 @@ public abstract class KylinConfigBase implements Serializable {
         return Integer.parseInt(this.getOptional("kylin.query.statement-cache-max-num-per-key", String.valueOf(50)));
     }
 
+    /**
+     * Queries differing only in literals compared to columns share a prepared plan and the realizations chosen,
+     * the literals are bound as parameters of the cached prepared statement.
+     */
+    public boolean isQueryPlanCacheEnabled() {
+        return Boolean.parseBoolean(this.getOptional("kylin.query.plan-cache-enabled", FALSE));
+    }
+
+    /**
+     * Realizations found incapable of a query shape are skipped by later queries of the same shape,
+     * until the realization or its project changes.
+     */
+    public boolean isRealizationCapabilityIndexEnabled() {
+        return Boolean.parseBoolean(this.getOptional("kylin.query.realization-capability-index-enabled", TRUE));
+    }
+
+    public int getRealizationCapabilityIndexMaxEntries() {
+        return Integer.parseInt(this.getOptional("kylin.query.realization-capability-index-max-entries", "10000"));
+    }
+
     public boolean isQueryPreparedStatementCacheEnable() {
         return Boolean.parseBoolean(this.getOptional("kylin.query.statement-cache-enabled", TRUE));
     }
@@ -1713,6 +1865,27 @@ public abstract class KylinConfigBase implements Serializable {
         }
     }
 
+    /**
+     * Rows fetched from the pushdown data source per round trip, so that large results are streamed.
+     */
+    public int getJdbcFetchSize(String id) {
+        if (null == id) {
+            return Integer.parseInt(this.getOptional("kylin.query.pushdown.jdbc.fetch-size", "1000"));
+        } else {
+            return Integer.parseInt(this.getOptional("kylin.query.pushdown." + id + ".jdbc.fetch-size",
+                    this.getOptional("kylin.query.pushdown.jdbc.fetch-size", "1000")));
+        }
+    }
+
+    public int getPoolCheckIntervalSeconds(String id) {
+        if (null == id) {
+            return Integer.parseInt(this.getOptional("kylin.query.pushdown.jdbc.pool-check-interval-seconds", "60"));
+        } else {
+            return Integer.parseInt(this.getOptional("kylin.query.pushdown." + id + ".jdbc.pool-check-interval-seconds",
+                    this.getOptional("kylin.query.pushdown.jdbc.pool-check-interval-seconds", "60")));
+        }
+    }
+
     public boolean isTableACLEnabled() {
         return Boolean.parseBoolean(this.getOptional("kylin.query.security.table-acl-enabled", TRUE));
     }
@@ -1735,6 +1908,25 @@ public abstract class KylinConfigBase implements Serializable {
                 this.getOptional("kylin.query.cache-signature-enabled", String.valueOf(isMemcachedEnabled())));
     }
 
+    /**
+     * Cache per-segment partial results of decomposable aggregate queries, so that a new segment only
+     * requires computing the new segment rather than the whole query.
+     */
+    public boolean isQueryCacheIncrementalEnabled() {
+        return Boolean.parseBoolean(this.getOptional("kylin.query.cache-incremental-enabled", FALSE));
+    }
+
+    public int getQueryCacheIncrementalMaxEntries() {
+        return Integer.parseInt(this.getOptional("kylin.query.cache-incremental-max-entries", "1000"));
+    }
+
+    /**
+     * How long partial results of a query are reused since first computed, however often it is hit.
+     */
+    public long getQueryCacheIncrementalTtlSeconds() {
+        return Long.parseLong(this.getOptional("kylin.query.cache-incremental-ttl-seconds", "86400"));
+    }
+
     public int getFlatFilterMaxChildrenSize() {
         return Integer.parseInt(this.getOptional("kylin.query.flat-filter-max-children", "500000"));
     }
@@ -1770,6 +1962,18 @@ public abstract class KylinConfigBase implements Serializable {
         return getOptional("kylin.server.init-tasks");
     }
 
+    public boolean isMetadataBootstrapEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.server.metadata-bootstrap-enabled", FALSE));
+    }
+
+    public int getMetadataBootstrapThreads() {
+        return Integer.parseInt(getOptional("kylin.server.metadata-bootstrap-threads", "8"));
+    }
+
+    public long getMetadataBootstrapTimeoutSeconds() {
+        return Long.parseLong(getOptional("kylin.server.metadata-bootstrap-timeout-seconds", "600"));
+    }
+
     public int getWorkersPerServer() {
         //for sequence sql use
         return Integer.parseInt(getOptional("kylin.server.sequence-sql.workers-per-server", "1"));
@@ -2190,6 +2394,28 @@ public abstract class KylinConfigBase implements Serializable {
         return Integer.parseInt(getOptional("kylin.engine.persist-flattable-threshold", "1"));
     }
 
+    /**
+     * Choose the parent of each root cuboid by estimated scan and shuffle cost, using cuboid statistics
+     * of the previous segment. Falls back to the smallest parent layout when no statistics exist.
+     */
+    public boolean isParentCostModelEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.engine.parent-cost-model-enabled", TRUE));
+    }
+
+    /**
+     * Cost of one shuffled byte relative to one scanned byte.
+     */
+    public double getParentCostShuffleWeight() {
+        return Double.parseDouble(getOptional("kylin.engine.parent-cost-shuffle-weight", "3"));
+    }
+
+    /**
+     * Cost of one flat table byte relative to one cuboid byte, as generating flat table involves source reading and joins.
+     */
+    public double getParentCostFlatTableWeight() {
+        return Double.parseDouble(getOptional("kylin.engine.parent-cost-flat-table-weight", "2"));
+    }
+
     public Path getJobTmpFlatTableDir(String project, String jobId) {
         String path = getJobTmpDir(project) + jobId + "/flat_table/";
         return new Path(path);
@@ -2312,6 +2538,90 @@ public abstract class KylinConfigBase implements Serializable {
         return Integer.parseInt(getOptional("kylin.engine.spark.cache-parent-dataset-count", "1"));
     }
 
+    /**
+     * If we should store the cardinality of each row next to the precise count distinct measures of cuboids,
+     * which saves queries exactly matching a cuboid from deserializing the bitmaps
+     */
+    @ConfigTag(ConfigTag.Tag.CUBE_LEVEL)
+    public boolean isPreciseCardinalityColumnEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.engine.spark.precise-cardinality-column-enabled", TRUE));
+    }
+
+    /**
+     * If percentile measures should be built as merging t-digests rather than AVL tree digests,
+     * segments of AVL tree digests are converted when they are merged
+     */
+    @ConfigTag(ConfigTag.Tag.GLOBAL_LEVEL)
+    public boolean isMergingPercentileEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.engine.spark.merging-percentile-enabled", TRUE));
+    }
+
+    /**
+     * If HLL measures should be built in fixed-width aggregation buffers, which live in memory managed by Spark
+     * and spill through its memory manager, rather than in JVM objects
+     */
+    @ConfigTag(ConfigTag.Tag.CUBE_LEVEL)
+    public boolean isFixedWidthHllcBufferEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.engine.spark.fixed-width-hllc-buffer-enabled", FALSE));
+    }
+
+    /**
+     * HLL measures of higher precision keep their object buffers, as a fixed-width buffer takes 2^precision bytes
+     */
+    @ConfigTag(ConfigTag.Tag.CUBE_LEVEL)
+    public int getFixedWidthHllcBufferMaxPrecision() {
+        return Integer.parseInt(getOptional("kylin.engine.spark.fixed-width-hllc-buffer-max-precision", "12"));
+    }
+
+    /**
+     * If string dimensions of dict encoding should be stored as int codes of a cube level dictionary
+     * in the cuboid files of new segments
+     */
+    @ConfigTag(ConfigTag.Tag.CUBE_LEVEL)
+    public boolean isDimensionDictionaryEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.engine.spark.dimension-dictionary-enabled", FALSE));
+    }
+
+    /**
+     * Dimensions with more values than this are stored as plain values
+     */
+    @ConfigTag(ConfigTag.Tag.CUBE_LEVEL)
+    public int getDimensionDictionaryMaxSize() {
+        return Integer.parseInt(getOptional("kylin.engine.spark.dimension-dictionary-max-size", "1000000"));
+    }
+
+    /**
+     * If layouts with count distinct or TopN measures built from the flat table salt the rows of skewed keys
+     */
+    @ConfigTag(ConfigTag.Tag.CUBE_LEVEL)
+    public boolean isCuboidSkewMitigationEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.engine.spark.cuboid-skew-mitigation-enabled", FALSE));
+    }
+
+    /**
+     * Rate of the flat table rows sampled to find the skewed keys of a layout
+     */
+    @ConfigTag(ConfigTag.Tag.CUBE_LEVEL)
+    public double getCuboidSkewSampleRate() {
+        return Double.parseDouble(getOptional("kylin.engine.spark.cuboid-skew-sample-rate", "0.1"));
+    }
+
+    /**
+     * Keys taking more than this ratio of the sampled rows are skewed
+     */
+    @ConfigTag(ConfigTag.Tag.CUBE_LEVEL)
+    public double getCuboidSkewThreshold() {
+        return Double.parseDouble(getOptional("kylin.engine.spark.cuboid-skew-threshold", "0.05"));
+    }
+
+    /**
+     * Number of sub-partitions the rows of a skewed key are salted into
+     */
+    @ConfigTag(ConfigTag.Tag.CUBE_LEVEL)
+    public int getCuboidSkewSaltPartitions() {
+        return Integer.parseInt(getOptional("kylin.engine.spark.cuboid-skew-salt-partitions", "16"));
+    }
+
     @ConfigTag(ConfigTag.Tag.CUBE_LEVEL)
     public boolean isBuildBaseCuboid() {
         return Boolean.valueOf(getOptional("kylin.engine.build-base-cuboid-enabled", TRUE));
@@ -2617,6 +2927,40 @@ public abstract class KylinConfigBase implements Serializable {
         return Integer.parseInt(getOptional("kylin.query.bitmap-upper-bound", "10000000"));
     }
 
+    /**
+     * If precise count distinct and intersect count should union the serialized bitmaps in place rather than
+     * deserializing each of them
+     */
+    @ConfigTag(ConfigTag.Tag.GLOBAL_LEVEL)
+    public boolean isPortableBitmapAggregationEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.query.spark-engine.portable-bitmap-aggregation-enabled", TRUE));
+    }
+
+    /**
+     * Input bytes a portable bitmap aggregation buffer references before unioning them. A task holds many
+     * buffers at once, so this is kept small
+     */
+    @ConfigTag(ConfigTag.Tag.GLOBAL_LEVEL)
+    public long getPortableBitmapMaxPendingBytes() {
+        return Long.parseLong(getOptional("kylin.query.spark-engine.portable-bitmap-max-pending-bytes", "524288"));
+    }
+
+    /**
+     * If percentile queries should merge the measures into a merging t-digest, which reads both encodings
+     */
+    @ConfigTag(ConfigTag.Tag.GLOBAL_LEVEL)
+    public boolean isMergingPercentileQueryEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.query.spark-engine.merging-percentile-enabled", TRUE));
+    }
+
+    /**
+     * If the aggregate calls of a query computing the same aggregation, like the SUM and COUNT of an AVG, share it
+     */
+    @ConfigTag(ConfigTag.Tag.GLOBAL_LEVEL)
+    public boolean isSharedAggregationEnabled() {
+        return Boolean.parseBoolean(getOptional("kylin.query.spark-engine.shared-aggregation-enabled", TRUE));
+    }
+
     @ConfigTag(ConfigTag.Tag.CUBE_LEVEL)
     public boolean needReplaceAggWhenExactlyMatched() {
         return Boolean.parseBoolean(getOptional("kylin.query.need-replace-exactly-agg", "true"));
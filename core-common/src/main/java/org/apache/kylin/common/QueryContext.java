@@ -78,10 +78,15 @@ public class QueryContext {
     private List<RPCStatistics> rpcStatisticsList = Lists.newCopyOnWriteArrayList();
     private Map<Integer, CubeSegmentStatisticsResult> cubeSegmentStatisticsResultMap = Maps.newConcurrentMap();
     private String[] cubePriorities = new String[0];
+    private Set<String> segmentScope; // null means all ready segments
+    private Map<String, Map<String, Long>> scannedSegments = Maps.newConcurrentMap();
+    private double sampleFraction = 1.0; // 1 means not sampled
+    private double sampleRelativeError = 0;
 
     private Object olapRel;
     private Object resultType;
     private Object dataset;
+    private Object pushDownRowHandler;
 
     QueryContext() {
         this(System.currentTimeMillis());
@@ -263,6 +268,17 @@ public class QueryContext {
         this.dataset = dataset;
     }
 
+    /**
+     * @return the IPushDownRowHandler receiving the rows of a pushdown query, null to return them in the response
+     */
+    public Object getPushDownRowHandler() {
+        return pushDownRowHandler;
+    }
+
+    public void setPushDownRowHandler(Object pushDownRowHandler) {
+        this.pushDownRowHandler = pushDownRowHandler;
+    }
+
     @Clarification(priority = Clarification.Priority.MAJOR, msg = "remove this")
     public boolean isTableIndex() {
         return isTableIndex;
@@ -297,6 +313,60 @@ public class QueryContext {
         this.cubePriorities = cubePriorities;
     }
 
+    /**
+     * Limits cube scans to the segments of given names, null to scan all ready segments.
+     */
+    public Set<String> getSegmentScope() {
+        return segmentScope;
+    }
+
+    public void setSegmentScope(Set<String> segmentScope) {
+        this.segmentScope = segmentScope;
+    }
+
+    /**
+     * @param segments segment name to its last build time
+     */
+    public void recordScannedSegments(String cubeName, Map<String, Long> segments) {
+        scannedSegments.put(cubeName, segments);
+    }
+
+    /**
+     * @return cube name to the scanned segments of it, see recordScannedSegments()
+     */
+    public Map<String, Map<String, Long>> getScannedSegments() {
+        return scannedSegments;
+    }
+
+    /**
+     * Fraction of cuboid files an approximate query scans, 1 for an exact query.
+     */
+    public double getSampleFraction() {
+        return sampleFraction;
+    }
+
+    public void setSampleFraction(double sampleFraction) {
+        this.sampleFraction = sampleFraction;
+    }
+
+    public boolean isApproximate() {
+        return sampleFraction < 1.0;
+    }
+
+    /**
+     * Records the relative error of a sampled scan, the largest one is kept for the query.
+     */
+    public synchronized void recordSampleRelativeError(double relativeError) {
+        sampleRelativeError = Math.max(sampleRelativeError, relativeError);
+    }
+
+    /**
+     * @return relative error bound of scaled SUM and COUNT at 95% confidence, 0 if nothing was sampled
+     */
+    public synchronized double getSampleRelativeError() {
+        return sampleRelativeError;
+    }
+
     /**
      * stop the whole query and related sub threads
      */
@@ -161,6 +161,14 @@ public class BackdoorToggles {
         return getBoolean(DEBUG_TOGGLE_PREPARE_ONLY);
     }
 
+    public static Double getSampleFraction() {
+        String v = getString(DEBUG_TOGGLE_SAMPLE_FRACTION);
+        if (v == null)
+            return null;
+        else
+            return Double.valueOf(v);
+    }
+
     private static String getString(String key) {
         Map<String, String> toggles = _backdoorToggles.get();
         if (toggles == null) {
@@ -336,6 +344,17 @@ public class BackdoorToggles {
      */
     public final static String DEBUG_TOGGLE_PREPARE_ONLY = "DEBUG_TOGGLE_PREPARE_ONLY";
 
+    /**
+     * set DEBUG_TOGGLE_SAMPLE_FRACTION="fraction" to run an approximate query on the given fraction of cuboid files,
+     * SUM and COUNT are scaled up and the response tells the relative error
+     *
+     example:(put it into request body)
+     "backdoorToggles": {
+     "DEBUG_TOGGLE_SAMPLE_FRACTION": "0.1"
+     }
+     */
+    public final static String DEBUG_TOGGLE_SAMPLE_FRACTION = "DEBUG_TOGGLE_SAMPLE_FRACTION";
+
     // properties on statement may go with this "channel" too
     /**
      * set ATTR_STATEMENT_MAX_ROWS="maxRows" to statement's max rows property
@@ -29,7 +29,14 @@ public class MetricsConstant {
     public static final String QUERY_SUCCESS_COUNT = "QuerySuccessCount";
     public static final String QUERY_FAIL_COUNT = "QueryFailCount";
     public static final String QUERY_CACHE_COUNT = "QueryCacheCount";
+    public static final String QUERY_COALESCED_COUNT = "QueryCoalescedCount";
     public static final String QUERY_COUNT = "QueryCount";
+    public static final String QUERY_ADMISSION_QUEUE_DEPTH = "QueryAdmissionQueueDepth";
+    public static final String QUERY_ADMISSION_WAIT_TIME = "QueryAdmissionWaitTime";
+    public static final String QUERY_ADMISSION_REJECTED_COUNT = "QueryAdmissionRejectedCount";
+    public static final String PUSHDOWN_POOL_ACTIVE = "PushDownPoolActive";
+    public static final String PUSHDOWN_POOL_IDLE = "PushDownPoolIdle";
+    public static final String PUSHDOWN_BORROW_FAILED_COUNT = "PushDownBorrowFailedCount";
     public static final String QUERY_DURATION = "QueryDuration";
     public static final String QUERY_RESULT_ROWCOUNT = "QueryResultRowcount";
     public static final String QUERY_SCAN_ROWCOUNT = "QueryScanRowcount";
@@ -24,6 +24,7 @@ public final class MetricsNameBuilder {
     public final static String METRICS = "metrics:";
     public final static String PROJECT_TEMPLATE = METRICS + "project=%s";
     public final static String CUBE_TEMPLATE = METRICS + "project=%s,cube=%s";
+    public final static String PUSHDOWN_TEMPLATE = METRICS + "pushdown=%s";
 
     public static String buildMetricName(String prefix, String name) {
         return String.format(Locale.ROOT, prefix + ",name=%s", name);
@@ -37,4 +38,8 @@ public final class MetricsNameBuilder {
         return String.format(Locale.ROOT, CUBE_TEMPLATE, project, cube);
     }
 
+    public static String buildPushDownMetricPrefix(String dataSource) {
+        return String.format(Locale.ROOT, PUSHDOWN_TEMPLATE, dataSource);
+    }
+
 }
@@ -0,0 +1,427 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.common.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.kylin.common.KylinConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.kylin.shaded.com.google.common.cache.Cache;
+import org.apache.kylin.shaded.com.google.common.cache.CacheBuilder;
+import org.apache.kylin.shaded.com.google.common.cache.Weigher;
+
+/**
+ * A read-through cache in front of a remote resource store, like HDFS or JDBC.
+ *
+ * - Raw bytes and timestamps of resources are kept in memory, bounded by total bytes.
+ * - A cached resource is trusted for a short period, after that its timestamp is checked against
+ *   the backing store and the content is re-read only if the timestamp has changed.
+ * - Listing a folder without content refreshes all cached resources under it in one round trip.
+ * - Loading a folder with content is served from cache when the listing matches every cached resource under it,
+ *   see {@link #prefetch(String)}.
+ * - All writes go through to the backing store and update or evict the cached copy. A read overlapping a write
+ *   is not cached, as it may have loaded the content from before the write.
+ * - {@link #markStale()} is called on broadcast, so changes made on other servers are seen on next read.
+ */
+public class CachedResourceStore extends ResourceStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachedResourceStore.class);
+
+    private final ResourceStore delegate;
+    private final Cache<String, CachedResource> cache;
+    private final int maxEntryBytes;
+    private final long revalidateMs;
+
+    // bumped on every broadcast, entries of an older generation must be revalidated before use
+    private final AtomicLong generation = new AtomicLong();
+
+    // bumped before and after every write, a read is cached only if no write started or ended during it
+    private final AtomicLong writeCount = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong revalidateCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public CachedResourceStore(KylinConfig kylinConfig, ResourceStore delegate) {
+        super(kylinConfig);
+        this.delegate = delegate;
+        this.maxEntryBytes = kylinConfig.getResourceStoreCacheMaxEntryBytes();
+        this.revalidateMs = kylinConfig.getResourceStoreCacheRevalidateMs();
+        this.cache = CacheBuilder.newBuilder() //
+                .maximumWeight(kylinConfig.getResourceStoreCacheMaxBytes()) //
+                .weigher(new Weigher<String, CachedResource>() {
+                    @Override
+                    public int weigh(String key, CachedResource value) {
+                        return key.length() + value.content.length;
+                    }
+                }).build();
+        logger.info("Caching resource store enabled in front of {}, max {} bytes, revalidate every {} ms",
+                delegate.getClass().getName(), kylinConfig.getResourceStoreCacheMaxBytes(), revalidateMs);
+    }
+
+    public ResourceStore getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Let every cached resource be revalidated on next access, called when a broadcast event arrives.
+     */
+    public void markStale() {
+        generation.incrementAndGet();
+    }
+
+    public void invalidate(String resPath) {
+        cache.invalidate(resPath);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Check timestamps of all cached resources under a folder with one listing of the backing store.
+     */
+    public void revalidate(String folderPath) throws IOException {
+        final long now = System.currentTimeMillis();
+        final long gen = generation.get();
+        delegate.visitFolderImpl(folderPath, true, new VisitFilter(), false, new Visitor() {
+            @Override
+            public void visit(RawResource resource) {
+                checkCached(resource.path(), resource.lastModified(), now, gen);
+            }
+        });
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getRevalidateCount() {
+        return revalidateCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getCachedCount() {
+        return cache.size();
+    }
+
+    private boolean isFresh(CachedResource cached) {
+        return cached.generation == generation.get()
+                && System.currentTimeMillis() - cached.validatedTime < revalidateMs;
+    }
+
+    private CachedResource getFresh(String resPath) throws IOException {
+        CachedResource cached = cache.getIfPresent(resPath);
+        if (cached == null)
+            return null;
+
+        if (isFresh(cached)) {
+            hitCount.incrementAndGet();
+            return cached;
+        }
+
+        long gen = generation.get();
+        long ts = delegate.getResourceTimestampImpl(resPath);
+        revalidateCount.incrementAndGet();
+        return checkCached(resPath, ts, System.currentTimeMillis(), gen);
+    }
+
+    // keeps the cached resource if its timestamp matches the store, evicts it otherwise
+    private CachedResource checkCached(String resPath, long ts, long now, long gen) {
+        CachedResource cached = cache.getIfPresent(resPath);
+        if (cached == null)
+            return null;
+
+        if (ts != 0 && ts == cached.timestamp) {
+            cached.validatedTime = now;
+            cached.generation = gen;
+            return cached;
+        } else {
+            cache.invalidate(resPath);
+            return null;
+        }
+    }
+
+    private void putCache(String resPath, long ts, byte[] content, long gen, long writes) {
+        if (content.length > maxEntryBytes) {
+            cache.invalidate(resPath);
+            return;
+        }
+        if (writeCount.get() != writes)
+            return;
+
+        CachedResource cached = new CachedResource(resPath, ts, content, System.currentTimeMillis(), gen);
+        cache.put(resPath, cached);
+        // a write may have started and invalidated the path just before the put
+        if (writeCount.get() != writes) {
+            cache.asMap().remove(resPath, cached);
+        }
+    }
+
+    private void beforeWrite(String resPath) {
+        writeCount.incrementAndGet();
+        cache.invalidate(resPath);
+    }
+
+    private void afterWrite(String resPath) {
+        writeCount.incrementAndGet();
+        cache.invalidate(resPath);
+    }
+
+    private RawResource cacheAndWrap(RawResource raw, long gen, long writes) {
+        byte[] content;
+        try {
+            content = IOUtils.toByteArray(raw.content());
+        } catch (IOException ex) {
+            // broken content is passed to caller as is, and never cached
+            cache.invalidate(raw.path());
+            return new RawResource(raw.path(), raw.lastModified(), ex);
+        } finally {
+            raw.close();
+        }
+        putCache(raw.path(), raw.lastModified(), content, gen, writes);
+        return new RawResource(raw.path(), raw.lastModified(), new ByteArrayInputStream(content));
+    }
+
+    // ============================================================================
+
+    @Override
+    protected String createMetaStoreUUID() throws IOException {
+        return delegate.createMetaStoreUUID();
+    }
+
+    @Override
+    protected NavigableSet<String> listResourcesImpl(String folderPath) throws IOException {
+        return delegate.listResourcesImpl(folderPath);
+    }
+
+    @Override
+    protected NavigableSet<String> listResourcesRecursivelyImpl(String folderPath) throws IOException {
+        return delegate.listResourcesRecursivelyImpl(folderPath);
+    }
+
+    @Override
+    protected void visitFolderImpl(String folderPath, boolean recursive, VisitFilter filter, boolean loadContent,
+            final Visitor visitor) throws IOException {
+        final long now = System.currentTimeMillis();
+        final long gen = generation.get();
+        final long writes = writeCount.get();
+
+        if (loadContent) {
+            List<CachedResource> cachedContents = getAllCached(folderPath, recursive, filter, now, gen);
+            if (cachedContents != null) {
+                hitCount.addAndGet(cachedContents.size());
+                for (CachedResource cached : cachedContents) {
+                    try (RawResource raw = new RawResource(cached.path, cached.timestamp,
+                            new ByteArrayInputStream(cached.content))) {
+                        visitor.visit(raw);
+                    }
+                }
+                return;
+            }
+
+            // a full folder load, like reloadAll(), also warms up the cache
+            delegate.visitFolderImpl(folderPath, recursive, filter, true, new Visitor() {
+                @Override
+                public void visit(RawResource resource) throws IOException {
+                    RawResource cached = cacheAndWrap(resource, gen, writes);
+                    try {
+                        visitor.visit(cached);
+                    } finally {
+                        cached.close();
+                    }
+                }
+            });
+        } else {
+            // listing comes with timestamps for free, use them to revalidate in batch
+            delegate.visitFolderImpl(folderPath, recursive, filter, false, new Visitor() {
+                @Override
+                public void visit(RawResource resource) throws IOException {
+                    checkCached(resource.path(), resource.lastModified(), now, gen);
+                    visitor.visit(resource);
+                }
+            });
+        }
+    }
+
+    /**
+     * Load all resources under a folder into the cache with one round trip, so later folder loads need a listing only.
+     */
+    public void prefetch(String folderPath) throws IOException {
+        final long gen = generation.get();
+        final long writes = writeCount.get();
+        delegate.visitFolderImpl(folderPath, true, new VisitFilter(), true, new Visitor() {
+            @Override
+            public void visit(RawResource resource) {
+                cacheAndWrap(resource, gen, writes).close();
+            }
+        });
+    }
+
+    // the cached contents of a folder if the listing of the backing store matches them all, null otherwise
+    private List<CachedResource> getAllCached(String folderPath, boolean recursive, VisitFilter filter,
+            final long now, final long gen) throws IOException {
+        final List<CachedResource> result = new ArrayList<>();
+        final boolean[] complete = { true };
+        delegate.visitFolderImpl(folderPath, recursive, filter, false, new Visitor() {
+            @Override
+            public void visit(RawResource resource) {
+                CachedResource cached = checkCached(resource.path(), resource.lastModified(), now, gen);
+                if (cached == null)
+                    complete[0] = false;
+                else if (complete[0])
+                    result.add(cached);
+            }
+        });
+        return complete[0] ? result : null;
+    }
+
+    @Override
+    protected boolean existsImpl(String resPath) throws IOException {
+        if (getFresh(resPath) != null)
+            return true;
+
+        return delegate.existsImpl(resPath);
+    }
+
+    @Override
+    protected RawResource getResourceImpl(String resPath) throws IOException {
+        CachedResource cached = getFresh(resPath);
+        if (cached != null)
+            return new RawResource(resPath, cached.timestamp, new ByteArrayInputStream(cached.content));
+
+        missCount.incrementAndGet();
+        long gen = generation.get();
+        long writes = writeCount.get();
+        RawResource raw = delegate.getResourceImpl(resPath);
+        if (raw == null) {
+            cache.invalidate(resPath);
+            return null;
+        }
+        return cacheAndWrap(raw, gen, writes);
+    }
+
+    @Override
+    protected long getResourceTimestampImpl(String resPath) throws IOException {
+        CachedResource cached = cache.getIfPresent(resPath);
+        if (cached != null && isFresh(cached)) {
+            hitCount.incrementAndGet();
+            return cached.timestamp;
+        }
+        return delegate.getResourceTimestampImpl(resPath);
+    }
+
+    @Override
+    protected void putResourceImpl(String resPath, ContentWriter content, long ts) throws IOException {
+        beforeWrite(resPath);
+        try {
+            delegate.putResourceImpl(resPath, content, ts);
+        } finally {
+            afterWrite(resPath);
+        }
+    }
+
+    @Override
+    protected long checkAndPutResourceImpl(String resPath, byte[] content, long oldTS, long newTS)
+            throws IOException, WriteConflictException {
+        long gen = generation.get();
+        long confirmedTS;
+        beforeWrite(resPath);
+        try {
+            confirmedTS = delegate.checkAndPutResourceImpl(resPath, content, oldTS, newTS);
+        } finally {
+            afterWrite(resPath);
+        }
+        // the content just written, unless another write follows
+        putCache(resPath, confirmedTS, content, gen, writeCount.get());
+        return confirmedTS;
+    }
+
+    @Override
+    protected void updateTimestampImpl(String resPath, long timestamp) throws IOException {
+        beforeWrite(resPath);
+        try {
+            delegate.updateTimestampImpl(resPath, timestamp);
+        } finally {
+            afterWrite(resPath);
+        }
+    }
+
+    @Override
+    protected void deleteResourceImpl(String resPath) throws IOException {
+        beforeWrite(resPath);
+        try {
+            delegate.deleteResourceImpl(resPath);
+        } finally {
+            afterWrite(resPath);
+        }
+    }
+
+    @Override
+    protected void deleteResourceImpl(String resPath, long timestamp) throws IOException {
+        beforeWrite(resPath);
+        try {
+            delegate.deleteResourceImpl(resPath, timestamp);
+        } finally {
+            afterWrite(resPath);
+        }
+    }
+
+    @Override
+    protected String getReadableResourcePathImpl(String resPath) {
+        return delegate.getReadableResourcePathImpl(resPath);
+    }
+
+    @Override
+    protected boolean isUnreachableException(Throwable ex) {
+        return delegate.isUnreachableException(ex);
+    }
+
+    @Override
+    public String toString() {
+        return "CachedResourceStore(" + delegate + ")";
+    }
+
+    private static class CachedResource {
+        final String path;
+        final long timestamp;
+        final byte[] content;
+        volatile long validatedTime;
+        volatile long generation;
+
+        CachedResource(String path, long timestamp, byte[] content, long validatedTime, long generation) {
+            this.path = path;
+            this.timestamp = timestamp;
+            this.content = content;
+            this.validatedTime = validatedTime;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.common.persistence;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.util.JsonUtil;
+
+/**
+ * Writes compact JSON, and gzip it when the JSON is larger than a threshold.
+ *
+ * Small entities stay human readable. The gzip header marks the compressed format, so
+ * {@link JsonSerializer} reads both formats and old resources remain readable.
+ */
+public class CompressedJsonSerializer<T extends RootPersistentEntity> extends JsonSerializer<T> {
+
+    /**
+     * Returns a compressing serializer if enabled by config, otherwise a plain one.
+     */
+    public static <T extends RootPersistentEntity> JsonSerializer<T> create(Class<T> clz, KylinConfig config) {
+        int threshold = config.getMetadataCompressThresholdBytes();
+        if (threshold < 0)
+            return new JsonSerializer<>(clz);
+        else
+            return new CompressedJsonSerializer<>(clz, threshold);
+    }
+
+    private final int thresholdBytes;
+
+    public CompressedJsonSerializer(Class<T> clz, int thresholdBytes) {
+        super(clz, true);
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    @Override
+    public void serialize(T obj, DataOutputStream out) throws IOException {
+        byte[] json = JsonUtil.writeValueAsBytes(obj);
+        if (json.length < thresholdBytes) {
+            out.write(json);
+            return;
+        }
+
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(json);
+        gzip.finish();
+    }
+}
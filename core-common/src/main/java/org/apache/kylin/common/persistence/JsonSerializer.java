@@ -18,9 +18,12 @@
 
 package org.apache.kylin.common.persistence;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.kylin.common.util.JsonUtil;
 
@@ -41,9 +44,28 @@ public class JsonSerializer<T extends RootPersistentEntity> implements Serialize
         this.compact = compact;
     }
     
+    /**
+     * Reads both plain JSON and the gzip compressed JSON written by {@link CompressedJsonSerializer}.
+     */
     @Override
     public T deserialize(DataInputStream in) throws IOException {
-        return JsonUtil.readValue(in, clz);
+        return JsonUtil.readValue(decompressIfNeeded(in), clz);
+    }
+
+    /**
+     * Returns the JSON of a resource, gunzipped if it was written by {@link CompressedJsonSerializer}.
+     */
+    public static InputStream decompressIfNeeded(InputStream in) throws IOException {
+        BufferedInputStream buf = new BufferedInputStream(in);
+        buf.mark(2);
+        int b1 = buf.read();
+        int b2 = buf.read();
+        buf.reset();
+        // JSON text never starts with the gzip magic number, thus it serves as the format marker
+        if (b1 == (GZIPInputStream.GZIP_MAGIC & 0xff) && b2 == (GZIPInputStream.GZIP_MAGIC >> 8))
+            return new GZIPInputStream(buf);
+        else
+            return buf;
     }
 
     @Override
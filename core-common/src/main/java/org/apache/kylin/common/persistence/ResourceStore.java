@@ -93,6 +93,10 @@ abstract public class ResourceStore {
         try {
             Class<? extends ResourceStore> cls = ClassUtil.forName(clsName, ResourceStore.class);
             ResourceStore store = cls.getConstructor(KylinConfig.class).newInstance(kylinConfig);
+            if (kylinConfig.isResourceStoreCacheEnabled()
+                    && (store instanceof HDFSResourceStore || store instanceof JDBCResourceStore)) {
+                store = new CachedResourceStore(kylinConfig, store);
+            }
             if (!store.exists(METASTORE_UUID_TAG)) {
                 store.checkAndPutResource(METASTORE_UUID_TAG, new StringEntity(store.createMetaStoreUUID()), 0,
                         StringEntity.serializer);
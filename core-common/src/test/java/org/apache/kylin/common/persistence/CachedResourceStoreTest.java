@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.common.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+
+import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.util.LocalFileMetadataTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachedResourceStoreTest extends LocalFileMetadataTestCase {
+
+    private ResourceStore backing;
+    private CachedResourceStore store;
+
+    @Before
+    public void setup() throws Exception {
+        this.createTestMetadata();
+        KylinConfig config = KylinConfig.getInstanceFromEnv();
+        config.setProperty("kylin.resourcestore.cache-revalidate-ms", "600000");
+        backing = new FileResourceStore(config);
+        store = new CachedResourceStore(config, backing);
+    }
+
+    @After
+    public void after() throws Exception {
+        this.cleanupTestMetadata();
+    }
+
+    @Test
+    public void testReadThrough() throws Exception {
+        backing.checkAndPutResource("/cache_test/res1", new StringEntity("data1"), 1000, StringEntity.serializer);
+
+        assertEquals("data1", store.getResource("/cache_test/res1", StringEntity.serializer).toString());
+        assertEquals(1, store.getMissCount());
+
+        assertEquals("data1", store.getResource("/cache_test/res1", StringEntity.serializer).toString());
+        assertTrue(store.exists("/cache_test/res1"));
+        assertEquals(1000, store.getResourceTimestamp("/cache_test/res1"));
+        assertEquals(1, store.getMissCount());
+        assertEquals(3, store.getHitCount());
+    }
+
+    @Test
+    public void testMarkStale() throws Exception {
+        backing.checkAndPutResource("/cache_test/res1", new StringEntity("data1"), 1000, StringEntity.serializer);
+        StringEntity entity = store.getResource("/cache_test/res1", StringEntity.serializer);
+
+        // a change made by another server, not visible until broadcast
+        entity.str = "data2";
+        backing.checkAndPutResource("/cache_test/res1", entity, 2000, StringEntity.serializer);
+        assertEquals("data1", store.getResource("/cache_test/res1", StringEntity.serializer).toString());
+
+        store.markStale();
+        assertEquals("data2", store.getResource("/cache_test/res1", StringEntity.serializer).toString());
+        assertEquals(2, store.getMissCount());
+
+        // unchanged resource only costs a timestamp check
+        store.markStale();
+        assertEquals("data2", store.getResource("/cache_test/res1", StringEntity.serializer).toString());
+        assertEquals(2, store.getMissCount());
+        assertEquals(2, store.getRevalidateCount());
+
+        backing.deleteResource("/cache_test/res1");
+        store.markStale();
+        assertNull(store.getResource("/cache_test/res1", StringEntity.serializer));
+        assertFalse(store.exists("/cache_test/res1"));
+    }
+
+    @Test
+    public void testWriteThrough() throws Exception {
+        StringEntity entity = new StringEntity("data1");
+        store.checkAndPutResource("/cache_test/res1", entity, 1000, StringEntity.serializer);
+        assertEquals("data1", store.getResource("/cache_test/res1", StringEntity.serializer).toString());
+        assertEquals(0, store.getMissCount());
+
+        entity.str = "data2";
+        store.checkAndPutResource("/cache_test/res1", entity, 2000, StringEntity.serializer);
+        assertEquals("data2", backing.getResource("/cache_test/res1", StringEntity.serializer).toString());
+        assertEquals("data2", store.getResource("/cache_test/res1", StringEntity.serializer).toString());
+
+        store.deleteResource("/cache_test/res1");
+        assertNull(store.getResource("/cache_test/res1"));
+        assertEquals(0, store.getCachedCount());
+    }
+
+    @Test
+    public void testFolderLoadAndRevalidate() throws Exception {
+        backing.checkAndPutResource("/cache_test/res1", new StringEntity("data1"), 1000, StringEntity.serializer);
+        backing.checkAndPutResource("/cache_test/res2", new StringEntity("data2"), 2000, StringEntity.serializer);
+
+        List<StringEntity> all = store.getAllResources("/cache_test", StringEntity.serializer);
+        assertEquals(2, all.size());
+        assertEquals(2, store.getCachedCount());
+
+        backing.updateTimestamp("/cache_test/res2", 3000);
+        store.markStale();
+        store.revalidate("/cache_test");
+        assertEquals(1, store.getCachedCount());
+
+        assertEquals("data1", store.getResource("/cache_test/res1", StringEntity.serializer).toString());
+        assertEquals(0, store.getMissCount());
+        assertEquals(3000, store.getResource("/cache_test/res2").lastModified());
+        assertEquals(1, store.getMissCount());
+    }
+
+    @Test
+    public void testPrefetchServesFolderLoad() throws Exception {
+        backing.checkAndPutResource("/cache_test/res1", new StringEntity("data1"), 1000, StringEntity.serializer);
+        backing.checkAndPutResource("/cache_test/res2", new StringEntity("data2"), 2000, StringEntity.serializer);
+
+        store.prefetch("/cache_test");
+        assertEquals(2, store.getCachedCount());
+        assertEquals(2, store.getAllResources("/cache_test", StringEntity.serializer).size());
+        assertEquals(2, store.getHitCount());
+
+        // a resource added by another server is not cached, the folder is loaded from the backing store
+        backing.checkAndPutResource("/cache_test/res3", new StringEntity("data3"), 3000, StringEntity.serializer);
+        assertEquals(3, store.getAllResources("/cache_test", StringEntity.serializer).size());
+        assertEquals(2, store.getHitCount());
+        assertEquals(3, store.getCachedCount());
+    }
+
+    @Test
+    public void testReadOverlappingWriteNotCached() throws Exception {
+        final CountDownLatch readDone = new CountDownLatch(1);
+        final CountDownLatch writeDone = new CountDownLatch(1);
+        KylinConfig config = KylinConfig.getInstanceFromEnv();
+        ResourceStore slowBacking = new FileResourceStore(config) {
+            @Override
+            protected RawResource getResourceImpl(String resPath) throws IOException {
+                RawResource raw = super.getResourceImpl(resPath);
+                byte[] content;
+                try {
+                    content = IOUtils.toByteArray(raw.content());
+                } finally {
+                    raw.close();
+                }
+                // hold the old content until the write is done
+                readDone.countDown();
+                try {
+                    writeDone.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new RawResource(resPath, raw.lastModified(), new ByteArrayInputStream(content));
+            }
+        };
+        final CachedResourceStore slowStore = new CachedResourceStore(config, slowBacking);
+        slowBacking.checkAndPutResource("/cache_test/res1", new StringEntity("data1"), 1000,
+                StringEntity.serializer);
+
+        final AtomicReference<String> read = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    read.set(slowStore.getResource("/cache_test/res1", StringEntity.serializer).toString());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        reader.start();
+        readDone.await();
+        slowStore.putResource("/cache_test/res1", new StringEntity("data2"), 2000, StringEntity.serializer);
+        writeDone.countDown();
+        reader.join();
+
+        assertEquals("data1", read.get());
+        assertEquals(0, slowStore.getCachedCount());
+        assertEquals("data2", slowStore.getResource("/cache_test/res1", StringEntity.serializer).toString());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.common.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class CompressedJsonSerializerTest {
+
+    @SuppressWarnings("serial")
+    public static class LogEntity extends RootPersistentEntity {
+        @JsonProperty("log")
+        String log;
+    }
+
+    @Test
+    public void testSmallEntityStaysPlain() throws IOException {
+        LogEntity entity = newEntity("short log");
+        byte[] bytes = serialize(new CompressedJsonSerializer<>(LogEntity.class, 1024), entity);
+
+        assertEquals('{', bytes[0]);
+        assertEquals("short log", deserialize(new JsonSerializer<>(LogEntity.class), bytes).log);
+    }
+
+    @Test
+    public void testBigEntityCompressed() throws IOException {
+        LogEntity entity = newEntity(StringUtils.repeat("step output line\n", 1000));
+        byte[] plain = serialize(new JsonSerializer<>(LogEntity.class), entity);
+        byte[] compressed = serialize(new CompressedJsonSerializer<>(LogEntity.class, 1024), entity);
+
+        assertTrue(compressed.length * 10 < plain.length);
+        assertEquals(entity.log, deserialize(new JsonSerializer<>(LogEntity.class), compressed).log);
+        assertEquals(entity.uuid, deserialize(new CompressedJsonSerializer<>(LogEntity.class, 1024), compressed).uuid);
+
+        // old plain resources are still readable
+        assertEquals(entity.log, deserialize(new CompressedJsonSerializer<>(LogEntity.class, 1024), plain).log);
+    }
+
+    @Test
+    public void testRawReadersSeeJson() throws IOException {
+        LogEntity entity = newEntity(StringUtils.repeat("step output line\n", 1000));
+        byte[] compressed = serialize(new CompressedJsonSerializer<>(LogEntity.class, 1024), entity);
+
+        try (InputStream in = JsonSerializer.decompressIfNeeded(new ByteArrayInputStream(compressed))) {
+            assertEquals(entity.log, new ObjectMapper().readTree(in).get("log").asText());
+        }
+    }
+
+    private LogEntity newEntity(String log) {
+        LogEntity entity = new LogEntity();
+        entity.updateRandomUuid();
+        entity.log = log;
+        return entity;
+    }
+
+    private <T extends RootPersistentEntity> byte[] serialize(Serializer<T> serializer, T obj) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (DataOutputStream dout = new DataOutputStream(buf)) {
+            serializer.serialize(obj, dout);
+        }
+        return buf.toByteArray();
+    }
+
+    private <T extends RootPersistentEntity> T deserialize(Serializer<T> serializer, byte[] bytes)
+            throws IOException {
+        try (DataInputStream din = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return serializer.deserialize(din);
+        }
+    }
+}
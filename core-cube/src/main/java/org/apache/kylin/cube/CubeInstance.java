@@ -134,6 +134,9 @@ public class CubeInstance extends RootPersistentEntity implements IRealization,
     // cuboid scheduler lazy built
     transient private CuboidScheduler cuboidScheduler;
 
+    // ready segment index lazy built, only kept by the shared instance in cache which must not change
+    transient private volatile ReadySegmentIndex readySegmentIndex;
+
     // default constructor for jackson
     public CubeInstance() {
     }
@@ -400,6 +403,8 @@ public class CubeInstance extends RootPersistentEntity implements IRealization,
     }
 
     public CubeSegment getLatestReadySegment() {
+        if (isCachedAndShared())
+            return getReadySegmentIndex().getLatestSegment();
         return segments.getLatestReadySegment();
     }
 
@@ -415,12 +420,30 @@ public class CubeInstance extends RootPersistentEntity implements IRealization,
         return segments.getSegments(status);
     }
 
+    /**
+     * An immutable, pre-indexed view of READY segments for query planning.
+     */
+    public ReadySegmentIndex getReadySegmentIndex() {
+        if (!isCachedAndShared()) {
+            // a copy for write may change its segments at any time
+            return new ReadySegmentIndex(segments);
+        }
+
+        ReadySegmentIndex index = readySegmentIndex;
+        if (index == null) {
+            index = new ReadySegmentIndex(segments);
+            readySegmentIndex = index;
+        }
+        return index;
+    }
+
     public CubeSegment getSegment(String name, SegmentStatusEnum status) {
         return segments.getSegment(name, status);
     }
 
     public void setSegments(Segments segments) {
         this.segments = new Segments<>(segments);
+        this.readySegmentIndex = null;
     }
 
     public CubeSegment getSegmentById(String segmentId) {
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.cube;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kylin.metadata.model.SegmentRange.TSRange;
+import org.apache.kylin.metadata.model.SegmentStatusEnum;
+
+import org.apache.kylin.shaded.com.google.common.collect.Maps;
+
+/**
+ * An immutable view of the READY segments of a cube, indexed for query planning.
+ *
+ * Segments are sorted by start time, and looking up by name or by time range does not scan the
+ * whole segment list. A shared (cached) CubeInstance builds the index once and keeps it, a new
+ * cube version comes with a new CubeInstance and thus a new index, so readers never see a partial update.
+ */
+public class ReadySegmentIndex {
+
+    private final List<CubeSegment> segments;
+    private final Map<String, CubeSegment> segmentsByName;
+    private final long[] starts;
+    private final long[] ends;
+    private final long[] maxEndSoFar; // non-decreasing, allows binary search even if segments overlap
+    private final CubeSegment latest;
+    private final long sizeKB;
+
+    public ReadySegmentIndex(List<CubeSegment> allSegments) {
+        List<CubeSegment> ready = new ArrayList<>();
+        for (CubeSegment seg : allSegments) {
+            if (seg.getStatus() == SegmentStatusEnum.READY)
+                ready.add(seg);
+        }
+        Collections.sort(ready, new Comparator<CubeSegment>() {
+            @Override
+            public int compare(CubeSegment o1, CubeSegment o2) {
+                return Long.compare(o1.getTSRange().startValue(), o2.getTSRange().startValue());
+            }
+        });
+
+        int n = ready.size();
+        this.segments = Collections.unmodifiableList(ready);
+        this.segmentsByName = Maps.newHashMapWithExpectedSize(n);
+        this.starts = new long[n];
+        this.ends = new long[n];
+        this.maxEndSoFar = new long[n];
+
+        CubeSegment latestSeg = null;
+        long size = 0;
+        for (int i = 0; i < n; i++) {
+            CubeSegment seg = ready.get(i);
+            TSRange range = seg.getTSRange();
+            segmentsByName.put(seg.getName(), seg);
+            starts[i] = range.startValue();
+            ends[i] = range.endValue();
+            maxEndSoFar[i] = i == 0 ? ends[i] : Math.max(maxEndSoFar[i - 1], ends[i]);
+            if (latestSeg == null || latestSeg.getTSRange().endValue() <= ends[i])
+                latestSeg = seg;
+            size += seg.getSizeKB();
+        }
+        this.latest = latestSeg;
+        this.sizeKB = size;
+    }
+
+    /**
+     * READY segments sorted by start time
+     */
+    public List<CubeSegment> getSegments() {
+        return segments;
+    }
+
+    public int size() {
+        return segments.size();
+    }
+
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    public CubeSegment getSegment(String name) {
+        return segmentsByName.get(name);
+    }
+
+    public CubeSegment getLatestSegment() {
+        return latest;
+    }
+
+    public long getSizeKB() {
+        return sizeKB;
+    }
+
+    public int getCuboidShardNum(String segmentName, long cuboidId) {
+        CubeSegment seg = segmentsByName.get(segmentName);
+        return seg == null ? 1 : seg.getCuboidShardNum(cuboidId);
+    }
+
+    /**
+     * READY segments overlapping with [start, endExclusive), sorted by start time
+     */
+    public List<CubeSegment> getSegmentsOverlapping(long start, long endExclusive) {
+        // segments in [from, to) may overlap, the rest cannot
+        int to = firstIndexGreaterOrEqual(starts, endExclusive);
+        int from = firstIndexGreaterThan(maxEndSoFar, start);
+
+        List<CubeSegment> result = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            if (ends[i] > start)
+                result.add(segments.get(i));
+        }
+        return result;
+    }
+
+    private static int firstIndexGreaterOrEqual(long[] sorted, long v) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < v)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private static int firstIndexGreaterThan(long[] sorted, long v) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] <= v)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
@@ -21,9 +21,11 @@ package org.apache.kylin.cube.upgrade.common;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.NavigableSet;
 
+import org.apache.kylin.common.persistence.JsonSerializer;
 import org.apache.kylin.common.persistence.ResourceStore;
 import org.apache.kylin.metadata.MetadataConstants;
 import org.slf4j.Logger;
@@ -61,7 +63,10 @@ public class MetadataVersionRefresher {
         for (String path : all) {
             if (path.endsWith(MetadataConstants.FILE_SURFIX) && !(path.startsWith(ResourceStore.DICT_RESOURCE_ROOT) || path.startsWith(ResourceStore.SNAPSHOT_RESOURCE_ROOT))) {
                 logger.info("Updating metadata version of path {}", path);
-                ObjectNode objectNode = (ObjectNode) mapper.readTree(this.store.getResource(path).content());
+                ObjectNode objectNode;
+                try (InputStream in = JsonSerializer.decompressIfNeeded(this.store.getResource(path).content())) {
+                    objectNode = (ObjectNode) mapper.readTree(in);
+                }
                 objectNode.put("version", version);
                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
                 mapper.writeValue(baos, objectNode);
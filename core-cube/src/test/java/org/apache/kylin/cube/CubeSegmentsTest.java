@@ -19,6 +19,9 @@
 package org.apache.kylin.cube;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -189,6 +192,41 @@ public class CubeSegmentsTest extends LocalFileMetadataTestCase {
         assertEquals(3, cube.getSegments().size());
     }
     
+    @Test
+    public void testReadySegmentIndex() throws IOException {
+        CubeManager mgr = mgr();
+        CubeInstance cube = mgr.getCube("test_kylin_cube_with_slr_left_join_empty");
+
+        CubeSegment seg1 = mgr.appendSegment(cube, new TSRange(0L, 1000L));
+        cube = readySegment(cube, seg1);
+        CubeSegment seg2 = mgr.appendSegment(cube, new TSRange(1000L, 2000L));
+        cube = readySegment(cube, seg2);
+        CubeSegment seg3 = mgr.appendSegment(cube, new TSRange(2000L, 3000L));
+        cube = readySegment(cube, seg3);
+        mgr.appendSegment(cube, new TSRange(3000L, 4000L)); // not ready
+        cube = mgr.getCube(cube.getName());
+
+        ReadySegmentIndex index = cube.getReadySegmentIndex();
+        assertEquals(3, index.size());
+        assertSame(index, cube.getReadySegmentIndex()); // built once for the cached cube
+        assertEquals(seg3.getName(), index.getLatestSegment().getName());
+        assertEquals(seg2.getUuid(), index.getSegment(seg2.getName()).getUuid());
+        assertNull(index.getSegment("not_exist"));
+
+        assertEquals(2, index.getSegmentsOverlapping(500L, 1500L).size());
+        assertEquals(seg2.getName(), index.getSegmentsOverlapping(1000L, 2000L).get(0).getName());
+        assertEquals(1, index.getSegmentsOverlapping(1000L, 2000L).size());
+        assertEquals(0, index.getSegmentsOverlapping(3000L, 4000L).size());
+        assertEquals(3, index.getSegmentsOverlapping(0L, Long.MAX_VALUE).size());
+
+        // a new cube version comes with a new index
+        CubeSegment seg4 = cube.getSegments(SegmentStatusEnum.NEW).get(0);
+        cube = readySegment(cube, seg4);
+        assertNotSame(index, cube.getReadySegmentIndex());
+        assertEquals(4, cube.getReadySegmentIndex().size());
+        assertEquals(3, index.size());
+    }
+
     private CubeInstance readySegment(CubeInstance cube, CubeSegment seg) throws IOException {
         return mgr().updateCubeSegStatus(seg, SegmentStatusEnum.READY);
     }
@@ -27,6 +27,7 @@ import java.util.NavigableSet;
 import java.util.Set;
 
 import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.persistence.CompressedJsonSerializer;
 import org.apache.kylin.common.persistence.ContentReader;
 import org.apache.kylin.common.persistence.JsonSerializer;
 import org.apache.kylin.common.persistence.ResourceStore;
@@ -67,6 +68,9 @@ public class ExecutableDao {
 
     private ResourceStore store;
 
+    // job outputs carry step logs, big ones are compressed when enabled by config
+    private Serializer<ExecutableOutputPO> jobOutputWriteSerializer;
+
     private CaseInsensitiveStringCache<ExecutablePO> executableDigestMap;
 
     private CaseInsensitiveStringCache<ExecutableOutputPO> executableOutputDigestMap;
@@ -82,6 +86,7 @@ public class ExecutableDao {
     private ExecutableDao(KylinConfig config) throws IOException {
         logger.info("Using metadata url: {}", config);
         this.store = ResourceStore.getStore(config);
+        this.jobOutputWriteSerializer = CompressedJsonSerializer.create(ExecutableOutputPO.class, config);
         this.executableDigestMap = new CaseInsensitiveStringCache<>(config, "execute");
         this.executableDigestCrud = new CachedCrudAssist<ExecutablePO>(store, ResourceStore.EXECUTE_RESOURCE_ROOT, "",
                 ExecutablePO.class, executableDigestMap, false) {
@@ -250,7 +255,7 @@ public class ExecutableDao {
     }
 
     private void writeJobOutputResource(String path, ExecutableOutputPO output) throws IOException {
-        store.checkAndPutResource(path, output, JOB_OUTPUT_SERIALIZER);
+        store.checkAndPutResource(path, output, jobOutputWriteSerializer);
     }
 
     public List<ExecutableOutputPO> getJobOutputs() throws PersistentException {
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.measure.hllc;
+
+import java.nio.ByteBuffer;
+
+import org.apache.kylin.common.util.BytesUtil;
+
+/**
+ * Merges serialized HLL registers, as written by {@link HLLCounter#writeRegisters}, into one dense register
+ * array without reading each of them into a {@link HLLCounter}.
+ *
+ * The array is allocated by the first non empty input and reused by all the following merges. Registers in the
+ * array scheme are merged by a branch free max loop over the input bytes, which the JIT vectorizes.
+ */
+public class DenseRegisterAccumulator {
+
+    private final int p;
+    private final int m;
+    private final int indexLen;
+
+    private byte[] registers;
+
+    public DenseRegisterAccumulator(int p) {
+        this.p = p;
+        this.m = 1 << p;
+        this.indexLen = (p - 1) / 8 + 1;
+    }
+
+    public int getPrecision() {
+        return p;
+    }
+
+    public void merge(ByteBuffer in) {
+        byte scheme = in.get();
+        if (scheme == 0) { // map scheme
+            int size = BytesUtil.readVInt(in);
+            if (size > m)
+                throw new IllegalArgumentException("register size (" + size + ") cannot be larger than m (" + m + ")");
+            if (size == 0) {
+                return;
+            }
+            byte[] dest = getRegisters();
+            for (int i = 0; i < size; i++) {
+                int key = HLLCounter.readUnsigned(in, indexLen);
+                byte value = in.get();
+                if (value > dest[key])
+                    dest[key] = value;
+            }
+        } else if (scheme == 1) { // array scheme
+            if (in.hasArray()) {
+                int offset = in.arrayOffset() + in.position();
+                if (registers == null) {
+                    registers = new byte[m];
+                    System.arraycopy(in.array(), offset, registers, 0, m);
+                } else {
+                    max(registers, in.array(), offset);
+                }
+                in.position(in.position() + m);
+            } else {
+                byte[] src = new byte[m];
+                in.get(src);
+                merge(src);
+            }
+        } else
+            throw new IllegalStateException();
+    }
+
+    public void merge(DenseRegisterAccumulator another) {
+        assert this.p == another.p;
+        if (another.registers != null) {
+            merge(another.registers);
+        }
+    }
+
+    /**
+     * Merges a dense register array of the same precision.
+     */
+    public void merge(byte[] src) {
+        if (registers == null) {
+            registers = src.clone();
+        } else {
+            max(registers, src, 0);
+        }
+    }
+
+    private void max(byte[] dest, byte[] src, int offset) {
+        for (int i = 0; i < m; i++) {
+            dest[i] = (byte) Math.max(dest[i], src[offset + i]);
+        }
+    }
+
+    private byte[] getRegisters() {
+        if (registers == null) {
+            registers = new byte[m];
+        }
+        return registers;
+    }
+
+    public long getCountEstimate() {
+        return new HLLCounter.HLLCSnapshot(p, getRegisters()).getCountEstimate();
+    }
+
+    /**
+     * Writes the registers in the layout of {@link HLLCounter#writeRegisters}.
+     */
+    public void writeRegisters(ByteBuffer out) {
+        int size = 0;
+        if (registers != null) {
+            for (int i = 0; i < m; i++) {
+                if (registers[i] > 0)
+                    size++;
+            }
+        }
+
+        if (5 + (indexLen + 1) * size < m) { // map scheme
+            out.put((byte) 0);
+            BytesUtil.writeVInt(size, out);
+            for (int i = 0; size > 0 && i < m; i++) {
+                if (registers[i] > 0) {
+                    HLLCounter.writeUnsigned(i, indexLen, out);
+                    out.put(registers[i]);
+                }
+            }
+        } else { // array scheme
+            out.put((byte) 1);
+            out.put(registers);
+        }
+    }
+}
@@ -214,22 +214,16 @@ public class HLLCounter implements Serializable, Comparable<HLLCounter> {
         int zeroBuckets;
 
         public HLLCSnapshot(HLLCounter hllc) {
+            this(hllc.p, toDense(hllc).getRawRegister());
+        }
+
+        HLLCSnapshot(int precision, byte[] registers) {
             int[] registerNums = new int[256];
 
-            p = (byte) hllc.p;
+            p = (byte) precision;
             registerSum = 0;
             zeroBuckets = 0;
-            Register register = hllc.getRegister();
-            DenseRegister dr;
-            if (register.getRegisterType() == RegisterType.SINGLE_VALUE) {
-                dr = ((SingleValueRegister) register).toDense(p);
-            } else if (register.getRegisterType() == RegisterType.SPARSE) {
-                dr = ((SparseRegister) register).toDense(p);
-            } else {
-                dr = (DenseRegister) register;
-            }
-            byte[] registers = dr.getRawRegister();
-            for (int i = 0; i < hllc.m; i ++) {
+            for (int i = 0; i < registers.length; i ++) {
                 registerNums[registers[i]] ++;
             }
             zeroBuckets = registerNums[0];
@@ -239,6 +233,17 @@ public class HLLCounter implements Serializable, Comparable<HLLCounter> {
             registerSum += zeroBuckets;
         }
 
+        private static DenseRegister toDense(HLLCounter hllc) {
+            Register register = hllc.getRegister();
+            if (register.getRegisterType() == RegisterType.SINGLE_VALUE) {
+                return ((SingleValueRegister) register).toDense(hllc.p);
+            } else if (register.getRegisterType() == RegisterType.SPARSE) {
+                return ((SparseRegister) register).toDense(hllc.p);
+            } else {
+                return (DenseRegister) register;
+            }
+        }
+
         public long getCountEstimate() {
             int m = 1 << p;
             double alpha = 0.7213 / (1 + 1.079 / m);
@@ -0,0 +1,407 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.measure.percentile;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.kylin.common.util.BytesUtil;
+
+import com.tdunning.math.stats.AVLTreeDigest;
+import com.tdunning.math.stats.Centroid;
+
+/**
+ * A merging t-digest, the percentile counterpart of {@link PercentileCounter}.
+ *
+ * Centroids are kept sorted in parallel arrays. Added values and merged centroids are collected in a buffer, which is
+ * sorted and merged into the centroids in one pass when full, so merging many digests allocates nothing per digest.
+ * Centroids are sized by the k1 scale function, k(q) = compression / (2 * PI) * asin(2q - 1).
+ *
+ * The binary encoding is the encoding marker, the compression, the number of centroids, the min and max values,
+ * the first mean followed by the float deltas of the next means, and the var-long weights. Registers of
+ * {@link PercentileCounter}, which are AVL tree digests, are read too.
+ */
+@SuppressWarnings("serial")
+public class MergingPercentileCounter implements Serializable {
+
+    // AVL tree digests are encoded as 1 or 2
+    public static final int MERGING_ENCODING = 3;
+
+    private static final double INVALID_QUANTILE_RATIO = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    double compression;
+    double quantileRatio;
+
+    private int size;
+    private double[] means = new double[0];
+    private long[] weights = new long[0];
+
+    private int bufferSize;
+    private double[] bufferMeans = new double[0];
+    private long[] bufferWeights = new long[0];
+
+    // reused by each compress
+    private double[] mergedMeans = new double[0];
+    private long[] mergedWeights = new long[0];
+
+    private long totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public MergingPercentileCounter(double compression) {
+        this(compression, INVALID_QUANTILE_RATIO);
+    }
+
+    public MergingPercentileCounter(double compression, double quantileRatio) {
+        this.compression = compression;
+        this.quantileRatio = quantileRatio;
+    }
+
+    public void add(double v) {
+        add(v, 1);
+    }
+
+    public void add(double v, long weight) {
+        if (Double.isNaN(v)) {
+            throw new IllegalArgumentException("Cannot add NaN");
+        }
+        append(v, weight);
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+    }
+
+    public void merge(MergingPercentileCounter counter) {
+        counter.compress();
+        for (int i = 0; i < counter.size; i++) {
+            append(counter.means[i], counter.weights[i]);
+        }
+        min = Math.min(min, counter.min);
+        max = Math.max(max, counter.max);
+    }
+
+    /**
+     * Merges the encoded registers straight into this counter, in either encoding.
+     */
+    public void merge(ByteBuffer in) {
+        if (!isMergingEncoded(in)) {
+            mergeAvlTreeDigest(in);
+            return;
+        }
+        in.getInt();
+        BytesUtil.readVInt(in);
+        int n = BytesUtil.readVInt(in);
+        if (n == 0) {
+            return;
+        }
+        double lower = in.getDouble();
+        double upper = in.getDouble();
+
+        int meanPos = in.position();
+        in.position(meanPos + 8 + 4 * (n - 1));
+        double mean = in.getDouble(meanPos);
+        append(mean, BytesUtil.readVLong(in));
+        meanPos += 8;
+        for (int i = 1; i < n; i++) {
+            mean += in.getFloat(meanPos);
+            append(mean, BytesUtil.readVLong(in));
+            meanPos += 4;
+        }
+        min = Math.min(min, lower);
+        max = Math.max(max, upper);
+    }
+
+    private void mergeAvlTreeDigest(ByteBuffer in) {
+        AVLTreeDigest digest = AVLTreeDigest.fromBytes(in);
+        for (Centroid centroid : digest.centroids()) {
+            add(centroid.mean(), centroid.count());
+        }
+    }
+
+    public static boolean isMergingEncoded(ByteBuffer in) {
+        return in.remaining() >= 4 && in.getInt(in.position()) == MERGING_ENCODING;
+    }
+
+    private void append(double mean, long weight) {
+        if (bufferSize == bufferMeans.length) {
+            int limit = bufferLimit();
+            if (bufferSize >= limit) {
+                compress();
+            } else {
+                int capacity = Math.min(limit, Math.max(INITIAL_CAPACITY, bufferSize * 2));
+                bufferMeans = Arrays.copyOf(bufferMeans, capacity);
+                bufferWeights = Arrays.copyOf(bufferWeights, capacity);
+            }
+        }
+        bufferMeans[bufferSize] = mean;
+        bufferWeights[bufferSize] = weight;
+        bufferSize++;
+        totalWeight += weight;
+    }
+
+    private int bufferLimit() {
+        return Math.max(INITIAL_CAPACITY, (int) (5 * compression));
+    }
+
+    /**
+     * Merges the buffered values into the centroids.
+     */
+    public void compress() {
+        if (bufferSize == 0) {
+            return;
+        }
+        sort(bufferMeans, bufferWeights, 0, bufferSize - 1);
+
+        int n = size + bufferSize;
+        if (mergedMeans.length < n) {
+            mergedMeans = new double[n];
+            mergedWeights = new long[n];
+        }
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < n; k++) {
+            if (j >= bufferSize || (i < size && means[i] <= bufferMeans[j])) {
+                mergedMeans[k] = means[i];
+                mergedWeights[k] = weights[i];
+                i++;
+            } else {
+                mergedMeans[k] = bufferMeans[j];
+                mergedWeights[k] = bufferWeights[j];
+                j++;
+            }
+        }
+        bufferSize = 0;
+
+        size = 0;
+        double total = totalWeight;
+        double weightSoFar = 0;
+        double weightLimit = total * upperQuantile(0);
+        double mean = mergedMeans[0];
+        long weight = mergedWeights[0];
+        for (int k = 1; k < n; k++) {
+            long proposed = weight + mergedWeights[k];
+            if (weightSoFar + proposed <= weightLimit) {
+                mean += (mergedMeans[k] - mean) * mergedWeights[k] / proposed;
+                weight = proposed;
+            } else {
+                emit(mean, weight);
+                weightSoFar += weight;
+                weightLimit = total * upperQuantile(weightSoFar / total);
+                mean = mergedMeans[k];
+                weight = mergedWeights[k];
+            }
+        }
+        emit(mean, weight);
+    }
+
+    private void emit(double mean, long weight) {
+        if (size == means.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+            means = Arrays.copyOf(means, capacity);
+            weights = Arrays.copyOf(weights, capacity);
+        }
+        means[size] = mean;
+        weights[size] = weight;
+        size++;
+    }
+
+    /**
+     * The quantile one unit of the scale function above q.
+     */
+    private double upperQuantile(double q) {
+        double k = compression / (2 * Math.PI) * Math.asin(2 * q - 1) + 1;
+        double angle = k * 2 * Math.PI / compression;
+        if (angle >= Math.PI / 2) {
+            return 1;
+        }
+        return (Math.sin(angle) + 1) / 2;
+    }
+
+    private static void sort(double[] keys, long[] values, int from, int to) {
+        while (to - from > 16) {
+            int mid = (from + to) >>> 1;
+            double pivot = median(keys[from], keys[mid], keys[to]);
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, values, i++, j--);
+                }
+            }
+            // recurse into the smaller part
+            if (j - from < to - i) {
+                sort(keys, values, from, j);
+                from = i;
+            } else {
+                sort(keys, values, i, to);
+                to = j;
+            }
+        }
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && keys[j - 1] > keys[j]; j--) {
+                swap(keys, values, j - 1, j);
+            }
+        }
+    }
+
+    private static double median(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private static void swap(double[] keys, long[] values, int i, int j) {
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        long value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    public double quantile(double q) {
+        compress();
+        if (size == 0) {
+            return Double.NaN;
+        }
+        if (q <= 0) {
+            return min;
+        }
+        if (q >= 1) {
+            return max;
+        }
+
+        double index = q * totalWeight;
+        double half = weights[0] / 2.0;
+        if (index < half) {
+            // between the min and the center of the first centroid
+            return min + (means[0] - min) * index / half;
+        }
+        double weightSoFar = half;
+        for (int i = 0; i < size - 1; i++) {
+            double dw = (weights[i] + weights[i + 1]) / 2.0;
+            if (weightSoFar + dw > index) {
+                return means[i] + (means[i + 1] - means[i]) * (index - weightSoFar) / dw;
+            }
+            weightSoFar += dw;
+        }
+        // between the center of the last centroid and the max
+        half = weights[size - 1] / 2.0;
+        return means[size - 1] + (max - means[size - 1]) * Math.min(1, (index - weightSoFar) / half);
+    }
+
+    public double getResultEstimate() {
+        return quantile(quantileRatio);
+    }
+
+    public Double getResultEstimateWithQuantileRatio(double quantileRatio) {
+        if (totalWeight == 0) {
+            return null;
+        }
+        return quantile(quantileRatio);
+    }
+
+    public void writeRegisters(ByteBuffer out) {
+        compress();
+        out.putInt(MERGING_ENCODING);
+        BytesUtil.writeVInt((int) compression, out);
+        BytesUtil.writeVInt(size, out);
+        if (size == 0) {
+            return;
+        }
+        out.putDouble(min);
+        out.putDouble(max);
+        out.putDouble(means[0]);
+        // deltas from the decoded means, not to drift
+        double decoded = means[0];
+        for (int i = 1; i < size; i++) {
+            float delta = (float) (means[i] - decoded);
+            out.putFloat(delta);
+            decoded += delta;
+        }
+        for (int i = 0; i < size; i++) {
+            BytesUtil.writeVLong(weights[i], out);
+        }
+    }
+
+    public byte[] toBytes() {
+        compress();
+        ByteBuffer out = ByteBuffer.allocate(4 + 5 + 5 + 8 * 3 + size * (4 + 9));
+        writeRegisters(out);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    public static int peekLength(ByteBuffer in) {
+        int mark = in.position();
+        in.getInt();
+        BytesUtil.readVInt(in);
+        int n = BytesUtil.readVInt(in);
+        if (n > 0) {
+            in.position(in.position() + 8 * 3 + 4 * (n - 1));
+            for (int i = 0; i < n; i++) {
+                BytesUtil.readVLong(in);
+            }
+        }
+        int total = in.position() - mark;
+        in.position(mark);
+        return total;
+    }
+
+    public int getCentroidCount() {
+        compress();
+        return size;
+    }
+
+    public double getCentroidMean(int i) {
+        return means[i];
+    }
+
+    public long getCentroidWeight(int i) {
+        return weights[i];
+    }
+
+    public long getCount() {
+        return totalWeight;
+    }
+
+    public void clear() {
+        size = 0;
+        bufferSize = 0;
+        totalWeight = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    public double getCompression() {
+        return compression;
+    }
+
+    public double getQuantileRatio() {
+        return quantileRatio;
+    }
+
+    public void setQuantileRatio(double quantileRatio) {
+        this.quantileRatio = quantileRatio;
+    }
+}
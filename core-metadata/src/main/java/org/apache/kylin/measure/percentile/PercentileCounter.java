@@ -77,6 +77,15 @@ public class PercentileCounter implements Serializable {
     }
 
     public void readRegisters(ByteBuffer in) {
+        if (MergingPercentileCounter.isMergingEncoded(in)) {
+            MergingPercentileCounter merging = new MergingPercentileCounter(compression);
+            merging.merge(in);
+            registers = TDigest.createAvlTreeDigest(compression);
+            for (int i = 0; i < merging.getCentroidCount(); i++) {
+                registers.add(merging.getCentroidMean(i), (int) merging.getCentroidWeight(i));
+            }
+            return;
+        }
         registers = AVLTreeDigest.fromBytes(in);
         compression = registers.compression();
     }
@@ -126,6 +135,9 @@ public class PercentileCounter implements Serializable {
     }
 
     public int peekLength(ByteBuffer in) {
+        if (MergingPercentileCounter.isMergingEncoded(in)) {
+            return MergingPercentileCounter.peekLength(in);
+        }
         int mark = in.position();
         AVLTreeDigest.fromBytes(in);
         int total = in.position() - mark;
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.measure.topn;
+
+import java.util.Arrays;
+
+/**
+ * A <i>Space-Saving</i> counter like {@link TopNCounter}, over items which are tuples of dimension values.
+ *
+ * The items, their hashes and counts are kept in parallel arrays indexed by slot. Items are found through an
+ * open addressing index over the slots, and once the counter is full a min-heap over the slots gives the item
+ * to drop, so an offer never sorts the counters. A null count is below any other count, as in
+ * {@link TopNCounter#DESC_COMPARATOR}.
+ */
+public class ArrayTopNCounter {
+
+    private static final int INITIAL_SLOTS = 16;
+    private static final int EMPTY = -1;
+
+    private final int capacity;
+    private int size;
+
+    private Object[][] items;
+    private int[] hashes;
+    private double[] counts;
+    private boolean[] nullCounts;
+
+    // bucket -> slot, linear probing
+    private int[] index;
+    private int mask;
+
+    // built when the counter gets full
+    private int[] heap;
+    private int[] heapPos;
+
+    /**
+     * @param capacity maximum size (larger capacities improve accuracy)
+     */
+    public ArrayTopNCounter(int capacity) {
+        this.capacity = capacity;
+        allocate(Math.max(1, Math.min(capacity, INITIAL_SLOTS)));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of items stored
+     */
+    public int size() {
+        return size;
+    }
+
+    public Object[] getItem(int slot) {
+        return items[slot];
+    }
+
+    public boolean isNullCount(int slot) {
+        return nullCounts[slot];
+    }
+
+    public double getCount(int slot) {
+        return counts[slot];
+    }
+
+    public void offer(Object[] item, Double incrementCount) {
+        if (incrementCount == null) {
+            offer(item, 0d, true);
+        } else {
+            offer(item, incrementCount, false);
+        }
+    }
+
+    public void offer(Object[] item, double incrementCount) {
+        offer(item, incrementCount, false);
+    }
+
+    private void offer(Object[] item, double incrementCount, boolean nullIncrement) {
+        int hash = hash(item);
+        int slot = find(item, hash);
+        if (slot < 0) {
+            if (size < capacity) {
+                if (size == items.length) {
+                    grow();
+                }
+                slot = size++;
+                nullCounts[slot] = true;
+                counts[slot] = 0d;
+            } else {
+                // the min item is dropped, the new one takes over its count
+                slot = heap[0];
+                unindex(slot);
+            }
+            items[slot] = item;
+            hashes[slot] = hash;
+            index[-find(item, hash) - 1] = slot;
+        }
+
+        if (!nullIncrement) {
+            if (nullCounts[slot]) {
+                counts[slot] = incrementCount;
+                nullCounts[slot] = false;
+            } else {
+                counts[slot] += incrementCount;
+            }
+        }
+
+        if (heap != null) {
+            int pos = siftUp(heap, heapPos, heapPos[slot]);
+            siftDown(heap, heapPos, size, pos);
+        } else if (size == capacity) {
+            heap = new int[capacity];
+            heapPos = new int[capacity];
+            for (int i = 0; i < size; i++) {
+                heap[i] = i;
+                heapPos[i] = i;
+            }
+            heapify(heap, heapPos, size);
+        }
+    }
+
+    /**
+     * @return the slots in descending order of the counts
+     */
+    public int[] sortedSlots() {
+        int[] sorted = new int[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = i;
+        }
+        heapify(sorted, null, size);
+        // pop the min ones to the tail
+        for (int n = size - 1; n > 0; n--) {
+            int min = sorted[0];
+            sorted[0] = sorted[n];
+            sorted[n] = min;
+            siftDown(sorted, null, n, 0);
+        }
+        return sorted;
+    }
+
+    private static int hash(Object[] item) {
+        int h = Arrays.hashCode(item);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the slot of the item, or -(bucket + 1) of the empty bucket to put it
+     */
+    private int find(Object[] item, int hash) {
+        int bucket = hash & mask;
+        while (true) {
+            int slot = index[bucket];
+            if (slot == EMPTY) {
+                return -bucket - 1;
+            }
+            if (hashes[slot] == hash && Arrays.equals(items[slot], item)) {
+                return slot;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+    }
+
+    private void unindex(int slot) {
+        int hole = hashes[slot] & mask;
+        while (index[hole] != slot) {
+            hole = (hole + 1) & mask;
+        }
+        // shift back the following entries which can't be found past the hole
+        int bucket = hole;
+        while (true) {
+            bucket = (bucket + 1) & mask;
+            int moved = index[bucket];
+            if (moved == EMPTY) {
+                break;
+            }
+            int home = hashes[moved] & mask;
+            boolean reachable = hole <= bucket ? (hole < home && home <= bucket) : (hole < home || home <= bucket);
+            if (!reachable) {
+                index[hole] = moved;
+                hole = bucket;
+            }
+        }
+        index[hole] = EMPTY;
+    }
+
+    private void allocate(int slots) {
+        items = new Object[slots][];
+        hashes = new int[slots];
+        counts = new double[slots];
+        nullCounts = new boolean[slots];
+        index = new int[Integer.highestOneBit(slots) << 2];
+        mask = index.length - 1;
+        Arrays.fill(index, EMPTY);
+    }
+
+    private void grow() {
+        Object[][] oldItems = items;
+        int[] oldHashes = hashes;
+        double[] oldCounts = counts;
+        boolean[] oldNullCounts = nullCounts;
+
+        allocate((int) Math.min(capacity, oldItems.length * 2L));
+        System.arraycopy(oldItems, 0, items, 0, size);
+        System.arraycopy(oldHashes, 0, hashes, 0, size);
+        System.arraycopy(oldCounts, 0, counts, 0, size);
+        System.arraycopy(oldNullCounts, 0, nullCounts, 0, size);
+        for (int slot = 0; slot < size; slot++) {
+            index[-find(items[slot], hashes[slot]) - 1] = slot;
+        }
+    }
+
+    /**
+     * Whether slot a is dropped before slot b: the smaller count, or the later slot of equal counts.
+     */
+    private boolean lower(int a, int b) {
+        if (nullCounts[a] != nullCounts[b]) {
+            return nullCounts[a];
+        }
+        if (!nullCounts[a]) {
+            int c = Double.compare(counts[a], counts[b]);
+            if (c != 0) {
+                return c < 0;
+            }
+        }
+        return a > b;
+    }
+
+    private void heapify(int[] h, int[] pos, int n) {
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(h, pos, n, i);
+        }
+    }
+
+    private int siftUp(int[] h, int[] pos, int i) {
+        int slot = h[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!lower(slot, h[parent])) {
+                break;
+            }
+            place(h, pos, i, h[parent]);
+            i = parent;
+        }
+        place(h, pos, i, slot);
+        return i;
+    }
+
+    private void siftDown(int[] h, int[] pos, int n, int i) {
+        int slot = h[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                break;
+            }
+            if (child + 1 < n && lower(h[child + 1], h[child])) {
+                child++;
+            }
+            if (!lower(h[child], slot)) {
+                break;
+            }
+            place(h, pos, i, h[child]);
+            i = child;
+        }
+        place(h, pos, i, slot);
+    }
+
+    private static void place(int[] h, int[] pos, int i, int slot) {
+        h[i] = slot;
+        if (pos != null) {
+            pos[slot] = i;
+        }
+    }
+}
@@ -36,6 +36,8 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.lang.StringUtils;
 import org.apache.kylin.common.Closeable;
 import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.persistence.CachedResourceStore;
+import org.apache.kylin.common.persistence.ResourceStore;
 import org.apache.kylin.common.restclient.RestClient;
 import org.apache.kylin.common.util.ClassUtil;
 import org.apache.kylin.common.util.DaemonThreadFactory;
@@ -249,6 +251,9 @@ public class Broadcaster implements Closeable {
     }
 
     private void notifyListener(String entity, Event event, String cacheKey, boolean includeStatic) throws IOException {
+        // cached raw resources must not hide the change from the listeners reloading it
+        invalidateResourceStoreCache(entity);
+
         // prevents concurrent modification exception
         List<Listener> list = Lists.newArrayList();
         List<Listener> l1 = listenerMap.get(entity); // normal listeners first
@@ -301,6 +306,17 @@ public class Broadcaster implements Closeable {
         logger.debug("Done broadcasting {}, {}, {}", event, entity, cacheKey);
     }
 
+    private void invalidateResourceStoreCache(String entity) {
+        ResourceStore store = ResourceStore.getStore(config);
+        if (!(store instanceof CachedResourceStore))
+            return;
+
+        if (SYNC_ALL.equals(entity))
+            ((CachedResourceStore) store).invalidateAll();
+        else
+            ((CachedResourceStore) store).markStale();
+    }
+
     /**
      * Announce an event out to peer kylin servers
      */
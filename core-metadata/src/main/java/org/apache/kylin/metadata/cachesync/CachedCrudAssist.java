@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.kylin.common.persistence.CompressedJsonSerializer;
 import org.apache.kylin.common.persistence.ContentReader;
 import org.apache.kylin.common.persistence.JsonSerializer;
 import org.apache.kylin.common.persistence.ResourceStore;
@@ -48,6 +49,7 @@ abstract public class CachedCrudAssist<T extends RootPersistentEntity> {
     final private String resRootPath;
     final private String resPathSuffix;
     final private Serializer<T> serializer;
+    final private Serializer<T> persistSerializer; // may compress big entities, not used for in-memory copy
     final private SingleValueCache<String, T> cache;
 
     private boolean checkCopyOnWrite;
@@ -65,6 +67,8 @@ abstract public class CachedCrudAssist<T extends RootPersistentEntity> {
         this.resRootPath = resourceRootPath;
         this.resPathSuffix = resourcePathSuffix;
         this.serializer = new JsonSerializer<T>(entityType, compact);
+        this.persistSerializer = store.getConfig().getMetadataCompressThresholdBytes() < 0 ? serializer
+                : CompressedJsonSerializer.create(entityType, store.getConfig());
         this.cache = cache;
 
         this.checkCopyOnWrite = store.getConfig().isCheckCopyOnWrite();
@@ -228,7 +232,7 @@ abstract public class CachedCrudAssist<T extends RootPersistentEntity> {
         String path = resourcePath(resName);
         logger.debug("Saving {} at {}", entityType.getSimpleName(), path);
 
-        store.checkAndPutResource(path, entity, serializer);
+        store.checkAndPutResource(path, entity, persistSerializer);
 
         // just to trigger the event broadcast, the entity won't stay in cache
         if (isLocal) {
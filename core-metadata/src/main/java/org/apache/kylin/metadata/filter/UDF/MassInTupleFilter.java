@@ -42,7 +42,7 @@ import org.apache.kylin.shaded.com.google.common.collect.Lists;
 
 public class MassInTupleFilter extends FunctionTupleFilter {
     public static final Logger logger = LoggerFactory.getLogger(MassInTupleFilter.class);
-    public static MassInValueProviderFactory VALUE_PROVIDER_FACTORY = null;
+    public static MassInValueProviderFactory VALUE_PROVIDER_FACTORY = MassInValueSetLoader.getInstance();
 
     private transient MassInValueProvider valueProvider = null;
     private transient TblColRef column;
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.metadata.filter.UDF;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+/**
+ * The values of a filter table, kept as a sorted string array. Integral values are also looked up in a
+ * bitmap built on first use, so that integer columns are matched without converting each row to string.
+ */
+public class MassInValueSet implements MassInValueProvider, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] values;
+
+    private transient volatile Roaring64NavigableMap longValues;
+
+    public MassInValueSet(Collection<String> values) {
+        String[] sorted = values.toArray(new String[0]);
+        Arrays.sort(sorted);
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (size == 0 || !sorted[i].equals(sorted[size - 1]))
+                sorted[size++] = sorted[i];
+        }
+        this.values = size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * @return the distinct values in ascending order, must not be modified
+     */
+    public String[] getValues() {
+        return values;
+    }
+
+    public boolean contains(String value) {
+        return value != null && Arrays.binarySearch(values, value) >= 0;
+    }
+
+    public boolean contains(long value) {
+        return getLongValues().contains(value);
+    }
+
+    public boolean contains(Object value) {
+        if (value == null)
+            return false;
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return contains(((Number) value).longValue());
+        return contains(value.toString());
+    }
+
+    private Roaring64NavigableMap getLongValues() {
+        Roaring64NavigableMap result = longValues;
+        if (result == null) {
+            result = new Roaring64NavigableMap();
+            for (String value : values) {
+                try {
+                    result.addLong(Long.parseLong(value.trim()));
+                } catch (NumberFormatException e) {
+                    // not an integer, never equal to an integer column
+                }
+            }
+            result.runOptimize();
+            longValues = result;
+        }
+        return result;
+    }
+
+    @Override
+    public Set<?> getMassInValues() {
+        return new AbstractSet<Object>() {
+            @Override
+            public boolean contains(Object o) {
+                return MassInValueSet.this.contains(o);
+            }
+
+            @Override
+            public Iterator<Object> iterator() {
+                return Arrays.<Object> asList(values).iterator();
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.metadata.filter.UDF;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.kylin.common.util.HadoopUtil;
+import org.apache.kylin.metadata.filter.function.Functions;
+import org.apache.kylin.metadata.model.TblColRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.kylin.shaded.com.google.common.cache.Cache;
+import org.apache.kylin.shaded.com.google.common.cache.CacheBuilder;
+import org.apache.kylin.shaded.com.google.common.collect.Lists;
+
+/**
+ * Loads filter tables into MassInValueSet. An HDFS filter table is a file, or a directory of files, with
+ * one value per line. A loaded set is reused until the files are modified, the least recently used sets are
+ * evicted beyond the limit, and sets not used for an hour are dropped.
+ */
+public class MassInValueSetLoader implements MassInValueProviderFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(MassInValueSetLoader.class);
+
+    private static final int MAX_CACHED_FILTER_TABLES = 20;
+
+    private static final MassInValueSetLoader INSTANCE = new MassInValueSetLoader();
+
+    public static MassInValueSetLoader getInstance() {
+        return INSTANCE;
+    }
+
+    private final Cache<String, Entry> cache = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_FILTER_TABLES)
+            .expireAfterAccess(1, TimeUnit.HOURS).build();
+
+    @Override
+    public MassInValueProvider getProvider(Functions.FilterTableType filterTableType, String filterResourceIdentifier,
+            TblColRef col) {
+        return load(filterTableType, filterResourceIdentifier);
+    }
+
+    public MassInValueSet load(Functions.FilterTableType filterTableType, String filterResourceIdentifier) {
+        if (filterTableType != Functions.FilterTableType.HDFS) {
+            throw new UnsupportedOperationException("Filter table type " + filterTableType + " is not supported");
+        }
+
+        try {
+            Path path = new Path(filterResourceIdentifier);
+            FileSystem fs = HadoopUtil.getFileSystem(path);
+            List<FileStatus> files = listFiles(fs, path);
+            String stamp = stampOf(files);
+
+            Entry entry = cache.getIfPresent(filterResourceIdentifier);
+            if (entry != null && entry.stamp.equals(stamp))
+                return entry.values;
+
+            long start = System.currentTimeMillis();
+            List<String> values = Lists.newArrayList();
+            for (FileStatus file : files) {
+                readLines(fs, file.getPath(), values);
+            }
+            MassInValueSet valueSet = new MassInValueSet(values);
+            logger.info("Loaded {} values of filter table {} in {} ms", valueSet.size(), filterResourceIdentifier,
+                    System.currentTimeMillis() - start);
+
+            cache.put(filterResourceIdentifier, new Entry(stamp, valueSet));
+            return valueSet;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load filter table " + filterResourceIdentifier, e);
+        }
+    }
+
+    private static List<FileStatus> listFiles(FileSystem fs, Path path) throws IOException {
+        List<FileStatus> files = Lists.newArrayList();
+        FileStatus status = fs.getFileStatus(path);
+        if (!status.isDirectory()) {
+            files.add(status);
+            return files;
+        }
+        for (FileStatus child : fs.listStatus(path)) {
+            String name = child.getPath().getName();
+            if (child.isFile() && !name.startsWith("_") && !name.startsWith("."))
+                files.add(child);
+        }
+        return files;
+    }
+
+    private static String stampOf(List<FileStatus> files) {
+        StringBuilder stamp = new StringBuilder();
+        for (FileStatus file : files) {
+            stamp.append(String.format(Locale.ROOT, "%s:%d:%d;", file.getPath().getName(), file.getLen(),
+                    file.getModificationTime()));
+        }
+        return stamp.toString();
+    }
+
+    private static void readLines(FileSystem fs, Path path, List<String> values) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(fs.open(path), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty())
+                    values.add(line);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final String stamp;
+        private final MassInValueSet values;
+
+        private Entry(String stamp, MassInValueSet values) {
+            this.stamp = stamp;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.source.adhocquery;
+
+import java.util.List;
+
+import org.apache.kylin.metadata.querymeta.SelectedColumnMeta;
+
+/**
+ * Receives the rows of a pushdown query one by one, as they are fetched from the source database.
+ */
+public interface IPushDownRowHandler {
+
+    /**
+     * Called once before the first row.
+     *
+     * @param columnMetas the metadata of returning columns
+     * @throws Exception if the columns cannot be handled, which stops the query
+     */
+    default void start(List<SelectedColumnMeta> columnMetas) throws Exception {
+    }
+
+    /**
+     * @param row the column values as strings, like those returned by ResultSet.getString(), so they are
+     *            formatted the same as the rows collected in a query response
+     * @return false to stop fetching more rows
+     * @throws Exception if the row cannot be handled, which stops the query
+     */
+    boolean handle(Object[] row) throws Exception;
+}
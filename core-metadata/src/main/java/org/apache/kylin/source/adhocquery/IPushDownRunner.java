@@ -18,6 +18,7 @@
 
 package org.apache.kylin.source.adhocquery;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.kylin.common.KylinConfig;
@@ -37,6 +38,28 @@ public interface IPushDownRunner {
      */
     void executeQuery(String query, List<List<String>> returnRows, List<SelectedColumnMeta> returnColumnMeta) throws Exception;
 
+    /**
+     * Run an pushdown query and pass the returning rows to the handler without collecting them.
+     *
+     * The default implementation collects rows by the other executeQuery(), runners able to stream
+     * should override it.
+     *
+     * @param query                 the query statement
+     * @param returnColumnMeta      an empty list to collect metadata of returning columns
+     * @param rowHandler            the handler of returning rows
+     * @throws Exception if running pushdown query fails
+     */
+    default void executeQuery(String query, List<SelectedColumnMeta> returnColumnMeta, IPushDownRowHandler rowHandler)
+            throws Exception {
+        List<List<String>> returnRows = new ArrayList<>();
+        executeQuery(query, returnRows, returnColumnMeta);
+        rowHandler.start(returnColumnMeta);
+        for (List<String> row : returnRows) {
+            if (!rowHandler.handle(row.toArray()))
+                break;
+        }
+    }
+
 
     /**
      * Run an pushdown non-query sql
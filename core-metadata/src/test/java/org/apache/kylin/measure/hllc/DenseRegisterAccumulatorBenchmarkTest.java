@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.measure.hllc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Merges serialized registers the way the approximate count distinct aggregation did, reading each of them into
+ * a counter, and by the dense register accumulator.
+ */
+@Ignore("Save UT time")
+public class DenseRegisterAccumulatorBenchmarkTest {
+
+    private static final Random rand = new Random(1);
+
+    private final int testTimes = 100000;
+
+    @Test
+    public void serializedMergeBenchmark() throws Exception {
+        final int p = 14;
+        int m = 1 << p;
+        System.out.println("serializedMergeBenchmark(), m : " + m);
+        for (int cardinality : new int[] { 10, m / 100, m / 10, m, 10 * m }) {
+            final byte[][] inputs = new byte[100][];
+            for (int i = 0; i < inputs.length; i++) {
+                HLLCounter counter = new HLLCounter(p);
+                for (int j = 0; j < cardinality; j++) {
+                    counter.add(rand.nextInt());
+                }
+                ByteBuffer buf = ByteBuffer.allocate(counter.maxLength());
+                counter.writeRegisters(buf);
+                inputs[i] = new byte[buf.position()];
+                System.arraycopy(buf.array(), 0, inputs[i], 0, inputs[i].length);
+            }
+
+            final HLLCAggregator aggregator = new HLLCAggregator(p);
+            aggregator.aggregate(new HLLCounter(p));
+            long oldTime = runTestCase(() -> {
+                for (int i = 0; i < testTimes; i++) {
+                    HLLCounter counter = new HLLCounter(p);
+                    counter.readRegisters(ByteBuffer.wrap(inputs[i % inputs.length]));
+                    aggregator.aggregate(counter);
+                }
+            });
+
+            final DenseRegisterAccumulator accumulator = new DenseRegisterAccumulator(p);
+            long newTime = runTestCase(() -> {
+                for (int i = 0; i < testTimes; i++) {
+                    accumulator.merge(ByteBuffer.wrap(inputs[i % inputs.length]));
+                }
+            });
+            assertEquals(aggregator.getState().getCountEstimate(), accumulator.getCountEstimate());
+
+            System.out.println("----------------------------");
+            System.out.println("cardinality : " + cardinality);
+            System.out.println("old time : " + oldTime);
+            System.out.println("new time : " + newTime);
+        }
+    }
+
+    interface TestCase {
+        void run() throws Exception;
+    }
+
+    public long runTestCase(TestCase testCase) throws Exception {
+        long startTime = System.currentTimeMillis();
+        testCase.run();
+        return System.currentTimeMillis() - startTime;
+    }
+}
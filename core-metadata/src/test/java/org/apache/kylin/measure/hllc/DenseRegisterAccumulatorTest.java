@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.measure.hllc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DenseRegisterAccumulatorTest {
+
+    private final Random rand = new Random(1);
+
+    private HLLCounter randCounter(int p, int cardinality) {
+        HLLCounter counter = new HLLCounter(p);
+        for (int i = 0; i < cardinality; i++) {
+            counter.add(rand.nextInt());
+        }
+        return counter;
+    }
+
+    private static ByteBuffer serialize(HLLCounter counter) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(counter.maxLength());
+        counter.writeRegisters(buf);
+        buf.flip();
+        return buf;
+    }
+
+    @Test
+    public void testMergeAsCounter() throws IOException {
+        for (int p : new int[] { 10, 14, 16 }) {
+            int m = 1 << p;
+            HLLCounter expected = new HLLCounter(p);
+            DenseRegisterAccumulator accumulator = new DenseRegisterAccumulator(p);
+            DenseRegisterAccumulator another = new DenseRegisterAccumulator(p);
+            // single value, sparse and dense registers
+            for (int cardinality : new int[] { 0, 1, 10, m / 200, m / 10, m, 3 * m }) {
+                HLLCounter counter = randCounter(p, cardinality);
+                expected.merge(counter);
+                (cardinality % 2 == 0 ? accumulator : another).merge(serialize(counter));
+                assertEquals(expected.getCountEstimate(),
+                        estimate(accumulator, another, p));
+            }
+            accumulator.merge(another);
+            assertEquals(expected.getCountEstimate(), accumulator.getCountEstimate());
+
+            ByteBuffer out = ByteBuffer.allocate(expected.maxLength());
+            accumulator.writeRegisters(out);
+            out.flip();
+            HLLCounter read = new HLLCounter(p);
+            read.readRegisters(out);
+            assertEquals(expected.getCountEstimate(), read.getCountEstimate());
+        }
+    }
+
+    private static long estimate(DenseRegisterAccumulator a, DenseRegisterAccumulator b, int p) {
+        DenseRegisterAccumulator merged = new DenseRegisterAccumulator(p);
+        merged.merge(a);
+        merged.merge(b);
+        return merged.getCountEstimate();
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        DenseRegisterAccumulator accumulator = new DenseRegisterAccumulator(14);
+        assertEquals(0, accumulator.getCountEstimate());
+
+        ByteBuffer out = ByteBuffer.allocate(16);
+        accumulator.writeRegisters(out);
+        out.flip();
+        HLLCounter read = new HLLCounter(14);
+        read.readRegisters(out);
+        assertEquals(0, read.getCountEstimate());
+    }
+
+    @Test
+    public void testSmallRegisters() throws IOException {
+        int p = 12;
+        HLLCounter counter = randCounter(p, 20);
+        DenseRegisterAccumulator accumulator = new DenseRegisterAccumulator(p);
+        accumulator.merge(serialize(counter));
+
+        // few registers stay in the map scheme, byte by byte the same as the counter
+        ByteBuffer out = ByteBuffer.allocate(counter.maxLength());
+        accumulator.writeRegisters(out);
+        out.flip();
+        assertEquals(serialize(counter), out);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.measure.percentile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MergingPercentileCounterTest {
+
+    private static double[] randomData(Random random, int size) {
+        double[] data = new double[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = random.nextDouble();
+        }
+        return data;
+    }
+
+    private static double rankOf(double[] sorted, double value) {
+        int index = Arrays.binarySearch(sorted, value);
+        return (index < 0 ? -index - 1 : index) / (double) sorted.length;
+    }
+
+    @Test
+    public void testQuantile() {
+        double[] data = randomData(new Random(1), 100000);
+        MergingPercentileCounter counter = new MergingPercentileCounter(100, 0.5);
+        for (double d : data) {
+            counter.add(d);
+        }
+        Arrays.sort(data);
+
+        assertEquals(data[data.length / 2], counter.getResultEstimate(), 0.005);
+        for (double q : new double[] { 0.001, 0.01, 0.1, 0.25, 0.75, 0.9, 0.99, 0.999 }) {
+            assertEquals(q, rankOf(data, counter.quantile(q)), 0.01);
+        }
+        assertEquals(data[0], counter.quantile(0), 0);
+        assertEquals(data[data.length - 1], counter.quantile(1), 0);
+        assertTrue(counter.getCentroidCount() <= 100);
+    }
+
+    @Test
+    public void testMergeEncoded() {
+        Random random = new Random(2);
+        MergingPercentileCounter merged = new MergingPercentileCounter(100, 0.9);
+        double[] all = new double[0];
+        for (int part = 0; part < 50; part++) {
+            double[] data = randomData(random, 1 + random.nextInt(2000));
+            MergingPercentileCounter counter = new MergingPercentileCounter(100);
+            for (double d : data) {
+                counter.add(d * part);
+            }
+            merged.merge(ByteBuffer.wrap(counter.toBytes()));
+
+            int from = all.length;
+            all = Arrays.copyOf(all, all.length + data.length);
+            for (int i = 0; i < data.length; i++) {
+                all[from + i] = data[i] * part;
+            }
+        }
+        Arrays.sort(all);
+        assertEquals(all.length, merged.getCount());
+        assertEquals(0.9, rankOf(all, merged.getResultEstimate()), 0.01);
+    }
+
+    @Test
+    public void testEncoding() {
+        MergingPercentileCounter counter = new MergingPercentileCounter(100);
+        for (double d : randomData(new Random(3), 10000)) {
+            counter.add(d * 1000);
+        }
+        ByteBuffer out = ByteBuffer.allocate(4096);
+        counter.writeRegisters(out);
+        out.flip();
+        assertEquals(out.limit(), MergingPercentileCounter.peekLength(out));
+        assertEquals(out.limit(), counter.toBytes().length);
+
+        MergingPercentileCounter read = new MergingPercentileCounter(100);
+        read.merge(out);
+        assertEquals(out.limit(), out.position());
+        assertEquals(counter.getCount(), read.getCount());
+        for (double q : new double[] { 0, 0.1, 0.5, 0.9, 1 }) {
+            assertEquals(counter.quantile(q), read.quantile(q), 1e-3);
+        }
+
+        MergingPercentileCounter empty = new MergingPercentileCounter(100);
+        read = new MergingPercentileCounter(100);
+        read.merge(ByteBuffer.wrap(empty.toBytes()));
+        assertNull(read.getResultEstimateWithQuantileRatio(0.5));
+    }
+
+    @Test
+    public void testReadPercentileCounter() {
+        double[] data = randomData(new Random(4), 10000);
+        PercentileCounter legacy = new PercentileCounter(100);
+        MergingPercentileCounter counter = new MergingPercentileCounter(100);
+        for (double d : data) {
+            legacy.add(d);
+            counter.add(d);
+        }
+        Arrays.sort(data);
+
+        // the former registers are read by the merging counter
+        ByteBuffer out = ByteBuffer.allocate(legacy.maxLength());
+        legacy.writeRegisters(out);
+        out.flip();
+        MergingPercentileCounter migrated = new MergingPercentileCounter(100);
+        migrated.merge(out);
+        assertEquals(data.length, migrated.getCount());
+        assertEquals(0.5, rankOf(data, migrated.quantile(0.5)), 0.01);
+
+        // and the merging registers by the former counter
+        ByteBuffer in = ByteBuffer.wrap(counter.toBytes());
+        PercentileSerializer serializer = new PercentileSerializer(100);
+        assertEquals(in.limit(), serializer.peekLength(in));
+        PercentileCounter read = serializer.deserialize(in);
+        assertEquals(0.5, rankOf(data, read.getResultEstimateWithQuantileRatio(0.5)), 0.01);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.measure.topn;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ArrayTopNCounterTest {
+
+    private static Object[] item(Object... values) {
+        return values;
+    }
+
+    @Test
+    public void testTopK() {
+        ArrayTopNCounter counter = new ArrayTopNCounter(3);
+        String[] stream = { "X", "X", "Y", "Z", "A", "B", "C", "X", "X", "A", "C", "A", "A" };
+        for (String i : stream) {
+            counter.offer(item(i, 1), 1.0);
+        }
+        Assert.assertEquals(3, counter.size());
+
+        int[] sorted = counter.sortedSlots();
+        Assert.assertArrayEquals(item("A", 1), counter.getItem(sorted[0]));
+        Assert.assertEquals(5.0, counter.getCount(sorted[0]), 0.0);
+        for (int slot : sorted) {
+            Assert.assertTrue("ACX".contains((String) counter.getItem(slot)[0]));
+        }
+    }
+
+    @Test
+    public void testNullCount() {
+        ArrayTopNCounter counter = new ArrayTopNCounter(2);
+        counter.offer(item("A", null), null);
+        counter.offer(item("B", null), 1.0);
+        counter.offer(item("A", null), (Double) null);
+        int[] sorted = counter.sortedSlots();
+        Assert.assertArrayEquals(item("B", null), counter.getItem(sorted[0]));
+        Assert.assertTrue(counter.isNullCount(sorted[1]));
+
+        // the null count is dropped first
+        counter.offer(item("C", null), 2.0);
+        sorted = counter.sortedSlots();
+        Assert.assertArrayEquals(item("C", null), counter.getItem(sorted[0]));
+        Assert.assertEquals(2.0, counter.getCount(sorted[0]), 0.0);
+        Assert.assertArrayEquals(item("B", null), counter.getItem(sorted[1]));
+    }
+
+    @Test
+    public void testOffer() {
+        Random random = new Random(3);
+        for (int capacity : new int[] { 1, 10, 100, 1000 }) {
+            ArrayTopNCounter counter = new ArrayTopNCounter(capacity);
+            Map<Integer, Double> exact = new HashMap<>();
+            // a capacity over the distinct items keeps the exact counts
+            for (int i = 0; i < 20000; i++) {
+                int key = random.nextInt(capacity);
+                double value = random.nextInt(100);
+                counter.offer(item(key, String.valueOf(key)), value);
+                exact.merge(key, value, Double::sum);
+            }
+            Assert.assertEquals(exact.size(), counter.size());
+            int[] sorted = counter.sortedSlots();
+            for (int i = 0; i < sorted.length; i++) {
+                Object[] item = counter.getItem(sorted[i]);
+                Assert.assertEquals(exact.get(item[0]), counter.getCount(sorted[i]), 0.0);
+                if (i > 0) {
+                    Assert.assertTrue(counter.getCount(sorted[i - 1]) >= counter.getCount(sorted[i]));
+                }
+            }
+
+            // then the items are replaced, each offer still adds up to the total
+            double total = exact.values().stream().mapToDouble(Double::doubleValue).sum();
+            for (int i = 0; i < 20000; i++) {
+                int key = capacity + random.nextInt(capacity * 10);
+                counter.offer(item(key, String.valueOf(key)), 1.0);
+                total += 1.0;
+            }
+            Assert.assertEquals(exact.size(), counter.size());
+            double sum = 0;
+            sorted = counter.sortedSlots();
+            for (int i = 0; i < sorted.length; i++) {
+                sum += counter.getCount(sorted[i]);
+                if (i > 0) {
+                    Assert.assertTrue(counter.getCount(sorted[i - 1]) >= counter.getCount(sorted[i]));
+                }
+            }
+            Assert.assertEquals(total, sum, 1e-6);
+        }
+    }
+}
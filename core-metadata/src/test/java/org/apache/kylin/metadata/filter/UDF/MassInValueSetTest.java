@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.metadata.filter.UDF;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.kylin.metadata.filter.function.Functions;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.apache.kylin.shaded.com.google.common.collect.Lists;
+
+public class MassInValueSetTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testContains() {
+        MassInValueSet values = new MassInValueSet(Lists.newArrayList("b", "10", "a", "b", "-3", "x1"));
+        Assert.assertEquals(5, values.size());
+        Assert.assertArrayEquals(new String[] { "-3", "10", "a", "b", "x1" }, values.getValues());
+
+        Assert.assertTrue(values.contains("a"));
+        Assert.assertFalse(values.contains("c"));
+        Assert.assertTrue(values.contains(10L));
+        Assert.assertTrue(values.contains(Integer.valueOf(-3)));
+        Assert.assertFalse(values.contains(1L));
+        Assert.assertFalse(values.contains((Object) null));
+        Assert.assertTrue(values.getMassInValues().contains("x1"));
+    }
+
+    @Test
+    public void testLoadAndReload() throws IOException {
+        File file = folder.newFile("filter.txt");
+        FileUtils.writeStringToFile(file, "1001\n1002\n\n1003\n", StandardCharsets.UTF_8);
+
+        MassInValueSetLoader loader = new MassInValueSetLoader();
+        MassInValueSet values = loader.load(Functions.FilterTableType.HDFS, file.getAbsolutePath());
+        Assert.assertEquals(3, values.size());
+        Assert.assertTrue(values.contains(1002L));
+        Assert.assertSame(values, loader.load(Functions.FilterTableType.HDFS, file.getAbsolutePath()));
+
+        FileUtils.writeStringToFile(file, "1004\n", StandardCharsets.UTF_8);
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 10000));
+        values = loader.load(Functions.FilterTableType.HDFS, file.getAbsolutePath());
+        Assert.assertEquals(1, values.size());
+        Assert.assertTrue(values.contains(1004L));
+    }
+}
@@ -34,6 +34,9 @@ import org.slf4j.LoggerFactory;
 public final class PathManager {
     private static final Logger logger = LoggerFactory.getLogger(PathManager.class);
 
+    // the dimension dictionaries of a cube, next to its segments
+    public static final String DIMENSION_DICTIONARY_DIR = "dim_dict";
+
     public static String getParquetStoragePath(KylinConfig config, String cubeName, String segName, String identifier, String cuboidId) {
         CubeInstance cube = CubeManager.getInstance(config).getCube(cubeName);
         return getParquetStoragePath(cube, segName, identifier, Long.parseLong(cuboidId));
@@ -55,6 +58,14 @@ public final class PathManager {
         return hdfsWorkDir + "parquet" + File.separator + cubeName + File.separator + segmentName + "_" + identifier;
     }
 
+    public static String getDimensionDictionaryPath(CubeInstance cube) {
+        return getDimensionDictionaryPath(cube.getConfig().getHdfsWorkingDirectory(cube.getProject()), cube.getName());
+    }
+
+    public static String getDimensionDictionaryPath(String hdfsWorkDir, String cubeName) {
+        return hdfsWorkDir + "parquet" + File.separator + cubeName + File.separator + DIMENSION_DICTIONARY_DIR;
+    }
+
     /**
      * Delete segment path
      */
@@ -18,7 +18,7 @@
 package org.apache.kylin.query.implicits
 
 import org.apache.spark.sql.{KylinDataFrameManager, SparkSession}
-import org.apache.spark.sql.execution.datasource.KylinSourceStrategy
+import org.apache.spark.sql.execution.datasource.{DimensionDictRewrite, KylinSourceStrategy}
 
 class QueryContext(session: SparkSession) {
   def kylin: KylinDataFrameManager = {
@@ -27,6 +27,10 @@ class QueryContext(session: SparkSession) {
     if (!strategies.contains(KylinSourceStrategy)) {
       session.experimental.extraStrategies = strategies :+ KylinSourceStrategy
     }
+    val optimizations = session.experimental.extraOptimizations
+    if (!optimizations.contains(DimensionDictRewrite)) {
+      session.experimental.extraOptimizations = optimizations :+ DimensionDictRewrite
+    }
 
     new KylinDataFrameManager(session)
   }
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.spark.dict
+
+import java.io.{DataInputStream, DataOutputStream}
+import java.nio.charset.StandardCharsets
+import java.util
+
+import org.apache.commons.lang3.StringUtils
+import org.apache.hadoop.conf.Configuration
+import org.apache.hadoop.fs.Path
+import org.apache.kylin.cube.{CubeInstance, CubeSegment}
+import org.apache.kylin.engine.spark.metadata.cube.PathManager
+import org.apache.spark.internal.Logging
+import org.apache.spark.unsafe.types.UTF8String
+
+/**
+ * Dictionary of the values of a string dimension of a cube, cuboid files of the segments built with it store the
+ * codes of the values, which are their indexes in the dictionary.
+ *
+ * The dictionary of a column is shared by all the segments of the cube. Builds only append the values absent in
+ * it, so codes never change and the codes of all segments agree: segments are merged and scanned together on
+ * their codes, and any later version of the dictionary decodes the segments built with an earlier one.
+ */
+class DimensionDictionary(val values: Array[String]) extends Serializable {
+
+  @transient private lazy val utf8Values: Array[UTF8String] = values.map(UTF8String.fromString)
+
+  @transient private lazy val codes: util.HashMap[UTF8String, Integer] = {
+    val map = new util.HashMap[UTF8String, Integer](values.length * 4 / 3 + 1)
+    var i = 0
+    while (i < utf8Values.length) {
+      map.put(utf8Values(i), i)
+      i += 1
+    }
+    map
+  }
+
+  def size: Int = values.length
+
+  def decode(code: Int): UTF8String = utf8Values(code)
+
+  /**
+   * The code of the value, -1 if it is absent.
+   */
+  def codeOf(value: UTF8String): Int = {
+    val code = codes.get(value)
+    if (code == null) -1 else code
+  }
+
+  /**
+   * The dictionary with the absent values appended in their order.
+   */
+  def append(newValues: Seq[String]): DimensionDictionary = {
+    val absent = newValues.filter(value => codeOf(UTF8String.fromString(value)) < 0).distinct
+    if (absent.isEmpty) this else new DimensionDictionary(values ++ absent)
+  }
+}
+
+object DimensionDictionary extends Logging {
+
+  // set in the additional info of segments, the encoded columns with the versions of their dictionaries
+  val SEGMENT_INFO_KEY = "dimensionDictionaryColumns"
+
+  val EMPTY = new DimensionDictionary(Array.empty)
+
+  /**
+   * The encoded columns of the segment by their identities, with the versions of their dictionaries.
+   */
+  def storedColumns(segment: CubeSegment): Map[String, Int] = {
+    val info = segment.getAdditionalInfo.get(SEGMENT_INFO_KEY)
+    if (StringUtils.isBlank(info)) {
+      Map.empty
+    } else {
+      info.split(",").map { column =>
+        val index = column.lastIndexOf(':')
+        column.substring(0, index) -> column.substring(index + 1).toInt
+      }.toMap
+    }
+  }
+
+  def toSegmentInfo(columns: Map[String, Int]): String = {
+    columns.toSeq.sortBy(_._1).map { case (column, version) => s"$column:$version" }.mkString(",")
+  }
+
+  /**
+   * The columns encoded in all the segments, with the highest versions of their dictionaries.
+   */
+  def encodedColumns(segments: Seq[CubeSegment]): Map[String, Int] = {
+    if (segments.isEmpty) {
+      Map.empty
+    } else {
+      val stored = segments.map(storedColumns)
+      stored.head.keys
+        .filter(column => stored.forall(_.contains(column)))
+        .map(column => column -> stored.map(_ (column)).max)
+        .toMap
+    }
+  }
+
+  private def columnDir(cube: CubeInstance, identity: String): Path = {
+    new Path(PathManager.getDimensionDictionaryPath(cube), identity)
+  }
+
+  /**
+   * Versions are named by the number of values.
+   */
+  private def versions(cube: CubeInstance, identity: String): Seq[Int] = {
+    val dir = columnDir(cube, identity)
+    val fs = dir.getFileSystem(new Configuration())
+    if (fs.exists(dir)) {
+      fs.listStatus(dir).map(_.getPath.getName).filter(StringUtils.isNumeric).map(_.toInt).sorted
+    } else {
+      Seq.empty
+    }
+  }
+
+  /**
+   * Loads the latest version of the dictionary of the column, empty if it has none.
+   */
+  def load(cube: CubeInstance, identity: String): DimensionDictionary = {
+    val latest = versions(cube, identity).lastOption
+    if (latest.isEmpty) {
+      EMPTY
+    } else {
+      val path = new Path(columnDir(cube, identity), latest.get.toString)
+      val fs = path.getFileSystem(new Configuration())
+      val in = new DataInputStream(fs.open(path))
+      try {
+        val values = new Array[String](in.readInt())
+        var i = 0
+        while (i < values.length) {
+          val bytes = new Array[Byte](in.readInt())
+          in.readFully(bytes)
+          values(i) = new String(bytes, StandardCharsets.UTF_8)
+          i += 1
+        }
+        new DimensionDictionary(values)
+      } finally {
+        in.close()
+      }
+    }
+  }
+
+  /**
+   * Writes the dictionary as a new version, and deletes the versions before the former latest one, which may
+   * still be read.
+   */
+  def write(cube: CubeInstance, identity: String, dictionary: DimensionDictionary): Unit = {
+    val dir = columnDir(cube, identity)
+    val fs = dir.getFileSystem(new Configuration())
+    val tmp = new Path(dir, s"${dictionary.size}_tmp")
+    val out = new DataOutputStream(fs.create(tmp, true))
+    try {
+      out.writeInt(dictionary.size)
+      dictionary.values.foreach { value =>
+        val bytes = value.getBytes(StandardCharsets.UTF_8)
+        out.writeInt(bytes.length)
+        out.write(bytes)
+      }
+    } finally {
+      out.close()
+    }
+    val path = new Path(dir, dictionary.size.toString)
+    fs.delete(path, false)
+    fs.rename(tmp, path)
+    logInfo(s"Write dimension dictionary of $identity with ${dictionary.size} values to $path")
+
+    val former = versions(cube, identity).filter(_ < dictionary.size)
+    former.dropRight(1).foreach(version => fs.delete(new Path(dir, version.toString), false))
+  }
+}
@@ -24,7 +24,7 @@ import org.apache.spark.sql.catalyst.expressions.codegen.{CodegenContext, ExprCo
 import org.apache.spark.sql.types._
 import org.apache.spark.sql.catalyst.expressions.{ApproxCountDistinctDecode, BinaryExpression, DictEncode, Expression, ExpressionInfo, ExpressionUtils, ImplicitCastInputTypes, In, KylinAddMonths, Like, Literal, PercentileDecode, PreciseCountDistinctDecode, RoundBase, ScatterSkewData, SplitPart, Sum0, TimestampAdd, TimestampDiff, Truncate, UnaryExpression}
 import org.apache.spark.sql.catalyst.expressions.aggregate.AggregateFunction
-import org.apache.spark.sql.udaf.{ApproxCountDistinct, IntersectCount, PreciseCountDistinct}
+import org.apache.spark.sql.udaf.{ApproxCountDistinct, IntersectCount, PercentileApprox, PortableBitmapCounter, PortableIntersectCount, PortablePreciseCountDistinct, PreciseCountDistinct}
 
 object KylinFunctions {
   private def withAggregateFunction(
@@ -78,9 +78,16 @@ object KylinFunctions {
   def precise_count_distinct(column: Column): Column =
     Column(PreciseCountDistinct(column.expr).toAggregateExpression())
 
+  def portable_precise_count_distinct(column: Column,
+      maxPendingBytes: Long = PortableBitmapCounter.MAX_PENDING_BYTES): Column =
+    Column(PortablePreciseCountDistinct(column.expr, maxPendingBytes).toAggregateExpression())
+
   def approx_count_distinct(column: Column, precision: Int): Column =
     Column(ApproxCountDistinct(column.expr, precision).toAggregateExpression())
 
+  def k_percentile(column: Column, quantile: Column, precision: Int): Column =
+    Column(PercentileApprox(column.expr, quantile.expr, precision).toAggregateExpression())
+
   def intersect_count(upperBound: Int, columns: Column*): Column = {
     require(columns.size == 3, s"Input columns size ${columns.size} don't equal to 3.")
     val expressions = columns.map(_.expr)
@@ -95,6 +102,20 @@ object KylinFunctions {
       StringType, upperBound).toAggregateExpression())
   }
 
+  def portable_intersect_count(upperBound: Int, maxPendingBytes: Long, columns: Column*): Column = {
+    require(columns.size == 3, s"Input columns size ${columns.size} don't equal to 3.")
+    val expressions = columns.map(_.expr)
+    Column(PortableIntersectCount(expressions.apply(0), expressions.apply(1), expressions.apply(2),
+      LongType, upperBound, maxPendingBytes).toAggregateExpression())
+  }
+
+  def portable_intersect_value(upperBound: Int, maxPendingBytes: Long, columns: Column*): Column = {
+    require(columns.size == 3, s"Input columns size ${columns.size} don't equal to 3.")
+    val expressions = columns.map(_.expr)
+    Column(PortableIntersectCount(expressions.apply(0), expressions.apply(1), expressions.apply(2),
+      StringType, upperBound, maxPendingBytes).toAggregateExpression())
+  }
+
   def sum0(e: Column): Column = withAggregateFunction {
     Sum0(e.expr)
   }
@@ -20,13 +20,17 @@ package org.apache.spark.sql.catalyst.expressions
 import com.esotericsoftware.kryo.io.{Input, KryoDataInput}
 import org.apache.kylin.engine.spark.common.util.KylinDateTimeUtils
 import org.apache.kylin.measure.hllc.HLLCounter
-import org.apache.kylin.measure.percentile.PercentileSerializer
-import org.apache.spark.dict.{NBucketDictionary, NGlobalDictionary}
+import org.apache.kylin.measure.percentile.{MergingPercentileCounter, PercentileSerializer}
+import org.apache.kylin.metadata.filter.UDF.MassInValueSet
+import org.apache.spark.broadcast.Broadcast
+import org.apache.spark.dict.{DimensionDictionary, NBucketDictionary, NGlobalDictionary}
 import org.apache.spark.sql.catalyst.InternalRow
 import org.apache.spark.sql.catalyst.expressions.aggregate.DeclarativeAggregate
 import org.apache.spark.sql.catalyst.expressions.codegen.Block._
-import org.apache.spark.sql.catalyst.expressions.codegen.{CodeGenerator, CodegenContext, ExprCode, FalseLiteral}
+import org.apache.spark.sql.catalyst.expressions.codegen.{CodeGenerator, CodegenContext, CodegenFallback, ExprCode, FalseLiteral}
+import org.apache.spark.sql.internal.SQLConf
 import org.apache.spark.sql.types._
+import org.apache.spark.unsafe.types.UTF8String
 import org.roaringbitmap.longlong.Roaring64NavigableMap
 
 import java.nio.ByteBuffer
@@ -558,10 +562,16 @@ case class PercentileDecode(bytes: Expression, quantile: Expression, precision:
   }
 
   override protected def nullSafeEval(bytes: Any, quantile: Any, precision: Any): Any = {
-    val arrayBytes = bytes.asInstanceOf[Array[Byte]]
-    val serializer = new PercentileSerializer(precision.asInstanceOf[Int]);
-    val counter = serializer.deserialize(ByteBuffer.wrap(arrayBytes))
-    counter.getResultEstimateWithQuantileRatio(quantile.asInstanceOf[Decimal].toDouble)
+    val buffer = ByteBuffer.wrap(bytes.asInstanceOf[Array[Byte]])
+    if (MergingPercentileCounter.isMergingEncoded(buffer)) {
+      val counter = new MergingPercentileCounter(precision.asInstanceOf[Int])
+      counter.merge(buffer)
+      counter.getResultEstimateWithQuantileRatio(quantile.asInstanceOf[Decimal].toDouble)
+    } else {
+      val serializer = new PercentileSerializer(precision.asInstanceOf[Int]);
+      val counter = serializer.deserialize(buffer)
+      counter.getResultEstimateWithQuantileRatio(quantile.asInstanceOf[Decimal].toDouble)
+    }
   }
 
   override def dataType: DataType = DoubleType
@@ -571,4 +581,69 @@ case class PercentileDecode(bytes: Expression, quantile: Expression, precision:
   override def nullable: Boolean = false
 
   override def children: Seq[Expression] = Seq(bytes, quantile, precision)
-}
\ No newline at end of file
+}
+// Returns whether the value is in the filter table, whose values are broadcast to executors.
+case class KylinMassIn(child: Expression, filterTable: String, values: Broadcast[MassInValueSet])
+  extends UnaryExpression with Predicate with CodegenFallback {
+
+  @transient private lazy val valueSet = values.value
+
+  // sorted by the byte order of UTF8String, which differs from the order of java strings
+  @transient private lazy val utf8Values: Array[AnyRef] = {
+    val array = valueSet.getValues.map(v => UTF8String.fromString(v): AnyRef)
+    java.util.Arrays.sort(array)
+    array
+  }
+
+  @transient private lazy val toUTF8String =
+    Cast(BoundReference(0, child.dataType, nullable = true), StringType, Option(SQLConf.get.sessionLocalTimeZone))
+
+  override protected def nullSafeEval(input: Any): Any = child.dataType match {
+    case ByteType | ShortType | IntegerType | LongType =>
+      valueSet.contains(input.asInstanceOf[Number].longValue())
+    case StringType =>
+      java.util.Arrays.binarySearch(utf8Values, input.asInstanceOf[AnyRef]) >= 0
+    case _ =>
+      java.util.Arrays.binarySearch(utf8Values, toUTF8String.eval(InternalRow(input))) >= 0
+  }
+
+  override def prettyName: String = "massin"
+
+  override def toString: String = s"$prettyName($child, $filterTable)"
+}
+
+// Encodes the values of a dictionary encoded dimension into their codes, see DimensionDictionary.
+case class DimensionDictEncode(child: Expression, identity: String, dictionary: Broadcast[DimensionDictionary])
+  extends UnaryExpression with CodegenFallback {
+
+  @transient private lazy val dict = dictionary.value
+
+  override protected def nullSafeEval(input: Any): Any = {
+    val code = dict.codeOf(input.asInstanceOf[UTF8String])
+    if (code < 0) {
+      throw new IllegalStateException(s"Value $input of $identity is absent in its dimension dictionary")
+    }
+    code
+  }
+
+  override def dataType: DataType = IntegerType
+
+  override def prettyName: String = "dimension_dict_encode"
+
+  override def toString: String = s"$prettyName($child, $identity)"
+}
+
+// Decodes the codes of a dictionary encoded dimension into their values.
+case class DimensionDictDecode(child: Expression, identity: String, dictionary: Broadcast[DimensionDictionary])
+  extends UnaryExpression with CodegenFallback {
+
+  @transient private lazy val dict = dictionary.value
+
+  override protected def nullSafeEval(input: Any): Any = dict.decode(input.asInstanceOf[Int])
+
+  override def dataType: DataType = StringType
+
+  override def prettyName: String = "dimension_dict_decode"
+
+  override def toString: String = s"$prettyName($child, $identity)"
+}
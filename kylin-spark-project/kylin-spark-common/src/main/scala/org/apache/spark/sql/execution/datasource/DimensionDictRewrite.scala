@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.spark.sql.execution.datasource
+
+import org.apache.spark.sql.catalyst.expressions.{Alias, Attribute, DimensionDictDecode, EqualTo, Expression, In, InSet, IsNotNull, Literal, NamedExpression}
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, LogicalPlan, Project}
+import org.apache.spark.sql.catalyst.rules.Rule
+import org.apache.spark.sql.types.StringType
+import org.apache.spark.unsafe.types.UTF8String
+
+/**
+ * Works on the codes of dictionary encoded dimensions, which cuboid scans decode by [[DimensionDictDecode]].
+ *
+ * Equality and IN predicates on decoded values compare the codes instead, so they are pushed down to parquet,
+ * values absent in the dictionary become -1, which matches no code. Aggregates grouping by decoded values group
+ * by the codes, and decode the grouping keys of their results only.
+ */
+object DimensionDictRewrite extends Rule[LogicalPlan] {
+
+  override def apply(plan: LogicalPlan): LogicalPlan = {
+    plan.transformUp {
+      case agg @ Aggregate(_, _, project: Project) => rewriteAggregate(agg, project)
+    }.transformAllExpressions {
+      case EqualTo(decode: DimensionDictDecode, Literal(value: UTF8String, StringType)) =>
+        EqualTo(decode.child, codeOf(decode, value))
+      case EqualTo(Literal(value: UTF8String, StringType), decode: DimensionDictDecode) =>
+        EqualTo(codeOf(decode, value), decode.child)
+      case In(decode: DimensionDictDecode, list) if list.forall(isValue) =>
+        In(decode.child, list.map(value => codeOf(decode, value.asInstanceOf[Literal].value)))
+      case InSet(decode: DimensionDictDecode, set) if set.forall(_.isInstanceOf[UTF8String]) =>
+        InSet(decode.child, set.map(value => codeOf(decode, value).value))
+      case IsNotNull(decode: DimensionDictDecode) =>
+        IsNotNull(decode.child)
+    }
+  }
+
+  private def isValue(expression: Expression): Boolean = expression match {
+    case Literal(_: UTF8String, StringType) => true
+    case _ => false
+  }
+
+  private def codeOf(decode: DimensionDictDecode, value: Any): Literal = {
+    Literal(decode.dictionary.value.codeOf(value.asInstanceOf[UTF8String]))
+  }
+
+  private def rewriteAggregate(agg: Aggregate, project: Project): LogicalPlan = {
+    val decodedKeys = project.projectList.collect {
+      case alias @ Alias(decode: DimensionDictDecode, _) if isGroupingKeyOnly(agg, alias.toAttribute) =>
+        alias -> decode
+    }
+    if (decodedKeys.isEmpty) {
+      return agg
+    }
+
+    val codes = decodedKeys.map { case (alias, decode) =>
+      alias.exprId -> Alias(decode.child, alias.name)()
+    }.toMap
+    val codeProject = project.copy(projectList = project.projectList.map {
+      case named if codes.contains(named.exprId) => codes(named.exprId)
+      case named => named
+    })
+    val decodes = decodedKeys.map { case (alias, decode) => alias.exprId -> decode }.toMap
+    val codeAttr = codes.map { case (exprId, code) => exprId -> code.toAttribute }
+
+    val grouping = agg.groupingExpressions.map {
+      case attr: Attribute if codeAttr.contains(attr.exprId) => codeAttr(attr.exprId)
+      case expression => expression
+    }
+    // grouping keys output the codes, and are decoded by the project above into their former attributes
+    val outputs = agg.aggregateExpressions.map {
+      case attr: Attribute if codeAttr.contains(attr.exprId) =>
+        val code = codeAttr(attr.exprId)
+        code -> Some(decoded(code, decodes(attr.exprId), attr))
+      case alias @ Alias(attr: Attribute, name) if codeAttr.contains(attr.exprId) =>
+        val code = Alias(codeAttr(attr.exprId), name)()
+        code -> Some(decoded(code.toAttribute, decodes(attr.exprId), alias.toAttribute))
+      case named => named -> None
+    }
+    val codeAgg = Aggregate(grouping, outputs.map(_._1), codeProject)
+    Project(outputs.map {
+      case (_, Some(decode)) => decode
+      case (named, None) => named.toAttribute
+    }, codeAgg)
+  }
+
+  private def decoded(code: Attribute, decode: DimensionDictDecode, former: Attribute): NamedExpression = {
+    Alias(decode.copy(child = code), former.name)(exprId = former.exprId)
+  }
+
+  /**
+   * If the attribute is a grouping key of the aggregate, which the aggregate outputs only as is, so it is neither
+   * computed on nor aggregated.
+   */
+  private def isGroupingKeyOnly(agg: Aggregate, attr: Attribute): Boolean = {
+    def isKey(expression: Expression): Boolean = expression match {
+      case key: Attribute => key.exprId == attr.exprId
+      case _ => false
+    }
+
+    agg.groupingExpressions.exists(isKey) &&
+      agg.groupingExpressions.forall(key => isKey(key) || !key.references.contains(attr)) &&
+      agg.aggregateExpressions.forall {
+        case output if !output.references.contains(attr) => true
+        case Alias(child, _) => isKey(child)
+        case output => isKey(output)
+      }
+  }
+}
@@ -22,22 +22,29 @@ import java.sql.{Date, Timestamp}
 import org.apache.hadoop.fs.{FileStatus, Path}
 import org.apache.kylin.common.util.DateFormat
 import org.apache.kylin.cube.cuboid.Cuboid
-import org.apache.kylin.cube.CubeInstance
+import org.apache.kylin.cube.{CubeInstance, ReadySegmentIndex}
 import org.apache.kylin.engine.spark.metadata.cube.PathManager
 import org.apache.kylin.engine.spark.metadata.MetadataConverter
-import org.apache.kylin.metadata.model.{PartitionDesc, SegmentStatusEnum}
+import org.apache.kylin.metadata.model.PartitionDesc
+import org.apache.spark.dict.DimensionDictionary
 import org.apache.spark.internal.Logging
 import org.apache.spark.sql.catalyst.analysis.Resolver
 import org.apache.spark.sql.catalyst.expressions.{Attribute, AttributeSet, EmptyRow, Expression, ExpressionUtils, Literal}
 import org.apache.spark.sql.catalyst.{InternalRow, expressions}
+import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan
+import org.apache.spark.sql.execution.{FileSourceScanExec, SparkPlan}
+import org.apache.spark.sql.execution.adaptive.AdaptiveSparkPlanExec
 import org.apache.spark.sql.execution.datasources._
+import org.apache.spark.sql.internal.SQLConf
 import org.apache.spark.sql.sources._
-import org.apache.spark.sql.types.{StructField, StructType}
+import org.apache.spark.sql.types.{IntegerType, LongType, StructField, StructType}
 import org.apache.spark.sql.{AnalysisException, SparkSession}
+import org.apache.spark.sql.udaf.PreciseCardinality
 import org.apache.spark.sql.utils.SparkTypeUtil
 import org.apache.spark.util.collection.BitSet
 
 import scala.collection.JavaConverters._
+import scala.util.hashing.MurmurHash3
 
 case class SegmentDirectory(segmentName: String, identifier: String, files: Seq[FileStatus])
 
@@ -79,23 +86,47 @@ class FilePruner(cubeInstance: CubeInstance,
   val MAX_SHARDING_SIZE_PER_TASK: Long =
     cubeInstance.getConfig.getMaxShardingSizeMBPerTask * 1024 * 1024
 
+  // immutable snapshot of READY segments, taken once so that all pruning sees the same cube version
+  private lazy val readySegments: ReadySegmentIndex = cubeInstance.getReadySegmentIndex
+
   private lazy val segmentDirs: Seq[SegmentDirectory] = {
-    cubeInstance.getSegments.asScala
-      .filter(_.getStatus.equals(SegmentStatusEnum.READY)).map(seg => {
-      SegmentDirectory(seg.getName, seg.getStorageLocationIdentifier, Nil)
-    })
+    val scope = options.get(FilePruner.SEGMENTS_OPTION).map(_.split(",").filter(_.nonEmpty).toSet)
+    readySegments.getSegments.asScala
+      .filter(seg => scope.forall(_.contains(seg.getName)))
+      .map(seg => {
+        SegmentDirectory(seg.getName, seg.getStorageLocationIdentifier, Nil)
+      })
   }
 
   val layoutEntity = MetadataConverter.toLayoutEntity(cubeInstance, cuboid)
 
+  // the cardinality columns of bitmap measures are read only if all the segments are stored with them
+  lazy val cardinalityMeasures: Seq[Int] = {
+    val segments = segmentDirs.map(seg => readySegments.getSegment(seg.segmentName))
+    if (segments.nonEmpty && segments.forall(PreciseCardinality.isStored)) {
+      PreciseCardinality.bitmapMeasures(layoutEntity.getOrderedMeasures)
+    } else {
+      Seq.empty
+    }
+  }
+
+  // the dimensions stored as the codes of their dictionaries, scans of mixed segments are split by the plan
+  lazy val encodedDimensions: Map[String, Int] = {
+    DimensionDictionary.encodedColumns(segmentDirs.map(seg => readySegments.getSegment(seg.segmentName)))
+  }
+
   val dataSchema: StructType = {
     StructType(layoutEntity.getOrderedDimensions.values().asScala
-      .map { column => StructField(column.id.toString, column.dataType) }
+      .map { column =>
+        val dataType = if (encodedDimensions.contains(column.identity)) IntegerType else column.dataType
+        StructField(column.id.toString, dataType)
+      }
       .toSeq ++
       layoutEntity.getOrderedMeasures.asScala
         .map { entry =>
           StructField(entry._1.toString, SparkTypeUtil.generateFunctionReturnDataType(entry._2)) }
-        .toSeq)
+        .toSeq ++
+      cardinalityMeasures.map(id => StructField(PreciseCardinality.columnName(id), LongType)))
   }
 
   override def rootPaths: Seq[Path] = {
@@ -174,9 +205,7 @@ class FilePruner(cubeInstance: CubeInstance,
     if (!cubeInstance.getConfig.isShardingJoinOptEnabled || selected.isEmpty) {
       None
     } else {
-      val segments = selected.par.map { segDir =>
-        cubeInstance.getSegment(segDir.segmentName, SegmentStatusEnum.READY);
-      }.seq
+      val segments = selected.map(segDir => readySegments.getSegment(segDir.segmentName))
       val shardNum = segments.head.getCuboidShardNum(layoutEntity.getId).toInt
 
       // the shard num of all layout in segments must be the same
@@ -264,6 +293,9 @@ class FilePruner(cubeInstance: CubeInstance,
     selected = afterPruning("shard", dataFilters, selected) {
       pruneShards
     }
+    if (sampleFraction < 1.0) {
+      selected = sampleFiles(selected)
+    }
     // generate the ShardSpec
     shardSpec = genShardSpec(selected)
     //    QueryContextFacade.current().record("shard_pruning")
@@ -282,6 +314,35 @@ class FilePruner(cubeInstance: CubeInstance,
     }
   }
 
+  private lazy val sampleFraction: Double =
+    options.get(FilePruner.SAMPLE_FRACTION_OPTION).map(_.toDouble).getOrElse(1.0)
+
+  // relative error bound at 95% confidence of totals scaled from the sampled files of the last listing
+  @volatile var sampleRelativeError: Double = 0
+
+  /**
+   * Keeps each file with probability of the sample fraction, decided by a hash of its path so that the same
+   * query samples the same files. SUM and COUNT over the sample are scaled by 1 / fraction by the caller.
+   *
+   * Taking the total of a file proportional to its size, which holds roughly for shards of a cuboid, the
+   * variance of the scaled total is (1 - f) / f * sum(size^2) relative to sum(size)^2.
+   */
+  private def sampleFiles(selected: Seq[SegmentDirectory]): Seq[SegmentDirectory] = {
+    val sizes = selected.flatMap(_.files).map(_.getLen.toDouble)
+    val totalSize = sizes.sum
+    sampleRelativeError = if (totalSize > 0) {
+      1.96 * math.sqrt((1 - sampleFraction) / sampleFraction * sizes.map(s => s * s).sum) / totalSize
+    } else {
+      0
+    }
+    val sampled = selected
+      .map(seg => seg.copy(files = seg.files.filter(f => FilePruner.isSampled(f.getPath, sampleFraction))))
+      .filter(_.files.nonEmpty)
+    logInfo(s"Sampled ${sampled.map(_.files.size).sum} of ${sizes.size} files with fraction $sampleFraction, " +
+      s"relative error $sampleRelativeError")
+    sampled
+  }
+
   private def afterPruning(pruningType: String, specFilters: Seq[Expression],
                            inputs: Seq[SegmentDirectory])
                           (pruningFunc: (Seq[Expression], Seq[SegmentDirectory]) =>
@@ -363,9 +424,12 @@ class FilePruner(cubeInstance: CubeInstance,
         segDirs
       } else {
         val reducedFilter = translatedFilter.reduceLeft(And)
-        val pruned = segDirs.filter {
+        // the interval index narrows the candidates, then each one is checked by the exact filter
+        val (lower, upper) = SegFilters(Long.MinValue, Long.MaxValue, pattern).timeBounds(reducedFilter)
+        val overlapping = readySegments.getSegmentsOverlapping(lower, upper).asScala.map(_.getName).toSet
+        val pruned = segDirs.filter(e => overlapping.contains(e.segmentName)).filter {
           e => {
-            val tsRange = cubeInstance.getSegment(e.segmentName, SegmentStatusEnum.READY).getTSRange
+            val tsRange = readySegments.getSegment(e.segmentName).getTSRange
             SegFilters(tsRange.startValue, tsRange.endValue, pattern)
               .foldFilter(reducedFilter) match {
               case AlwaysTrue => true
@@ -388,8 +452,7 @@ class FilePruner(cubeInstance: CubeInstance,
       val normalizedFiltersAndExpr = filters.reduce(expressions.And)
 
       val pruned = segDirs.map { case SegmentDirectory(segName, segIdentifier, files) =>
-        val segment = cubeInstance.getSegment(segName, SegmentStatusEnum.READY);
-        val partitionNumber = segment.getCuboidShardNum(layoutEntity.getId).toInt
+        val partitionNumber = readySegments.getCuboidShardNum(segName, layoutEntity.getId)
         require(partitionNumber > 0, "Shards num with shard by col should greater than 0.")
 
         val bitSet = getExpressionShards(normalizedFiltersAndExpr, shardByColumn.name,
@@ -411,10 +474,7 @@ class FilePruner(cubeInstance: CubeInstance,
   override lazy val inputFiles: Array[String] = Array.empty[String]
 
   override lazy val sizeInBytes: Long = {
-    cubeInstance.getSegments.asScala
-      .filter(_.getStatus.equals(SegmentStatusEnum.READY))
-      .map(_.getSizeKB * 1024)
-      .sum
+    readySegments.getSizeKB * 1024
   }
 
   override def refresh(): Unit = {}
@@ -440,6 +500,20 @@ class FilePruner(cubeInstance: CubeInstance,
       matchedShards
     }
 
+    def getShardSetFromMassIn(attr: Attribute, values: Array[String]): BitSet = {
+      val matchedShards = new BitSet(numShards)
+      val timeZone = Option(SQLConf.get.sessionLocalTimeZone)
+      val iter = values.iterator
+      while (iter.hasNext && matchedShards.cardinality() < numShards) {
+        // a value not of the column type matches no row
+        val v = expressions.Cast(Literal(iter.next()), attr.dataType, timeZone).eval(EmptyRow)
+        if (v != null) {
+          matchedShards.set(getShardNumber(attr, v))
+        }
+      }
+      matchedShards
+    }
+
     expr match {
       case expressions.Equality(a: Attribute, Literal(v, _)) if a.name == shardColumnName =>
         getShardSetFromValue(a, v)
@@ -451,6 +525,8 @@ class FilePruner(cubeInstance: CubeInstance,
         getShardSetFromIterable(a, hset.map(e => expressions.Literal(e).eval(EmptyRow)))
       case expressions.IsNull(a: Attribute) if a.name == shardColumnName =>
         getShardSetFromValue(a, null)
+      case expressions.KylinMassIn(a: Attribute, _, values) if a.name == shardColumnName =>
+        getShardSetFromMassIn(a, values.value.getValues)
       case expressions.And(left, right) =>
         getExpressionShards(left, shardColumnName, numShards) &
           getExpressionShards(right, shardColumnName, numShards)
@@ -500,31 +576,115 @@ class FilePruner(cubeInstance: CubeInstance,
 
 object FilePruner {
 
+  // comma separated segment names, only these segments are scanned if present
+  val SEGMENTS_OPTION = "segments"
+
+  // fraction of files to scan for an approximate query, all files are scanned if absent
+  val SAMPLE_FRACTION_OPTION = "sampleFraction"
+
+  def isSampled(path: Path, fraction: Double): Boolean = {
+    val hash = MurmurHash3.stringHash(path.toString) & 0xffffffffL
+    hash < fraction * (1L << 32)
+  }
+
+  /**
+   * @return the largest relative error of the sampled scans of the plan after it is executed, 0 if nothing is sampled
+   */
+  def sampleRelativeError(plan: LogicalPlan): Double = {
+    (plan.collect {
+      case relation: LogicalRelation =>
+        relation.relation match {
+          case fsRelation: HadoopFsRelation =>
+            fsRelation.location match {
+              case pruner: FilePruner => pruner.sampleRelativeError
+              case _ => 0.0
+            }
+          case _ => 0.0
+        }
+    } :+ 0.0).max
+  }
+
   def getPartitionId(p: Path): Int = {
     // path like: part-00001-91f13932-3d5e-4f85-9a56-d1e2b47d0ccb-c000.snappy.parquet
     // we need to get 00001.
     val partitionId = p.getName.split("-", 3)(1).toInt
     partitionId
   }
+
+  /**
+   * Estimates bytes the plan will scan before it is executed, with files pruned the same way as the scan does.
+   * The pruned files are cached, so the scan does not list them again.
+   */
+  def estimateScanBytes(plan: SparkPlan): Long = {
+    plan.collect {
+      case exec: AdaptiveSparkPlanExec => estimateScanBytes(exec.inputPlan)
+      case exec: FileSourceScanExec =>
+        exec.relation.location match {
+          case pruner: FilePruner =>
+            pruner.listFiles(exec.partitionFilters, exec.dataFilters).map(_.files.map(_.getLen).sum).sum
+          case location => location.sizeInBytes
+        }
+    }.sum
+  }
 }
 
 case class SegFilters(start: Long, end: Long, pattern: String) extends Logging {
 
-  private def insurance(value: Any)
-                       (func: Long => Filter): Filter = {
+  private def toMillis(value: Any): Option[Long] = {
     value match {
       case v: Date =>
         // see SPARK-27546
-        val ts = DateFormat.stringToMillis(v.toString)
-        func(ts)
+        Some(DateFormat.stringToMillis(v.toString))
       case v @ (_:String | _: Int | _: Long) if pattern != null =>
         val format = DateFormat.getDateFormat(pattern)
-        val time = format.parse(v.toString).getTime
-        func(time)
+        Some(format.parse(v.toString).getTime)
       case v: Timestamp =>
-        func(v.getTime)
+        Some(v.getTime)
       case _ =>
-        Trivial(true)
+        None
+    }
+  }
+
+  private def insurance(value: Any)
+                       (func: Long => Filter): Filter = {
+    toMillis(value).map(func).getOrElse(Trivial(true))
+  }
+
+  /**
+   * The time range [lower, upper) covering every segment [[foldFilter]] keeps, for the interval lookup of
+   * [[org.apache.kylin.cube.ReadySegmentIndex]].
+   */
+  def timeBounds(filter: Filter): (Long, Long) = {
+    val all = (Long.MinValue, Long.MaxValue)
+    def bounded(value: Any)(func: Long => (Long, Long)): (Long, Long) = toMillis(value).map(func).getOrElse(all)
+
+    filter match {
+      case EqualTo(_, value: Any) =>
+        bounded(value)(ts => (ts, ts + 1))
+      case In(_, values: Array[Any]) =>
+        values.map(v => bounded(v)(ts => (ts, ts + 1)))
+          .reduceOption((a, b) => (Math.min(a._1, b._1), Math.max(a._2, b._2)))
+          .getOrElse((0L, 0L))
+      case IsNull(_) =>
+        (0L, 0L)
+      case GreaterThan(_, value: Any) =>
+        bounded(value)(ts => (ts, Long.MaxValue))
+      case GreaterThanOrEqual(_, value: Any) =>
+        bounded(value)(ts => (ts, Long.MaxValue))
+      case LessThan(_, value: Any) =>
+        bounded(value)(ts => (Long.MinValue, ts))
+      case LessThanOrEqual(_, value: Any) =>
+        bounded(value)(ts => (Long.MinValue, ts + 1))
+      case And(left: Filter, right: Filter) =>
+        val (l1, u1) = timeBounds(left)
+        val (l2, u2) = timeBounds(right)
+        (Math.max(l1, l2), Math.min(u1, u2))
+      case Or(left: Filter, right: Filter) =>
+        val (l1, u1) = timeBounds(left)
+        val (l2, u2) = timeBounds(right)
+        (Math.min(l1, l2), Math.max(u1, u2))
+      case _ =>
+        all
     }
   }
 
@@ -20,7 +20,7 @@ package org.apache.spark.sql.udaf
 
 import java.nio.ByteBuffer
 
-import org.apache.kylin.measure.hllc.{HLLCAggregator, HLLCounter}
+import org.apache.kylin.measure.hllc.{DenseRegisterAccumulator, HLLCAggregator, HLLCounter}
 import org.apache.spark.internal.Logging
 import org.apache.spark.sql.catalyst.InternalRow
 import org.apache.spark.sql.catalyst.expressions._
@@ -107,6 +107,59 @@ object HLLCCounter {
 
 }
 
+/**
+ * Merges serialized HLL registers into a dense register array kept by the aggregation buffer, rather than
+ * reading each input row into a new HLLCounter.
+ */
+@SerialVersionUID(1)
+abstract sealed class MergeApproxCountDistinct(
+  child: Expression,
+  precision: Int,
+  mutableAggBufferOffset: Int = 0,
+  inputAggBufferOffset: Int = 0)
+  extends TypedImperativeAggregate[DenseRegisterAccumulator] with Serializable {
+
+  override def children: Seq[Expression] = child :: Nil
+
+  override def nullable: Boolean = true
+
+  lazy val buf: ByteBuffer = ByteBuffer.allocate(1024 * 1024)
+
+  override def createAggregationBuffer(): DenseRegisterAccumulator = new DenseRegisterAccumulator(precision)
+
+  override def update(buffer: DenseRegisterAccumulator, input: InternalRow): DenseRegisterAccumulator = {
+    val colValue = child.eval(input)
+    if (colValue != null) {
+      val bytes = colValue.asInstanceOf[Array[Byte]]
+      if (bytes.nonEmpty) {
+        buffer.merge(ByteBuffer.wrap(bytes))
+      }
+    }
+    buffer
+  }
+
+  override def merge(buffer: DenseRegisterAccumulator, input: DenseRegisterAccumulator): DenseRegisterAccumulator = {
+    buffer.merge(input)
+    buffer
+  }
+
+  override def serialize(buffer: DenseRegisterAccumulator): Array[Byte] = {
+    buf.clear()
+    buffer.writeRegisters(buf)
+    buf.array().slice(0, buf.position())
+  }
+
+  override def deserialize(storageFormat: Array[Byte]): DenseRegisterAccumulator = {
+    val accumulator = createAggregationBuffer()
+    if (storageFormat.nonEmpty) {
+      accumulator.merge(ByteBuffer.wrap(storageFormat))
+    }
+    accumulator
+  }
+
+  override val prettyName: String = this.getClass.getName
+}
+
 @SerialVersionUID(1)
 case class EncodeApproxCountDistinct(
   child: Expression,
@@ -144,19 +197,13 @@ case class ReuseApproxCountDistinct(
   precision: Int,
   mutableAggBufferOffset: Int = 0,
   inputAggBufferOffset: Int = 0)
-  extends BasicApproxCountDistinct(child, precision, mutableAggBufferOffset, inputAggBufferOffset) {
+  extends MergeApproxCountDistinct(child, precision, mutableAggBufferOffset, inputAggBufferOffset) {
 
   def this(child: Expression) = this(child, 0, 0)
 
   override def dataType: DataType = BinaryType
 
-  override def update(buffer: HLLCCounter.State, input: InternalRow): HLLCCounter.State = {
-    val colValue = child.eval(input)
-    buffer.hllc.aggregate(deserialize(colValue.asInstanceOf[Array[Byte]]).hllc.getState)
-    buffer
-  }
-
-  override def eval(buffer: HLLCCounter.State): Any = {
+  override def eval(buffer: DenseRegisterAccumulator): Any = {
     serialize(buffer)
   }
 
@@ -173,20 +220,14 @@ case class ApproxCountDistinct(
   precision: Int,
   mutableAggBufferOffset: Int = 0,
   inputAggBufferOffset: Int = 0)
-  extends BasicApproxCountDistinct(child, precision, mutableAggBufferOffset, inputAggBufferOffset) {
+  extends MergeApproxCountDistinct(child, precision, mutableAggBufferOffset, inputAggBufferOffset) {
 
   def this(child: Expression) = this(child, 0, 0)
 
   override def dataType: DataType = LongType
 
-  override def update(buffer: HLLCCounter.State, input: InternalRow): HLLCCounter.State = {
-    val colValue = child.eval(input)
-    buffer.hllc.aggregate(deserialize(colValue.asInstanceOf[Array[Byte]]).hllc.getState)
-    buffer
-  }
-
-  override def eval(buffer: HLLCCounter.State): Any = {
-    buffer.hllc.getState.getCountEstimate
+  override def eval(buffer: DenseRegisterAccumulator): Any = {
+    buffer.getCountEstimate
   }
 
   override def withNewMutableAggBufferOffset(newMutableAggBufferOffset: Int): ImperativeAggregate =
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.spark.sql.udaf
+
+import java.nio.charset.Charset
+import java.nio.{ByteBuffer, ByteOrder}
+
+import org.apache.kylin.common.util.BytesUtil
+import org.apache.kylin.measure.hllc.{DenseRegisterAccumulator, HLLCounter}
+import org.apache.kylin.shaded.com.google.common.hash.Hashing
+import org.apache.spark.sql.catalyst.InternalRow
+import org.apache.spark.sql.catalyst.expressions.{AttributeReference, Expression}
+import org.apache.spark.sql.catalyst.expressions.aggregate.ImperativeAggregate
+import org.apache.spark.sql.types._
+
+/**
+ * HLL measures aggregated in fixed-width buffers: the registers are packed eight to a long slot of the
+ * aggregation buffer rather than held by a JVM object. Spark aggregates them by hash aggregate, whose buffers live
+ * in memory managed by Spark, off heap with spark.memory.offHeap.enabled, and spill through the memory manager.
+ *
+ * Evaluates to the bytes of [[HLLCounter#writeRegisters]], as [[EncodeApproxCountDistinct]] does.
+ */
+@SerialVersionUID(1)
+sealed abstract class FixedWidthApproxCountDistinct(child: Expression, precision: Int)
+  extends ImperativeAggregate with Serializable {
+
+  protected val m: Int = 1 << precision
+
+  private val words = m / 8
+
+  protected val indexLen: Int = (precision - 1) / 8 + 1
+
+  override def children: Seq[Expression] = child :: Nil
+
+  override def nullable: Boolean = true
+
+  override def dataType: DataType = BinaryType
+
+  override lazy val aggBufferAttributes: Seq[AttributeReference] =
+    Seq.tabulate(words)(i => AttributeReference(s"MS[$i]", LongType)())
+
+  override def aggBufferSchema: StructType = StructType.fromAttributes(aggBufferAttributes)
+
+  override lazy val inputAggBufferAttributes: Seq[AttributeReference] = aggBufferAttributes.map(_.newInstance())
+
+  override def initialize(buffer: InternalRow): Unit = {
+    var i = 0
+    while (i < words) {
+      buffer.setLong(mutableAggBufferOffset + i, 0L)
+      i += 1
+    }
+  }
+
+  protected def setIfBigger(buffer: InternalRow, index: Int, value: Byte): Unit = {
+    val ordinal = mutableAggBufferOffset + (index >>> 3)
+    val shift = (index & 7) << 3
+    val word = buffer.getLong(ordinal)
+    if (value > ((word >>> shift) & 0xFF)) {
+      buffer.setLong(ordinal, (word & ~(0xFFL << shift)) | (value.toLong << shift))
+    }
+  }
+
+  protected def mergeWord(buffer: InternalRow, index: Int, word: Long): Unit = {
+    val ordinal = mutableAggBufferOffset + index
+    val current = buffer.getLong(ordinal)
+    if (current != word) {
+      buffer.setLong(ordinal, FixedWidthApproxCountDistinct.maxBytes(current, word))
+    }
+  }
+
+  override def merge(buffer: InternalRow, input: InternalRow): Unit = {
+    var i = 0
+    while (i < words) {
+      mergeWord(buffer, i, input.getLong(inputAggBufferOffset + i))
+      i += 1
+    }
+  }
+
+  override def eval(buffer: InternalRow): Any = {
+    val registers = new Array[Byte](m)
+    var i = 0
+    while (i < m) {
+      registers(i) = (buffer.getLong(mutableAggBufferOffset + (i >>> 3)) >>> ((i & 7) << 3)).toByte
+      i += 1
+    }
+    val accumulator = new DenseRegisterAccumulator(precision)
+    accumulator.merge(registers)
+    val out = ByteBuffer.allocate(m + 1)
+    accumulator.writeRegisters(out)
+    java.util.Arrays.copyOf(out.array(), out.position())
+  }
+
+  override val prettyName: String = this.getClass.getName
+}
+
+object FixedWidthApproxCountDistinct {
+
+  private val hashFunction = Hashing.murmur3_128()
+
+  def hash(value: String): Long = hashFunction.hashString(value, Charset.defaultCharset()).asLong()
+
+  // registers take less than 7 bits, so the bytes compare as unsigned
+  def maxBytes(a: Long, b: Long): Long = {
+    var result = 0L
+    var shift = 0
+    while (shift < 64) {
+      result |= Math.max((a >>> shift) & 0xFF, (b >>> shift) & 0xFF) << shift
+      shift += 8
+    }
+    result
+  }
+}
+
+@SerialVersionUID(1)
+case class EncodeFixedWidthApproxCountDistinct(
+  child: Expression,
+  precision: Int,
+  mutableAggBufferOffset: Int = 0,
+  inputAggBufferOffset: Int = 0)
+  extends FixedWidthApproxCountDistinct(child, precision) {
+
+  override def update(buffer: InternalRow, input: InternalRow): Unit = {
+    val colValue = child.eval(input)
+    if (colValue != null) {
+      // the register of HLLCounter.add
+      val hash = FixedWidthApproxCountDistinct.hash(colValue.toString)
+      val bucketMask = m - 1
+      val firstOnePos = java.lang.Long.numberOfLeadingZeros(hash | bucketMask) + 1
+      setIfBigger(buffer, (hash & bucketMask).toInt, firstOnePos.toByte)
+    }
+  }
+
+  override def withNewMutableAggBufferOffset(newMutableAggBufferOffset: Int): ImperativeAggregate =
+    copy(mutableAggBufferOffset = newMutableAggBufferOffset)
+
+  override def withNewInputAggBufferOffset(newInputAggBufferOffset: Int): ImperativeAggregate =
+    copy(inputAggBufferOffset = newInputAggBufferOffset)
+}
+
+@SerialVersionUID(1)
+case class ReuseFixedWidthApproxCountDistinct(
+  child: Expression,
+  precision: Int,
+  mutableAggBufferOffset: Int = 0,
+  inputAggBufferOffset: Int = 0)
+  extends FixedWidthApproxCountDistinct(child, precision) {
+
+  override def update(buffer: InternalRow, input: InternalRow): Unit = {
+    val colValue = child.eval(input)
+    if (colValue != null) {
+      val bytes = colValue.asInstanceOf[Array[Byte]]
+      if (bytes.nonEmpty) {
+        mergeRegisters(buffer, ByteBuffer.wrap(bytes))
+      }
+    }
+  }
+
+  // reads the layouts of HLLCounter.writeRegisters
+  private def mergeRegisters(buffer: InternalRow, in: ByteBuffer): Unit = in.get() match {
+    case 0 => // map scheme
+      val size = BytesUtil.readVInt(in)
+      if (size > m) {
+        throw new IllegalArgumentException(s"register size ($size) cannot be larger than m ($m)")
+      }
+      var i = 0
+      while (i < size) {
+        val index = HLLCounter.readUnsigned(in, indexLen)
+        setIfBigger(buffer, index, in.get())
+        i += 1
+      }
+    case 1 => // array scheme, register i is the byte i % 8 of word i / 8
+      in.order(ByteOrder.LITTLE_ENDIAN)
+      var i = 0
+      while (i < m / 8) {
+        mergeWord(buffer, i, in.getLong())
+        i += 1
+      }
+    case _ =>
+      throw new IllegalStateException()
+  }
+
+  override def withNewMutableAggBufferOffset(newMutableAggBufferOffset: Int): ImperativeAggregate =
+    copy(mutableAggBufferOffset = newMutableAggBufferOffset)
+
+  override def withNewInputAggBufferOffset(newInputAggBufferOffset: Int): ImperativeAggregate =
+    copy(inputAggBufferOffset = newInputAggBufferOffset)
+}
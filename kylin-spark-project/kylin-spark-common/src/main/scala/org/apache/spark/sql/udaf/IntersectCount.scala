@@ -166,3 +166,88 @@ case class IntersectCount(child1: Expression, child2: Expression, child3: Expres
 
   override def children: Seq[Expression] = child1 :: child2 :: child3 :: Nil
 }
+
+/**
+ * Intersect count on the serialized bitmaps, see [[PortableIntersectCounter]]. Filter values are looked up by
+ * their index in the filter list, and the buffer is serialized by the index rather than by the value.
+ */
+@SerialVersionUID(1)
+case class PortableIntersectCount(child1: Expression, child2: Expression, child3: Expression,
+                                  returnDataType: DataType, upperBound: Int = 10000000,
+                                  maxPendingBytes: Long = PortableBitmapCounter.MAX_PENDING_BYTES,
+                                  mutableAggBufferOffset: Int = 0,
+                                  inputAggBufferOffset: Int = 0)
+  extends TypedImperativeAggregate[PortableIntersectCounter] with Serializable {
+
+  @transient private lazy val filters: Map[Any, Int] =
+    child3.eval().asInstanceOf[GenericArrayData].array.distinct.zipWithIndex.toMap
+
+  override def createAggregationBuffer(): PortableIntersectCounter =
+    new PortableIntersectCounter(filters.size, maxPendingBytes)
+
+  override def update(counter: PortableIntersectCounter, input: InternalRow): PortableIntersectCounter = {
+    val bitmap = child1.eval(input).asInstanceOf[Array[Byte]]
+    val key = child2.eval(input)
+    if (bitmap != null && key != null) {
+      filters.get(key).foreach(index => counter.add(index, bitmap))
+    }
+    counter
+  }
+
+  override def merge(counter: PortableIntersectCounter, input: PortableIntersectCounter): PortableIntersectCounter = {
+    if (input != null) {
+      counter.merge(input)
+    }
+    counter
+  }
+
+  override def eval(counter: PortableIntersectCounter): Any = {
+    dataType match {
+      // for intersect_count
+      case LongType => counter.getLongCardinality
+      // for intersect_value
+      case StringType =>
+        val values = boundedValues(counter)
+        if (values.isEmpty) {
+          UTF8String.EMPTY_UTF8
+        } else {
+          UTF8String.fromString(values.mkString("[", ",", "]"))
+        }
+      case ArrayType(LongType, false) =>
+        new GenericArrayData(boundedValues(counter))
+    }
+  }
+
+  private def boundedValues(counter: PortableIntersectCounter): Array[Long] = {
+    val intersection = counter.intersect()
+    if (intersection.map(_._2.getLongCardinality).sum > upperBound) {
+      throw new UnsupportedOperationException(s"Cardinality of the bitmap is greater than " +
+        s"configured upper bound(${upperBound})")
+    }
+    counter.iterator(intersection).toArray
+  }
+
+  override def serialize(counter: PortableIntersectCounter): Array[Byte] = {
+    if (counter != null) counter.serialize() else Array.empty[Byte]
+  }
+
+  override def deserialize(bytes: Array[Byte]): PortableIntersectCounter = {
+    val counter = createAggregationBuffer()
+    counter.deserialize(bytes)
+    counter
+  }
+
+  override def withNewMutableAggBufferOffset(newMutableAggBufferOffset: Int): ImperativeAggregate = {
+    copy(mutableAggBufferOffset = newMutableAggBufferOffset)
+  }
+
+  override def withNewInputAggBufferOffset(newInputAggBufferOffset: Int): ImperativeAggregate = {
+    copy(inputAggBufferOffset = newInputAggBufferOffset)
+  }
+
+  override def nullable: Boolean = false
+
+  override def dataType: DataType = returnDataType
+
+  override def children: Seq[Expression] = child1 :: child2 :: child3 :: Nil
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.spark.sql.udaf
+
+import java.nio.ByteBuffer
+
+import org.apache.kylin.measure.percentile.MergingPercentileCounter
+import org.apache.spark.sql.catalyst.InternalRow
+import org.apache.spark.sql.catalyst.expressions.Expression
+import org.apache.spark.sql.catalyst.expressions.aggregate.{ImperativeAggregate, TypedImperativeAggregate}
+import org.apache.spark.sql.types._
+
+/**
+ * Percentile measures as merging t-digests. Encoded measures are merged straight into the digest of the buffer,
+ * measures encoded by the former AVL tree digests are read as well.
+ */
+@SerialVersionUID(1)
+sealed abstract class BasePercentile(
+  child: Expression,
+  precision: Int,
+  mutableAggBufferOffset: Int = 0,
+  inputAggBufferOffset: Int = 0)
+  extends TypedImperativeAggregate[MergingPercentileCounter] with Serializable {
+
+  override def createAggregationBuffer(): MergingPercentileCounter = new MergingPercentileCounter(precision)
+
+  protected def mergeEncoded(buffer: MergingPercentileCounter, input: InternalRow): Unit = {
+    val colValue = child.eval(input)
+    if (colValue != null) {
+      val bytes = colValue.asInstanceOf[Array[Byte]]
+      if (bytes.nonEmpty) {
+        buffer.merge(ByteBuffer.wrap(bytes))
+      }
+    }
+  }
+
+  override def merge(buffer: MergingPercentileCounter, input: MergingPercentileCounter): MergingPercentileCounter = {
+    buffer.merge(input)
+    buffer
+  }
+
+  override def serialize(buffer: MergingPercentileCounter): Array[Byte] = {
+    buffer.toBytes
+  }
+
+  override def deserialize(storageFormat: Array[Byte]): MergingPercentileCounter = {
+    val counter = createAggregationBuffer()
+    if (storageFormat.nonEmpty) {
+      counter.merge(ByteBuffer.wrap(storageFormat))
+    }
+    counter
+  }
+
+  override val prettyName: String = this.getClass.getName
+}
+
+@SerialVersionUID(1)
+case class EncodePercentile(
+  child: Expression,
+  precision: Int,
+  mutableAggBufferOffset: Int = 0,
+  inputAggBufferOffset: Int = 0)
+  extends BasePercentile(child, precision, mutableAggBufferOffset, inputAggBufferOffset) {
+
+  override def children: Seq[Expression] = child :: Nil
+
+  override def nullable: Boolean = false
+
+  override def dataType: DataType = BinaryType
+
+  override def update(buffer: MergingPercentileCounter, input: InternalRow): MergingPercentileCounter = {
+    val colValue = child.eval(input)
+    if (colValue != null) {
+      buffer.add(colValue.asInstanceOf[Double])
+    }
+    buffer
+  }
+
+  override def eval(buffer: MergingPercentileCounter): Any = {
+    buffer.toBytes
+  }
+
+  override def withNewMutableAggBufferOffset(newMutableAggBufferOffset: Int): ImperativeAggregate =
+    copy(mutableAggBufferOffset = newMutableAggBufferOffset)
+
+  override def withNewInputAggBufferOffset(newInputAggBufferOffset: Int): ImperativeAggregate =
+    copy(inputAggBufferOffset = newInputAggBufferOffset)
+}
+
+@SerialVersionUID(1)
+case class ReusePercentile(
+  child: Expression,
+  precision: Int,
+  mutableAggBufferOffset: Int = 0,
+  inputAggBufferOffset: Int = 0)
+  extends BasePercentile(child, precision, mutableAggBufferOffset, inputAggBufferOffset) {
+
+  override def children: Seq[Expression] = child :: Nil
+
+  override def nullable: Boolean = false
+
+  override def dataType: DataType = BinaryType
+
+  override def update(buffer: MergingPercentileCounter, input: InternalRow): MergingPercentileCounter = {
+    mergeEncoded(buffer, input)
+    buffer
+  }
+
+  override def eval(buffer: MergingPercentileCounter): Any = {
+    buffer.toBytes
+  }
+
+  override def withNewMutableAggBufferOffset(newMutableAggBufferOffset: Int): ImperativeAggregate =
+    copy(mutableAggBufferOffset = newMutableAggBufferOffset)
+
+  override def withNewInputAggBufferOffset(newInputAggBufferOffset: Int): ImperativeAggregate =
+    copy(inputAggBufferOffset = newInputAggBufferOffset)
+}
+
+/**
+ * The estimated percentile of the encoded measures, the quantile ratio travels with the buffer.
+ */
+@SerialVersionUID(1)
+case class PercentileApprox(
+  child: Expression,
+  quantile: Expression,
+  precision: Int,
+  mutableAggBufferOffset: Int = 0,
+  inputAggBufferOffset: Int = 0)
+  extends BasePercentile(child, precision, mutableAggBufferOffset, inputAggBufferOffset) {
+
+  override def children: Seq[Expression] = child :: quantile :: Nil
+
+  override def nullable: Boolean = true
+
+  override def dataType: DataType = DoubleType
+
+  override def update(buffer: MergingPercentileCounter, input: InternalRow): MergingPercentileCounter = {
+    mergeEncoded(buffer, input)
+    val ratio = quantile.eval(input)
+    if (ratio != null) {
+      buffer.setQuantileRatio(ratio.asInstanceOf[Double])
+    }
+    buffer
+  }
+
+  override def merge(buffer: MergingPercentileCounter, input: MergingPercentileCounter): MergingPercentileCounter = {
+    if (input.getQuantileRatio >= 0) {
+      buffer.setQuantileRatio(input.getQuantileRatio)
+    }
+    super.merge(buffer, input)
+  }
+
+  override def serialize(buffer: MergingPercentileCounter): Array[Byte] = {
+    val bytes = buffer.toBytes
+    ByteBuffer.allocate(8 + bytes.length).putDouble(buffer.getQuantileRatio).put(bytes).array()
+  }
+
+  override def deserialize(storageFormat: Array[Byte]): MergingPercentileCounter = {
+    val counter = createAggregationBuffer()
+    val in = ByteBuffer.wrap(storageFormat)
+    counter.setQuantileRatio(in.getDouble)
+    counter.merge(in)
+    counter
+  }
+
+  override def eval(buffer: MergingPercentileCounter): Any = {
+    val estimate = buffer.getResultEstimateWithQuantileRatio(buffer.getQuantileRatio)
+    if (estimate == null) null else estimate.doubleValue()
+  }
+
+  override def withNewMutableAggBufferOffset(newMutableAggBufferOffset: Int): ImperativeAggregate =
+    copy(mutableAggBufferOffset = newMutableAggBufferOffset)
+
+  override def withNewInputAggBufferOffset(newInputAggBufferOffset: Int): ImperativeAggregate =
+    copy(inputAggBufferOffset = newInputAggBufferOffset)
+}
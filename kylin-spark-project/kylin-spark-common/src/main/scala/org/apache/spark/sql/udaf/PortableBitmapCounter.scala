@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.spark.sql.udaf
+
+import java.nio.ByteBuffer
+
+import com.esotericsoftware.kryo.io.{KryoDataOutput, Output}
+import org.roaringbitmap.buffer.{BufferFastAggregation, ImmutableRoaringBitmap}
+
+import scala.collection.mutable
+import scala.collection.mutable.ArrayBuffer
+
+/**
+ * Unions serialized Roaring64NavigableMap bitmaps without deserializing them.
+ *
+ * A serialized 64 bits bitmap is a signed flag, the number of 32 bits bitmaps and each of them in the portable
+ * roaring format following its high 32 bits. The 32 bits bitmaps are read in place as immutable bitmaps over the
+ * input bytes. Bitmaps of the same high bits are collected and unioned by one multi-way OR when the result is
+ * needed, when the collected bytes exceed the limit, or when some high bits collect more than the limited number
+ * of bitmaps, rather than pairwise as they come.
+ */
+class PortableBitmapCounter(
+    maxPendingBytes: Long = PortableBitmapCounter.MAX_PENDING_BYTES,
+    maxPendingBitmaps: Int = PortableBitmapCounter.MAX_PENDING_BITMAPS) {
+
+  private var signedLongs = false
+  private val bitmaps = mutable.HashMap[Int, ArrayBuffer[ImmutableRoaringBitmap]]()
+  private var pendingBytes = 0L
+
+  def add(bytes: Array[Byte]): Unit = {
+    if (bytes == null || bytes.isEmpty) {
+      return
+    }
+    add(bytes, 0, bytes.length)
+  }
+
+  /**
+   * Adds the serialized bitmap in the given range of the bytes.
+   */
+  def add(bytes: Array[Byte], offset: Int, length: Int): Unit = {
+    val buffer = ByteBuffer.wrap(bytes, offset, length)
+    signedLongs = buffer.get() != 0
+    val count = buffer.getInt()
+    var i = 0
+    while (i < count) {
+      val high = buffer.getInt()
+      val bitmap = new ImmutableRoaringBitmap(buffer)
+      val size = bitmap.serializedSizeInBytes()
+      buffer.position(buffer.position() + size)
+      val collected = bitmaps.getOrElseUpdate(high, ArrayBuffer())
+      collected += bitmap
+      unionIfFull(collected)
+      i += 1
+    }
+    pendingBytes += length
+    if (pendingBytes > maxPendingBytes) {
+      union()
+    }
+  }
+
+  def merge(other: PortableBitmapCounter): Unit = {
+    other.bitmaps.foreach { case (high, others) =>
+      val collected = bitmaps.getOrElseUpdate(high, ArrayBuffer())
+      collected ++= others
+      unionIfFull(collected)
+    }
+    if (other.bitmaps.nonEmpty) {
+      signedLongs = other.signedLongs
+    }
+    pendingBytes += other.pendingBytes
+    if (pendingBytes > maxPendingBytes) {
+      union()
+    }
+  }
+
+  /**
+   * Unions the collected bitmaps of each high bits into one.
+   */
+  def union(): Unit = {
+    bitmaps.foreach { case (_, collected) => unionCollected(collected) }
+    pendingBytes = 0L
+  }
+
+  private def unionIfFull(collected: ArrayBuffer[ImmutableRoaringBitmap]): Unit = {
+    if (collected.size > maxPendingBitmaps) {
+      unionCollected(collected)
+    }
+  }
+
+  private def unionCollected(collected: ArrayBuffer[ImmutableRoaringBitmap]): Unit = {
+    if (collected.size > 1) {
+      val unioned = BufferFastAggregation.horizontal_or(collected: _*)
+      collected.clear()
+      collected += unioned
+    }
+  }
+
+  /**
+   * The union of each high bits, in the order of Roaring64NavigableMap.
+   */
+  def unionedBitmaps(): Seq[(Int, ImmutableRoaringBitmap)] = {
+    union()
+    val highs = bitmaps.keys.toSeq
+    val sorted = if (signedLongs) highs.sorted else highs.sortWith((a, b) => Integer.compareUnsigned(a, b) < 0)
+    sorted.map(high => high -> bitmaps(high).head)
+  }
+
+  def isSignedLongs: Boolean = signedLongs
+
+  def isEmpty: Boolean = bitmaps.isEmpty
+
+  /**
+   * The cardinality of the union, a single bitmap of some high bits is counted without unioning.
+   */
+  def getLongCardinality: Long = {
+    union()
+    bitmaps.valuesIterator.map(_.head.getLongCardinality).sum
+  }
+
+  /**
+   * Serializes the union the same way as Roaring64NavigableMap, into an array of the exact size.
+   */
+  def serialize(): Array[Byte] = {
+    union()
+    val highs = bitmaps.keys.toSeq.sortWith((a, b) => Integer.compareUnsigned(a, b) < 0)
+    val size = 1 + 4 + highs.map(high => 4 + bitmaps(high).head.serializedSizeInBytes()).sum
+    val array = new Array[Byte](size)
+    val output = new KryoDataOutput(new Output(array))
+    output.writeBoolean(signedLongs)
+    output.writeInt(highs.size)
+    highs.foreach { high =>
+      output.writeInt(high)
+      bitmaps(high).head.serialize(output)
+    }
+    array
+  }
+}
+
+object PortableBitmapCounter {
+  // input bytes referenced by a buffer before they are unioned. ObjectHashAggregate holds up to
+  // spark.sql.objectHashAggregate.sortBased.fallbackThreshold (128 by default) buffers per task,
+  // so the limit is kept small enough to bound the pending input of a task rather than of a group
+  val MAX_PENDING_BYTES: Long = 512L * 1024
+
+  // bitmaps of the same high bits collected before they are unioned
+  val MAX_PENDING_BITMAPS: Int = 64
+}
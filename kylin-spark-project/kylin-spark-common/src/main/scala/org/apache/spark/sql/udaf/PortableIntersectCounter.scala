@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.spark.sql.udaf
+
+import java.nio.ByteBuffer
+
+import org.roaringbitmap.buffer.{BufferFastAggregation, ImmutableRoaringBitmap}
+
+/**
+ * Intersects serialized bitmaps by filter values, the buffer of [[PortableIntersectCount]].
+ *
+ * The bitmaps of each filter value are collected in a [[PortableBitmapCounter]] at the index of the value, and
+ * unioned in place when the result is needed or when the bytes collected by the counters exceed the limit. The
+ * unions of all filter values are intersected by one multi-way AND for each high 32 bits.
+ */
+class PortableIntersectCounter(filterSize: Int, maxPendingBytes: Long = PortableBitmapCounter.MAX_PENDING_BYTES) {
+
+  private val counters = new Array[PortableBitmapCounter](filterSize)
+
+  private def counter(index: Int): PortableBitmapCounter = {
+    if (counters(index) == null) {
+      counters(index) = new PortableBitmapCounter(Math.max(1L, maxPendingBytes / filterSize))
+    }
+    counters(index)
+  }
+
+  def add(index: Int, bytes: Array[Byte]): Unit = {
+    counter(index).add(bytes)
+  }
+
+  def merge(other: PortableIntersectCounter): Unit = {
+    var i = 0
+    while (i < filterSize) {
+      if (other.counters(i) != null) {
+        counter(i).merge(other.counters(i))
+      }
+      i += 1
+    }
+  }
+
+  /**
+   * The intersection of the filter values by high 32 bits, empty if any of the values has no bitmap.
+   */
+  def intersect(): Seq[(Int, ImmutableRoaringBitmap)] = {
+    if (filterSize == 0 || counters.exists(_ == null)) {
+      return Seq.empty
+    }
+    val unions = counters.map(_.unionedBitmaps().toMap)
+    counters.head.unionedBitmaps()
+      .filter { case (high, _) => unions.forall(_.contains(high)) }
+      .map { case (high, bitmap) =>
+        val bitmaps = unions.map(_ (high))
+        high -> (if (bitmaps.length == 1) bitmap else BufferFastAggregation.and(bitmaps: _*))
+      }
+      .filter(!_._2.isEmpty)
+  }
+
+  def getLongCardinality: Long = {
+    intersect().map(_._2.getLongCardinality).sum
+  }
+
+  /**
+   * The values of the intersection, in the order of Roaring64NavigableMap.
+   */
+  def iterator(intersection: Seq[(Int, ImmutableRoaringBitmap)] = intersect()): Iterator[Long] = {
+    intersection.iterator.flatMap { case (high, bitmap) =>
+      val ints = bitmap.getIntIterator
+      Iterator.continually(ints).takeWhile(_.hasNext)
+        .map(it => (high.toLong << 32) | (it.next() & 0xFFFFFFFFL))
+    }
+  }
+
+  /**
+   * Serializes the index and the unioned bitmap of each filter value that has any.
+   */
+  def serialize(): Array[Byte] = {
+    val serialized = counters.zipWithIndex.filter(_._1 != null).map { case (c, index) => index -> c.serialize() }
+    val buffer = ByteBuffer.allocate(4 + serialized.map(8 + _._2.length).sum)
+    buffer.putInt(serialized.length)
+    serialized.foreach { case (index, bytes) =>
+      buffer.putInt(index)
+      buffer.putInt(bytes.length)
+      buffer.put(bytes)
+    }
+    buffer.array()
+  }
+
+  def deserialize(bytes: Array[Byte]): Unit = {
+    if (bytes.isEmpty) {
+      return
+    }
+    val buffer = ByteBuffer.wrap(bytes)
+    val size = buffer.getInt()
+    var i = 0
+    while (i < size) {
+      val index = buffer.getInt()
+      val length = buffer.getInt()
+      counter(index).add(bytes, buffer.position(), length)
+      buffer.position(buffer.position() + length)
+      i += 1
+    }
+  }
+}
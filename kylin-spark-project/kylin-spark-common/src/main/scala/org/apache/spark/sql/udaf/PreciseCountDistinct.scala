@@ -18,15 +18,23 @@
 
 package org.apache.spark.sql.udaf
 
-import com.esotericsoftware.kryo.KryoException
+import java.util
+
 import com.esotericsoftware.kryo.io.{Input, KryoDataInput, KryoDataOutput, Output}
+import org.apache.kylin.cube.CubeSegment
+import org.apache.kylin.engine.spark.metadata.FunctionDesc
+import org.apache.kylin.measure.bitmap.BitmapMeasureType
 import org.apache.spark.internal.Logging
 import org.apache.spark.sql.catalyst.InternalRow
 import org.apache.spark.sql.catalyst.expressions._
 import org.apache.spark.sql.catalyst.expressions.aggregate.{ImperativeAggregate, TypedImperativeAggregate}
+import org.apache.spark.sql.functions.col
 import org.apache.spark.sql.types._
+import org.apache.spark.sql.{DataFrame, KylinFunctions}
 import org.roaringbitmap.longlong.Roaring64NavigableMap
 
+import scala.collection.JavaConverters._
+
 // scalastyle:off
 @ExpressionDescription(usage = "PreciseCountDistinct(expr)")
 @SerialVersionUID(1)
@@ -48,31 +56,12 @@ sealed abstract class BasicPreciseCountDistinct(
     buffer
   }
 
-  var array: Array[Byte] = _
-  var output: Output = _
-
   override def serialize(buffer: Roaring64NavigableMap): Array[Byte] = {
-    try {
-      if (array == null) {
-        array = new Array[Byte](1024 * 1024)
-        output = new Output(array)
-      }
-      buffer.runOptimize()
-      output.clear()
-      val dos = new KryoDataOutput(output)
-      buffer.serialize(dos)
-      val i = output.position()
-      output.close()
-      array.slice(0, i)
-    } catch {
-      case th: KryoException if th.getMessage.contains("Buffer overflow") =>
-        logInfo(s"Resize buffer size to ${array.length * 2}")
-        array = new Array[Byte](array.length * 2)
-        output.setBuffer(array)
-        serialize(buffer)
-      case th =>
-        throw th
-    }
+    buffer.runOptimize()
+    // serialize into an array of the exact size, no buffer to grow or copy from
+    val array = new Array[Byte](buffer.serializedSizeInBytes().toInt)
+    buffer.serialize(new KryoDataOutput(new Output(array)))
+    array
   }
 
   override def deserialize(bytes: Array[Byte]): Roaring64NavigableMap = {
@@ -172,3 +161,103 @@ case class PreciseCountDistinct(
     copy(inputAggBufferOffset = newInputAggBufferOffset)
 }
 
+
+/**
+ * Counts the distinct values of bitmap measures on their serialized bytes, see [[PortableBitmapCounter]].
+ * The bitmaps of a partition are unioned once before its buffer is serialized, and the final bitmap is
+ * counted without being built as a Roaring64NavigableMap or serialized.
+ */
+@ExpressionDescription(usage = "PortablePreciseCountDistinct(expr)")
+@SerialVersionUID(1)
+case class PortablePreciseCountDistinct(
+  child: Expression,
+  maxPendingBytes: Long = PortableBitmapCounter.MAX_PENDING_BYTES,
+  mutableAggBufferOffset: Int = 0,
+  inputAggBufferOffset: Int = 0)
+  extends TypedImperativeAggregate[PortableBitmapCounter] with Serializable {
+
+  def this(child: Expression) = this(child, PortableBitmapCounter.MAX_PENDING_BYTES, 0, 0)
+
+  override def children: Seq[Expression] = child :: Nil
+
+  override def nullable: Boolean = false
+
+  override def dataType: DataType = LongType
+
+  override def createAggregationBuffer(): PortableBitmapCounter = new PortableBitmapCounter(maxPendingBytes)
+
+  override def update(buffer: PortableBitmapCounter, input: InternalRow): PortableBitmapCounter = {
+    buffer.add(child.eval(input).asInstanceOf[Array[Byte]])
+    buffer
+  }
+
+  override def merge(buffer: PortableBitmapCounter, input: PortableBitmapCounter): PortableBitmapCounter = {
+    buffer.merge(input)
+    buffer
+  }
+
+  override def eval(buffer: PortableBitmapCounter): Any = {
+    buffer.getLongCardinality
+  }
+
+  override def serialize(buffer: PortableBitmapCounter): Array[Byte] = {
+    buffer.serialize()
+  }
+
+  override def deserialize(bytes: Array[Byte]): PortableBitmapCounter = {
+    val counter = new PortableBitmapCounter(maxPendingBytes)
+    counter.add(bytes)
+    counter
+  }
+
+  override def withNewMutableAggBufferOffset(newMutableAggBufferOffset: Int): ImperativeAggregate =
+    copy(mutableAggBufferOffset = newMutableAggBufferOffset)
+
+  override def withNewInputAggBufferOffset(newInputAggBufferOffset: Int): ImperativeAggregate =
+    copy(inputAggBufferOffset = newInputAggBufferOffset)
+
+  override val prettyName: String = "precise_count_distinct"
+}
+
+/**
+ * Cardinality columns stored next to the bitmap measures of cuboids, so that queries exactly matching
+ * a cuboid read the cardinality of each row instead of deserializing its bitmap.
+ */
+object PreciseCardinality {
+
+  // set in the additional info of segments whose cuboids are all stored with the cardinality columns
+  val SEGMENT_INFO_KEY = "preciseCardinalityColumns"
+
+  private val COLUMN_SUFFIX = "_cardinality"
+
+  def columnName(measureId: Int): String = s"$measureId$COLUMN_SUFFIX"
+
+  def measureId(columnName: String): Int = columnName.stripSuffix(COLUMN_SUFFIX).toInt
+
+  def isBitmap(function: FunctionDesc): Boolean = {
+    function.expression.equalsIgnoreCase("COUNT_DISTINCT") &&
+      function.returnType.dataType.equalsIgnoreCase(BitmapMeasureType.DATATYPE_BITMAP)
+  }
+
+  def bitmapMeasures(measures: util.Map[Integer, FunctionDesc]): Seq[Int] = {
+    measures.asScala.filter(entry => isBitmap(entry._2)).keys.map(_.intValue()).toSeq.sorted
+  }
+
+  /**
+   * Appends the cardinality column of each bitmap measure to the cuboid rows.
+   */
+  def withCardinalityColumns(dataset: DataFrame, measures: util.Map[Integer, FunctionDesc]): DataFrame = {
+    val cardinalities = bitmapMeasures(measures).map { id =>
+      KylinFunctions.precise_count_distinct_decode(col(id.toString)).as(columnName(id))
+    }
+    if (cardinalities.isEmpty) {
+      dataset
+    } else {
+      dataset.select(col("*") +: cardinalities: _*)
+    }
+  }
+
+  def isStored(segment: CubeSegment): Boolean = {
+    "true".equalsIgnoreCase(segment.getAdditionalInfo.get(SEGMENT_INFO_KEY))
+  }
+}
@@ -18,110 +18,59 @@
 
 package org.apache.spark.sql.udaf
 
-import com.esotericsoftware.kryo.KryoException
-import com.esotericsoftware.kryo.io.{Input, KryoDataInput, KryoDataOutput, Output}
-import org.apache.kylin.measure.topn.TopNCounter
-import org.apache.spark.internal.Logging
+import org.apache.kylin.measure.topn.{ArrayTopNCounter, TopNCounter}
 import org.apache.spark.sql.catalyst.InternalRow
 import org.apache.spark.sql.catalyst.expressions.aggregate.{ImperativeAggregate, TypedImperativeAggregate}
-import org.apache.spark.sql.catalyst.expressions.{Expression, UnsafeRow}
+import org.apache.spark.sql.catalyst.expressions.{Expression, GenericInternalRow, UnsafeRow}
 import org.apache.spark.sql.catalyst.util.ArrayData
 import org.apache.spark.sql.types._
-
-import scala.collection.JavaConverters._
+import org.apache.spark.unsafe.types.UTF8String
 
 @SerialVersionUID(1)
 sealed abstract class BaseTopN(precision: Int,
                                internalSchema: StructType,
                                mutableAggBufferOffset: Int = 0,
                                inputAggBufferOffset: Int = 0
-                              ) extends TypedImperativeAggregate[TopNCounter[Seq[Any]]] with Serializable with Logging {
-  lazy val serializers: Seq[NullSafeValueSerializer] =
-    Seq(new DoubleSerializer) ++ internalSchema.drop(1).map(_.dataType).map {
-      case BooleanType => new BooleanSerializer
-      case ByteType => new ByteSerializer
-      case ShortType => new ShortSerializer
-      case IntegerType => new IntegerSerializer
-      case FloatType => new FloatSerializer
-      case LongType => new LongSerializer
-      case DoubleType => new DoubleSerializer
-      case TimestampType => new LongSerializer
-      case DateType => new IntegerSerializer
-      case StringType => new StringSerializer
-      case dt => throw new UnsupportedOperationException("Unsupported TopN dimension type: " + dt)
-    }
-
-  override def createAggregationBuffer(): TopNCounter[Seq[Any]] = new TopNCounter[Seq[Any]](precision * TopNCounter.EXTRA_SPACE_RATE)
-
-  override def merge(buffer: TopNCounter[Seq[Any]], input: TopNCounter[Seq[Any]]): TopNCounter[Seq[Any]] = {
-    input.getCounterList.asScala.foreach { c =>
-      buffer.offer(c.getItem, c.getCount)
+                              ) extends TypedImperativeAggregate[ArrayTopNCounter] with Serializable {
+  lazy val bufferSerializer: TopNBufferSerializer =
+    new TopNBufferSerializer(internalSchema.drop(1).map(_.dataType))
+
+  override def createAggregationBuffer(): ArrayTopNCounter =
+    new ArrayTopNCounter(precision * TopNCounter.EXTRA_SPACE_RATE)
+
+  override def merge(buffer: ArrayTopNCounter, input: ArrayTopNCounter): ArrayTopNCounter = {
+    var slot = 0
+    while (slot < input.size()) {
+      if (input.isNullCount(slot)) {
+        buffer.offer(input.getItem(slot), null: java.lang.Double)
+      } else {
+        buffer.offer(input.getItem(slot), input.getCount(slot))
+      }
+      slot += 1
     }
     buffer
   }
 
-  override def eval(buffer: TopNCounter[Seq[Any]]): Any = {
-    buffer.sortAndRetain()
-    val seq = buffer.getCounterList.asScala.map(
-      entry => InternalRow(entry.getCount, InternalRow(entry.getItem: _*))
-    )
+  override def eval(buffer: ArrayTopNCounter): Any = {
+    val seq = buffer.sortedSlots().map { slot =>
+      val count = if (buffer.isNullCount(slot)) null else buffer.getCount(slot)
+      InternalRow(count, new GenericInternalRow(buffer.getItem(slot).asInstanceOf[Array[Any]]))
+    }
     ArrayData.toArrayData(seq)
   }
 
-  var array: Array[Byte] = _
-  var output: Output = _
-
-  override def serialize(topNCounter: TopNCounter[Seq[Any]]): Array[Byte] = {
-    try {
-      if (topNCounter != null) {
-        if (array == null) {
-          array = new Array[Byte](1024 * 1024)
-          output = new Output(array)
-        }
-        output.clear()
-        val out = new KryoDataOutput(output)
-        topNCounter.sortAndRetain()
-        val counters = topNCounter.getCounterList
-        out.writeInt(counters.size())
-        counters.asScala.foreach { counter =>
-          val values = Seq(counter.getCount) ++ counter.getItem
-          values.zip(serializers).foreach { case (value, ser) =>
-            ser.serialize(out, value)
-          }
-        }
-        val i = output.position()
-        output.close()
-        array.slice(0, i)
-      } else {
-        Array.empty[Byte]
-      }
-    } catch {
-      case th: KryoException if th.getMessage.contains("Buffer overflow") =>
-        logWarning(s"Resize buffer size to ${array.length * 2}")
-        array = new Array[Byte](array.length * 2)
-        output.setBuffer(array)
-        serialize(topNCounter)
-      case th =>
-        throw th
+  override def serialize(counter: ArrayTopNCounter): Array[Byte] = {
+    if (counter != null) {
+      bufferSerializer.serialize(counter)
+    } else {
+      Array.empty[Byte]
     }
   }
 
-  override def deserialize(bytes: Array[Byte]): TopNCounter[Seq[Any]] = {
-    val topNCounter = new TopNCounter[Seq[Any]](precision * TopNCounter.EXTRA_SPACE_RATE)
-    if (bytes.nonEmpty) {
-      val in = new KryoDataInput(new Input(bytes))
-      val size = in.readInt()
-      for (_ <- 0 until size) {
-        val values = serializers.map(_.deserialize(in))
-        val item = values.drop(1)
-        if (values.head == null) {
-          topNCounter.offer(item, null)
-        } else {
-          topNCounter.offer(item, values.head.asInstanceOf[Double])
-        }
-      }
-    }
-    topNCounter
+  override def deserialize(bytes: Array[Byte]): ArrayTopNCounter = {
+    val counter = createAggregationBuffer()
+    bufferSerializer.deserialize(bytes, counter)
+    counter
   }
 
   override def nullable: Boolean = false
@@ -146,22 +95,20 @@ case class ReuseTopN(
     StructField("dim", dimType)
   ))
 
-  override def update(buffer: TopNCounter[Seq[Any]], input: InternalRow): TopNCounter[Seq[Any]] = {
+  override def update(buffer: ArrayTopNCounter, input: InternalRow): ArrayTopNCounter = {
     val datum = child.eval(input).asInstanceOf[ArrayData].toArray[UnsafeRow](innerType)
     datum.foreach { data =>
       val value = data.getDouble(0)
       val dims = data.get(1, dimType).asInstanceOf[InternalRow]
-      val item = dimType.fields.map(_.dataType).zipWithIndex.map {
+      val item = new Array[AnyRef](dimType.size)
+      dimType.fields.map(_.dataType).zipWithIndex.foreach {
+        case (_, index) if dims.isNullAt(index) =>
         case (StringType, index) =>
-          val result = dims.get(index, StringType)
-          if (null != result) {
-            dims.getString(index)
-          } else {
-            result
-          }
+          // the row is over the input, keep a copy
+          item(index) = dims.getUTF8String(index).clone()
         case (dataType, index) =>
-          dims.get(index, dataType)
-      }.toSeq
+          item(index) = dims.get(index, dataType).asInstanceOf[AnyRef]
+      }
       buffer.offer(item, value)
     }
     buffer
@@ -184,21 +131,21 @@ case class EncodeTopN(
                        mutableAggBufferOffset: Int = 0,
                        inputAggBufferOffset: Int = 0)
   extends BaseTopN(precision, internalSchema, mutableAggBufferOffset, inputAggBufferOffset) {
-  override def update(counter: TopNCounter[Seq[Any]], input: InternalRow): TopNCounter[Seq[Any]] = {
+  override def update(counter: ArrayTopNCounter, input: InternalRow): ArrayTopNCounter = {
     val m = measure.eval(input)
     val dims = dimensions.map {
       case str: Expression if str.dataType.isInstanceOf[StringType] =>
         val value = str.eval(input)
         if (value != null) {
-          value.toString
+          value.asInstanceOf[UTF8String].clone()
         } else {
           null
         }
       case str =>
-        str.eval(input)
-    }
+        str.eval(input).asInstanceOf[AnyRef]
+    }.toArray
     if (m == null) {
-      counter.offer(dims, null)
+      counter.offer(dims, null: java.lang.Double)
     } else {
       counter.offer(dims, m.toString.toDouble)
     }
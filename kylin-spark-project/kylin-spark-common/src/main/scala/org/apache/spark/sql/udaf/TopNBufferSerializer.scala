@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.spark.sql.udaf
+
+import java.nio.ByteBuffer
+
+import com.esotericsoftware.kryo.io.{Input, KryoDataInput}
+import org.apache.kylin.measure.topn.ArrayTopNCounter
+import org.apache.spark.sql.types._
+import org.apache.spark.unsafe.Platform
+import org.apache.spark.unsafe.types.UTF8String
+
+/**
+ * Serializes a TopN aggregation buffer column by column into an array of the exact size: the counts, then the
+ * values of each dimension, every column after a bitmap of its nulls.
+ *
+ * Buffers written in the former layout, the number of counters followed by the null safe values of each
+ * counter, have no leading marker and are still read.
+ */
+@SerialVersionUID(1)
+class TopNBufferSerializer(dimensionTypes: Seq[DataType]) extends Serializable {
+
+  import TopNBufferSerializer._
+
+  dimensionTypes.foreach { dt =>
+    if (!SUPPORTED_TYPES.contains(dt)) {
+      throw new UnsupportedOperationException("Unsupported TopN dimension type: " + dt)
+    }
+  }
+
+  private lazy val legacySerializers: Seq[NullSafeValueSerializer] =
+    Seq(new DoubleSerializer) ++ dimensionTypes.map {
+      case BooleanType => new BooleanSerializer
+      case ByteType => new ByteSerializer
+      case ShortType => new ShortSerializer
+      case IntegerType | DateType => new IntegerSerializer
+      case FloatType => new FloatSerializer
+      case LongType | TimestampType => new LongSerializer
+      case DoubleType => new DoubleSerializer
+      case StringType => new StringSerializer
+    }
+
+  def serialize(counter: ArrayTopNCounter): Array[Byte] = {
+    val slots = counter.sortedSlots()
+    val bitmapSize = (slots.length + 7) / 8
+
+    var size = 4 + 4 + bitmapSize + slots.count(!counter.isNullCount(_)) * 8
+    dimensionTypes.indices.foreach { d =>
+      size += bitmapSize
+      slots.foreach { slot =>
+        val value = counter.getItem(slot)(d)
+        if (value != null) {
+          size += valueSize(dimensionTypes(d), value)
+        }
+      }
+    }
+
+    val array = new Array[Byte](size)
+    val buffer = ByteBuffer.wrap(array)
+    buffer.putInt(COLUMNAR)
+    buffer.putInt(slots.length)
+    putNulls(buffer, slots.map(counter.isNullCount))
+    slots.foreach { slot =>
+      if (!counter.isNullCount(slot)) {
+        buffer.putDouble(counter.getCount(slot))
+      }
+    }
+    dimensionTypes.zipWithIndex.foreach { case (dt, d) =>
+      putNulls(buffer, slots.map(counter.getItem(_)(d) == null))
+      slots.foreach { slot =>
+        val value = counter.getItem(slot)(d)
+        if (value != null) {
+          putValue(buffer, dt, value)
+        }
+      }
+    }
+    array
+  }
+
+  /**
+   * Offers the serialized counters into the given counter, in the serialized order.
+   */
+  def deserialize(bytes: Array[Byte], counter: ArrayTopNCounter): Unit = {
+    if (bytes.isEmpty) {
+      return
+    }
+    val buffer = ByteBuffer.wrap(bytes)
+    if (buffer.getInt() != COLUMNAR) {
+      deserializeLegacy(bytes, counter)
+      return
+    }
+
+    val size = buffer.getInt()
+    val nullCounts = getNulls(buffer, size)
+    val counts = nullCounts.map(isNull => if (isNull) 0d else buffer.getDouble())
+    val items = Array.fill(size)(new Array[AnyRef](dimensionTypes.size))
+    dimensionTypes.zipWithIndex.foreach { case (dt, d) =>
+      val nulls = getNulls(buffer, size)
+      var i = 0
+      while (i < size) {
+        if (!nulls(i)) {
+          items(i)(d) = getValue(buffer, dt)
+        }
+        i += 1
+      }
+    }
+
+    var i = 0
+    while (i < size) {
+      if (nullCounts(i)) {
+        counter.offer(items(i), null: java.lang.Double)
+      } else {
+        counter.offer(items(i), counts(i))
+      }
+      i += 1
+    }
+  }
+
+  private def deserializeLegacy(bytes: Array[Byte], counter: ArrayTopNCounter): Unit = {
+    val in = new KryoDataInput(new Input(bytes))
+    val size = in.readInt()
+    for (_ <- 0 until size) {
+      val values = legacySerializers.map(_.deserialize(in).asInstanceOf[AnyRef])
+      counter.offer(values.drop(1).toArray, values.head.asInstanceOf[java.lang.Double])
+    }
+  }
+
+  private def valueSize(dt: DataType, value: AnyRef): Int = dt match {
+    case BooleanType | ByteType => 1
+    case ShortType => 2
+    case IntegerType | DateType | FloatType => 4
+    case LongType | TimestampType | DoubleType => 8
+    case StringType => 4 + value.asInstanceOf[UTF8String].numBytes()
+  }
+
+  private def putValue(buffer: ByteBuffer, dt: DataType, value: AnyRef): Unit = dt match {
+    case BooleanType => buffer.put(if (value.asInstanceOf[Boolean]) 1.toByte else 0.toByte)
+    case ByteType => buffer.put(value.asInstanceOf[Byte])
+    case ShortType => buffer.putShort(value.asInstanceOf[Short])
+    case IntegerType | DateType => buffer.putInt(value.asInstanceOf[Int])
+    case FloatType => buffer.putFloat(value.asInstanceOf[Float])
+    case LongType | TimestampType => buffer.putLong(value.asInstanceOf[Long])
+    case DoubleType => buffer.putDouble(value.asInstanceOf[Double])
+    case StringType =>
+      val str = value.asInstanceOf[UTF8String]
+      buffer.putInt(str.numBytes())
+      str.writeToMemory(buffer.array(), Platform.BYTE_ARRAY_OFFSET + buffer.position())
+      buffer.position(buffer.position() + str.numBytes())
+  }
+
+  private def getValue(buffer: ByteBuffer, dt: DataType): AnyRef = dt match {
+    case BooleanType => java.lang.Boolean.valueOf(buffer.get() != 0)
+    case ByteType => java.lang.Byte.valueOf(buffer.get())
+    case ShortType => java.lang.Short.valueOf(buffer.getShort())
+    case IntegerType | DateType => Integer.valueOf(buffer.getInt())
+    case FloatType => java.lang.Float.valueOf(buffer.getFloat())
+    case LongType | TimestampType => java.lang.Long.valueOf(buffer.getLong())
+    case DoubleType => java.lang.Double.valueOf(buffer.getDouble())
+    case StringType =>
+      val bytes = new Array[Byte](buffer.getInt())
+      buffer.get(bytes)
+      UTF8String.fromBytes(bytes)
+  }
+
+  private def putNulls(buffer: ByteBuffer, nulls: Array[Boolean]): Unit = {
+    var i = 0
+    while (i < nulls.length) {
+      var bits = 0
+      var j = 0
+      while (j < 8 && i + j < nulls.length) {
+        if (nulls(i + j)) {
+          bits |= 1 << j
+        }
+        j += 1
+      }
+      buffer.put(bits.toByte)
+      i += 8
+    }
+  }
+
+  private def getNulls(buffer: ByteBuffer, size: Int): Array[Boolean] = {
+    val nulls = new Array[Boolean](size)
+    var i = 0
+    while (i < size) {
+      val bits = buffer.get()
+      var j = 0
+      while (j < 8 && i + j < size) {
+        nulls(i + j) = (bits & (1 << j)) != 0
+        j += 1
+      }
+      i += 8
+    }
+    nulls
+  }
+}
+
+object TopNBufferSerializer {
+  // the former layout starts with the number of counters, which is never negative
+  val COLUMNAR: Int = -1
+
+  val SUPPORTED_TYPES: Set[DataType] = Set(BooleanType, ByteType, ShortType, IntegerType, FloatType, LongType,
+    DoubleType, TimestampType, DateType, StringType)
+}
@@ -26,6 +26,7 @@ import org.apache.kylin.common.util.HadoopUtil;
 import org.apache.kylin.cube.CubeInstance;
 import org.apache.kylin.cube.CubeManager;
 import org.apache.kylin.engine.mr.steps.CubingExecutableUtil;
+import org.apache.kylin.engine.spark.metadata.cube.PathManager;
 import org.apache.kylin.job.exception.ExecuteException;
 import org.apache.kylin.job.execution.AbstractExecutable;
 import org.apache.kylin.job.execution.DefaultChainedExecutable;
@@ -65,7 +66,7 @@ public class NSparkCleanupHdfsStorageStep extends NSparkExecutable {
                 if (segmentStatus != null) {
                     for (FileStatus status : segmentStatus) {
                         String segment = status.getPath().getName();
-                        if (!segments.contains(segment)) {
+                        if (!segments.contains(segment) && !PathManager.DIMENSION_DICTIONARY_DIR.equals(segment)) {
                             logger.info("Deleting old segment storage {}", status.getPath());
                             fs.delete(status.getPath(), true);
                         }
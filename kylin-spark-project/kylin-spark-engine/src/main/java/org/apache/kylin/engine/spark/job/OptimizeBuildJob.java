@@ -53,9 +53,11 @@ import org.apache.kylin.shaded.com.google.common.base.Preconditions;
 import org.apache.kylin.shaded.com.google.common.collect.Lists;
 import org.apache.kylin.shaded.com.google.common.collect.Maps;
 import org.apache.kylin.storage.StorageFactory;
+import org.apache.spark.dict.DimensionDictionary;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.hive.utils.ResourceDetectUtils;
+import org.apache.spark.sql.udaf.PreciseCardinality;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scala.Tuple2;
@@ -216,6 +218,16 @@ public class OptimizeBuildJob extends SparkApplication {
 
         Map<String, String> additionalInfo = optSeg.getAdditionalInfo();
         additionalInfo.put("storageType", "" + IStorageAware.ID_PARQUET);
+        // the existing cuboids are copied from the original segment
+        additionalInfo.put(PreciseCardinality.SEGMENT_INFO_KEY(), String.valueOf(
+                cubeCopy.getConfig().isPreciseCardinalityColumnEnabled() && PreciseCardinality.isStored(originalSeg)));
+        // new cuboids are built from the base cuboid, so they store the codes of the same columns
+        String dimensionDictionaryColumns = originalSeg.getAdditionalInfo().get(DimensionDictionary.SEGMENT_INFO_KEY());
+        if (dimensionDictionaryColumns == null) {
+            additionalInfo.remove(DimensionDictionary.SEGMENT_INFO_KEY());
+        } else {
+            additionalInfo.put(DimensionDictionary.SEGMENT_INFO_KEY(), dimensionDictionaryColumns);
+        }
         optSeg.setAdditionalInfo(additionalInfo);
         cubeSegments.add(optSeg);
         update.setToUpdateSegs(cubeSegments.toArray(new CubeSegment[0]));
@@ -363,7 +375,7 @@ public class OptimizeBuildJob extends SparkApplication {
             saveAndUpdateLayout(afterSort, seg, layoutEntity, parentId);
         } else {
             Dataset<Row> afterAgg = CuboidAggregator.agg(ss, parent, dimIndexes, cuboid.getOrderedMeasures(),
-                    spanningTree, false);
+                    layoutEntity.getId());
             logger.info("Build layout:{}, in index:{}", layoutEntity.getId(), cuboid.getId());
             ss.sparkContext().setJobDescription("build " + layoutEntity.getId() + " from parent " + parentName);
             Set<Integer> rowKeys = layoutEntity.getOrderedDimensions().keySet();
@@ -371,6 +383,9 @@ public class OptimizeBuildJob extends SparkApplication {
             Dataset<Row> afterSort = afterAgg
                     .select(NSparkCubingUtil.getColumns(rowKeys, layoutEntity.getOrderedMeasures().keySet()))
                     .sortWithinPartitions(NSparkCubingUtil.getColumns(rowKeys));
+            if (cubeInstance.getConfig().isPreciseCardinalityColumnEnabled()) {
+                afterSort = PreciseCardinality.withCardinalityColumns(afterSort, layoutEntity.getOrderedMeasures());
+            }
 
             saveAndUpdateLayout(afterSort, seg, layoutEntity, parentId);
         }
@@ -20,10 +20,14 @@ package org.apache.kylin.engine.spark.builder;
 
 import org.apache.kylin.engine.spark.NSparkCubingEngine;
 import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.engine.spark.job.NSparkCubingUtil;
+import org.apache.kylin.engine.spark.metadata.ColumnDesc;
 import org.apache.kylin.engine.spark.metadata.SegmentInfo;
 import org.apache.kylin.engine.spark.metadata.cube.PathManager;
 import org.apache.kylin.engine.spark.metadata.cube.model.LayoutEntity;
 import org.apache.kylin.storage.StorageFactory;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.dict.DimensionDictionary;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SparkSession;
@@ -32,7 +36,9 @@ import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class CubeMergeAssist implements Serializable {
     protected static final Logger logger = LoggerFactory.getLogger(CubeMergeAssist.class);
@@ -42,6 +48,7 @@ public class CubeMergeAssist implements Serializable {
     private List<SegmentInfo> toMergeSegments;
     private SparkSession ss;
     final private List<LayoutEntity> toMergeCuboids = new ArrayList<>();
+    private Map<String, Map<ColumnDesc, Broadcast<DimensionDictionary>>> toDecodeColumns = new HashMap<>();
 
     public void setSs(SparkSession ss) {
         this.ss = ss;
@@ -71,6 +78,10 @@ public class CubeMergeAssist implements Serializable {
         this.newSegment = segment;
     }
 
+    public void setToDecodeColumns(Map<String, Map<ColumnDesc, Broadcast<DimensionDictionary>>> toDecodeColumns) {
+        this.toDecodeColumns = toDecodeColumns;
+    }
+
     public SegmentInfo getSegment() {
         return newSegment;
     }
@@ -81,7 +92,14 @@ public class CubeMergeAssist implements Serializable {
             Dataset<Row> layoutDataset = StorageFactory
                     .createEngineAdapter(layout, NSparkCubingEngine.NSparkCubingStorage.class)
                     .getFrom(PathManager.getParquetStoragePath(config, cubeId,
-                            toMergeSegments.get(i).name(), toMergeSegments.get(i).identifier(), String.valueOf(layout.getId())), ss);
+                            toMergeSegments.get(i).name(), toMergeSegments.get(i).identifier(), String.valueOf(layout.getId())), ss)
+                    // segments may be stored with or without the cardinality columns, union only the layout columns
+                    .select(NSparkCubingUtil.getColumns(layout.getOrderedDimensions().keySet(),
+                            layout.getOrderedMeasures().keySet()));
+            Map<ColumnDesc, Broadcast<DimensionDictionary>> toDecode = toDecodeColumns.get(toMergeSegments.get(i).id());
+            if (toDecode != null && !toDecode.isEmpty()) {
+                layoutDataset = DimensionDictionaryBuilder.decode(layoutDataset, toDecode);
+            }
 
             if (mergeDataset == null) {
                 mergeDataset = layoutDataset;
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.engine.spark.builder
+
+import java.util
+
+import org.apache.kylin.common.KylinConfig
+import org.apache.kylin.common.lock.DistributedLock
+import org.apache.kylin.cube.{CubeInstance, CubeSegment}
+import org.apache.kylin.engine.spark.job.NSparkCubingUtil
+import org.apache.kylin.engine.spark.metadata.{ColumnDesc, SegmentInfo}
+import org.apache.spark.broadcast.Broadcast
+import org.apache.spark.dict.DimensionDictionary
+import org.apache.spark.internal.Logging
+import org.apache.spark.sql.catalyst.expressions.{DimensionDictDecode, DimensionDictEncode}
+import org.apache.spark.sql.functions.col
+import org.apache.spark.sql.types.{IntegerType, StringType}
+import org.apache.spark.sql.{Column, Dataset, Row, SparkSession}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+/**
+ * Encodes string dimensions of the flat table into the codes of their [[DimensionDictionary]], so that cuboids
+ * store the codes. The values of the segment absent in the dictionary of a column are appended to it first.
+ */
+class DimensionDictionaryBuilder(val cube: CubeInstance,
+                                 val segment: CubeSegment,
+                                 val seg: SegmentInfo,
+                                 val ss: SparkSession) extends Logging {
+
+  @transient
+  val lock: DistributedLock = KylinConfig.getInstanceFromEnv.getDistributedLockFactory.lockForCurrentThread
+
+  private var encoded: Map[String, Int] = Map.empty
+
+  /**
+   * String dimensions of dict encoding, except the shard by columns, the partition columns of the model and the
+   * parameters of measures, which are read as plain values.
+   */
+  def encodableColumns: Seq[ColumnDesc] = {
+    val dictColumns = cube.getDescriptor.getRowkey.getRowKeyColumns
+      .filter(rowKey => rowKey.isUsingDictionary && !rowKey.isShardBy)
+      .map(_.getColRef.getIdentity)
+      .toSet
+    val partitionDesc = cube.getModel.getPartitionDesc
+    val partitionColumns = Seq(partitionDesc.getPartitionDateColumnRef, partitionDesc.getPartitionTimeColumnRef)
+      .filter(_ != null)
+      .map(_.getIdentity)
+      .toSet
+    val measureColumns = seg.layouts
+      .flatMap(_.getOrderedMeasures.values.asScala)
+      .flatMap(_.pra)
+      .map(_.id)
+      .toSet
+    seg.allRowKeyCols.filter { column =>
+      column.dataType == StringType && dictColumns.contains(column.identity) &&
+        !partitionColumns.contains(column.identity) && !measureColumns.contains(column.id)
+    }
+  }
+
+  /**
+   * The columns to encode. All the layouts of a segment store a column alike, so the layouts already built by a
+   * former attempt of the job decide for the columns they have.
+   */
+  def columnsToEncode: Seq[ColumnDesc] = {
+    val built = seg.layouts.filterNot(seg.toBuildLayouts.contains)
+    encodableColumns.filter { column =>
+      built.find(_.getOrderedDimensions.containsKey(column.id)) match {
+        case Some(layout) =>
+          val schema = ss.read.parquet(NSparkCubingUtil.getStoragePath(segment, layout.getId)).schema
+          schema(column.id.toString).dataType == IntegerType
+        case None =>
+          cube.getConfig.isDimensionDictionaryEnabled
+      }
+    }
+  }
+
+  def encode(flatTable: Dataset[Row]): Dataset[Row] = {
+    val maxSize = cube.getConfig.getDimensionDictionaryMaxSize
+    columnsToEncode.foldLeft(flatTable) { (ds, column) =>
+      val name = column.id.toString
+      val lockPath = getLockPath(column.identity)
+      lock.lock(lockPath, Long.MaxValue)
+      val dictionary = try {
+        val former = DimensionDictionary.load(cube, column.identity)
+        ss.sparkContext.setJobDescription("Collect values of " + column.identity)
+        val values = ds.select(col(name))
+          .filter(col(name).isNotNull)
+          .distinct()
+          .limit(maxSize + 1)
+          .collect()
+          .map(_.getString(0))
+        val appended = former.append(values)
+        if (appended.size > maxSize) {
+          logInfo(s"Skip encoding ${column.identity}, its dictionary exceeds $maxSize values")
+          None
+        } else {
+          if (appended ne former) {
+            DimensionDictionary.write(cube, column.identity, appended)
+          }
+          Some(appended)
+        }
+      } finally {
+        lock.unlock(lockPath)
+        ss.sparkContext.setJobDescription(null)
+      }
+
+      dictionary match {
+        case Some(dict) =>
+          encoded += column.identity -> dict.size
+          val broadcastDict = ss.sparkContext.broadcast(dict)
+          ds.withColumn(name, new Column(DimensionDictEncode(col(name).expr, column.identity, broadcastDict)))
+        case None =>
+          ds
+      }
+    }
+  }
+
+  /**
+   * The encoded columns with the versions of their dictionaries, for the additional info of the segment.
+   */
+  def segmentInfo: String = DimensionDictionary.toSegmentInfo(encoded)
+
+  private def getLockPath(identity: String) =
+    s"/${seg.project}/${cube.getName}/dimension_dict/$identity/lock"
+}
+
+object DimensionDictionaryBuilder {
+
+  /**
+   * The columns of each merging segment to decode, by segment id. Merged cuboids only store the codes of the
+   * columns encoded in all the merging segments.
+   */
+  def toDecodeForMerge(cube: CubeInstance,
+                       mergingSegments: util.List[CubeSegment],
+                       seg: SegmentInfo,
+                       ss: SparkSession): util.Map[String, util.Map[ColumnDesc, Broadcast[DimensionDictionary]]] = {
+    val segments = mergingSegments.asScala
+    val encoded = DimensionDictionary.encodedColumns(segments)
+    val columns = seg.allRowKeyCols.map(column => column.identity -> column).toMap
+    val dictionaries = mutable.Map[String, Broadcast[DimensionDictionary]]()
+    segments.map { segment =>
+      val toDecode = DimensionDictionary.storedColumns(segment).keys
+        .filterNot(encoded.contains)
+        .flatMap(identity => columns.get(identity))
+        .map { column =>
+          column -> dictionaries.getOrElseUpdate(column.identity,
+            ss.sparkContext.broadcast(DimensionDictionary.load(cube, column.identity)))
+        }.toMap
+      segment.getUuid -> toDecode.asJava
+    }.toMap.asJava
+  }
+
+  def decode(ds: Dataset[Row], columns: util.Map[ColumnDesc, Broadcast[DimensionDictionary]]): Dataset[Row] = {
+    columns.asScala
+      .filter { case (column, _) => ds.columns.contains(column.id.toString) }
+      .foldLeft(ds) { case (decoded, (column, dictionary)) =>
+        val name = column.id.toString
+        decoded.withColumn(name, new Column(DimensionDictDecode(col(name).expr, column.identity, dictionary)))
+      }
+  }
+}
@@ -33,6 +33,12 @@ class BuildJobInfos {
 
   private val parent2Children: util.Map[LayoutEntity, util.List[Long]] = new util.HashMap[LayoutEntity, util.List[Long]]
 
+  private val parentChoices: util.Map[Long, ParentCostEstimate] = new util.HashMap[Long, ParentCostEstimate]
+
+  private val actualRows: util.Map[Long, Long] = new util.HashMap[Long, Long]
+
+  private val skewedKeys: util.Map[Long, util.List[String]] = new util.HashMap[Long, util.List[String]]
+
   // MERGE
   private val sparkPlans: java.util.List[SparkPlan] = new util.LinkedList[SparkPlan]
 
@@ -206,4 +212,42 @@ class BuildJobInfos {
   def getParent2Children: util.Map[LayoutEntity, util.List[Long]] = {
     parent2Children
   }
+
+  def recordParentChoice(choice: ParentCostEstimate): Unit = {
+    parentChoices.put(choice.childId, choice)
+  }
+
+  def getParentChoices: util.Map[Long, ParentCostEstimate] = {
+    parentChoices
+  }
+
+  def recordActualRows(layoutId: Long, rows: Long): Unit = {
+    actualRows.put(layoutId, rows)
+  }
+
+  def recordSkewedKeys(layoutId: Long, keys: util.List[String]): Unit = {
+    skewedKeys.put(layoutId, keys)
+  }
+
+  /**
+   * Keys of each layout whose rows were salted into sub-partitions when aggregated.
+   */
+  def getSkewedKeys: util.Map[Long, util.List[String]] = {
+    skewedKeys
+  }
+
+  /**
+   * Ratio of estimated rows to actual rows of each cuboid whose parent is chosen by cost model.
+   */
+  def getParentChoiceAccuracy: util.Map[Long, Double] = {
+    val accuracy = new util.HashMap[Long, Double]
+    val it = parentChoices.values().iterator()
+    while (it.hasNext) {
+      val choice = it.next()
+      if (actualRows.containsKey(choice.childId) && actualRows.get(choice.childId) > 0) {
+        accuracy.put(choice.childId, choice.estimatedRows.toDouble / actualRows.get(choice.childId))
+      }
+    }
+    accuracy
+  }
 }
@@ -35,6 +35,7 @@ import org.apache.kylin.engine.mr.common.CubeStatsWriter;
 import org.apache.kylin.engine.mr.common.StatisticsDecisionUtil;
 import org.apache.kylin.engine.spark.NSparkCubingEngine;
 import org.apache.kylin.engine.spark.application.SparkApplication;
+import org.apache.kylin.engine.spark.builder.DimensionDictionaryBuilder;
 import org.apache.kylin.engine.spark.builder.NBuildSourceInfo;
 import org.apache.kylin.engine.spark.metadata.SegmentInfo;
 import org.apache.kylin.engine.spark.metadata.cube.ManagerHub;
@@ -57,9 +58,11 @@ import org.apache.kylin.shaded.com.google.common.collect.Sets;
 import org.apache.kylin.storage.StorageFactory;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.dict.DimensionDictionary;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.hive.utils.ResourceDetectUtils;
+import org.apache.spark.sql.udaf.PreciseCardinality;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scala.Tuple2;
@@ -181,6 +184,13 @@ public class CubeBuildJob extends SparkApplication {
                 sourceChooser.decideSources();
                 NBuildSourceInfo buildFromFlatTable = sourceChooser.flatTableSource();
                 Map<Long, NBuildSourceInfo> buildFromLayouts = sourceChooser.reuseSources();
+                String dimensionDictionaryColumns = "";
+                if (buildFromFlatTable != null) {
+                    DimensionDictionaryBuilder dictionaryBuilder = new DimensionDictionaryBuilder(cubeInstance,
+                            cubeInstance.getSegmentById(segId), seg, ss);
+                    buildFromFlatTable.setFlatTableDS(dictionaryBuilder.encode(buildFromFlatTable.getFlatTableDS()));
+                    dimensionDictionaryColumns = dictionaryBuilder.segmentInfo();
+                }
 
                 infos.clearCuboidsNumPerLayer(segId);
 
@@ -198,7 +208,8 @@ public class CubeBuildJob extends SparkApplication {
 
                 logger.info("Updating segment info");
                 assert buildFromFlatTable != null;
-                updateSegmentInfo(getParam(MetadataConstants.P_CUBE_ID), seg, buildFromFlatTable.getFlatTableDS().count());
+                updateSegmentInfo(getParam(MetadataConstants.P_CUBE_ID), seg, buildFromFlatTable.getFlatTableDS().count(),
+                        dimensionDictionaryColumns);
             }
             updateCubeAndSegmentMeta(getParam(MetadataConstants.P_CUBE_ID),
                     ResourceDetectUtils.getSegmentSourceSize(shareDir), recommendCuboidMap);
@@ -216,7 +227,8 @@ public class CubeBuildJob extends SparkApplication {
         }
     }
 
-    private void updateSegmentInfo(String cubeId, SegmentInfo segmentInfo, long sourceRowCount) throws IOException {
+    private void updateSegmentInfo(String cubeId, SegmentInfo segmentInfo, long sourceRowCount,
+                                   String dimensionDictionaryColumns) throws IOException {
         CubeInstance cubeInstance = cubeManager.getCubeByUuid(cubeId);
         CubeInstance cubeCopy = cubeInstance.latestCopyForWrite();
         CubeUpdate update = new CubeUpdate(cubeCopy);
@@ -235,6 +247,7 @@ public class CubeBuildJob extends SparkApplication {
             }
 
             collectPreciseStatics(cuboidIdToPreciseRows, cuboidIdToPreciseSize, layoutEntity);
+            infos.recordActualRows(layoutEntity.getId(), layoutEntity.getRows());
             cuboidStatics.add(String.format(Locale.getDefault(), template, layoutEntity.getId(),
                     layoutEntity.getRows(), layoutEntity.getByteSize(), deviation));
         }
@@ -266,6 +279,13 @@ public class CubeBuildJob extends SparkApplication {
         segment.setCuboidStaticsSizeBytes(cuboidIdToPreciseSize);
         Map<String, String> additionalInfo = segment.getAdditionalInfo();
         additionalInfo.put("storageType", "" + IStorageAware.ID_PARQUET);
+        additionalInfo.put(PreciseCardinality.SEGMENT_INFO_KEY(),
+                String.valueOf(cubeCopy.getConfig().isPreciseCardinalityColumnEnabled()));
+        if (dimensionDictionaryColumns.isEmpty()) {
+            additionalInfo.remove(DimensionDictionary.SEGMENT_INFO_KEY());
+        } else {
+            additionalInfo.put(DimensionDictionary.SEGMENT_INFO_KEY(), dimensionDictionaryColumns);
+        }
         segment.setAdditionalInfo(additionalInfo);
         cubeSegments.add(segment);
         update.setToUpdateSegs(cubeSegments.toArray(new CubeSegment[0]));
@@ -446,7 +466,7 @@ public class CubeBuildJob extends SparkApplication {
             saveAndUpdateLayout(afterSort, seg, layoutEntity, parentId);
         } else {
             Dataset<Row> afterAgg = CuboidAggregator.agg(ss, parent, dimIndexes, cuboid.getOrderedMeasures(),
-                    spanningTree, false);
+                    layoutEntity.getId());
             logger.info("Build layout:{}, in index:{}", layoutEntity.getId(), cuboid.getId());
             ss.sparkContext().setJobDescription("build " + layoutEntity.getId() + " from parent " + parentName);
             Set<Integer> rowKeys = layoutEntity.getOrderedDimensions().keySet();
@@ -454,6 +474,9 @@ public class CubeBuildJob extends SparkApplication {
             Dataset<Row> afterSort = afterAgg
                     .select(NSparkCubingUtil.getColumns(rowKeys, layoutEntity.getOrderedMeasures().keySet()))
                     .sortWithinPartitions(NSparkCubingUtil.getColumns(rowKeys));
+            if (cubeInstance.getConfig().isPreciseCardinalityColumnEnabled()) {
+                afterSort = PreciseCardinality.withCardinalityColumns(afterSort, layoutEntity.getOrderedMeasures());
+            }
 
             saveAndUpdateLayout(afterSort, seg, layoutEntity, parentId);
         }
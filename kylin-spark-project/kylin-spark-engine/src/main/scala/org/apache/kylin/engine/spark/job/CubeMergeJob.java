@@ -25,7 +25,9 @@ import org.apache.kylin.cube.CubeUpdate;
 import org.apache.kylin.engine.spark.NSparkCubingEngine;
 import org.apache.kylin.engine.spark.application.SparkApplication;
 import org.apache.kylin.engine.spark.builder.CubeMergeAssist;
+import org.apache.kylin.engine.spark.builder.DimensionDictionaryBuilder;
 import org.apache.kylin.engine.spark.builder.NBuildSourceInfo;
+import org.apache.kylin.engine.spark.metadata.ColumnDesc;
 import org.apache.kylin.engine.spark.metadata.SegmentInfo;
 import org.apache.kylin.engine.spark.metadata.cube.ManagerHub;
 import org.apache.kylin.engine.spark.metadata.cube.PathManager;
@@ -41,9 +43,12 @@ import org.apache.kylin.metadata.model.IStorageAware;
 import org.apache.kylin.shaded.com.google.common.collect.Lists;
 import org.apache.kylin.shaded.com.google.common.collect.Maps;
 import org.apache.kylin.storage.StorageFactory;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.dict.DimensionDictionary;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.udaf.PreciseCardinality;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scala.collection.JavaConversions;
@@ -90,7 +95,10 @@ public class CubeMergeJob extends SparkApplication {
         SegmentInfo mergedSegInfo = ManagerHub.getSegmentInfo(config, getParam(MetadataConstants.P_CUBE_ID), mergedSeg.getUuid());
 
         mergeCuboidsAssist = generateMergeAssist(mergingSegInfos, ss);
+        Map<String, Map<ColumnDesc, Broadcast<DimensionDictionary>>> toDecodeColumns =
+                DimensionDictionaryBuilder.toDecodeForMerge(cube, mergingSegments, mergedSegInfo, ss);
         for (CubeMergeAssist assist : mergeCuboidsAssist.values()) {
+            assist.setToDecodeColumns(toDecodeColumns);
             SpanningTree spanningTree = new ForestSpanningTree(JavaConversions.asJavaCollection(mergedSegInfo.toBuildLayouts()));
             Dataset<Row> afterMerge = assist.merge(config, cube.getName());
             LayoutEntity layout = assist.getLayout();
@@ -103,6 +111,9 @@ public class CubeMergeJob extends SparkApplication {
                 Set<Integer> dimColumns = layout.getOrderedDimensions().keySet();
                 Dataset<Row> afterAgg = CuboidAggregator.agg(ss, afterMerge, dimColumns,
                         layout.getOrderedMeasures(), spanningTree, false);
+                if (cube.getConfig().isPreciseCardinalityColumnEnabled()) {
+                    afterAgg = PreciseCardinality.withCardinalityColumns(afterAgg, layout.getOrderedMeasures());
+                }
                 afterSort = afterAgg.sortWithinPartitions(
                         NSparkCubingUtil.getColumns(dimColumns));
             }
@@ -222,6 +233,15 @@ public class CubeMergeJob extends SparkApplication {
         segment.setCuboidShardNums(cuboidShardNum);
         Map<String, String> additionalInfo = segment.getAdditionalInfo();
         additionalInfo.put("storageType", "" + IStorageAware.ID_PARQUET);
+        additionalInfo.put(PreciseCardinality.SEGMENT_INFO_KEY(),
+                String.valueOf(cubeCopy.getConfig().isPreciseCardinalityColumnEnabled()));
+        String dimensionDictionaryColumns = DimensionDictionary.toSegmentInfo(
+                DimensionDictionary.encodedColumns(JavaConversions.asScalaBuffer(mergingSegments)));
+        if (dimensionDictionaryColumns.isEmpty()) {
+            additionalInfo.remove(DimensionDictionary.SEGMENT_INFO_KEY());
+        } else {
+            additionalInfo.put(DimensionDictionary.SEGMENT_INFO_KEY(), dimensionDictionaryColumns);
+        }
         segment.setAdditionalInfo(additionalInfo);
         segment.setCuboidStaticsRowsBytes(cuboidIdToPreciseRows);
         segment.setCuboidStaticsSizeBytes(cuboidIdToPreciseSize);
@@ -21,11 +21,13 @@ package org.apache.kylin.engine.spark.job
 import java.util
 import java.util.Locale
 
+import org.apache.kylin.common.KylinConfig
 import org.apache.kylin.engine.spark.builder.CubeBuilderHelper.ENCODE_SUFFIX
 import org.apache.kylin.engine.spark.metadata.cube.model.SpanningTree
 import org.apache.kylin.engine.spark.metadata.{ColumnDesc, DTType, FunctionDesc, LiteralColumnDesc}
 import org.apache.kylin.measure.bitmap.BitmapMeasureType
 import org.apache.kylin.measure.hllc.HLLCMeasureType
+import org.apache.spark.internal.Logging
 import org.apache.spark.sql.catalyst.expressions.aggregate.AggregateFunction
 import org.apache.spark.sql.functions.{col, _}
 import org.apache.spark.sql.types.{BinaryType, BooleanType, ByteType, DoubleType, FloatType, ShortType, StringType, _}
@@ -38,7 +40,9 @@ import scala.collection.JavaConverters._
 import scala.collection.mutable
 import scala.collection.mutable.ListBuffer
 
-object CuboidAggregator {
+object CuboidAggregator extends Logging {
+  private val SKEW_SALT = "__skew_salt"
+
   def agg(ss: SparkSession,
           dataSet: DataFrame,
           dimensions: util.Set[Integer],
@@ -48,6 +52,42 @@ object CuboidAggregator {
     aggInternal(ss, dataSet, dimensions, measures, isSparkSql)
   }
 
+  /**
+   * Aggregates a layout, salting the skewed keys of its count distinct and TopN measures when built from the flat
+   * table: the rows of a skewed key are aggregated into partial measures by sub-partitions first, which are merged
+   * as a parent layout is. The skewed keys are recorded in [[BuildJobInfos]].
+   */
+  def agg(ss: SparkSession,
+          dataSet: DataFrame,
+          dimensions: util.Set[Integer],
+          measures: util.Map[Integer, FunctionDesc],
+          layoutId: Long): DataFrame = {
+    val config = KylinConfig.getInstanceFromEnv
+    if (!config.isCuboidSkewMitigationEnabled || dimensions.isEmpty || !hasSkewSensitiveMeasure(dataSet, measures)) {
+      return aggInternal(ss, dataSet, dimensions, measures, isSparkSql = false)
+    }
+
+    val keys = NSparkCubingUtil.getColumns(dimensions)
+    val skewedKeys = sampleSkewedKeys(dataSet, keys, config.getCuboidSkewSampleRate, config.getCuboidSkewThreshold)
+    if (skewedKeys.isEmpty) {
+      return aggInternal(ss, dataSet, dimensions, measures, isSparkSql = false)
+    }
+    val skewedKeyNames = skewedKeys.map(_.mkString("[", ", ", "]"))
+    logInfo(s"Salt skewed keys of layout $layoutId: ${skewedKeyNames.mkString(", ")}")
+    Option(KylinBuildEnv.get()).foreach(_.buildJobInfos.recordSkewedKeys(layoutId, skewedKeyNames.asJava))
+
+    val isSkewed = skewedKeys.map { key =>
+      keys.zip(key).map { case (column, value) => column <=> lit(value) }.reduce(_ && _)
+    }.reduce(_ || _)
+    // deterministic salts, so recomputed partitions get the same rows
+    val saltColumns = measures.asScala.values.flatMap(_.pra).filter(_.isColumnType)
+      .map(p => col(p.id.toString)).toSeq.distinct
+    val saltInputs = if (saltColumns.nonEmpty) saltColumns else dataSet.columns.map(col).toSeq
+    val salt = when(isSkewed, pmod(hash(saltInputs: _*), lit(config.getCuboidSkewSaltPartitions))).otherwise(lit(0))
+    val partial = aggregate(dataSet.withColumn(SKEW_SALT, salt), keys :+ col(SKEW_SALT), measures, isSparkSql = false)
+    aggInternal(ss, partial.drop(SKEW_SALT), dimensions, measures, isSparkSql = false)
+  }
+
   //noinspection ScalaStyle
   def aggInternal(ss: SparkSession,
                   dataSet: DataFrame,
@@ -60,6 +100,25 @@ object CuboidAggregator {
         .dropDuplicates()
     }
 
+    val reuseLayout = dataSet.schema.fieldNames
+      .contains(measures.keySet().asScala.head.toString)
+    val df = aggregate(dataSet, NSparkCubingUtil.getColumns(dimensions), measures, isSparkSql)
+
+    // Avoid sum(decimal) add more precision
+    // For example: sum(decimal(19,4)) -> decimal(29,4)  sum(sum(decimal(19,4))) -> decimal(38,4)
+    if (reuseLayout) {
+      val columns = NSparkCubingUtil.getColumns(dimensions) ++ measureColumns(dataSet.schema, measures)
+      df.select(columns: _*)
+    } else {
+      df
+    }
+  }
+
+  //noinspection ScalaStyle
+  private def aggregate(dataSet: DataFrame,
+                        keys: Seq[Column],
+                        measures: util.Map[Integer, FunctionDesc],
+                        isSparkSql: Boolean): DataFrame = {
     val reuseLayout = dataSet.schema.fieldNames
       .contains(measures.keySet().asScala.head.toString)
 
@@ -129,6 +188,15 @@ object CuboidAggregator {
             new Column(EncodeTopN(measure.returnType.precision, schema, columns.head.expr, columns.drop(1).map(_.expr))
               .toAggregateExpression()).as(id.toString)
           }
+        case "PERCENTILE_APPROX" if KylinConfig.getInstanceFromEnv.isMergingPercentileEnabled =>
+          // Uses merging t-digests, located in kylin-spark-project/kylin-spark-common/src/main/scala/org/apache/spark/sql/udaf/Percentile.scala
+          if (reuseLayout) {
+            new Column(ReusePercentile(columns.head.expr, measure.returnType.precision)
+              .toAggregateExpression()).as(id.toString)
+          } else {
+            new Column(EncodePercentile(columns.head.cast(DoubleType).expr, measure.returnType.precision)
+              .toAggregateExpression()).as(id.toString)
+          }
         case "PERCENTILE_APPROX" =>
           val udfName = UdfManager.register(measure.returnType.toKylinDataType, measure.expression, null, !reuseLayout)
           if (!reuseLayout) {
@@ -141,22 +209,43 @@ object CuboidAggregator {
       }
     }.toSeq
 
-    val df: DataFrame = if (!dimensions.isEmpty) {
+    if (keys.nonEmpty) {
       dataSet
-        .groupBy(NSparkCubingUtil.getColumns(dimensions): _*)
+        .groupBy(keys: _*)
         .agg(agg.head, agg.drop(1): _*)
     } else {
       dataSet
         .agg(agg.head, agg.drop(1): _*)
     }
+  }
 
-    // Avoid sum(decimal) add more precision
-    // For example: sum(decimal(19,4)) -> decimal(29,4)  sum(sum(decimal(19,4))) -> decimal(38,4)
-    if (reuseLayout) {
-      val columns = NSparkCubingUtil.getColumns(dimensions) ++ measureColumns(dataSet.schema, measures)
-      df.select(columns: _*)
-    } else {
-      df
+  private def hasSkewSensitiveMeasure(dataSet: DataFrame, measures: util.Map[Integer, FunctionDesc]): Boolean = {
+    // partial measures from a parent layout are already aggregated by key
+    !measures.isEmpty && !dataSet.schema.fieldNames.contains(measures.keySet().asScala.head.toString) &&
+      measures.asScala.values.exists { measure =>
+        val expression = measure.expression.toUpperCase(Locale.ROOT)
+        expression == "COUNT_DISTINCT" || expression == "TOP_N"
+      }
+  }
+
+  /**
+   * The keys taking more than the threshold of the rows sampled from the data set.
+   */
+  private def sampleSkewedKeys(dataSet: DataFrame, keys: Seq[Column], sampleRate: Double,
+                               threshold: Double): Seq[Seq[Any]] = {
+    val sampled = dataSet.select(keys: _*).sample(sampleRate).groupBy(keys: _*).count().cache()
+    try {
+      val total = sampled.agg(sum("count")).head().get(0)
+      if (total == null) {
+        Seq.empty
+      } else {
+        sampled.filter(col("count") > total.asInstanceOf[Long] * threshold)
+          .collect()
+          .map(row => keys.indices.map(row.get))
+          .toSeq
+      }
+    } finally {
+      sampled.unpersist()
     }
   }
 
@@ -176,7 +265,15 @@ object CuboidAggregator {
       if (isMultiHllcCol(columns, returnType)) {
         col = wrapMutilHllcColumn(columns: _*)
       }
-      if (!reuseLayout) {
+      val config = KylinConfig.getInstanceFromEnv
+      if (config.isFixedWidthHllcBufferEnabled && precision <= config.getFixedWidthHllcBufferMaxPrecision) {
+        // fixed-width buffers, see kylin-spark-project/kylin-spark-common/src/main/scala/org/apache/spark/sql/udaf/FixedWidthApproxCountDistinct.scala
+        if (!reuseLayout) {
+          EncodeFixedWidthApproxCountDistinct(col.expr, precision)
+        } else {
+          ReuseFixedWidthApproxCountDistinct(col.expr, precision)
+        }
+      } else if (!reuseLayout) {
         EncodeApproxCountDistinct(col.expr, precision)
       } else {
         ReuseApproxCountDistinct(col.expr, precision)
@@ -53,7 +53,11 @@ object LogJobInfoUtils {
        |build from flat table :
        |${infos.getParent2Children.asScala.filter(_._1 == null)
         .map(entry => s"[${entry._2}]").mkString("\n")}
+       |parent chosen by cost :
+       |${infos.getParentChoices.asScala.values.mkString("\n")}
+       |estimated rows / actual rows : ${infos.getParentChoiceAccuracy}
        |cuboids num per segment : ${infos.getSeg2cuboidsNumPerLayer}
+       |skewed keys : ${infos.getSkewedKeys}
        |abnormal layouts : ${infos.getAbnormalLayouts}
        |retry times : ${infos.getRetryTimes}
        |job retry infos :
@@ -111,6 +115,7 @@ object LogJobInfoUtils {
        |wait time: ${infos.waitTime}
        |build time: ${infos.buildTime}
        |add cuboids: ${infos.getAddCuboids}
+       |skewed keys : ${infos.getSkewedKeys}
        |abnormal layouts : ${infos.getAbnormalLayouts}
        |retry times : ${infos.getRetryTimes}
        |job retry infos :
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.engine.spark.job
+
+import org.apache.kylin.common.KylinConfig
+import org.apache.kylin.cube.CubeSegment
+import org.apache.kylin.engine.spark.metadata.SegmentInfo
+import org.apache.kylin.engine.spark.metadata.cube.model.LayoutEntity
+import org.apache.spark.internal.Logging
+
+import scala.collection.JavaConverters._
+
+/**
+ * The estimated cost of building a child cuboid from a parent, the parent being the flat table
+ * (parentId is ParentSourceChooser.FLAT_TABLE_FLAG) or an already built layout.
+ */
+case class ParentCostEstimate(childId: Long,
+                              parentId: Long,
+                              estimatedRows: Long,
+                              scanBytes: Long,
+                              shuffleBytes: Long,
+                              cost: Double) {
+  override def toString: String =
+    s"[child: $childId, parent: $parentId, estimated rows: $estimatedRows, scan bytes: $scanBytes, " +
+      s"shuffle bytes: $shuffleBytes, cost: ${cost.toLong}]"
+}
+
+/**
+ * Estimates scan and shuffle cost of each candidate parent with cuboid statistics.
+ *
+ * Row counts and byte sizes come from layouts already built in this segment, or else from the precise
+ * statistics of the previous segment, scaled by how this segment compares to the previous one on
+ * the layouts known in both.
+ */
+class ParentCostModel(prevRows: Map[Long, Long],
+                      prevBytes: Map[Long, Long],
+                      prevFlatTableRows: Long,
+                      prevFlatTableBytes: Long,
+                      flatTableWidth: Int,
+                      builtLayouts: Seq[LayoutEntity],
+                      parallelism: Int,
+                      shuffleWeight: Double,
+                      flatTableWeight: Double) extends Logging {
+
+  private val built: Map[Long, LayoutEntity] = builtLayouts.filter(_.getRows > 0).map(l => (l.getId, l)).toMap
+
+  private val scale: Double = {
+    val common = built.keys.filter(prevRows.contains)
+    val prev = common.map(prevRows(_)).sum
+    if (common.isEmpty || prev <= 0) 1.0 else common.map(built(_).getRows).sum.toDouble / prev
+  }
+
+  def isAvailable: Boolean = prevFlatTableRows > 0 && prevFlatTableBytes > 0 && prevRows.nonEmpty
+
+  def flatTableRows: Long = (prevFlatTableRows * scale).toLong
+
+  def flatTableBytes: Long = (prevFlatTableBytes * scale).toLong
+
+  def estimateRows(layout: LayoutEntity): Option[Long] = {
+    built.get(layout.getId).map(_.getRows)
+      .orElse(prevRows.get(layout.getId).map(r => (r * scale).toLong))
+  }
+
+  def estimateBytes(layout: LayoutEntity): Option[Long] = {
+    built.get(layout.getId).map(_.getByteSize)
+      .orElse(prevBytes.get(layout.getId).map(b => (b * scale).toLong))
+  }
+
+  /**
+   * @param parent None means the flat table
+   */
+  def estimate(child: LayoutEntity, parent: Option[LayoutEntity]): Option[ParentCostEstimate] = {
+    val parentStats = parent match {
+      case Some(p) =>
+        for (rows <- estimateRows(p); bytes <- estimateBytes(p)) yield (rows, bytes, bytes.toDouble, width(p))
+      case None =>
+        Some((flatTableRows, flatTableBytes, flatTableBytes * flatTableWeight, flatTableWidth))
+    }
+
+    parentStats.filter(_._1 > 0).map { case (parentRows, parentBytes, scanCost, parentWidth) =>
+      val childRows = math.min(estimateRows(child).getOrElse(parentRows), parentRows)
+      val shuffleBytes = if (child.isTableIndex) {
+        0L
+      } else {
+        // partial aggregation emits at most childRows per partition
+        val shuffleRows = math.min(parentRows, childRows * parallelism)
+        val bytesPerRow = (estimateRows(child), estimateBytes(child)) match {
+          case (Some(rows), Some(childBytes)) if rows > 0 => childBytes.toDouble / rows
+          case _ => parentBytes.toDouble / parentRows * width(child) / math.max(parentWidth, 1)
+        }
+        (shuffleRows * bytesPerRow).toLong
+      }
+      val parentId = parent.map(_.getId).getOrElse(ParentSourceChooser.FLAT_TABLE_FLAG)
+      ParentCostEstimate(child.getId, parentId, childRows, parentBytes, shuffleBytes,
+        scanCost + shuffleWeight * shuffleBytes)
+    }
+  }
+
+  /**
+   * The cheapest parent among the flat table and the candidate layouts, None if not able to estimate.
+   */
+  def choose(child: LayoutEntity, candidates: Seq[LayoutEntity]): Option[ParentCostEstimate] = {
+    val estimates = (None +: candidates.map(Some(_))).flatMap(estimate(child, _))
+    if (estimates.isEmpty) {
+      None
+    } else {
+      val best = estimates.minBy(_.cost)
+      logInfo(s"Choose parent ${best.parentId} for cuboid ${child.getId} out of ${estimates.mkString(", ")}")
+      Some(best)
+    }
+  }
+
+  private def width(layout: LayoutEntity): Int = {
+    layout.getOrderedDimensions.size() + layout.getOrderedMeasures.size()
+  }
+}
+
+object ParentCostModel {
+
+  def apply(segInfo: SegmentInfo, segment: CubeSegment, config: KylinConfig, parallelism: Int): ParentCostModel = {
+    val prev = Option(segment.getCubeInstance.getLatestReadySegment).filter(_.getUuid != segment.getUuid)
+
+    def toScala(m: java.util.Map[java.lang.Long, java.lang.Long]): Map[Long, Long] = {
+      Option(m).map(_.asScala.map(e => (e._1.longValue(), e._2.longValue())).toMap).getOrElse(Map.empty)
+    }
+
+    new ParentCostModel(
+      prev.map(s => toScala(s.getCuboidStaticsRows)).getOrElse(Map.empty),
+      prev.map(s => toScala(s.getCuboidStaticsSize)).getOrElse(Map.empty),
+      prev.map(_.getInputRecords).getOrElse(0L),
+      prev.map(_.getInputRecordsSize).getOrElse(0L),
+      segInfo.allColumns.size,
+      segInfo.layouts.filter(l => !segInfo.toBuildLayouts.contains(l)),
+      math.max(parallelism, 1),
+      config.getParentCostShuffleWeight,
+      config.getParentCostFlatTableWeight)
+  }
+}
@@ -52,6 +52,11 @@ class ParentSourceChooser(
 
   private var needStatistics: Boolean = false
 
+  private lazy val costModel: ParentCostModel =
+    ParentCostModel(segInfo, segment, config, ss.sparkContext.defaultParallelism)
+
+  private def useCostModel: Boolean = config.isParentCostModelEnabled && costModel.isAvailable
+
   //TODO: MetadataConverter don't have getCubeDesc() now
 
   /*val flatTableDesc = new CubeJoinedFlatTableDesc(
@@ -69,7 +74,7 @@ class ParentSourceChooser(
 
   def decideSources(): Unit = {
     toBuildTree.getRootIndexEntities.asScala.foreach { entity =>
-      val parentLayout = CuboidLayoutChooser.selectLayoutForBuild(segInfo, entity)
+      val parentLayout = chooseParentLayout(entity)
       if (parentLayout != null) {
         decideParentLayoutSource(entity, parentLayout)
       } else {
@@ -78,6 +83,23 @@ class ParentSourceChooser(
     }
   }
 
+  /**
+   * @return null means building from flat table
+   */
+  private def chooseParentLayout(entity: LayoutEntity): LayoutEntity = {
+    val candidates = CuboidLayoutChooser.candidateLayoutsForBuild(segInfo, entity)
+    val choice = if (candidates.nonEmpty && useCostModel) costModel.choose(entity, candidates) else None
+    choice match {
+      case Some(c) =>
+        if (KylinBuildEnv.get() != null) {
+          KylinBuildEnv.get().buildJobInfos.recordParentChoice(c)
+        }
+        candidates.find(_.getId == c.parentId).orNull
+      case None =>
+        CuboidLayoutChooser.selectLayoutForBuild(segInfo, entity)
+    }
+  }
+
   def decideFlatTableSource(entity: LayoutEntity): Unit = {
     if (flatTableSource == null) {
       if (segInfo.snapshotTables.nonEmpty && needEncoding) {
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.engine.spark.job
+
+import org.apache.kylin.common.KylinConfig
+import org.apache.kylin.engine.spark.metadata.{ColumnDesc, DTType, FunctionDesc}
+import org.apache.spark.sql.DataFrame
+import org.apache.spark.sql.common.{LocalMetadata, SharedSparkSession, SparderBaseFunSuite}
+import org.apache.spark.sql.types.StringType
+
+import scala.collection.JavaConverters._
+
+class TestCuboidSkewMitigation extends SparderBaseFunSuite with SharedSparkSession with LocalMetadata {
+
+  private val userId = ColumnDesc("USER_ID", StringType, "TEST_KYLIN_FACT", "TEST_KYLIN_FACT", 1, rowKey = false)
+
+  private val measures: java.util.Map[Integer, FunctionDesc] = Map[Integer, FunctionDesc](
+    Integer.valueOf(100) -> FunctionDesc("COUNT_DISTINCT", DTType("hllc", 12, 0), List(userId), "COUNT_DISTINCT"),
+    Integer.valueOf(101) -> FunctionDesc("COUNT", DTType("bigint", -1, -1), List(userId), "COUNT")).asJava
+
+  private def rows(df: DataFrame): Seq[(Int, Seq[Byte], Long)] = {
+    df.collect().map(row => (row.getInt(0), row.getAs[Array[Byte]](1).toSeq, row.getLong(2))).sortBy(_._1).toSeq
+  }
+
+  test("salted keys aggregate to the same measures") {
+    import testImplicits._
+    val config = KylinConfig.getInstanceFromEnv
+    config.setProperty("kylin.engine.spark.cuboid-skew-mitigation-enabled", "true")
+    config.setProperty("kylin.engine.spark.cuboid-skew-sample-rate", "1.0")
+    val env = KylinBuildEnv.getOrCreate(config)
+    try {
+      // key 0 takes nine tenths of the rows
+      val flatTable = (0 until 10000).map(i => (if (i % 10 == 9) i % 7 + 1 else 0, s"u${i % 3000}"))
+        .toDF("0", "1").repartition(4)
+      val dimensions = new java.util.LinkedHashSet[Integer](Seq(Integer.valueOf(0)).asJava)
+
+      val salted = CuboidAggregator.agg(spark, flatTable, dimensions, measures, 1L)
+      assert(rows(salted) == rows(CuboidAggregator.aggInternal(spark, flatTable, dimensions, measures, false)))
+      assert(env.buildJobInfos.getSkewedKeys.get(1L).asScala == Seq("[0]"))
+    } finally {
+      config.setProperty("kylin.engine.spark.cuboid-skew-mitigation-enabled", "false")
+      KylinBuildEnv.clean()
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.engine.spark.job
+
+import org.apache.spark.dict.DimensionDictionary
+import org.apache.spark.sql.{Column, DataFrame}
+import org.apache.spark.sql.catalyst.expressions.{DimensionDictDecode, DimensionDictEncode}
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, Filter}
+import org.apache.spark.sql.common.{SharedSparkSession, SparderBaseFunSuite}
+import org.apache.spark.sql.execution.datasource.DimensionDictRewrite
+import org.apache.spark.sql.functions._
+import org.apache.spark.unsafe.types.UTF8String
+
+class TestDimensionDictionary extends SparderBaseFunSuite with SharedSparkSession {
+
+  test("append keeps the codes") {
+    val dictionary = new DimensionDictionary(Array("b", "a"))
+    val appended = dictionary.append(Seq("c", "a", "d", "c"))
+    assert(appended.values.toSeq == Seq("b", "a", "c", "d"))
+    assert(appended.codeOf(UTF8String.fromString("a")) == 1)
+    assert(appended.codeOf(UTF8String.fromString("x")) == -1)
+    assert(appended.decode(3).toString == "d")
+    assert(dictionary.append(Seq("a")) eq dictionary)
+  }
+
+  test("filters and group by on codes") {
+    import testImplicits._
+    val dictionary = spark.sparkContext.broadcast(new DimensionDictionary(Array("x", "y", "z")))
+    val encoded = Seq(("x", 1), ("y", 2), ("x", 3), ("z", 4), (null, 5)).toDF("dim", "m")
+      .withColumn("dim", new Column(DimensionDictEncode(col("dim").expr, "T.DIM", dictionary)))
+    // stored apart from the decoding, as cuboid files are
+    val decoded = encoded.repartition(2)
+      .withColumn("dim", new Column(DimensionDictDecode(col("dim").expr, "T.DIM", dictionary)))
+
+    spark.experimental.extraOptimizations = Seq(DimensionDictRewrite)
+    try {
+      def check(df: DataFrame, expected: Seq[(String, Long)]): Unit = {
+        val plan = df.queryExecution.optimizedPlan
+        val onCodes = (plan.collect { case f: Filter => f.condition } ++
+          plan.collect { case a: Aggregate => a.expressions }.flatten)
+          .forall(_.find(_.isInstanceOf[DimensionDictDecode]).isEmpty)
+        assert(onCodes)
+        val result = df.collect().map(row => (row.getString(0), row.getLong(1)))
+        assert(result.sortBy(r => (r._2, String.valueOf(r._1))).toSeq == expected)
+      }
+
+      check(decoded.filter(col("dim") === "x").groupBy("dim").agg(sum("m")), Seq(("x", 4L)))
+      check(decoded.filter(col("dim").isin("y", "z", "w")).groupBy("dim").agg(sum("m")), Seq(("y", 2L), ("z", 4L)))
+      check(decoded.filter(col("dim") === "w").groupBy("dim").agg(sum("m")), Seq.empty)
+      check(decoded.groupBy("dim").agg(sum("m")), Seq(("y", 2L), ("x", 4L), ("z", 4L), (null, 5L)))
+    } finally {
+      spark.experimental.extraOptimizations = Nil
+    }
+  }
+}
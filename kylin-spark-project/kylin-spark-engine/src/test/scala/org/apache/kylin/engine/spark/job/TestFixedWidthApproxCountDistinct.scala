@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.engine.spark.job
+
+import org.apache.spark.sql.{Column, DataFrame}
+import org.apache.spark.sql.catalyst.expressions.aggregate.AggregateFunction
+import org.apache.spark.sql.common.{SharedSparkSession, SparderBaseFunSuite}
+import org.apache.spark.sql.execution.adaptive.AdaptiveSparkPlanHelper
+import org.apache.spark.sql.execution.aggregate.HashAggregateExec
+import org.apache.spark.sql.functions._
+import org.apache.spark.sql.udaf.{EncodeApproxCountDistinct, EncodeFixedWidthApproxCountDistinct, ReuseApproxCountDistinct, ReuseFixedWidthApproxCountDistinct}
+
+class TestFixedWidthApproxCountDistinct extends SparderBaseFunSuite with SharedSparkSession
+  with AdaptiveSparkPlanHelper {
+
+  private def aggregate(df: DataFrame, function: AggregateFunction): Map[Int, Seq[Byte]] = {
+    df.groupBy("key")
+      .agg(new Column(function.toAggregateExpression()).as("hllc"))
+      .collect()
+      .map(row => row.getInt(0) -> row.getAs[Array[Byte]](1).toSeq)
+      .toMap
+  }
+
+  test("same registers as the object buffers") {
+    import testImplicits._
+    // small groups written in the map scheme, large ones in the array scheme
+    val rows = (0 until 20000).map(i => (i % 7, if (i % 7 < 3) s"v${i % 50}" else s"v$i"))
+    val df = rows.toDF("key", "value").repartition(4)
+
+    Seq(10, 12).foreach { precision =>
+      val fixedWidth = df.groupBy("key")
+        .agg(new Column(EncodeFixedWidthApproxCountDistinct(col("value").expr, precision).toAggregateExpression())
+          .as("hllc"))
+      fixedWidth.collect()
+      assert(collect(fixedWidth.queryExecution.executedPlan) { case agg: HashAggregateExec => agg }.nonEmpty)
+
+      val encoded = aggregate(df, EncodeApproxCountDistinct(col("value").expr, precision))
+      assert(aggregate(df, EncodeFixedWidthApproxCountDistinct(col("value").expr, precision)) == encoded)
+
+      // merge the registers of the cuboid rows into their parent
+      val cuboid = encoded.toSeq.map { case (key, bytes) => (key % 2, bytes.toArray) }.toDF("key", "hllc")
+      assert(aggregate(cuboid, ReuseFixedWidthApproxCountDistinct(col("hllc").expr, precision)) ==
+        aggregate(cuboid, ReuseApproxCountDistinct(col("hllc").expr, precision)))
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.engine.spark.job
+
+import org.apache.kylin.engine.spark.metadata.cube.model.LayoutEntity
+import org.apache.kylin.engine.spark.metadata.{ColumnDesc, FunctionDesc}
+import org.apache.kylin.shaded.com.google.common.collect.Maps
+import org.apache.spark.sql.common.SparderBaseFunSuite
+
+class TestParentCostModel extends SparderBaseFunSuite {
+
+  private def layout(id: Long, dims: Int, rows: Long = 0, bytes: Long = 0): LayoutEntity = {
+    val entity = LayoutEntity.newLayoutEntity(id)
+    val dimensions = Maps.newHashMap[Integer, ColumnDesc]()
+    (0 until dims).foreach(i => dimensions.put(i, null))
+    val measures = Maps.newHashMap[Integer, FunctionDesc]()
+    measures.put(100000, null)
+    entity.setOrderedDimensions(dimensions)
+    entity.setOrderedMeasures(measures)
+    entity.setRows(rows)
+    entity.setByteSize(bytes)
+    entity
+  }
+
+  private def model(built: Seq[LayoutEntity]): ParentCostModel = {
+    new ParentCostModel(
+      Map(1L -> 1000000L, 2L -> 10000L, 3L -> 100L),
+      Map(1L -> 100000000L, 2L -> 500000L, 3L -> 2000L),
+      10000000L, 2000000000L, 20, built, 100, 3, 2)
+  }
+
+  test("choose the smaller built parent for a small child") {
+    val big = layout(1, 5, 2000000, 200000000)
+    val small = layout(2, 3, 20000, 1000000)
+    val choice = model(Seq(big, small)).choose(layout(3, 2), Seq(big, small))
+    assert(choice.get.parentId == 2L)
+    // scaled by built layouts, this segment is twice the previous one
+    assert(choice.get.estimatedRows == 200L)
+  }
+
+  test("fall back to flat table without statistics") {
+    val empty = new ParentCostModel(Map.empty, Map.empty, 0, 0, 20, Seq.empty, 100, 3, 2)
+    assert(!empty.isAvailable)
+    assert(empty.choose(layout(3, 2), Seq.empty).isEmpty)
+  }
+
+  test("estimate a child with size but no row statistics") {
+    val m = new ParentCostModel(
+      Map(1L -> 1000000L),
+      Map(1L -> 100000000L, 4L -> 3000L),
+      10000000L, 2000000000L, 20, Seq.empty, 100, 3, 2)
+    val estimate = m.estimate(layout(4, 2), None)
+    assert(estimate.isDefined)
+    assert(estimate.get.estimatedRows == 10000000L)
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.engine.spark.job
+
+import org.apache.spark.sql.common.{SharedSparkSession, SparderBaseFunSuite}
+import org.apache.spark.sql.functions._
+import org.apache.spark.sql.udaf.{PortableBitmapCounter, PreciseCountDistinct}
+import org.apache.spark.sql.KylinFunctions
+import org.roaringbitmap.longlong.Roaring64NavigableMap
+
+import scala.util.Random
+
+class TestPortableBitmapCounter extends SparderBaseFunSuite with SharedSparkSession {
+
+  private val serializer = new PreciseCountDistinct(null)
+
+  private def randomBitmap(random: Random): Roaring64NavigableMap = {
+    val bitmap = new Roaring64NavigableMap()
+    (0 until 1000).foreach { _ =>
+      // spread the values over a few high 32 bits
+      bitmap.addLong((random.nextInt(3).toLong << 32) + random.nextInt(100000))
+    }
+    bitmap
+  }
+
+  test("union serialized bitmaps") {
+    val random = new Random(7)
+    val bitmaps = (0 until 20).map(_ => randomBitmap(random))
+    val expected = new Roaring64NavigableMap()
+    bitmaps.foreach(expected.or)
+
+    // small limits union the collected bitmaps on the way
+    Seq(
+      (PortableBitmapCounter.MAX_PENDING_BYTES, PortableBitmapCounter.MAX_PENDING_BITMAPS),
+      (4096L, PortableBitmapCounter.MAX_PENDING_BITMAPS),
+      (PortableBitmapCounter.MAX_PENDING_BYTES, 2)).foreach { case (maxPendingBytes, maxPendingBitmaps) =>
+      val counter = new PortableBitmapCounter(maxPendingBytes, maxPendingBitmaps)
+      val other = new PortableBitmapCounter(maxPendingBytes, maxPendingBitmaps)
+      bitmaps.take(10).foreach(bitmap => counter.add(serializer.serialize(bitmap)))
+      bitmaps.drop(10).foreach(bitmap => other.add(serializer.serialize(bitmap)))
+      counter.add(Array.emptyByteArray)
+      counter.merge(other)
+
+      assert(counter.getLongCardinality == expected.getLongCardinality)
+      assert(serializer.deserialize(counter.serialize()).toArray.sameElements(expected.toArray))
+    }
+  }
+
+  test("empty counter") {
+    val counter = new PortableBitmapCounter()
+    assert(counter.getLongCardinality == 0)
+    assert(serializer.deserialize(counter.serialize()).isEmpty)
+  }
+
+  test("portable precise count distinct") {
+    import testImplicits._
+    val random = new Random(11)
+    val rows = (0 until 40).map(i => (i % 4, serializer.serialize(randomBitmap(random))))
+    val df = rows.toDF("key", "bitmap").repartition(3)
+
+    val portable = df.groupBy("key")
+      .agg(KylinFunctions.portable_precise_count_distinct(col("bitmap")).as("cnt"))
+      .sort("key").collect().map(_.getLong(1))
+    val precise = df.groupBy("key")
+      .agg(KylinFunctions.precise_count_distinct(col("bitmap")).as("cnt"))
+      .sort("key").collect().map(_.getLong(1))
+    assert(portable.toSeq == precise.toSeq)
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.engine.spark.job
+
+import org.apache.spark.sql.common.{SharedSparkSession, SparderBaseFunSuite}
+import org.apache.spark.sql.functions._
+import org.apache.spark.sql.udaf.{PortableIntersectCounter, PreciseCountDistinct}
+import org.apache.spark.sql.{Column, KylinFunctions}
+import org.roaringbitmap.longlong.Roaring64NavigableMap
+
+import scala.util.Random
+
+class TestPortableIntersectCount extends SparderBaseFunSuite with SharedSparkSession {
+
+  private val serializer = new PreciseCountDistinct(null)
+
+  private def randomBitmap(random: Random): Roaring64NavigableMap = {
+    val bitmap = new Roaring64NavigableMap()
+    (0 until 1000).foreach { _ =>
+      bitmap.addLong((random.nextInt(2).toLong << 32) + random.nextInt(3000))
+    }
+    bitmap
+  }
+
+  test("intersect serialized bitmaps") {
+    val random = new Random(5)
+    val bitmaps = (0 until 12).map(_ => randomBitmap(random))
+    // filter index i % 3, unioned by index then intersected
+    val expected = (0 until 3).map { index =>
+      val union = new Roaring64NavigableMap()
+      bitmaps.indices.filter(_ % 3 == index).foreach(i => union.or(bitmaps(i)))
+      union
+    }.reduce { (a, b) => a.and(b); a }
+
+    Seq(Long.MaxValue, 4096L).foreach { maxPendingBytes =>
+      val counter = new PortableIntersectCounter(3, maxPendingBytes)
+      val other = new PortableIntersectCounter(3, maxPendingBytes)
+      bitmaps.indices.foreach { i =>
+        (if (i < 6) counter else other).add(i % 3, serializer.serialize(bitmaps(i)))
+      }
+      counter.merge(other)
+      val read = new PortableIntersectCounter(3, maxPendingBytes)
+      read.deserialize(counter.serialize())
+
+      assert(counter.getLongCardinality == expected.getLongCardinality)
+      assert(read.iterator().toArray.sameElements(expected.toArray))
+    }
+  }
+
+  test("missing filter value") {
+    val counter = new PortableIntersectCounter(2)
+    counter.add(0, serializer.serialize(randomBitmap(new Random(1))))
+    assert(counter.getLongCardinality == 0)
+    assert(counter.iterator().isEmpty)
+  }
+
+  test("portable intersect count") {
+    import testImplicits._
+    val random = new Random(9)
+    val rows = (0 until 60).map(i => (i % 2, s"d${i % 5}", serializer.serialize(randomBitmap(random))))
+    val df = rows.toDF("key", "day", "bitmap").repartition(3)
+    val filters = array(lit("d0"), lit("d1"), lit("d3"))
+
+    // a small limit unions the collected bitmaps on the way
+    Seq(
+      ((upperBound: Int, columns: Seq[Column]) =>
+        KylinFunctions.portable_intersect_count(upperBound, 4096L, columns: _*), KylinFunctions.intersect_count _),
+      ((upperBound: Int, columns: Seq[Column]) =>
+        KylinFunctions.portable_intersect_value(upperBound, 4096L, columns: _*), KylinFunctions.intersect_value _)
+    ).foreach {
+      case (portable, former) =>
+        val expected = df.groupBy("key")
+          .agg(former(10000000, Seq(col("bitmap"), col("day"), filters)).as("result"))
+          .sort("key").collect().map(_.get(1))
+        val actual = df.groupBy("key")
+          .agg(portable(10000000, Seq(col("bitmap"), col("day"), filters)).as("result"))
+          .sort("key").collect().map(_.get(1))
+        assert(actual.toSeq == expected.toSeq)
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.engine.spark.job
+
+import org.apache.kylin.engine.spark.metadata.{ColumnDesc, DTType, FunctionDesc}
+import org.apache.spark.sql.common.{SharedSparkSession, SparderBaseFunSuite}
+import org.apache.spark.sql.functions._
+import org.apache.spark.sql.types.LongType
+import org.apache.spark.sql.udaf.{EncodePreciseCountDistinct, PreciseCardinality}
+import org.apache.spark.sql.{Column, Row}
+
+import scala.collection.JavaConverters._
+
+class TestPreciseCardinality extends SparderBaseFunSuite with SharedSparkSession {
+
+  private val column = ColumnDesc("SELLER_ID", LongType, "TEST_KYLIN_FACT", "TEST_KYLIN_FACT", 1, rowKey = false)
+
+  private val measures: java.util.Map[Integer, FunctionDesc] = Map[Integer, FunctionDesc](
+    Integer.valueOf(100) -> FunctionDesc("COUNT_DISTINCT", DTType("bitmap", -1, -1), List(column), "COUNT_DISTINCT"),
+    Integer.valueOf(101) -> FunctionDesc("COUNT", DTType("bigint", -1, -1), List(column), "COUNT")).asJava
+
+  test("cardinality columns of bitmap measures") {
+    import testImplicits._
+    assert(PreciseCardinality.bitmapMeasures(measures) == Seq(100))
+    assert(PreciseCardinality.measureId(PreciseCardinality.columnName(100)) == 100)
+
+    val cuboid = Seq((1, 10L), (1, 11L), (1, 11L), (2, 12L)).toDF("0", "1")
+      .groupBy(col("0"))
+      .agg(new Column(EncodePreciseCountDistinct(col("1").expr).toAggregateExpression()).as("100"),
+        count(col("1")).as("101"))
+
+    val stored = PreciseCardinality.withCardinalityColumns(cuboid, measures)
+    assert(stored.columns.toSeq == Seq("0", "100", "101", "100_cardinality"))
+    assert(stored.select("0", "100_cardinality").sort("0").collect().toSeq == Seq(Row(1, 2L), Row(2, 1L)))
+  }
+
+  test("no cardinality columns without bitmap measures") {
+    import testImplicits._
+    val cuboid = Seq((1, 10L)).toDF("0", "101")
+    val countOnly = Map[Integer, FunctionDesc](Integer.valueOf(101) -> measures.get(Integer.valueOf(101))).asJava
+    assert(PreciseCardinality.withCardinalityColumns(cuboid, countOnly) eq cuboid)
+  }
+}
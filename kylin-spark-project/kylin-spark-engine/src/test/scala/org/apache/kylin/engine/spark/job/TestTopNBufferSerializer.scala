@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.engine.spark.job
+
+import com.esotericsoftware.kryo.io.{KryoDataOutput, Output}
+import org.apache.kylin.measure.topn.ArrayTopNCounter
+import org.apache.spark.sql.common.SparderBaseFunSuite
+import org.apache.spark.sql.types._
+import org.apache.spark.sql.udaf._
+import org.apache.spark.unsafe.types.UTF8String
+
+class TestTopNBufferSerializer extends SparderBaseFunSuite {
+
+  private val dimensionTypes = Seq(IntegerType, StringType, BooleanType, LongType)
+
+  private def item(values: Any*): Array[AnyRef] = values.map(_.asInstanceOf[AnyRef]).toArray
+
+  private val counted = Seq(
+    (item(1, UTF8String.fromString("n1"), true, 1475204580000000L), java.lang.Double.valueOf(30.4)),
+    (item(2, UTF8String.fromString("n2"), false, 1481684580000000L), java.lang.Double.valueOf(2000)),
+    (item(null, null, null, null), java.lang.Double.valueOf(1000)),
+    (item(3, UTF8String.fromString("中文"), true, null), null))
+
+  private def contents(counter: ArrayTopNCounter): Seq[(Seq[AnyRef], Any)] = {
+    counter.sortedSlots().toSeq.map { slot =>
+      (counter.getItem(slot).toSeq, if (counter.isNullCount(slot)) null else counter.getCount(slot))
+    }
+  }
+
+  test("round trip") {
+    val serializer = new TopNBufferSerializer(dimensionTypes)
+    val counter = new ArrayTopNCounter(100)
+    counted.foreach { case (dims, count) => counter.offer(dims, count) }
+
+    val bytes = serializer.serialize(counter)
+    val deserialized = new ArrayTopNCounter(100)
+    serializer.deserialize(bytes, deserialized)
+    assert(contents(deserialized) == contents(counter))
+    assert(contents(counter).map(_._2) == Seq(2000d, 1000d, 30.4, null))
+
+    val empty = new ArrayTopNCounter(100)
+    serializer.deserialize(serializer.serialize(empty), empty)
+    serializer.deserialize(Array.emptyByteArray, empty)
+    assert(empty.size() == 0)
+  }
+
+  test("read the former layout") {
+    val legacySerializers = Seq(new DoubleSerializer, new IntegerSerializer, new StringSerializer,
+      new BooleanSerializer, new LongSerializer)
+    val output = new Output(4096)
+    val out = new KryoDataOutput(output)
+    out.writeInt(counted.size)
+    counted.foreach { case (dims, count) =>
+      (Seq(count) ++ dims).zip(legacySerializers).foreach { case (value, ser) => ser.serialize(out, value) }
+    }
+
+    val counter = new ArrayTopNCounter(100)
+    new TopNBufferSerializer(dimensionTypes).deserialize(output.toBytes, counter)
+    val expected = new ArrayTopNCounter(100)
+    counted.foreach { case (dims, count) => expected.offer(dims, count) }
+    assert(contents(counter) == contents(expected))
+  }
+
+  test("unsupported dimension type") {
+    intercept[UnsupportedOperationException] {
+      new TopNBufferSerializer(Seq(DecimalType(18, 3)))
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.spark.sql.execution.datasource
+
+import java.sql.Timestamp
+
+import org.apache.spark.sql.common.SparderBaseFunSuite
+import org.apache.spark.sql.sources._
+
+class TestSegFilters extends SparderBaseFunSuite {
+
+  private def ts(millis: Long): Timestamp = new Timestamp(millis)
+
+  test("time bounds cover every segment kept by the filter") {
+    val segments = (0 until 10).map(i => (i * 100L, i * 100L + 100))
+    val filters = Seq(
+      EqualTo("t", ts(250)),
+      In("t", Array(ts(150), ts(720))),
+      GreaterThanOrEqual("t", ts(300)),
+      LessThan("t", ts(300)),
+      LessThanOrEqual("t", ts(300)),
+      And(GreaterThan("t", ts(199)), LessThan("t", ts(500))),
+      Or(LessThan("t", ts(100)), GreaterThan("t", ts(850))),
+      And(IsNotNull("t"), StringStartsWith("s", "a")))
+
+    filters.foreach { filter =>
+      val (lower, upper) = SegFilters(Long.MinValue, Long.MaxValue, null).timeBounds(filter)
+      segments.foreach { case (start, end) =>
+        if (SegFilters(start, end, null).foldFilter(filter) == AlwaysTrue) {
+          assert(start < upper && end > lower, s"$filter keeps [$start, $end) out of [$lower, $upper)")
+        }
+      }
+    }
+    assert(SegFilters(Long.MinValue, Long.MaxValue, null).timeBounds(
+      And(GreaterThan("t", ts(199)), LessThan("t", ts(500)))) == (199L, 500L))
+  }
+}
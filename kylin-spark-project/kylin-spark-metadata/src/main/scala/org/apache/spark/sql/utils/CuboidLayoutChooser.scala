@@ -22,10 +22,14 @@ import org.apache.kylin.engine.spark.metadata.SegmentInfo
 import org.apache.kylin.engine.spark.metadata.cube.model.LayoutEntity
 
 object CuboidLayoutChooser {
-  def selectLayoutForBuild(segment: SegmentInfo, entity: LayoutEntity): LayoutEntity = {
-    val candidate = segment.layouts
+  def candidateLayoutsForBuild(segment: SegmentInfo, entity: LayoutEntity): List[LayoutEntity] = {
+    segment.layouts
       .filter(index => index.fullyDerive(entity))
       .filter(layout => !segment.toBuildLayouts.contains(layout))
+  }
+
+  def selectLayoutForBuild(segment: SegmentInfo, entity: LayoutEntity): LayoutEntity = {
+    val candidate = candidateLayoutsForBuild(segment, entity)
     if (candidate.isEmpty) {
       null
     } else {
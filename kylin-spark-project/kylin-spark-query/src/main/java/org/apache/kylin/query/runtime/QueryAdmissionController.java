@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.query.runtime;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.exceptions.KylinTimeoutException;
+import org.apache.kylin.common.metrics.common.Metrics;
+import org.apache.kylin.common.metrics.common.MetricsConstant;
+import org.apache.kylin.common.metrics.common.MetricsFactory;
+import org.apache.kylin.common.metrics.common.MetricsNameBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.kylin.shaded.com.google.common.collect.Maps;
+
+/**
+ * Admits queries of each project into Sparder within the project's budget.
+ *
+ * A query estimated to scan more than the heavy threshold is heavy. Every query takes a concurrency slot
+ * of its project, a heavy query also takes a heavy slot and needs the executor CPU time the project spent
+ * in the current minute within budget. A query not admitted waits in the queue of its project, and fails
+ * if the queue is full or it waits too long.
+ */
+public class QueryAdmissionController {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryAdmissionController.class);
+
+    static final long CPU_WINDOW_MILLIS = 60_000L;
+
+    private static final QueryAdmissionController INSTANCE = new QueryAdmissionController();
+
+    public static QueryAdmissionController getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentMap<String, ProjectQueue> queues = Maps.newConcurrentMap();
+
+    /**
+     * Blocks until the query is admitted, the returned ticket must be released when the query finishes.
+     */
+    public Ticket admit(String project, long scanBytes, KylinConfig config) {
+        boolean heavy = scanBytes > config.getQueryAdmissionHeavyScanBytes();
+        ProjectQueue queue = getQueue(project, config);
+        long start = now();
+        try {
+            queue.acquire(heavy, config);
+        } catch (KylinTimeoutException e) {
+            incrementRejected(project, config);
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KylinTimeoutException("Query timeout while waiting for admission of project " + project);
+        }
+        long waited = now() - start;
+        if (waited > 0) {
+            logger.info("{} query of project {} with {} estimated scan bytes waited {} ms for admission",
+                    heavy ? "Heavy" : "Light", project, scanBytes, waited);
+        }
+        updateWaitTime(project, waited, config);
+        return new Ticket(queue, heavy, waited);
+    }
+
+    /**
+     * @param cpuTimeMillis executor CPU time the query spent, charged to its project
+     */
+    public void release(Ticket ticket, long cpuTimeMillis) {
+        ticket.queue.release(ticket.heavy, cpuTimeMillis);
+    }
+
+    int getWaitingCount(String project) {
+        ProjectQueue queue = queues.get(project);
+        return queue == null ? 0 : queue.getWaiting();
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private ProjectQueue getQueue(String project, KylinConfig config) {
+        ProjectQueue queue = queues.get(project);
+        if (queue == null) {
+            ProjectQueue newQueue = new ProjectQueue(project);
+            queue = queues.putIfAbsent(project, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+                registerQueueDepth(newQueue, config);
+            }
+        }
+        return queue;
+    }
+
+    private void registerQueueDepth(final ProjectQueue queue, KylinConfig config) {
+        Metrics metrics = getMetrics(config);
+        if (metrics != null) {
+            metrics.addGauge(buildMetricName(queue.project, MetricsConstant.QUERY_ADMISSION_QUEUE_DEPTH),
+                    queue::getWaiting);
+        }
+    }
+
+    private void updateWaitTime(String project, long waited, KylinConfig config) {
+        Metrics metrics = getMetrics(config);
+        if (metrics != null) {
+            metrics.updateTimer(buildMetricName(project, MetricsConstant.QUERY_ADMISSION_WAIT_TIME), waited,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void incrementRejected(String project, KylinConfig config) {
+        Metrics metrics = getMetrics(config);
+        if (metrics != null) {
+            metrics.incrementCounter(buildMetricName(project, MetricsConstant.QUERY_ADMISSION_REJECTED_COUNT));
+        }
+    }
+
+    private static Metrics getMetrics(KylinConfig config) {
+        return config.getQueryMetrics2Enabled() ? MetricsFactory.getInstance() : null;
+    }
+
+    private static String buildMetricName(String project, String name) {
+        return MetricsNameBuilder.buildMetricName(MetricsNameBuilder.buildCubeMetricPrefix(project), name);
+    }
+
+    public static class Ticket {
+        private final ProjectQueue queue;
+        private final boolean heavy;
+        private final long waitMillis;
+
+        private Ticket(ProjectQueue queue, boolean heavy, long waitMillis) {
+            this.queue = queue;
+            this.heavy = heavy;
+            this.waitMillis = waitMillis;
+        }
+
+        public boolean isHeavy() {
+            return heavy;
+        }
+
+        public long getWaitMillis() {
+            return waitMillis;
+        }
+    }
+
+    private class ProjectQueue {
+        private final String project;
+        private int running;
+        private int runningHeavy;
+        private int waiting;
+        private long windowStart;
+        private long cpuMillisInWindow;
+
+        private ProjectQueue(String project) {
+            this.project = project;
+        }
+
+        synchronized void acquire(boolean heavy, KylinConfig config) throws InterruptedException {
+            if (!canAdmit(heavy, config)) {
+                if (waiting >= config.getQueryAdmissionMaxQueueSize()) {
+                    throw new KylinTimeoutException("Query rejected as the admission queue of project " + project
+                            + " is full with " + waiting + " queries");
+                }
+                waiting++;
+                try {
+                    long timeoutMillis = config.getQueryAdmissionQueueTimeoutSeconds() * 1000;
+                    long deadline = now() + timeoutMillis;
+                    while (!canAdmit(heavy, config)) {
+                        long remaining = deadline - now();
+                        if (remaining <= 0) {
+                            throw new KylinTimeoutException("Query waited for admission of project " + project
+                                    + " more than " + config.getQueryAdmissionQueueTimeoutSeconds() + "s");
+                        }
+                        // wake up when the CPU window rolls over even if no query finishes
+                        long windowLeft = windowStart + CPU_WINDOW_MILLIS - now();
+                        wait(Math.max(1, Math.min(remaining, windowLeft > 0 ? windowLeft : remaining)));
+                    }
+                } finally {
+                    waiting--;
+                }
+            }
+            running++;
+            if (heavy) {
+                runningHeavy++;
+            }
+        }
+
+        synchronized void release(boolean heavy, long cpuTimeMillis) {
+            running--;
+            if (heavy) {
+                runningHeavy--;
+            }
+            rollWindow();
+            cpuMillisInWindow += Math.max(0, cpuTimeMillis);
+            notifyAll();
+        }
+
+        synchronized int getWaiting() {
+            return waiting;
+        }
+
+        private boolean canAdmit(boolean heavy, KylinConfig config) {
+            int maxConcurrent = config.getQueryAdmissionMaxConcurrent();
+            if (maxConcurrent > 0 && running >= maxConcurrent) {
+                return false;
+            }
+            if (!heavy) {
+                return true;
+            }
+            int maxHeavy = config.getQueryAdmissionMaxHeavyConcurrent();
+            if (maxHeavy > 0 && runningHeavy >= maxHeavy) {
+                return false;
+            }
+            long cpuBudgetMillis = config.getQueryAdmissionCpuSecondsPerMinute() * 1000;
+            rollWindow();
+            return cpuBudgetMillis <= 0 || cpuMillisInWindow < cpuBudgetMillis;
+        }
+
+        private void rollWindow() {
+            long now = now();
+            if (now - windowStart >= CPU_WINDOW_MILLIS) {
+                windowStart = now;
+                cpuMillisInWindow = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.query.runtime;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.execution.datasource.FilePruner;
+import org.apache.spark.storage.StorageLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.kylin.shaded.com.google.common.collect.Maps;
+
+/**
+ * Shares filtered cuboid scans among the statements of a query batch running in the current thread.
+ *
+ * Statements filtering the same cuboid of the same segments by the same condition, like dashboard queries
+ * with the same filters and different group-bys, read one scan. A scan is keyed by its cuboid and segments
+ * and the plan of the filter over it, and is cached in Sparder only when a second statement asks for it,
+ * more statements follow, and it does not read more than the limit. Since the cached plan has the filter,
+ * FilePruner still prunes segments and shards when the cache is built. The caches are dropped when the batch
+ * finishes. Scans without a filter are not shared, as caching them would hide the filters of later
+ * statements from FilePruner.
+ */
+public class SharedScanScope implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedScanScope.class);
+
+    private static final ThreadLocal<SharedScanScope> CURRENT = new ThreadLocal<>();
+
+    public static SharedScanScope open(int statements, long maxCacheBytes) {
+        if (CURRENT.get() != null) {
+            throw new IllegalStateException("A shared scan scope is already open in this thread");
+        }
+        SharedScanScope scope = new SharedScanScope(statements, maxCacheBytes);
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    public static SharedScanScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Marks a dataframe as the scan of given cuboid and segments, for filters over it to be shared.
+     */
+    public static Dataset<Row> scanned(String scanKey, Dataset<Row> scan) {
+        SharedScanScope scope = current();
+        if (scope != null) {
+            scope.scanKeys.put(scan, scanKey);
+        }
+        return scan;
+    }
+
+    /**
+     * @return the filtered scan shared in the current scope, or the given one if not shared
+     */
+    public static Dataset<Row> filtered(Dataset<Row> scan, Dataset<Row> filtered) {
+        SharedScanScope scope = current();
+        String scanKey = scope == null ? null : scope.scanKeys.get(scan);
+        if (scanKey == null) {
+            return filtered;
+        }
+        // the canonicalized plan has no expression ids and names no files, these are told by the scan key
+        return scope.getOrCreate(scanKey + "\n" + filtered.queryExecution().analyzed().canonicalized(), filtered);
+    }
+
+    // ============================================================================
+
+    private final long maxCacheBytes;
+    private final Map<Dataset<Row>, String> scanKeys = new IdentityHashMap<>();
+    private final Map<String, SharedScan> scans = Maps.newHashMap();
+    private int statement = 0;
+    private int remainingStatements;
+    private int sharedCount = 0;
+
+    private SharedScanScope(int statements, long maxCacheBytes) {
+        this.remainingStatements = statements;
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    /**
+     * Called before each statement of the batch runs.
+     */
+    public void nextStatement() {
+        statement++;
+        remainingStatements--;
+        scanKeys.clear();
+    }
+
+    Dataset<Row> getOrCreate(String key, Dataset<Row> df) {
+        SharedScan shared = scans.get(key);
+        if (shared == null) {
+            scans.put(key, new SharedScan(df, statement));
+            return df;
+        }
+        if (shared.lastStatement == statement) {
+            // a self join reading one dataframe twice cannot tell its sides apart
+            return df;
+        }
+
+        shared.lastStatement = statement;
+        sharedCount++;
+        if (!shared.cached && !shared.tooLarge && remainingStatements > 0) {
+            long scanBytes = FilePruner.estimateScanBytes(shared.df.queryExecution().executedPlan());
+            if (scanBytes <= maxCacheBytes) {
+                shared.df.persist(StorageLevel.MEMORY_AND_DISK());
+                shared.cached = true;
+                logger.info("Cache scan of {} bytes for the rest {} statements of batch: {}", scanBytes,
+                        remainingStatements, key);
+            } else {
+                shared.tooLarge = true;
+            }
+        }
+        logger.info("Share scan, cached: {}", shared.cached);
+        return shared.df;
+    }
+
+    /**
+     * @return how many times a later statement of the batch read a scan of an earlier one
+     */
+    public int getSharedCount() {
+        return sharedCount;
+    }
+
+    @Override
+    public void close() {
+        CURRENT.remove();
+        for (SharedScan shared : scans.values()) {
+            if (shared.cached) {
+                shared.df.unpersist(false);
+            }
+        }
+        scans.clear();
+        scanKeys.clear();
+    }
+
+    private static class SharedScan {
+        private final Dataset<Row> df;
+        private int lastStatement;
+        private boolean cached = false;
+        private boolean tooLarge = false;
+
+        private SharedScan(Dataset<Row> df, int statement) {
+            this.df = df;
+            this.lastStatement = statement;
+        }
+    }
+}
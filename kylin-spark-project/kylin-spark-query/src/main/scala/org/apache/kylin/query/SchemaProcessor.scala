@@ -160,6 +160,14 @@ object SchemaProcessor {
     dataType: DataType,
     nullable: Boolean): StructField =
     StructField(name, dataType, nullable)
+
+  def cardinalityColumnName(measureColumnName: String): String = {
+    CardinalityColumnInfo(measureColumnName).toString
+  }
+
+  def isCardinalityColumnName(name: String): Boolean = {
+    name.startsWith(CardinalityColumnInfo.PREFIX)
+  }
 }
 
 sealed abstract class ColumnInfo(
@@ -200,4 +208,13 @@ case class AggColumnInfo(
 case class TopNColumnInfo(tableName: String, columnId: Int, columnName: String)
   extends ColumnInfo(tableName, columnId, columnName) {
   override val prefix: String = "A"
-}
\ No newline at end of file
+}
+
+// the cardinality of a precise count distinct measure, carried along with the measure column to the aggregate
+case class CardinalityColumnInfo(measureColumnName: String) {
+  override def toString: String = s"${CardinalityColumnInfo.PREFIX}$measureColumnName"
+}
+
+object CardinalityColumnInfo {
+  val PREFIX: String = "C" + SchemaProcessor.COLUMN_NAME_SEPARATOR
+}
@@ -342,6 +342,8 @@ object ExpressionConverter {
             k_lit(children.head).rlike(children.apply(1).toString)
           case "if" =>
             new Column(new If(k_lit(children.head).expr, k_lit(children.apply(1)).expr, k_lit(children.apply(2)).expr))
+          case "massin" =>
+            MassInBroadcasts.massIn(k_lit(children.head), k_lit(children.apply(1)).toString())
           case _ =>
             throw new UnsupportedOperationException(
               s"Unsupported function $funcName")
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.query.runtime
+
+import org.apache.kylin.common.KylinConfig
+import org.apache.kylin.metadata.TableMetadataManager
+import org.apache.kylin.metadata.filter.UDF.{MassInValueSet, MassInValueSetLoader}
+import org.apache.spark.SparkContext
+import org.apache.spark.broadcast.Broadcast
+import org.apache.spark.internal.Logging
+import org.apache.spark.sql.{Column, SparderContext}
+import org.apache.spark.sql.catalyst.expressions.KylinMassIn
+
+import scala.collection.mutable
+
+/**
+ * Broadcasts the values of each filter table once, and again only when the filter table is modified.
+ */
+object MassInBroadcasts extends Logging {
+
+  private case class Entry(sc: SparkContext, values: MassInValueSet, broadcast: Broadcast[MassInValueSet])
+
+  private val broadcasts = mutable.HashMap[String, Entry]()
+
+  def massIn(column: Column, filterTable: String): Column = {
+    val filterDesc = TableMetadataManager.getInstance(KylinConfig.getInstanceFromEnv).getExtFilterDesc(filterTable)
+    if (filterDesc == null) {
+      throw new IllegalArgumentException(s"External filter named $filterTable is not found")
+    }
+    val values = MassInValueSetLoader.getInstance
+      .load(filterDesc.getFilterTableType, filterDesc.getFilterResourceIdentifier)
+    Column(KylinMassIn(column.expr, filterTable, getBroadcast(filterDesc.getFilterResourceIdentifier, values)))
+  }
+
+  private def getBroadcast(identifier: String, values: MassInValueSet): Broadcast[MassInValueSet] = synchronized {
+    val sc = SparderContext.getSparkSession.sparkContext
+    broadcasts.get(identifier) match {
+      case Some(entry) if (entry.sc eq sc) && (entry.values eq values) =>
+        entry.broadcast
+      case old =>
+        // the driver copy of the old broadcast is cleaned once running queries no longer use it
+        old.filter(_.sc eq sc).foreach(_.broadcast.unpersist(blocking = false))
+        val broadcast = sc.broadcast(values)
+        logInfo(s"Broadcast ${values.size} values of filter table $identifier")
+        broadcasts.put(identifier, Entry(sc, values, broadcast))
+        broadcast
+    }
+  }
+}
@@ -22,16 +22,18 @@ import org.apache.calcite.rel.core.{Aggregate, AggregateCall}
 import org.apache.calcite.sql.SqlKind
 import org.apache.kylin.common.KylinConfig
 import org.apache.kylin.cube.CubeInstance
-import org.apache.kylin.metadata.model.{FunctionDesc, PartitionDesc, SegmentStatusEnum}
+import org.apache.kylin.measure.percentile.PercentileMeasureType
+import org.apache.kylin.metadata.model.{FunctionDesc, PartitionDesc}
 import org.apache.kylin.query.SchemaProcessor
 import org.apache.kylin.query.relnode.{KylinAggregateCall, OLAPAggregateRel, OLAPRel}
 import org.apache.kylin.query.runtime.RuntimeHelper
 import org.apache.spark.sql.KylinFunctions._
 import org.apache.spark.sql._
-import org.apache.spark.sql.catalyst.expressions.{CreateArray, In}
+import org.apache.spark.sql.catalyst.expressions.{Alias, CreateArray, ExprId, Expression, In, Sum0}
+import org.apache.spark.sql.catalyst.expressions.aggregate.{AggregateExpression, Sum}
 import org.apache.spark.sql.catalyst.plans.logical.Project
 import org.apache.spark.sql.functions._
-import org.apache.spark.sql.types.{ArrayType, StructType}
+import org.apache.spark.sql.types.{ArrayType, DoubleType, StructType}
 import org.apache.spark.sql.utils.SparkTypeUtil
 import org.apache.spark.utils.LogEx
 
@@ -71,8 +73,14 @@ object AggregatePlan extends LogEx {
                   .approx_count_distinct_decode(columnName.head, dataType.getPrecision)
                   .alias(aggName)
               } else if (call.isBitmapCountDistinctFunc) {
-                // execute count distinct precisely
-                KylinFunctions.precise_count_distinct_decode(columnName.head).alias(aggName)
+                val cardinalityName = SchemaProcessor.cardinalityColumnName(argNames.head)
+                if (dataFrame.schema.names.contains(cardinalityName)) {
+                  // read the stored cardinality and leave the bitmap column unread
+                  col(cardinalityName).alias(aggName)
+                } else {
+                  // execute count distinct precisely
+                  KylinFunctions.precise_count_distinct_decode(columnName.head).alias(aggName)
+                }
               } else {
                 throw new IllegalArgumentException(
                   s"""Unsupported function name $funcName""")
@@ -95,8 +103,64 @@ object AggregatePlan extends LogEx {
       val groupSets = rel.getGroupSets.asScala
         .map(groupSet => groupSet.asScala.map(groupId => col(schemaNames.apply(groupId))).toList)
         .toList
-      SparkOperation.agg(AggArgc(dataFrame, groupList, aggList, groupSets,
-        rel.getGroupType() == Aggregate.Group.SIMPLE))
+      val aggArgc = AggArgc(dataFrame, groupList, aggList, groupSets,
+        rel.getGroupType() == Aggregate.Group.SIMPLE)
+      if (KylinConfig.getInstanceFromEnv.isSharedAggregationEnabled) {
+        sharedAgg(aggArgc)
+      } else {
+        SparkOperation.agg(aggArgc)
+      }
+    }
+  }
+
+  /**
+   * Computes each distinct aggregation of the calls once, the calls repeating one, like the SUM and COUNT an AVG is
+   * rewritten to when they are selected too, read it from the aggregated columns. A SUM0 shares the SUM of the same
+   * input and fills its nulls with zero.
+   */
+  def sharedAgg(aggArgc: AggArgc): DataFrame = {
+    val keys = aggArgc.agg.map(aggregationKey)
+    val groups = keys.zipWithIndex.groupBy(_._1._1).map { case (key, calls) => key -> calls.map(_._2) }
+    if (groups.size == keys.size) {
+      return SparkOperation.agg(aggArgc)
+    }
+
+    // the call computing the aggregation of each group, a SUM rather than a SUM0 when the group has both
+    val computing = groups.values.map { indexes =>
+      indexes.find(index => !keys(index)._2).getOrElse(indexes.head)
+    }.toList.sorted
+    val computed = computing.zipWithIndex.toMap
+    val aggregated = SparkOperation.agg(aggArgc.copy(agg = computing.map(aggArgc.agg)))
+    val output = aggregated.queryExecution.analyzed.output.map(new Column(_))
+    val groupCount = output.size - computing.size
+    val aggCols = keys.zipWithIndex.map { case ((key, isSum0), index) =>
+      val shared = computing.find(groups(key).contains).get
+      val ordinal = groupCount + computed(shared)
+      val column = output(ordinal)
+      val name = aggArgc.agg(index).expr.asInstanceOf[Alias].name
+      if (isSum0 && !keys(shared)._2) {
+        coalesce(column, k_lit(0).cast(aggregated.schema(ordinal).dataType)).alias(name)
+      } else {
+        column.alias(name)
+      }
+    }
+    logInfo(s"Share the aggregations of ${keys.size - computing.size} aggregate calls.")
+    aggregated.select(output.take(groupCount) ++ aggCols: _*)
+  }
+
+  /**
+   * The aggregation an aggregate column computes, regardless of its name and result id, and if it is a SUM0.
+   */
+  private def aggregationKey(column: Column): (Expression, Boolean) = {
+    val aggregation = column.expr match {
+      case Alias(child, _) => child
+      case other => other
+    }
+    aggregation match {
+      case agg @ AggregateExpression(Sum0(child), _, _, _, _) =>
+        (agg.copy(aggregateFunction = Sum(child), resultId = ExprId(0)), true)
+      case _ =>
+        (aggregation.transform { case agg: AggregateExpression => agg.copy(resultId = ExprId(0)) }, false)
     }
   }
 
@@ -149,7 +213,12 @@ object AggregatePlan extends LogEx {
               .alias(aggName)
           } else if (call.isBitmapCountDistinctFunc) {
             // execute count distinct precisely
-            KylinFunctions.precise_count_distinct(columnName.head).alias(aggName)
+            if (KylinConfig.getInstanceFromEnv.isPortableBitmapAggregationEnabled) {
+              KylinFunctions.portable_precise_count_distinct(columnName.head,
+                KylinConfig.getInstanceFromEnv.getPortableBitmapMaxPendingBytes).alias(aggName)
+            } else {
+              KylinFunctions.precise_count_distinct(columnName.head).alias(aggName)
+            }
           } else {
             // for intersect_count and intersect_value function
             require(columnName.size == 3, s"Input columns size ${columnName.size} don't equal to 3.")
@@ -158,18 +227,31 @@ object AggregatePlan extends LogEx {
               case (column: Column, _) => column
             }
             val upperBound = KylinConfig.getInstanceFromEnv.getBitmapValuesUpperBound
+            val portable = KylinConfig.getInstanceFromEnv.isPortableBitmapAggregationEnabled
+            val maxPendingBytes = KylinConfig.getInstanceFromEnv.getPortableBitmapMaxPendingBytes
             if (call.isIntersectCountFunc) {
-              KylinFunctions.intersect_count(upperBound, columns.toList: _*)
-                .alias(SchemaProcessor
-                  .replaceToAggravateSchemaName(index, FunctionDesc.FUNC_INTERSECT_COUNT, hash,
-                    argNames: _*))
+              val intersect = if (portable) {
+                KylinFunctions.portable_intersect_count(upperBound, maxPendingBytes, columns.toList: _*)
+              } else {
+                KylinFunctions.intersect_count(upperBound, columns.toList: _*)
+              }
+              intersect.alias(SchemaProcessor
+                .replaceToAggravateSchemaName(index, FunctionDesc.FUNC_INTERSECT_COUNT, hash,
+                  argNames: _*))
             } else {
-              KylinFunctions.intersect_value(upperBound, columns.toList: _*)
-                .alias(SchemaProcessor
-                  .replaceToAggravateSchemaName(index, FunctionDesc.FUNC_INTERSECT_VALUE, hash,
-                    argNames: _*))
+              val intersect = if (portable) {
+                KylinFunctions.portable_intersect_value(upperBound, maxPendingBytes, columns.toList: _*)
+              } else {
+                KylinFunctions.intersect_value(upperBound, columns.toList: _*)
+              }
+              intersect.alias(SchemaProcessor
+                .replaceToAggravateSchemaName(index, FunctionDesc.FUNC_INTERSECT_VALUE, hash,
+                  argNames: _*))
             }
           }
+        } else if (isPercentile(funcName) && KylinConfig.getInstanceFromEnv.isMergingPercentileQueryEnabled) {
+          KylinFunctions.k_percentile(columnName.head, columnName(1).cast(DoubleType), dataType.getPrecision)
+            .alias(aggName)
         } else {
           callUDF(registeredFuncName, columnName.toList: _*).alias(aggName)
         }
@@ -236,6 +318,10 @@ object AggregatePlan extends LogEx {
       .isSum0
   }
 
+  private def isPercentile(funcName: String) = {
+    funcName == PercentileMeasureType.FUNC_PERCENTILE || funcName == PercentileMeasureType.FUNC_PERCENTILE_APPROX
+  }
+
   val exactlyMatchSupportedFunctions = List("SUM", "MIN", "MAX", "COUNT_DISTINCT", "PERCENTILE", "PERCENTILE_APPROX")
 
   def isExactlyCuboidMatched(rel: OLAPAggregateRel, groupByList: List[Column]): Boolean = {
@@ -261,7 +347,7 @@ object AggregatePlan extends LogEx {
     val groupByCols = rel.getGroups.asScala.map(_.getIdentity).toSet
     if (groupByCols.isEmpty) return false
     if (!groupByContainsPartition(groupByCols, cuboid.getCubeDesc.getModel.getPartitionDesc) &&
-      olapContext.realization.asInstanceOf[CubeInstance].getSegments(SegmentStatusEnum.READY).size() != 1) {
+      olapContext.realization.asInstanceOf[CubeInstance].getReadySegmentIndex.size() != 1) {
       return false
     }
     val cuboidDims = cuboid.getColumns.asScala.map(_.getIdentity).toSet
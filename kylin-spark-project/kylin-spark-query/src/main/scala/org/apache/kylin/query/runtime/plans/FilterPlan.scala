@@ -19,7 +19,7 @@ package org.apache.kylin.query.runtime.plans
 
 import org.apache.calcite.DataContext
 import org.apache.kylin.query.relnode.OLAPFilterRel
-import org.apache.kylin.query.runtime.SparderRexVisitor
+import org.apache.kylin.query.runtime.{SharedScanScope, SparderRexVisitor}
 import org.apache.spark.sql.{Column, DataFrame}
 import org.apache.spark.utils.LogEx
 
@@ -33,6 +33,6 @@ object FilterPlan extends LogEx {
       rel.getInput.getRowType,
       dataContext)
     val filterColumn = rel.getCondition.accept(visitor).asInstanceOf[Column]
-    df.filter(filterColumn)
+    SharedScanScope.filtered(df, df.filter(filterColumn))
   }
 }
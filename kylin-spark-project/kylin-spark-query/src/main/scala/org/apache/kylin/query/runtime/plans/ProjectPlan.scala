@@ -19,11 +19,13 @@ package org.apache.kylin.query.runtime.plans
 
 import org.apache.calcite.DataContext
 import org.apache.calcite.rex.RexInputRef
+import org.apache.kylin.query.SchemaProcessor
 import org.apache.kylin.query.relnode.OLAPProjectRel
 import org.apache.kylin.query.runtime.SparderRexVisitor
 import org.apache.spark.internal.Logging
 import org.apache.spark.sql.{Column, DataFrame}
 import org.apache.spark.sql.KylinFunctions._
+import org.apache.spark.sql.functions.col
 import scala.collection.JavaConverters._
 
 object ProjectPlan extends Logging {
@@ -63,7 +65,9 @@ object ProjectPlan extends Logging {
         }
       })
 
-    val prj = df.select(selectedColumns: _*)
+    // carry the cardinality columns on to the aggregate, see TableScanPlan
+    val cardinalityColumns = df.schema.fieldNames.filter(SchemaProcessor.isCardinalityColumnName).map(col)
+    val prj = df.select(selectedColumns ++ cardinalityColumns: _*)
     logTrace(s"Gen project cost Time :${System.currentTimeMillis() - start} ")
     prj
   }
@@ -26,15 +26,19 @@ import org.apache.kylin.common.exceptions.KylinTimeoutException
 import org.apache.kylin.common.{KylinConfig, QueryContext, QueryContextFacade}
 import org.apache.kylin.common.util.HadoopUtil
 import org.apache.kylin.metadata.project.ProjectManager
+import org.apache.kylin.query.runtime.QueryAdmissionController
 import org.apache.kylin.query.runtime.plans.ResultType.ResultType
 import org.apache.kylin.query.util.{AbstractSparkJobTrace, SparkJobTrace, SparkJobTraceV2}
 import org.apache.spark.internal.Logging
 import org.apache.spark.sql.{DataFrame, SparderContext}
+import org.apache.spark.sql.execution.datasource.FilePruner
 import org.apache.spark.sql.hive.utils.QueryMetricUtils
+import org.apache.spark.sql.metrics.AppStatus
 import org.apache.spark.sql.utils.SparkTypeUtil
 import org.apache.spark.utils.SparderUtils
 
 import java.util.TimeZone
+import java.util.concurrent.atomic.AtomicLong
 import scala.collection.JavaConverters._
 
 // scalastyle:off
@@ -44,6 +48,7 @@ object ResultType extends Enumeration {
 }
 
 object ResultPlan extends Logging {
+  private val collectCount = new AtomicLong()
 
   def collectEnumerable(
     df: DataFrame,
@@ -64,14 +69,15 @@ object ResultPlan extends Logging {
     df: DataFrame,
     rowType: RelDataType): Array[Array[Any]] = {
     val resultTypes = rowType.getFieldList.asScala
-    val jobGroup = Thread.currentThread().getName
+    val queryId = QueryContextFacade.current().getQueryId
+    // unique per collect, as jobs of a group are traced and charged to the query
+    val jobGroup = s"$queryId-${collectCount.incrementAndGet()}"
     val sparkContext = SparderContext.getSparkSession.sparkContext
     val projectName = QueryContextFacade.current().getProject
     var kylinConfig = KylinConfig.getInstanceFromEnv
     if (projectName != null) {
       kylinConfig = ProjectManager.getInstance(kylinConfig).getProject(projectName).getConfig
     }
-    var pool = "heavy_tasks"
     val sparderTotalCores = SparderUtils.getTotalCore(df.sparkSession.sparkContext.getConf)
     // this value of partition num only effects when querying from snapshot tables
     val partitionsNum =
@@ -81,23 +87,6 @@ object ResultPlan extends Logging {
         sparderTotalCores
       }
 
-    if (QueryContextFacade.current().isHighPriorityQuery) {
-      pool = "vip_tasks"
-    } else if (partitionsNum <= sparderTotalCores) {
-      pool = "lightweight_tasks"
-    }
-
-    if (kylinConfig.getProjectQuerySparkPool != null) {
-      pool = kylinConfig.getProjectQuerySparkPool
-    }
-    if (BackdoorToggles.getDebugToggleSparkPool != null) {
-      pool = BackdoorToggles.getDebugToggleSparkPool
-    }
-
-    // set priority
-    sparkContext.setLocalProperty("spark.scheduler.pool", pool)
-    QueryContextFacade.current().setSparkPool(pool)
-    val queryId = QueryContextFacade.current().getQueryId
     sparkContext.setLocalProperty(QueryToExecutionIDCache.KYLIN_QUERY_ID_KEY, queryId)
     df.sparkSession.conf.set("spark.sql.shuffle.partitions", partitionsNum.toString)
     logInfo(s"Set partition to $partitionsNum")
@@ -116,6 +105,35 @@ object ResultPlan extends Logging {
     } else {
       new AbstractSparkJobTrace()
     }
+
+    // estimate after shuffle partitions are set, as listing files may adjust them
+    val admission = if (kylinConfig.isQueryAdmissionControlEnabled && projectName != null) {
+      Some(QueryAdmissionController.getInstance()
+        .admit(projectName, FilePruner.estimateScanBytes(df.queryExecution.executedPlan), kylinConfig))
+    } else {
+      None
+    }
+
+    var pool = "heavy_tasks"
+    if (QueryContextFacade.current().isHighPriorityQuery) {
+      pool = "vip_tasks"
+    } else if (admission.exists(_.isHeavy)) {
+      // keep heavy queries out of the lightweight pool
+      pool = "heavy_tasks"
+    } else if (partitionsNum <= sparderTotalCores) {
+      pool = "lightweight_tasks"
+    }
+
+    if (kylinConfig.getProjectQuerySparkPool != null) {
+      pool = kylinConfig.getProjectQuerySparkPool
+    }
+    if (BackdoorToggles.getDebugToggleSparkPool != null) {
+      pool = BackdoorToggles.getDebugToggleSparkPool
+    }
+
+    // set priority
+    sparkContext.setLocalProperty("spark.scheduler.pool", pool)
+    QueryContextFacade.current().setSparkPool(pool)
     try {
       val rows = df.collect()
       jobTrace.jobFinished()
@@ -125,6 +143,10 @@ object ResultPlan extends Logging {
       QueryContextFacade.current().addAndGetScannedBytes(scanBytes.asScala.map(Long2long(_)).sum)
       QueryContextFacade.current().addAndGetMetadataTime(metadataTime.asScala.map(Long2long(_)).sum)
       QueryContextFacade.current().addAndGetScanTime(scanTime.asScala.map(Long2long(_)).sum)
+      if (QueryContextFacade.current().isApproximate) {
+        QueryContextFacade.current()
+          .recordSampleRelativeError(FilePruner.sampleRelativeError(df.queryExecution.optimizedPlan))
+      }
       val dt = rows.map { row =>
         var rowIndex = 0
         row.toSeq.map { cell => {
@@ -149,6 +171,14 @@ object ResultPlan extends Logging {
         throw new KylinTimeoutException(
           s"Query timeout after: ${KylinConfig.getInstanceFromEnv.getQueryTimeoutSeconds}s");
     } finally {
+      admission.foreach { ticket =>
+        val cpuTime = if (kylinConfig.getQueryAdmissionCpuSecondsPerMinute > 0) {
+          new AppStatus(sparkContext).getExecutorCpuTime(jobGroup)
+        } else {
+          0L
+        }
+        QueryAdmissionController.getInstance().release(ticket, cpuTime)
+      }
       //      QueryContextFacade.current().setExecutionID(QueryToExecutionIDCache.getQueryExecutionID(queryId))
     }
   }
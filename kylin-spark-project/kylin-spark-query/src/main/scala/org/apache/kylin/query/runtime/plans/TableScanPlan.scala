@@ -23,16 +23,24 @@ import java.util.concurrent.ConcurrentHashMap
 import org.apache.calcite.DataContext
 import org.apache.kylin.common.QueryContextFacade
 import org.apache.kylin.cube.CubeInstance
+import org.apache.kylin.cube.cuboid.Cuboid
+import org.apache.kylin.engine.spark.metadata.MetadataConverter
+import org.apache.kylin.measure.bitmap.BitmapMeasureType
 import org.apache.kylin.metadata.model._
 import org.apache.kylin.metadata.tuple.TupleInfo
 import org.apache.kylin.query.SchemaProcessor
 import org.apache.kylin.query.exception.UnsupportedQueryException
-import org.apache.kylin.query.relnode.{OLAPRel, OLAPTableScan}
-import org.apache.kylin.query.runtime.{DerivedProcess, RuntimeHelper, SparderLookupManager}
+import org.apache.kylin.query.relnode.{OLAPContext, OLAPRel, OLAPTableScan}
+import org.apache.kylin.query.runtime.{DerivedProcess, RuntimeHelper, SharedScanScope, SparderLookupManager}
 import org.apache.kylin.storage.hybrid.HybridInstance
 import org.apache.kylin.storage.spark.HadoopFileStorageQuery
-import org.apache.spark.sql.functions.col
-import org.apache.spark.sql.types.{ArrayType, DoubleType, StructField, StructType}
+import org.apache.spark.broadcast.Broadcast
+import org.apache.spark.dict.DimensionDictionary
+import org.apache.spark.sql.catalyst.expressions.DimensionDictDecode
+import org.apache.spark.sql.execution.datasource.FilePruner
+import org.apache.spark.sql.functions.{col, round}
+import org.apache.spark.sql.types.{ArrayType, ByteType, DoubleType, IntegerType, LongType, ShortType, StructField, StructType}
+import org.apache.spark.sql.udaf.PreciseCardinality
 import org.apache.spark.sql.utils.SparkTypeUtil
 import org.apache.spark.sql.{DataFrame, SparderContext, _}
 import org.apache.spark.utils.LogEx
@@ -74,11 +82,28 @@ object TableScanPlan extends LogEx {
       gridTableMapping.getMetricsIndexes(request.getMetrics)
     val factTableAlias = olapContext.firstTableScan.getBackupAlias
     val schemaNames = SchemaProcessor.buildGTSchema(cuboid, factTableAlias)
-    import org.apache.kylin.query.implicits.implicits._
-    var df = SparderContext.getSparkSession.kylin
-      .format("parquet")
-      .cuboidTable(cubeInstance, cuboid)
-      .toDF(schemaNames: _*)
+    val segmentScope = Option(QueryContextFacade.current().getSegmentScope)
+    val sampleFraction = QueryContextFacade.current().getSampleFraction
+    def cuboidTable(segments: Option[Iterable[String]]): DataFrame = {
+      import org.apache.kylin.query.implicits.implicits._
+      val dfManager = SparderContext.getSparkSession.kylin.format("parquet")
+      segments.foreach(scope => dfManager.option(FilePruner.SEGMENTS_OPTION, scope.mkString(",")))
+      if (sampleFraction < 1.0) {
+        dfManager.option(FilePruner.SAMPLE_FRACTION_OPTION, sampleFraction.toString)
+      }
+      dfManager.cuboidTable(cubeInstance, cuboid)
+    }
+    val scanned = recordScannedSegments(cubeInstance, segmentScope)
+    // statements of a batch filtering the same cuboid of the same segments alike share the scan
+    val scanKey = s"${cubeInstance.getName}/${cuboid.getId}/" +
+      scanned.asScala.toSeq.sortBy(_._1).map(seg => s"${seg._1}@${seg._2}").mkString(",") +
+      (if (sampleFraction < 1.0) s"/sample@$sampleFraction" else "")
+    val scan = decodedCuboidTable(cubeInstance, cuboid, segmentScope.map(_.asScala), cuboidTable)
+    var df = scan.toDF(schemaNames ++ cardinalityColumnNames(scan, schemaNames): _*)
+    if (sampleFraction < 1.0 && !olapContext.getSQLDigest.isRawQuery) {
+      df = scaleSampledMeasures(df, gridTableMapping.getMetricsIndexes(request.getMetrics
+        .asScala.filter(func => func.isSum || func.isCount).asJava), sampleFraction)
+    }
     // may have multi TopN measures.
     val topNMeasureIndexes = df.schema.fields.map(_.dataType).zipWithIndex.filter(_._1.isInstanceOf[ArrayType]).map(_._2)
     val tuple = DerivedProcess.process(olapContext, cuboid, cubeInstance, df, request)
@@ -104,9 +129,117 @@ object TableScanPlan extends LogEx {
       tupleIdx,
       topNMapping,
       topNMeasureIndexes)
+    val cardinalityColumns =
+      if (topNMetric.isEmpty && carriesCardinality(olapContext, request.getMetrics.asScala)) {
+        df.schema.fieldNames.filter(SchemaProcessor.isCardinalityColumnName).map(col).toSeq
+      } else {
+        Seq.empty
+      }
+    SharedScanScope.scanned(scanKey, df.select(columns ++ cardinalityColumns: _*))
+  }
+
+  /**
+   * Scans the cuboid and decodes its dimensions stored as the codes of their dictionaries. Segments storing
+   * different dimensions as codes are scanned apart, and unioned without the cardinality columns.
+   */
+  private def decodedCuboidTable(cubeInstance: CubeInstance,
+                                 cuboid: Cuboid,
+                                 segmentScope: Option[Iterable[String]],
+                                 cuboidTable: Option[Iterable[String]] => DataFrame): DataFrame = {
+    val layout = MetadataConverter.toLayoutEntity(cubeInstance, cuboid)
+    val dimensions = layout.getOrderedDimensions.values.asScala.map(column => column.identity -> column).toMap
+    val groups = cubeInstance.getReadySegmentIndex.getSegments.asScala
+      .filter(seg => segmentScope.forall(_.exists(_ == seg.getName)))
+      .groupBy(seg => DimensionDictionary.storedColumns(seg).keySet.filter(dimensions.contains))
+      .toSeq
+      .map { case (columns, segments) =>
+        DimensionDictionary.encodedColumns(segments).filter { case (identity, _) => columns.contains(identity) } ->
+          segments
+      }
+
+    def decode(df: DataFrame, encoded: Map[String, Int]): DataFrame = {
+      encoded.foldLeft(df) { case (decoded, (identity, version)) =>
+        val name = dimensions(identity).id.toString
+        val dictionary = dimensionDictionary(cubeInstance, identity, version)
+        decoded.withColumn(name, new Column(DimensionDictDecode(col(name).expr, identity, dictionary)))
+      }
+    }
+
+    if (groups.size <= 1) {
+      decode(cuboidTable(segmentScope), groups.headOption.map(_._1).getOrElse(Map.empty))
+    } else {
+      val columnCount = layout.getOrderedDimensions.size + layout.getOrderedMeasures.size
+      groups.map { case (encoded, segments) =>
+        val df = decode(cuboidTable(Some(segments.map(_.getName))), encoded)
+        df.select(df.columns.take(columnCount).map(col): _*)
+      }.reduce(_ union _)
+    }
+  }
+
+  // broadcast dictionaries by cube and column, reused while they cover the codes of the scanned segments
+  private val dimensionDictionaries = new ConcurrentHashMap[String, Broadcast[DimensionDictionary]]()
+
+  private def dimensionDictionary(cubeInstance: CubeInstance, identity: String,
+                                  version: Int): Broadcast[DimensionDictionary] = {
+    val sparkContext = SparderContext.getSparkSession.sparkContext
+    val key = s"${sparkContext.applicationId}/${cubeInstance.getUuid}/$identity"
+    dimensionDictionaries.compute(key, (_: String, cached: Broadcast[DimensionDictionary]) =>
+      if (cached != null && cached.value.size >= version) {
+        cached
+      } else {
+        sparkContext.broadcast(DimensionDictionary.load(cubeInstance, identity))
+      })
+  }
+
+  /**
+   * Names the cardinality columns read after the cuboid columns by the columns of their bitmap measures.
+   */
+  private def cardinalityColumnNames(scan: DataFrame, schemaNames: Seq[String]): Seq[String] = {
+    val fieldNames = scan.schema.fieldNames
+    fieldNames.drop(schemaNames.size).map { name =>
+      val measureIndex = fieldNames.indexOf(PreciseCardinality.measureId(name).toString)
+      SchemaProcessor.cardinalityColumnName(schemaNames(measureIndex))
+    }
+  }
+
+  // the cardinality columns are carried to the aggregate only if it may exactly match the cuboid,
+  // see AggregatePlan.isExactlyCuboidMatched
+  private def carriesCardinality(olapContext: OLAPContext, metrics: Iterable[FunctionDesc]): Boolean = {
+    !olapContext.hasJoin && !olapContext.hasWindow && !olapContext.getSQLDigest.isRawQuery &&
+      olapContext.realization.getConfig.needReplaceAggWhenExactlyMatched &&
+      metrics.exists(metric => metric.isCountDistinct &&
+        metric.getReturnDataType.getName.equalsIgnoreCase(BitmapMeasureType.DATATYPE_BITMAP))
+  }
+
+  /**
+   * Scales SUM and COUNT measures of the sampled cuboid rows up to estimate those of all rows,
+   * so that the aggregates on top of them need no change.
+   */
+  private def scaleSampledMeasures(df: DataFrame, measureIndexes: Array[Int], fraction: Double): DataFrame = {
+    val scaled = measureIndexes.toSet
+    val columns = df.schema.fields.zipWithIndex.map {
+      case (field, index) if scaled.contains(index) =>
+        field.dataType match {
+          case ByteType | ShortType | IntegerType | LongType =>
+            round(col(field.name) / fraction).cast(field.dataType).alias(field.name)
+          case _ =>
+            (col(field.name) / fraction).cast(field.dataType).alias(field.name)
+        }
+      case (field, _) => col(field.name)
+    }
     df.select(columns: _*)
   }
 
+  private def recordScannedSegments(cubeInstance: CubeInstance,
+                                    segmentScope: Option[java.util.Set[String]]): util.Map[String, java.lang.Long] = {
+    val scanned = new util.HashMap[String, java.lang.Long]()
+    cubeInstance.getReadySegmentIndex.getSegments.asScala
+      .filter(seg => segmentScope.forall(_.contains(seg.getName)))
+      .foreach(seg => scanned.put(seg.getName, seg.getLastBuildTime))
+    QueryContextFacade.current().recordScannedSegments(cubeInstance.getName, scanned)
+    scanned
+  }
+
   private def processTopN(topNMetric: FunctionDesc, df: DataFrame, topNFieldIndex: Int, tupleInfo: TupleInfo, tableName: String): (DataFrame, Map[Int, Column]) = {
     // support TopN measure
     val topNField = df.schema.fields
@@ -144,6 +144,19 @@ class AppStatus(sparkContext: SparkContext) extends LogEx {
     sparkContext.statusTracker.getJobIdsForGroup(jobGroup).map(getJobData).filter(_.isDefined).map(_.get)
   }
 
+  /**
+   * @return executor CPU time in milliseconds of all stages of jobs in the group
+   */
+  def getExecutorCpuTime(jobGroup: String): Long = {
+    getJobData(jobGroup).flatMap(_.stageIds).flatMap { stageId =>
+      try {
+        sparkContext.statusStore.stageData(stageId)
+      } catch {
+        case _: NoSuchElementException => Seq.empty
+      }
+    }.map(_.executorCpuTime).sum / 1000000
+  }
+
   def getJobData(jobId: Int): Option[v1.JobData] = {
     try {
       Some(sparkContext.statusStore.job(jobId))
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.query.runtime;
+
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.exceptions.KylinTimeoutException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryAdmissionControllerTest {
+
+    private static final String PROJECT = "default";
+    private static final long HEAVY = 200;
+    private static final long LIGHT = 10;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    private KylinConfig config(int maxConcurrent, int maxHeavy, long cpuSeconds, int queueSize) {
+        Properties props = new Properties();
+        props.setProperty("kylin.query.admission.heavy-scan-bytes", "100");
+        props.setProperty("kylin.query.admission.max-concurrent", String.valueOf(maxConcurrent));
+        props.setProperty("kylin.query.admission.max-heavy-concurrent", String.valueOf(maxHeavy));
+        props.setProperty("kylin.query.admission.cpu-seconds-per-minute", String.valueOf(cpuSeconds));
+        props.setProperty("kylin.query.admission.max-queue-size", String.valueOf(queueSize));
+        props.setProperty("kylin.query.admission.queue-timeout-seconds", "1");
+        return KylinConfig.createKylinConfig(props);
+    }
+
+    @Test
+    public void testConcurrencyTimeout() {
+        QueryAdmissionController controller = new QueryAdmissionController();
+        KylinConfig config = config(2, 0, 0, 10);
+        QueryAdmissionController.Ticket t1 = controller.admit(PROJECT, LIGHT, config);
+        controller.admit(PROJECT, LIGHT, config);
+        Assert.assertFalse(t1.isHeavy());
+
+        try {
+            controller.admit(PROJECT, LIGHT, config);
+            Assert.fail();
+        } catch (KylinTimeoutException e) {
+            Assert.assertEquals(0, controller.getWaitingCount(PROJECT));
+        }
+
+        // other projects are not affected
+        controller.admit("other", LIGHT, config);
+        controller.release(t1, 0);
+        controller.admit(PROJECT, LIGHT, config);
+    }
+
+    @Test
+    public void testHeavyQueued() throws Exception {
+        final QueryAdmissionController controller = new QueryAdmissionController();
+        final KylinConfig config = config(0, 1, 0, 10);
+        QueryAdmissionController.Ticket heavy = controller.admit(PROJECT, HEAVY, config);
+        Assert.assertTrue(heavy.isHeavy());
+        // light queries do not wait for heavy ones
+        controller.admit(PROJECT, LIGHT, config);
+
+        Future<QueryAdmissionController.Ticket> queued = executor
+                .submit(() -> controller.admit(PROJECT, HEAVY, config));
+        while (controller.getWaitingCount(PROJECT) == 0) {
+            Thread.sleep(10);
+        }
+        controller.release(heavy, 0);
+        Assert.assertTrue(queued.get(5, TimeUnit.SECONDS).isHeavy());
+    }
+
+    @Test
+    public void testCpuBudget() {
+        final AtomicLong clock = new AtomicLong(1000);
+        QueryAdmissionController controller = new QueryAdmissionController() {
+            @Override
+            long now() {
+                return clock.get();
+            }
+        };
+        KylinConfig config = config(0, 0, 1, 0);
+        controller.release(controller.admit(PROJECT, HEAVY, config), 2000);
+
+        // over budget, light queries are still admitted while heavy ones are queued
+        controller.admit(PROJECT, LIGHT, config);
+        try {
+            controller.admit(PROJECT, HEAVY, config);
+            Assert.fail();
+        } catch (KylinTimeoutException e) {
+            // the queue is full as its size is 0
+        }
+
+        clock.addAndGet(QueryAdmissionController.CPU_WINDOW_MILLIS);
+        controller.admit(PROJECT, HEAVY, config);
+    }
+}
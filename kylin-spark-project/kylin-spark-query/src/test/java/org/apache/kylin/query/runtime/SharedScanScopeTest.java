@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.query.runtime;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.execution.FileSourceScanExec;
+import org.apache.spark.sql.execution.SparkPlan;
+import org.apache.spark.sql.functions;
+import org.apache.spark.storage.StorageLevel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import scala.collection.JavaConverters;
+
+public class SharedScanScopeTest {
+
+    private SparkSession ss;
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        ss = SparkSession.builder().appName("local").master("local[1]").getOrCreate();
+        dir = Files.createTempDirectory("shared-scan").toFile();
+    }
+
+    @After
+    public void after() throws Exception {
+        ss.stop();
+        FileUtils.deleteQuietly(dir);
+    }
+
+    private Dataset<Row> filteredScan(String scanKey, long lessThan) {
+        Dataset<Row> scan = SharedScanScope.scanned(scanKey, ss.range(100).toDF());
+        return SharedScanScope.filtered(scan, scan.filter(functions.col("id").lt(lessThan)));
+    }
+
+    @Test
+    public void testShareInBatch() {
+        Dataset<Row> first;
+        try (SharedScanScope scope = SharedScanScope.open(3, 1L << 30)) {
+            Assert.assertSame(scope, SharedScanScope.current());
+
+            scope.nextStatement();
+            first = filteredScan("cube/1/seg@1", 10);
+            // not cached until a later statement asks for the same scan
+            Assert.assertEquals(StorageLevel.NONE(), first.storageLevel());
+
+            scope.nextStatement();
+            Assert.assertSame(first, filteredScan("cube/1/seg@1", 10));
+            Assert.assertEquals(StorageLevel.MEMORY_AND_DISK(), first.storageLevel());
+            Assert.assertNotSame(first, filteredScan("cube/3/seg@1", 10));
+            Assert.assertNotSame(first, filteredScan("cube/1/seg@1", 20));
+
+            Assert.assertEquals(1, scope.getSharedCount());
+        }
+        Assert.assertNull(SharedScanScope.current());
+        Assert.assertEquals(StorageLevel.NONE(), first.storageLevel());
+    }
+
+    @Test
+    public void testNotCached() {
+        try (SharedScanScope scope = SharedScanScope.open(2, 1L << 30)) {
+            scope.nextStatement();
+            Dataset<Row> first = filteredScan("cube/1/seg@1", 10);
+            // a self join in one statement
+            Assert.assertNotSame(first, filteredScan("cube/1/seg@1", 10));
+
+            // no more statements follow the last one
+            scope.nextStatement();
+            Assert.assertSame(first, filteredScan("cube/1/seg@1", 10));
+            Assert.assertEquals(StorageLevel.NONE(), first.storageLevel());
+
+            // scans without filter are not shared
+            Dataset<Row> scan = SharedScanScope.scanned("cube/1/seg@1", ss.range(100).toDF());
+            Assert.assertNotSame(scan, SharedScanScope.scanned("cube/1/seg@1", ss.range(100).toDF()));
+        }
+
+        // out of any batch
+        Assert.assertNotSame(filteredScan("cube/1/seg@1", 10), filteredScan("cube/1/seg@1", 10));
+    }
+
+    @Test
+    public void testCachedScanIsPruned() {
+        String path = new File(dir, "cuboid").getAbsolutePath();
+        ss.range(1000).withColumn("seg", functions.col("id").mod(4)).write().partitionBy("seg").parquet(path);
+
+        try (SharedScanScope scope = SharedScanScope.open(3, 1L << 30)) {
+            Dataset<Row> first = null;
+            for (int i = 0; i < 2; i++) {
+                scope.nextStatement();
+                Dataset<Row> scan = SharedScanScope.scanned("cube/1/seg@1", ss.read().parquet(path));
+                first = SharedScanScope.filtered(scan, scan.filter(functions.col("seg").equalTo(1)));
+            }
+            Assert.assertEquals(StorageLevel.MEMORY_AND_DISK(), first.storageLevel());
+            Assert.assertEquals(250, first.count());
+
+            // the cache is built by a scan given the filter, which prunes files like FilePruner does
+            SparkPlan cachedPlan = ss.sharedState().cacheManager().lookupCachedData(first).get()
+                    .cachedRepresentation().cacheBuilder().cachedPlan();
+            int scans = 0;
+            for (SparkPlan leaf : JavaConverters.seqAsJavaList(cachedPlan.collectLeaves())) {
+                if (leaf instanceof FileSourceScanExec) {
+                    Assert.assertFalse(((FileSourceScanExec) leaf).partitionFilters().isEmpty());
+                    scans++;
+                }
+            }
+            Assert.assertEquals(1, scans);
+        }
+    }
+}
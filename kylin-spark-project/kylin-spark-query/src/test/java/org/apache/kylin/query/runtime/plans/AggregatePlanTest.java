@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.query.runtime.plans;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.spark.sql.AggArgc;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoder;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.KylinFunctions;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SparkOperation;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.catalyst.plans.logical.Aggregate;
+import org.apache.spark.sql.catalyst.plans.logical.Project;
+import org.apache.spark.sql.expressions.Aggregator;
+import org.apache.spark.sql.functions;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import scala.collection.JavaConverters;
+
+public class AggregatePlanTest {
+
+    private SparkSession ss;
+    private Dataset<Row> df;
+
+    @Before
+    public void setUp() {
+        ss = SparkSession.builder().appName("local").master("local[1]").getOrCreate();
+        StructType schema = new StructType().add("G1", DataTypes.StringType).add("G2", DataTypes.StringType)
+                .add("X", DataTypes.LongType, true).add("Y", DataTypes.LongType, false);
+        // X of group b is all null
+        df = ss.createDataFrame(Arrays.asList(RowFactory.create("a", "p", 1L, 10L),
+                RowFactory.create("a", "q", 2L, 20L), RowFactory.create("b", "p", null, 30L),
+                RowFactory.create("b", "q", null, 40L), RowFactory.create("c", "p", 5L, 50L)), schema);
+    }
+
+    @After
+    public void after() {
+        ss.stop();
+    }
+
+    @SafeVarargs
+    private static <T> scala.collection.immutable.List<T> list(T... items) {
+        return JavaConverters.asScalaBuffer(Arrays.asList(items)).toList();
+    }
+
+    private static AggArgc simpleAgg(Dataset<Row> input, List<Column> group, Column... agg) {
+        return new AggArgc(input, JavaConverters.asScalaBuffer(group).toList(), list(agg), list(), true);
+    }
+
+    private static List<String> rows(Dataset<Row> result) {
+        List<String> rows = new ArrayList<>();
+        for (Row row : result.collectAsList()) {
+            rows.add(row.toString());
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * Asserts the shared aggregation returns the same columns and rows as aggregating each call.
+     *
+     * @return the result of the shared aggregation
+     */
+    private static Dataset<Row> assertSameAsUnshared(AggArgc aggArgc) {
+        Dataset<Row> shared = AggregatePlan.sharedAgg(aggArgc);
+        Dataset<Row> unshared = SparkOperation.agg(aggArgc);
+        Assert.assertArrayEquals(unshared.columns(), shared.columns());
+        for (String column : unshared.columns()) {
+            Assert.assertEquals(unshared.schema().apply(column).dataType(), shared.schema().apply(column).dataType());
+        }
+        Assert.assertEquals(rows(unshared), rows(shared));
+        return shared;
+    }
+
+    private static int aggregateExpressionCount(Dataset<Row> shared) {
+        Aggregate aggregate = (Aggregate) ((Project) shared.queryExecution().analyzed()).child();
+        return aggregate.aggregateExpressions().size();
+    }
+
+    @Test
+    public void testAvgNextToSumAndCount() {
+        // the SUM and COUNT of an AVG, next to the same SUM and COUNT selected explicitly
+        Dataset<Row> shared = assertSameAsUnshared(simpleAgg(df, Arrays.asList(functions.col("G1")),
+                functions.sum(functions.col("X")).alias("SUM_X"), functions.count(functions.col("X")).alias("CNT_X"),
+                functions.sum(functions.col("X")).alias("AVG_SUM_X"),
+                functions.count(functions.col("X")).alias("AVG_CNT_X")));
+        Assert.assertEquals(1 + 2, aggregateExpressionCount(shared));
+        Assert.assertEquals(Arrays.asList("[a,3,2,3,2]", "[b,null,0,null,0]", "[c,5,1,5,1]"), rows(shared));
+    }
+
+    @Test
+    public void testSum0SharingSum() {
+        Dataset<Row> shared = assertSameAsUnshared(simpleAgg(df, Arrays.asList(functions.col("G1")),
+                functions.sum(functions.col("X")).alias("SUM_X"),
+                KylinFunctions.sum0(functions.col("X")).alias("SUM0_X")));
+        Assert.assertEquals(1 + 1, aggregateExpressionCount(shared));
+        // SUM is null over all null values, SUM0 is 0
+        Assert.assertEquals(Arrays.asList("[a,3,3]", "[b,null,0]", "[c,5,5]"), rows(shared));
+
+        Dataset<Row> empty = df.filter(functions.col("Y").gt(100));
+        shared = assertSameAsUnshared(simpleAgg(empty, Collections.<Column> emptyList(),
+                KylinFunctions.sum0(functions.col("X")).alias("SUM0_X"),
+                functions.sum(functions.col("X")).alias("SUM_X")));
+        Assert.assertEquals(Arrays.asList("[0,null]"), rows(shared));
+    }
+
+    @Test
+    public void testGroupingSets() {
+        Column g1 = functions.col("G1");
+        Column g2 = functions.col("G2");
+        // rollup(G1, G2)
+        AggArgc rollup = new AggArgc(df, list(g1, g2),
+                list(functions.sum(functions.col("X")).alias("SUM_X"),
+                        functions.count(functions.col("X")).alias("CNT_X"),
+                        functions.grouping(g2).alias("GROUPING_G2"),
+                        functions.sum(functions.col("X")).alias("AVG_SUM_X"),
+                        KylinFunctions.sum0(functions.col("X")).alias("SUM0_X")),
+                list(list(g1, g2), list(g1), AggregatePlanTest.<Column> list()),
+                false);
+        Dataset<Row> shared = assertSameAsUnshared(rollup);
+        Assert.assertTrue(rows(shared).contains("[b,null,null,0,1,null,0]"));
+        Assert.assertTrue(rows(shared).contains("[null,null,8,3,1,8,8]"));
+    }
+
+    @Test
+    public void testRepeatedUdaf() {
+        ss.udf().register("TEST_LONG_SUM", functions.udaf(new LongSum(), Encoders.LONG()));
+        Dataset<Row> shared = assertSameAsUnshared(simpleAgg(df, Arrays.asList(functions.col("G1")),
+                functions.callUDF("TEST_LONG_SUM", functions.col("Y")).alias("MEASURE_0"),
+                functions.sum(functions.col("Y")).alias("SUM_Y"),
+                functions.callUDF("TEST_LONG_SUM", functions.col("Y")).alias("MEASURE_1")));
+        Assert.assertEquals(1 + 2, aggregateExpressionCount(shared));
+        Assert.assertEquals(Arrays.asList("[a,30,30,30]", "[b,70,70,70]", "[c,50,50,50]"), rows(shared));
+    }
+
+    private static class LongSum extends Aggregator<Long, Long, Long> {
+        @Override
+        public Long zero() {
+            return 0L;
+        }
+
+        @Override
+        public Long reduce(Long buffer, Long value) {
+            return buffer + value;
+        }
+
+        @Override
+        public Long merge(Long buffer1, Long buffer2) {
+            return buffer1 + buffer2;
+        }
+
+        @Override
+        public Long finish(Long reduction) {
+            return reduction;
+        }
+
+        @Override
+        public Encoder<Long> bufferEncoder() {
+            return Encoders.LONG();
+        }
+
+        @Override
+        public Encoder<Long> outputEncoder() {
+            return Encoders.LONG();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.engine.spark2;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.hadoop.util.Shell;
+import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.util.DBUtils;
+import org.apache.kylin.engine.spark.LocalWithSparkSessionTest;
+import org.apache.kylin.engine.spark.job.UdfManager;
+import org.apache.kylin.job.engine.JobEngineConfig;
+import org.apache.kylin.job.exception.SchedulerException;
+import org.apache.kylin.job.impl.threadpool.DefaultScheduler;
+import org.apache.kylin.job.lock.MockJobLock;
+import org.apache.kylin.metadata.realization.RealizationType;
+import org.apache.kylin.query.QueryConnection;
+import org.apache.kylin.query.routing.Candidate;
+import org.apache.kylin.rest.request.PrepareSqlRequest;
+import org.apache.kylin.rest.util.ParameterizedSql;
+import org.apache.spark.SparkConf;
+import org.apache.spark.sql.KylinSparkEnv;
+import org.apache.spark.sql.SparderContext;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.internal.StaticSQLConf;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.kylin.shaded.com.google.common.collect.Maps;
+
+/**
+ * Queries parameterized by ParameterizedSql return the same results as with their literals, when the literals
+ * are compared to columns of various types.
+ */
+public class NParameterizedQueryTest extends LocalWithSparkSessionTest {
+
+    private static final String CUBE_NAME = "file_pruning_cube2";
+
+    @BeforeClass
+    public static void beforeClass() {
+        if (Shell.MAC)
+            System.setProperty("org.xerial.snappy.lib.name", "libsnappyjava.jnilib");//for snappy
+
+        sparkConf = new SparkConf().setAppName(UUID.randomUUID().toString()).setMaster("local[4]");
+        sparkConf.set("spark.serializer", "org.apache.spark.serializer.JavaSerializer");
+        sparkConf.set(StaticSQLConf.CATALOG_IMPLEMENTATION().key(), "in-memory");
+        sparkConf.set("spark.sql.shuffle.partitions", "1");
+        sparkConf.set("spark.memory.fraction", "0.1");
+        sparkConf.set("spark.shuffle.detectCorrupt", "false");
+        sparkConf.set("spark.sql.crossJoin.enabled", "true");
+
+        ss = SparkSession.builder().config(sparkConf).getOrCreate();
+        KylinSparkEnv.setSparkSession(ss);
+        UdfManager.create(ss);
+    }
+
+    @Before
+    public void setup() throws SchedulerException {
+        this.createTestMetadata("../../examples/test_case_data/file_prunning");
+        System.setProperty("kylin.env", "UT");
+        System.setProperty("kylin.query.enable-dynamic-column", "false");
+        Map<RealizationType, Integer> priorities = Maps.newHashMap();
+        priorities.put(RealizationType.HYBRID, 0);
+        priorities.put(RealizationType.CUBE, 0);
+        Candidate.setPriorities(priorities);
+        overwriteSystemProp("kylin.job.scheduler.poll-interval-second", "1");
+        overwriteSystemProp("calcite.keep-in-clause", "true");
+        overwriteSystemProp("kylin.metadata.distributed-lock-impl",
+                "org.apache.kylin.engine.spark.utils.MockedDistributedLock$MockedFactory");
+        DefaultScheduler scheduler = DefaultScheduler.getInstance();
+        scheduler.init(new JobEngineConfig(KylinConfig.getInstanceFromEnv()), new MockJobLock());
+        if (!scheduler.hasStarted()) {
+            throw new RuntimeException("scheduler has not been started");
+        }
+    }
+
+    @Override
+    public void after() {
+        System.clearProperty("kylin.env");
+        System.clearProperty("kylin.query.enable-dynamic-column");
+        super.after();
+    }
+
+    @Override
+    public String getProject() {
+        return "default";
+    }
+
+    @Test
+    public void testTypedColumns() throws Exception {
+        buildMultiSegs(CUBE_NAME);
+        populateSSWithCSVData(getTestConfig(), getProject(), SparderContext.getSparkSession());
+
+        // string to date and varchar, integer to integer, date literal to date
+        assertSameResults("select lstg_format_name, count(*) from test_kylin_fact where cal_dt >= '2012-01-01' "
+                + "and cal_dt < date '2013-06-01' and seller_id > 10000500 and lstg_format_name <> 'Others' "
+                + "group by lstg_format_name");
+        // integer to decimal, in list of integers and strings
+        assertSameResults("select cal_dt, count(*) from test_kylin_fact where price > 100 "
+                + "and slr_segment_cd in (-1, 5, 16) and lstg_format_name in ('ABIN', 'FP-GTC') group by cal_dt");
+        // between dates, and not equal to a date string
+        assertSameResults("select seller_id, count(*) from test_kylin_fact "
+                + "where cal_dt between date '2012-01-01' and date '2012-03-01' "
+                + "and cal_dt <> '2012-02-01' group by seller_id");
+
+        // a string compared to an integer is cast in the sql, so it is not bound
+        ParameterizedSql p = ParameterizedSql
+                .parameterize("select count(*) from test_kylin_fact where seller_id = '10000001'");
+        try (Connection conn = QueryConnection.getConnection(getProject());
+                PreparedStatement stmt = conn.prepareStatement(p.getSql())) {
+            Assert.assertFalse(p.isBindableTo(stmt.getParameterMetaData()));
+        }
+    }
+
+    private void assertSameResults(String sql) throws Exception {
+        ParameterizedSql p = ParameterizedSql.parameterize(sql);
+        Assert.assertTrue(p.getParams().length > 0);
+
+        List<String> expected;
+        List<String> actual;
+        Connection conn = null;
+        Statement stmt = null;
+        PreparedStatement preparedStmt = null;
+        try {
+            conn = QueryConnection.getConnection(getProject());
+            stmt = conn.createStatement();
+            expected = rows(stmt.executeQuery(sql));
+
+            preparedStmt = conn.prepareStatement(p.getSql());
+            Assert.assertTrue(p.isBindableTo(preparedStmt.getParameterMetaData()));
+            PrepareSqlRequest.StateParam[] params = p.getParams();
+            for (int i = 0; i < params.length; i++) {
+                if (Long.class.getName().equals(params[i].getClassName())) {
+                    preparedStmt.setLong(i + 1, Long.parseLong(params[i].getValue()));
+                } else {
+                    preparedStmt.setString(i + 1, params[i].getValue());
+                }
+            }
+            actual = rows(preparedStmt.executeQuery());
+        } finally {
+            DBUtils.closeQuietly(preparedStmt);
+            DBUtils.closeQuietly(stmt);
+            DBUtils.closeQuietly(conn);
+        }
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(sql, expected, actual);
+    }
+
+    private static List<String> rows(ResultSet rs) throws SQLException {
+        try {
+            List<String> rows = new ArrayList<>();
+            int columns = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= columns; i++) {
+                    row.append(rs.getString(i)).append(',');
+                }
+                rows.add(row.toString());
+            }
+            Collections.sort(rows);
+            return rows;
+        } finally {
+            DBUtils.closeQuietly(rs);
+        }
+    }
+}
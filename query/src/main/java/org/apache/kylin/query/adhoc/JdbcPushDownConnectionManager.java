@@ -20,29 +20,47 @@ package org.apache.kylin.query.adhoc;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.dbcp.BasicDataSource;
 import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.metrics.common.Metrics;
+import org.apache.kylin.common.metrics.common.MetricsConstant;
+import org.apache.kylin.common.metrics.common.MetricsFactory;
+import org.apache.kylin.common.metrics.common.MetricsNameBuilder;
 
+import com.google.common.collect.Maps;
+
+/**
+ * Pools connections of each pushdown data source, idle connections are validated periodically.
+ */
 public class JdbcPushDownConnectionManager {
 
-    private volatile static JdbcPushDownConnectionManager manager = null;
+    private static final String DEFAULT_ID = "default";
+
+    private static final ConcurrentMap<String, JdbcPushDownConnectionManager> managers = Maps.newConcurrentMap();
 
     static JdbcPushDownConnectionManager getConnectionManager(String id) throws ClassNotFoundException {
+        String key = id == null ? DEFAULT_ID : id;
+        JdbcPushDownConnectionManager manager = managers.get(key);
         if (manager == null) {
             synchronized (JdbcPushDownConnectionManager.class) {
+                manager = managers.get(key);
                 if (manager == null) {
-                    manager = new JdbcPushDownConnectionManager(KylinConfig.getInstanceFromEnv(),
-                            id);
+                    manager = new JdbcPushDownConnectionManager(KylinConfig.getInstanceFromEnv(), id);
+                    managers.put(key, manager);
                 }
             }
         }
         return manager;
     }
 
+    private final String name;
     private final BasicDataSource dataSource;
+    private final int fetchSize;
 
     private JdbcPushDownConnectionManager(KylinConfig config, String id) throws ClassNotFoundException {
+        name = id == null ? DEFAULT_ID : id;
         dataSource = new BasicDataSource();
 
         Class.forName(config.getJdbcDriverClass(id));
@@ -59,6 +77,29 @@ public class JdbcPushDownConnectionManager {
         dataSource.setValidationQuery("select 1");
         dataSource.setRemoveAbandoned(true);
         dataSource.setRemoveAbandonedTimeout(300);
+
+        // validate idle connections in background, so that broken ones are dropped before borrowed
+        long checkIntervalMillis = config.getPoolCheckIntervalSeconds(id) * 1000L;
+        if (checkIntervalMillis > 0) {
+            dataSource.setTestWhileIdle(true);
+            dataSource.setTimeBetweenEvictionRunsMillis(checkIntervalMillis);
+            dataSource.setMinEvictableIdleTimeMillis(checkIntervalMillis * 5);
+        }
+        fetchSize = config.getJdbcFetchSize(id);
+
+        if (config.getQueryMetrics2Enabled()) {
+            Metrics metrics = MetricsFactory.getInstance();
+            metrics.addGauge(buildMetricName(MetricsConstant.PUSHDOWN_POOL_ACTIVE), dataSource::getNumActive);
+            metrics.addGauge(buildMetricName(MetricsConstant.PUSHDOWN_POOL_IDLE), dataSource::getNumIdle);
+        }
+    }
+
+    private String buildMetricName(String metric) {
+        return MetricsNameBuilder.buildMetricName(MetricsNameBuilder.buildPushDownMetricPrefix(name), metric);
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
     }
 
     public void close() {
@@ -77,10 +118,14 @@ public class JdbcPushDownConnectionManager {
         }
     }
 
-    public synchronized Connection getConnection() {
+    public Connection getConnection() {
         try {
             return dataSource.getConnection();
         } catch (SQLException e) {
+            if (KylinConfig.getInstanceFromEnv().getQueryMetrics2Enabled()) {
+                MetricsFactory.getInstance()
+                        .incrementCounter(buildMetricName(MetricsConstant.PUSHDOWN_BORROW_FAILED_COUNT));
+            }
             throw new RuntimeException(e);
         }
     }
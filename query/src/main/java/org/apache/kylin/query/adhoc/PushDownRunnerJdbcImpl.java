@@ -24,6 +24,7 @@ import org.apache.kylin.common.KylinConfig;
 import org.apache.kylin.common.util.DBUtils;
 import org.apache.kylin.metadata.querymeta.SelectedColumnMeta;
 import org.apache.kylin.source.adhocquery.AbstractPushdownRunner;
+import org.apache.kylin.source.adhocquery.IPushDownRowHandler;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
@@ -31,7 +32,7 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -83,7 +84,26 @@ public class PushDownRunnerJdbcImpl extends AbstractPushdownRunner {
     }
 
     @Override
-    public void executeQuery(String query, List<List<String>> results, List<SelectedColumnMeta> columnMetas)
+    public void executeQuery(String query, final List<List<String>> results, List<SelectedColumnMeta> columnMetas)
+            throws Exception {
+        executeQuery(query, columnMetas, new IPushDownRowHandler() {
+            @Override
+            public boolean handle(Object[] row) {
+                List<String> oneRow = new ArrayList<>(row.length);
+                for (Object value : row) {
+                    oneRow.add((String) value);
+                }
+                results.add(oneRow);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Streams the rows, fetching a bounded number of rows per round trip.
+     */
+    @Override
+    public void executeQuery(String query, List<SelectedColumnMeta> columnMetas, IPushDownRowHandler rowHandler)
             throws Exception {
         Statement statement = null;
         Connection connection = manager.getConnection();
@@ -94,8 +114,8 @@ public class PushDownRunnerJdbcImpl extends AbstractPushdownRunner {
         int columnCount = 0;
         try {
             statement = connection.createStatement();
+            statement.setFetchSize(manager.getFetchSize());
             resultSet = statement.executeQuery(query);
-            extractResults(resultSet, results);
             metaData = resultSet.getMetaData();
             columnCount = metaData.getColumnCount();
 
@@ -104,6 +124,8 @@ public class PushDownRunnerJdbcImpl extends AbstractPushdownRunner {
                 SelectedColumnMeta columnMeta = extractColumnMeta(metaData, i);
                 columnMetas.add(columnMeta);
             }
+            rowHandler.start(columnMetas);
+            extractResults(resultSet, columnCount, rowHandler);
         } finally {
             DBUtils.closeQuietly(resultSet);
             DBUtils.closeQuietly(statement);
@@ -281,17 +303,16 @@ public class PushDownRunnerJdbcImpl extends AbstractPushdownRunner {
         }
     }
 
-    private void extractResults(ResultSet resultSet, List<List<String>> results) throws SQLException {
-        List<String> oneRow = new LinkedList<String>();
-
+    private void extractResults(ResultSet resultSet, int columnCount, IPushDownRowHandler rowHandler)
+            throws Exception {
         while (resultSet.next()) {
-            //logger.debug("resultSet value: " + resultSet.getString(1));
-            for (int i = 0; i < resultSet.getMetaData().getColumnCount(); i++) {
-                oneRow.add((resultSet.getString(i + 1)));
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = resultSet.getString(i + 1);
+            }
+            if (!rowHandler.handle(row)) {
+                break;
             }
-
-            results.add(new LinkedList<String>(oneRow));
-            oneRow.clear();
         }
     }
 }
@@ -25,6 +25,7 @@ import java.util.Locale;
 import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.kylin.common.KylinConfig;
 import org.apache.kylin.common.QueryContextFacade;
 import org.apache.kylin.common.debug.BackdoorToggles;
 import org.apache.kylin.common.util.StringUtil;
@@ -91,9 +92,27 @@ public class QueryRouter {
 
         List<Candidate> originCandidates = Lists.newArrayList(candidates);
 
+        // skip the capability check of realizations known to be incapable of the same query shape
+        RealizationCapabilityIndex capabilityIndex = null;
+        RealizationCapabilityIndex.Key indexKey = null;
+        KylinConfig config = olapContext.olapSchema.getConfig();
+        if (config.isRealizationCapabilityIndexEnabled() && forceHitCubeNameSet.isEmpty() && !candidates.isEmpty()) {
+            String modelName = candidates.get(0).getRealization().getModel().getName();
+            indexKey = RealizationCapabilityIndex.keyOf(projectName, modelName, sqlDigest);
+            if (indexKey != null) {
+                capabilityIndex = RealizationCapabilityIndex.getInstance(config);
+                capabilityIndex.prune(indexKey, candidates);
+            }
+        }
+        List<Candidate> checkedCandidates = Lists.newArrayList(candidates);
+
         // rule based realization selection, rules might reorder realizations or remove specific realization
         RoutingRule.applyRules(candidates);
 
+        if (capabilityIndex != null) {
+            capabilityIndex.record(indexKey, checkedCandidates);
+        }
+
         collectIncapableReason(olapContext, originCandidates);
 
         if (candidates.size() == 0) {
@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.query.routing;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.cube.CubeInstance;
+import org.apache.kylin.metadata.cachesync.Broadcaster;
+import org.apache.kylin.metadata.filter.UDF.MassInTupleFilter;
+import org.apache.kylin.metadata.model.FunctionDesc;
+import org.apache.kylin.metadata.model.JoinDesc;
+import org.apache.kylin.metadata.model.TblColRef;
+import org.apache.kylin.metadata.realization.CapabilityResult;
+import org.apache.kylin.metadata.realization.IRealization;
+import org.apache.kylin.metadata.realization.SQLDigest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Remembers which cubes are incapable of a query shape, so that they are pruned before the capability checks
+ * when the same shape is queried again.
+ *
+ * A shape is keyed by project, model, fact table, joins, dimension columns, aggregations and the other parts
+ * of SQLDigest the capability check looks at, but not filter values. A verdict holds only while the cube,
+ * its descriptor and model are the same instances, and the index of a project is dropped on project or cube
+ * changes. Only cubes are indexed, hybrids are always fully checked.
+ */
+public class RealizationCapabilityIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(RealizationCapabilityIndex.class);
+
+    public static RealizationCapabilityIndex getInstance(KylinConfig config) {
+        return config.getManager(RealizationCapabilityIndex.class);
+    }
+
+    // called by reflection
+    static RealizationCapabilityIndex newInstance(KylinConfig config) {
+        return new RealizationCapabilityIndex(config);
+    }
+
+    // ============================================================================
+
+    private final Cache<Key, Map<String, Verdict>> index;
+
+    private RealizationCapabilityIndex(KylinConfig config) {
+        this.index = CacheBuilder.newBuilder().maximumSize(config.getRealizationCapabilityIndexMaxEntries()).build();
+        Broadcaster.getInstance(config).registerListener(new CapabilityIndexSyncListener(), "cube", "cube_desc",
+                "model", "hybrid");
+    }
+
+    private class CapabilityIndexSyncListener extends Broadcaster.Listener {
+        @Override
+        public void onClearAll(Broadcaster broadcaster) {
+            invalidateAll();
+        }
+
+        @Override
+        public void onProjectSchemaChange(Broadcaster broadcaster, String project) {
+            invalidate(project);
+        }
+
+        @Override
+        public void onProjectDataChange(Broadcaster broadcaster, String project) {
+            invalidate(project);
+        }
+
+        @Override
+        public void onEntityChange(Broadcaster broadcaster, String entity, Broadcaster.Event event, String cacheKey) {
+            // the project of a dropped entity is unknown
+            invalidateAll();
+        }
+    }
+
+    public void invalidate(String project) {
+        Iterator<Key> it = index.asMap().keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().project.equalsIgnoreCase(project))
+                it.remove();
+        }
+    }
+
+    public void invalidateAll() {
+        index.invalidateAll();
+    }
+
+    /**
+     * @return null if the query shape cannot be indexed
+     */
+    public static Key keyOf(String project, String model, SQLDigest digest) {
+        if ((digest.dynAggregations != null && !digest.dynAggregations.isEmpty()) || digest.groupByExpression)
+            return null;
+        if (digest.filter != null && MassInTupleFilter.containsMassInTupleFilter(digest.filter))
+            return null;
+
+        List<Object> parts = Lists.newArrayList();
+        parts.add(digest.factTable);
+        parts.add(joinsOf(digest.joinDescs));
+        parts.add(columnsOf(digest.allColumns));
+        parts.add(columnsOf(digest.groupbyColumns));
+        parts.add(columnsOf(digest.filterColumns));
+        parts.add(columnsOf(digest.rtDimensionColumns));
+        parts.add(columnsOf(digest.metricColumns));
+        parts.add(functionsOf(digest.aggregations));
+        // order matters for sort columns
+        parts.add(digest.sortColumns == null ? null : digest.sortColumns.toString());
+        parts.add(digest.sortOrders == null ? null : digest.sortOrders.toString());
+        parts.add(digest.isRawQuery);
+        parts.add(digest.limitPrecedesAggr);
+        parts.add(digest.hasLimit);
+        return new Key(project, model, parts);
+    }
+
+    private static TreeSet<String> joinsOf(Collection<JoinDesc> joins) {
+        TreeSet<String> result = new TreeSet<>();
+        if (joins != null) {
+            for (JoinDesc join : joins)
+                result.add(join.toString());
+        }
+        return result;
+    }
+
+    private static TreeSet<String> columnsOf(Collection<TblColRef> columns) {
+        TreeSet<String> result = new TreeSet<>();
+        if (columns != null) {
+            for (TblColRef col : columns)
+                result.add(col.toString());
+        }
+        return result;
+    }
+
+    private static TreeSet<String> functionsOf(Collection<FunctionDesc> functions) {
+        TreeSet<String> result = new TreeSet<>();
+        if (functions != null) {
+            for (FunctionDesc func : functions)
+                result.add(func.getClass().getName() + func.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Removes candidates known to be incapable of the query shape, setting their remembered capability.
+     *
+     * @return the removed candidates
+     */
+    public List<Candidate> prune(Key key, List<Candidate> candidates) {
+        List<Candidate> pruned = Lists.newArrayList();
+        Map<String, Verdict> verdicts = index.getIfPresent(key);
+        if (verdicts == null)
+            return pruned;
+
+        for (Iterator<Candidate> it = candidates.iterator(); it.hasNext();) {
+            Candidate candidate = it.next();
+            Verdict verdict = verdicts.get(candidate.getRealization().getName());
+            if (verdict != null && verdict.isValidFor(candidate.getRealization())) {
+                candidate.setCapability(verdict.capability);
+                pruned.add(candidate);
+                it.remove();
+            }
+        }
+        if (!pruned.isEmpty()) {
+            logger.info("Pruned {} incapable realizations by capability index", pruned.size());
+        }
+        return pruned;
+    }
+
+    /**
+     * Remembers the checked candidates incapable of the query shape.
+     */
+    public void record(Key key, List<Candidate> checked) {
+        Map<String, Verdict> verdicts = index.getIfPresent(key);
+        if (verdicts == null) {
+            verdicts = Maps.newConcurrentMap();
+            Map<String, Verdict> existing = index.asMap().putIfAbsent(key, verdicts);
+            if (existing != null)
+                verdicts = existing;
+        }
+        for (Candidate candidate : checked) {
+            CapabilityResult capability = candidate.getCapability();
+            if (capability == null || !(candidate.getRealization() instanceof CubeInstance))
+                continue;
+
+            if (capability.capable)
+                verdicts.remove(candidate.getRealization().getName());
+            else
+                verdicts.put(candidate.getRealization().getName(),
+                        new Verdict((CubeInstance) candidate.getRealization(), capability));
+        }
+    }
+
+    public static class Key {
+        private final String project;
+        private final String model;
+        private final List<Object> parts;
+
+        private Key(String project, String model, List<Object> parts) {
+            this.project = project;
+            this.model = model;
+            this.parts = parts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            Key that = (Key) o;
+            return project.equals(that.project) && model.equals(that.model) && parts.equals(that.parts);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = project.hashCode();
+            result = 31 * result + model.hashCode();
+            result = 31 * result + parts.hashCode();
+            return result;
+        }
+    }
+
+    private static class Verdict {
+        // weak to not hold metadata instances replaced on reload
+        private final WeakReference<Object> cube;
+        private final WeakReference<Object> desc;
+        private final WeakReference<Object> model;
+        private final CapabilityResult capability;
+
+        private Verdict(CubeInstance cube, CapabilityResult capability) {
+            this.cube = new WeakReference<Object>(cube);
+            this.desc = new WeakReference<Object>(cube.getDescriptor());
+            this.model = new WeakReference<Object>(cube.getModel());
+            this.capability = capability;
+        }
+
+        private boolean isValidFor(IRealization realization) {
+            if (!(realization instanceof CubeInstance) || cube.get() != realization)
+                return false;
+            CubeInstance cubeInstance = (CubeInstance) realization;
+            return desc.get() == cubeInstance.getDescriptor() && model.get() == cubeInstance.getModel();
+        }
+    }
+}
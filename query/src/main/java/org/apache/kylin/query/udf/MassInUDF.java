@@ -18,11 +18,61 @@
 
 package org.apache.kylin.query.udf;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.calcite.linq4j.function.Parameter;
+import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.QueryContextFacade;
+import org.apache.kylin.metadata.TableMetadataManager;
+import org.apache.kylin.metadata.filter.UDF.MassInValueSet;
+import org.apache.kylin.metadata.filter.UDF.MassInValueSetLoader;
+import org.apache.kylin.metadata.model.ExternalFilterDesc;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
+/**
+ * Evaluated per row, so the filter table is resolved and loaded once per query, rather than checking its
+ * files on every call.
+ */
 public class MassInUDF {
 
+    // query id and filter table to values, a query normally finishes long before its values expire
+    private static final Cache<String, MassInValueSet> QUERY_VALUES = CacheBuilder.newBuilder().maximumSize(1000)
+            .expireAfterAccess(10, TimeUnit.MINUTES).build();
+
+    private MassInValueSet values;
+    private String valuesOf;
+
     public boolean eval(@Parameter(name = "col") Object col, @Parameter(name = "filterTable") String filterTable) {
-        return true;
+        if (values == null || !filterTable.equals(valuesOf)) {
+            values = getValues(filterTable);
+            valuesOf = filterTable;
+        }
+        return values.contains(col);
+    }
+
+    private static MassInValueSet getValues(final String filterTable) {
+        String key = QueryContextFacade.current().getQueryId() + "/" + filterTable;
+        try {
+            return QUERY_VALUES.get(key, () -> load(filterTable));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static MassInValueSet load(String filterTable) {
+        ExternalFilterDesc filterDesc = TableMetadataManager.getInstance(KylinConfig.getInstanceFromEnv())
+                .getExtFilterDesc(filterTable);
+        if (filterDesc == null) {
+            throw new IllegalArgumentException("External filter named " + filterTable + " is not found");
+        }
+        return MassInValueSetLoader.getInstance().load(filterDesc.getFilterTableType(),
+                filterDesc.getFilterResourceIdentifier());
     }
 }
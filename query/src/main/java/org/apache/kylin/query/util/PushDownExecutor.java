@@ -28,6 +28,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.QueryContext;
 import org.apache.kylin.common.QueryContextFacade;
 import org.apache.kylin.common.exceptions.KylinTimeoutException;
 import org.apache.kylin.common.util.ClassUtil;
@@ -37,6 +38,7 @@ import org.apache.kylin.metadata.realization.NoRealizationFoundException;
 import org.apache.kylin.metadata.realization.RoutingIndicatorException;
 import org.apache.kylin.query.adhoc.PushDownRunnerJdbcImpl;
 import org.apache.kylin.query.security.AccessDeniedException;
+import org.apache.kylin.source.adhocquery.IPushDownRowHandler;
 import org.apache.kylin.source.adhocquery.IPushDownRunner;
 
 import org.codehaus.commons.compiler.CompileException;
@@ -52,6 +54,7 @@ import java.util.List;
 public class PushDownExecutor {
     private static final Logger logger = LoggerFactory.getLogger(PushDownExecutor.class);
     private KylinConfig kylinConfig = KylinConfig.getInstanceFromEnv();
+    private boolean rowsStreamed = false;
 
     public PushDownExecutor() {
 
@@ -148,7 +151,28 @@ public class PushDownExecutor {
         List<SelectedColumnMeta> returnColumnMeta = Lists.newArrayList();
 
         if (isSelect) {
-            runner.executeQuery(sql, returnRows, returnColumnMeta);
+            final QueryContext queryContext = QueryContextFacade.current();
+            final IPushDownRowHandler rowHandler = (IPushDownRowHandler) queryContext.getPushDownRowHandler();
+            if (rowHandler == null || isPrepare) {
+                runner.executeQuery(sql, returnRows, returnColumnMeta);
+            } else {
+                // rows go to the handler as they are fetched, so the response only carries the column metas
+                runner.executeQuery(sql, returnColumnMeta, new IPushDownRowHandler() {
+                    @Override
+                    public void start(List<SelectedColumnMeta> columnMetas) throws Exception {
+                        rowsStreamed = true;
+                        rowHandler.start(columnMetas);
+                    }
+
+                    @Override
+                    public boolean handle(Object[] row) throws Exception {
+                        if (queryContext.isStopped()) {
+                            throw new IllegalStateException("Query is stopped: " + queryContext.getStopReason());
+                        }
+                        return rowHandler.handle(row);
+                    }
+                });
+            }
         }
         if (!isSelect && !isPrepare && kylinConfig.isPushDownUpdateEnabled()) {
             runner.executeUpdate(sql);
@@ -171,6 +195,10 @@ public class PushDownExecutor {
                     return ret;
                 }
             } catch (Exception e) {
+                if (rowsStreamed) {
+                    // the handler has output of this runner already, retrying would repeat it
+                    throw e;
+                }
                 logger.error("Execute pushdown query/update by jdbc runner " + id + " failed: "
                         + ExceptionUtils.getStackTrace(e));
             }
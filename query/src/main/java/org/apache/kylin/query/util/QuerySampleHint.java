@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.query.util;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the sample hint of an approximate query, like "sample(0.1)" in the hint comment following SELECT.
+ */
+public class QuerySampleHint {
+    private QuerySampleHint() {
+    }
+
+    private static final Pattern SAMPLE_HINT_PATTERN = Pattern
+            .compile("SELECT\\W+/\\*\\+[^*]*\\bSAMPLE\\s*\\(\\s*([^)\\s]+)\\s*\\)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * @return the fraction of cuboid files to sample, or null if there is no sample hint
+     */
+    public static Double getSampleFraction(String sql) {
+        Matcher matcher = SAMPLE_HINT_PATTERN.matcher(sql);
+        if (!matcher.find()) {
+            return null;
+        }
+        try {
+            return Double.valueOf(matcher.group(1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Illegal sample fraction in hint: " + matcher.group(1), e);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.query.adhoc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.QueryContextFacade;
+import org.apache.kylin.common.util.LocalFileMetadataTestCase;
+import org.apache.kylin.common.util.Pair;
+import org.apache.kylin.metadata.querymeta.SelectedColumnMeta;
+import org.apache.kylin.metadata.realization.RoutingIndicatorException;
+import org.apache.kylin.query.util.PushDownUtil;
+import org.apache.kylin.source.adhocquery.IPushDownRowHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PushDownRunnerJdbcImplTest extends LocalFileMetadataTestCase {
+
+    private static final String SQL = "select X from SYSTEM_RANGE(1, 100)";
+
+    @Before
+    public void setUp() throws Exception {
+        this.createTestMetadata();
+        KylinConfig config = KylinConfig.getInstanceFromEnv();
+        for (String id : new String[] { "h2a", "h2b" }) {
+            config.setProperty("kylin.query.pushdown." + id + ".jdbc.url", "jdbc:h2:mem:" + id);
+            config.setProperty("kylin.query.pushdown." + id + ".jdbc.driver", "org.h2.Driver");
+            config.setProperty("kylin.query.pushdown." + id + ".jdbc.username", "sa");
+        }
+        config.setProperty("kylin.query.pushdown.h2b.jdbc.fetch-size", "10");
+    }
+
+    @After
+    public void after() throws Exception {
+        QueryContextFacade.resetCurrent();
+        this.cleanupTestMetadata();
+    }
+
+    @Test
+    public void testConnectionManagerPerId() throws Exception {
+        JdbcPushDownConnectionManager managerA = JdbcPushDownConnectionManager.getConnectionManager("h2a");
+        JdbcPushDownConnectionManager managerB = JdbcPushDownConnectionManager.getConnectionManager("h2b");
+        Assert.assertSame(managerA, JdbcPushDownConnectionManager.getConnectionManager("h2a"));
+        Assert.assertNotSame(managerA, managerB);
+
+        Assert.assertEquals(1000, managerA.getFetchSize());
+        Assert.assertEquals(10, managerB.getFetchSize());
+    }
+
+    @Test
+    public void testExecuteQuery() throws Exception {
+        PushDownRunnerJdbcImpl runner = new PushDownRunnerJdbcImpl();
+        runner.initById(KylinConfig.getInstanceFromEnv(), "h2b");
+
+        List<List<String>> rows = new ArrayList<>();
+        List<SelectedColumnMeta> columnMetas = new ArrayList<>();
+        runner.executeQuery(SQL, rows, columnMetas);
+        Assert.assertEquals(1, columnMetas.size());
+        Assert.assertEquals(100, rows.size());
+        Assert.assertEquals("100", rows.get(99).get(0));
+    }
+
+    @Test
+    public void testRowHandlerStopsEarly() throws Exception {
+        PushDownRunnerJdbcImpl runner = new PushDownRunnerJdbcImpl();
+        runner.initById(KylinConfig.getInstanceFromEnv(), "h2b");
+
+        CountingHandler handler = new CountingHandler(25);
+        List<SelectedColumnMeta> columnMetas = new ArrayList<>();
+        runner.executeQuery(SQL, columnMetas, handler);
+        Assert.assertSame(columnMetas, handler.columnMetas);
+        Assert.assertEquals(1, columnMetas.size());
+        // more rows than one fetch, but no more than the handler asks for
+        Assert.assertEquals(25, handler.rows.size());
+        Assert.assertEquals("25", handler.rows.get(24)[0]);
+    }
+
+    @Test
+    public void testStreamedRowsFormattedAsCollected() throws Exception {
+        PushDownRunnerJdbcImpl runner = new PushDownRunnerJdbcImpl();
+        runner.initById(KylinConfig.getInstanceFromEnv(), "h2b");
+        String sql = "select X, CAST(X AS DOUBLE) / 3, CAST(X AS DECIMAL(10, 2)), TIMESTAMP '2020-01-01 10:00:00'"
+                + " from SYSTEM_RANGE(1, 3)";
+
+        List<List<String>> rows = new ArrayList<>();
+        runner.executeQuery(sql, rows, new ArrayList<SelectedColumnMeta>());
+        CountingHandler handler = new CountingHandler(Integer.MAX_VALUE);
+        runner.executeQuery(sql, new ArrayList<SelectedColumnMeta>(), handler);
+
+        Assert.assertEquals(rows.size(), handler.rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Assert.assertArrayEquals(rows.get(i).toArray(), handler.rows.get(i));
+        }
+    }
+
+    @Test
+    public void testPushDownStreamsToQueryContextHandler() throws Exception {
+        KylinConfig config = KylinConfig.getInstanceFromEnv();
+        config.setProperty("kylin.query.pushdown.enabled", "true");
+        config.setProperty("kylin.query.pushdown.runner.ids", "h2b");
+
+        CountingHandler handler = new CountingHandler(Integer.MAX_VALUE);
+        QueryContextFacade.current().setPushDownRowHandler(handler);
+        Pair<List<List<String>>, List<SelectedColumnMeta>> result = PushDownUtil.tryPushDownSelectQuery("default",
+                SQL, "DEFAULT", new SQLException(new RoutingIndicatorException("no realization")), false);
+
+        Assert.assertTrue(result.getFirst().isEmpty());
+        Assert.assertEquals(1, result.getSecond().size());
+        Assert.assertEquals(100, handler.rows.size());
+    }
+
+    private static class CountingHandler implements IPushDownRowHandler {
+        private final int limit;
+        private final List<Object[]> rows = new ArrayList<>();
+        private List<SelectedColumnMeta> columnMetas;
+
+        CountingHandler(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void start(List<SelectedColumnMeta> columnMetas) {
+            this.columnMetas = columnMetas;
+        }
+
+        @Override
+        public boolean handle(Object[] row) {
+            rows.add(row);
+            return rows.size() < limit;
+        }
+    }
+}
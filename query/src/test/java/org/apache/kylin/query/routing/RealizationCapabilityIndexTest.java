@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.apache.kylin.query.routing;
+
+import java.util.List;
+
+import org.apache.kylin.common.util.LocalFileMetadataTestCase;
+import org.apache.kylin.cube.CubeDescManager;
+import org.apache.kylin.cube.CubeInstance;
+import org.apache.kylin.cube.model.CubeDesc;
+import org.apache.kylin.metadata.model.DataModelDesc;
+import org.apache.kylin.metadata.model.FunctionDesc;
+import org.apache.kylin.metadata.model.JoinDesc;
+import org.apache.kylin.metadata.model.MeasureDesc;
+import org.apache.kylin.metadata.model.TblColRef;
+import org.apache.kylin.metadata.realization.CapabilityResult;
+import org.apache.kylin.metadata.realization.SQLDigest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class RealizationCapabilityIndexTest extends LocalFileMetadataTestCase {
+
+    private CubeDesc cubeDesc;
+    private DataModelDesc model;
+
+    @Before
+    public void setUp() throws Exception {
+        this.createTestMetadata();
+        cubeDesc = CubeDescManager.getInstance(getTestConfig()).getCubeDesc("ssb");
+        model = cubeDesc.getModel();
+    }
+
+    @After
+    public void after() throws Exception {
+        this.cleanupTestMetadata();
+    }
+
+    private SQLDigest digest(String... groupBy) {
+        List<TblColRef> groupbyColumns = Lists.newArrayList();
+        for (String col : groupBy) {
+            groupbyColumns.add(model.findColumn(col));
+        }
+        return new SQLDigest(model.getRootFactTableName(), Sets.newHashSet(groupbyColumns),
+                Lists.<JoinDesc> newArrayList(), groupbyColumns, Sets.<TblColRef> newHashSet(),
+                Maps.newHashMap(), false, Sets.<TblColRef> newHashSet(), Lists.<FunctionDesc> newArrayList(),
+                Lists.<SQLDigest.SQLCall> newArrayList(), Lists.newArrayList(), Sets.<TblColRef> newHashSet(),
+                Sets.<TblColRef> newHashSet(), Sets.<TblColRef> newHashSet(), null, null,
+                Lists.<TblColRef> newArrayList(), Lists.<SQLDigest.OrderEnum> newArrayList(), false, false, false,
+                Sets.<MeasureDesc> newHashSet());
+    }
+
+    private static Candidate incapable(CubeInstance cube, SQLDigest digest) {
+        Candidate candidate = new Candidate(cube, digest);
+        CapabilityResult result = new CapabilityResult();
+        result.capable = false;
+        candidate.setCapability(result);
+        return candidate;
+    }
+
+    @Test
+    public void testPruneByQueryShape() {
+        RealizationCapabilityIndex index = RealizationCapabilityIndex.getInstance(getTestConfig());
+        CubeInstance cube = CubeInstance.create("ssb", cubeDesc);
+        RealizationCapabilityIndex.Key key = RealizationCapabilityIndex.keyOf("default", model.getName(),
+                digest("LO_DATE"));
+        index.record(key, Lists.newArrayList(incapable(cube, digest("LO_DATE"))));
+
+        // the same shape is pruned, with the remembered capability
+        List<Candidate> candidates = Lists.newArrayList(new Candidate(cube, digest("LO_DATE")));
+        List<Candidate> pruned = index.prune(
+                RealizationCapabilityIndex.keyOf("default", model.getName(), digest("LO_DATE")), candidates);
+        Assert.assertEquals(0, candidates.size());
+        Assert.assertEquals(1, pruned.size());
+        Assert.assertFalse(pruned.get(0).getCapability().capable);
+
+        // another shape is checked
+        candidates = Lists.newArrayList(new Candidate(cube, digest("LO_DATE", "LO_CUSTKEY")));
+        index.prune(RealizationCapabilityIndex.keyOf("default", model.getName(), digest("LO_DATE", "LO_CUSTKEY")),
+                candidates);
+        Assert.assertEquals(1, candidates.size());
+
+        // a reloaded cube is checked
+        candidates = Lists.newArrayList(new Candidate(CubeInstance.create("ssb", cubeDesc), digest("LO_DATE")));
+        index.prune(key, candidates);
+        Assert.assertEquals(1, candidates.size());
+
+        // a changed project is checked
+        index.invalidate("default");
+        candidates = Lists.newArrayList(new Candidate(cube, digest("LO_DATE")));
+        index.prune(key, candidates);
+        Assert.assertEquals(1, candidates.size());
+    }
+
+    @Test
+    public void testCapableNotRemembered() {
+        RealizationCapabilityIndex index = RealizationCapabilityIndex.getInstance(getTestConfig());
+        CubeInstance cube = CubeInstance.create("ssb", cubeDesc);
+        RealizationCapabilityIndex.Key key = RealizationCapabilityIndex.keyOf("default", model.getName(),
+                digest("LO_DATE"));
+        index.record(key, Lists.newArrayList(incapable(cube, digest("LO_DATE"))));
+
+        Candidate capable = new Candidate(cube, digest("LO_DATE"));
+        CapabilityResult result = new CapabilityResult();
+        result.capable = true;
+        capable.setCapability(result);
+        index.record(key, Lists.newArrayList(capable));
+
+        List<Candidate> candidates = Lists.newArrayList(new Candidate(cube, digest("LO_DATE")));
+        index.prune(key, candidates);
+        Assert.assertEquals(1, candidates.size());
+    }
+}
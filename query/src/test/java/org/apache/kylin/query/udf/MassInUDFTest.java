@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package org.apache.kylin.query.udf;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.QueryContextFacade;
+import org.apache.kylin.common.util.LocalFileMetadataTestCase;
+import org.apache.kylin.metadata.TableMetadataManager;
+import org.apache.kylin.metadata.model.ExternalFilterDesc;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MassInUDFTest extends LocalFileMetadataTestCase {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        createTestMetadata();
+    }
+
+    @After
+    public void after() {
+        QueryContextFacade.resetCurrent();
+        cleanupTestMetadata();
+    }
+
+    @Test
+    public void testLoadOncePerQuery() throws Exception {
+        File file = folder.newFile("vip.txt");
+        FileUtils.writeStringToFile(file, "1001\n1002\n", StandardCharsets.UTF_8);
+        TableMetadataManager metaMgr = TableMetadataManager.getInstance(KylinConfig.getInstanceFromEnv());
+        ExternalFilterDesc desc = metaMgr.getExtFilterDesc("vip_customers");
+        desc.setFilterResourceIdentifier(file.getAbsolutePath());
+        metaMgr.saveExternalFilter(desc);
+
+        MassInUDF udf = new MassInUDF();
+        Assert.assertTrue(udf.eval(1001L, "vip_customers"));
+        Assert.assertFalse(udf.eval(1003L, "vip_customers"));
+
+        // the files are not read again in the same query, even by another instance
+        Assert.assertTrue(file.delete());
+        Assert.assertTrue(new MassInUDF().eval(1002L, "vip_customers"));
+
+        QueryContextFacade.resetCurrent();
+        try {
+            new MassInUDF().eval(1002L, "vip_customers");
+            Assert.fail("A new query should load the filter table again");
+        } catch (IllegalStateException e) {
+            // expected, the file is gone
+        }
+    }
+}
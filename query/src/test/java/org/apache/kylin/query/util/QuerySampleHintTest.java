@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kylin.query.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class QuerySampleHintTest {
+    @Test
+    public void testGetSampleFraction() {
+        assertNull(QuerySampleHint.getSampleFraction("select count(*) from tbl"));
+        assertNull(QuerySampleHint.getSampleFraction("select /* SAMPLE(0.1) */ count(*) from tbl"));
+        assertNull(QuerySampleHint.getSampleFraction("select count(*) from tbl where name = 'sample(0.1)'"));
+        assertEquals(0.1, QuerySampleHint.getSampleFraction("select /*+ SAMPLE(0.1) */ count(*) from tbl"), 0);
+        assertEquals(0.05, QuerySampleHint.getSampleFraction("SELECT   /*+ sample( 0.05 )*/ a, sum(b) from tbl"), 0);
+        assertEquals(0.2,
+                QuerySampleHint.getSampleFraction("select /*+ MODEL_PRIORITY(model1) SAMPLE(0.2) */ a from tbl"), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalFraction() {
+        QuerySampleHint.getSampleFraction("select /*+ SAMPLE(ten) */ count(*) from tbl");
+    }
+}
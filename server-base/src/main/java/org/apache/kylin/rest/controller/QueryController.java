@@ -43,6 +43,7 @@ import org.apache.kylin.rest.exception.InternalErrorException;
 import org.apache.kylin.rest.model.Query;
 import org.apache.kylin.rest.msg.Message;
 import org.apache.kylin.rest.msg.MsgPicker;
+import org.apache.kylin.rest.request.BatchSQLRequest;
 import org.apache.kylin.rest.request.MetaRequest;
 import org.apache.kylin.rest.request.PrepareSqlRequest;
 import org.apache.kylin.rest.request.SQLRequest;
@@ -52,6 +53,7 @@ import org.apache.kylin.rest.response.ResponseCode;
 import org.apache.kylin.rest.response.SQLResponse;
 import org.apache.kylin.rest.service.QueryService;
 import org.apache.kylin.rest.util.ValidateUtil;
+import org.apache.kylin.source.adhocquery.IPushDownRowHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -78,8 +80,8 @@ import org.apache.kylin.shaded.com.google.common.collect.Maps;
 @Controller
 public class QueryController extends BasicController {
 
-    @SuppressWarnings("unused")
     private static final Logger logger = LoggerFactory.getLogger(QueryController.class);
+    private static final String INCOMPLETE_RESULT_MARKER = "ERROR: the result is incomplete, ";
     private static String BOM_CHARACTER;
     @Autowired
     @Qualifier("queryService")
@@ -95,6 +97,15 @@ public class QueryController extends BasicController {
         return queryService.doQueryWithCache(sqlRequest);
     }
 
+    /**
+     * Query statements of a project together, responses are in the order of the statements.
+     */
+    @RequestMapping(value = "/query/batch", method = RequestMethod.POST, produces = { "application/json" })
+    @ResponseBody
+    public List<SQLResponse> batchQuery(@RequestBody BatchSQLRequest batchRequest) {
+        return queryService.doBatchQueryWithCache(batchRequest);
+    }
+
     // TODO should be just "prepare" a statement, get back expected ResultSetMetaData
     @RequestMapping(value = "/query/prestate", method = RequestMethod.POST, produces = "application/json")
     @ResponseBody
@@ -144,7 +155,6 @@ public class QueryController extends BasicController {
             throw new ForbiddenException(msg.getEXPORT_RESULT_NOT_ALLOWED());
         }
 
-        SQLResponse result = queryService.doQueryWithCache(sqlRequest);
         response.setContentType("text/" + format + ";charset=utf-8");
 
         SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmssSSS", Locale.ROOT);
@@ -158,36 +168,105 @@ public class QueryController extends BasicController {
         try {
             csvWriter = new CsvListWriter(response.getWriter(), CsvPreference.STANDARD_PREFERENCE);
 
-            List<String> headerList = new ArrayList<String>();
-
-            for (SelectedColumnMeta column : result.getColumnMetas()) {
-                headerList.add(column.getLabel());
-            }
-
-            // KYLIN-3939
-            // Add BOM character,slove the bug that it shows Chinese garbled when using
-            // excel to open scv file on windows.
-            // BOM character should add on head of CSV file.
-            // So add it to the head of the first index of headerList.
-            if (headerList.size() > 0) {
-                String tmpHeaderFirst = headerList.get(0);
-                String headerFirst = BOM_CHARACTER.concat(tmpHeaderFirst);
-                headerList.set(0, headerFirst);
+            // rows of a pushdown query are written as they are fetched, instead of held in the response
+            CsvRowHandler rowHandler = new CsvRowHandler(csvWriter);
+            QueryContextFacade.current().setPushDownRowHandler(rowHandler);
+            SQLResponse result;
+            try {
+                result = queryService.doQueryWithCache(sqlRequest);
+            } catch (RuntimeException e) {
+                rowHandler.fail(e);
+                throw e;
             }
 
-            String[] headers = new String[headerList.size()];
-            csvWriter.writeHeader(headerList.toArray(headers));
-
-            for (List<String> row : result.getResults()) {
-                csvWriter.write(row);
+            if (rowHandler.columnMetas != null) {
+                rowHandler.finish();
+            } else {
+                writeHeader(csvWriter, result.getColumnMetas());
+                for (List<String> row : result.getResults()) {
+                    csvWriter.write(row);
+                }
             }
         } catch (IOException e) {
             throw new InternalErrorException(e);
         } finally {
+            // not to leave the handler to the next query of this thread, if the query fails before it starts
+            QueryContextFacade.resetCurrent();
             IOUtils.closeQuietly(csvWriter);
         }
     }
 
+    private static void writeHeader(ICsvListWriter csvWriter, List<SelectedColumnMeta> columnMetas)
+            throws IOException {
+        List<String> headerList = new ArrayList<String>();
+
+        for (SelectedColumnMeta column : columnMetas) {
+            headerList.add(column.getLabel());
+        }
+
+        // KYLIN-3939
+        // Add BOM character,slove the bug that it shows Chinese garbled when using
+        // excel to open scv file on windows.
+        // BOM character should add on head of CSV file.
+        // So add it to the head of the first index of headerList.
+        if (headerList.size() > 0) {
+            String tmpHeaderFirst = headerList.get(0);
+            String headerFirst = BOM_CHARACTER.concat(tmpHeaderFirst);
+            headerList.set(0, headerFirst);
+        }
+
+        String[] headers = new String[headerList.size()];
+        csvWriter.writeHeader(headerList.toArray(headers));
+    }
+
+    /**
+     * Writes the streamed rows as CSV. The header is written with the first row, so a query failing before it
+     * returns an error rather than an empty CSV, and a failure after some rows ends the CSV with an error line.
+     */
+    private static class CsvRowHandler implements IPushDownRowHandler {
+        private final ICsvListWriter csvWriter;
+        private List<SelectedColumnMeta> columnMetas;
+        private boolean headerWritten = false;
+
+        CsvRowHandler(ICsvListWriter csvWriter) {
+            this.csvWriter = csvWriter;
+        }
+
+        @Override
+        public void start(List<SelectedColumnMeta> columnMetas) {
+            this.columnMetas = columnMetas;
+        }
+
+        @Override
+        public boolean handle(Object[] row) throws IOException {
+            writeHeaderIfNeeded();
+            csvWriter.write(row);
+            return true;
+        }
+
+        void finish() throws IOException {
+            writeHeaderIfNeeded();
+        }
+
+        void fail(Exception e) {
+            if (!headerWritten) {
+                return;
+            }
+            try {
+                csvWriter.write(INCOMPLETE_RESULT_MARKER + e.getMessage());
+            } catch (IOException ioe) {
+                logger.warn("Failed to mark the incomplete query result", ioe);
+            }
+        }
+
+        private void writeHeaderIfNeeded() throws IOException {
+            if (!headerWritten) {
+                headerWritten = true;
+                writeHeader(csvWriter, columnMetas);
+            }
+        }
+    }
+
     @RequestMapping(value = "/tables_and_columns", method = RequestMethod.GET, produces = { "application/json" })
     @ResponseBody
     public List<TableMeta> getMetadata(MetaRequest metaRequest) throws IOException {
@@ -50,6 +50,10 @@ public class InitialTaskManager implements InitializingBean {
         QueryMetrics2Facade.init();
 
         KylinConfig kylinConfig = KylinConfig.getInstanceFromEnv();
+        if (kylinConfig.isMetadataBootstrapEnabled()) {
+            new MetadataBootstrap(kylinConfig).bootstrap();
+        }
+
         String initTasks = kylinConfig.getInitTasks();
         if (!StringUtils.isEmpty(initTasks)) {
             String[] taskClasses = StringUtil.splitByComma(initTasks);
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.rest.init;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.persistence.CachedResourceStore;
+import org.apache.kylin.common.persistence.ResourceStore;
+import org.apache.kylin.common.util.DaemonThreadFactory;
+import org.apache.kylin.common.util.ServerMode;
+import org.apache.kylin.cube.CubeDescManager;
+import org.apache.kylin.cube.CubeManager;
+import org.apache.kylin.job.dao.ExecutableDao;
+import org.apache.kylin.metadata.TableMetadataManager;
+import org.apache.kylin.metadata.model.DataModelManager;
+import org.apache.kylin.metadata.project.ProjectManager;
+import org.apache.kylin.storage.hybrid.HybridManager;
+import org.apache.spark.sql.SparderContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads metadata at server startup, instead of one manager by one on first access.
+ *
+ * When the resource store is cached, see CachedResourceStore, the resource folders of the managers are fetched
+ * into the cache in parallel first, one round trip per folder. The managers are then created in parallel, only
+ * those depending on each other in order, each reloading its folder from the cache with a listing only. Sparder
+ * session is warmed up at the same time on query servers. A timing breakdown of every folder and manager is logged
+ * at the end.
+ */
+public class MetadataBootstrap {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetadataBootstrap.class);
+
+    private static final String SPARDER = "Sparder";
+
+    // jobs are not prefetched, their history grows without bound and would evict the other folders from the cache
+    private static final String[] FOLDERS = { ResourceStore.PROJECT_RESOURCE_ROOT, ResourceStore.TABLE_RESOURCE_ROOT,
+            ResourceStore.TABLE_EXD_RESOURCE_ROOT, ResourceStore.DATA_MODEL_DESC_RESOURCE_ROOT,
+            ResourceStore.CUBE_DESC_RESOURCE_ROOT, ResourceStore.CUBE_RESOURCE_ROOT,
+            ResourceStore.HYBRID_RESOURCE_ROOT };
+
+    private final KylinConfig config;
+
+    public MetadataBootstrap(KylinConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * @return elapsed milliseconds of each folder and manager, -1 for the failed ones
+     */
+    public Map<String, Long> bootstrap() {
+        long start = System.currentTimeMillis();
+        long deadline = start + TimeUnit.SECONDS.toMillis(config.getMetadataBootstrapTimeoutSeconds());
+
+        Map<String, Callable<?>> fetches = new LinkedHashMap<>();
+        ResourceStore store = ResourceStore.getStore(config);
+        if (store instanceof CachedResourceStore) {
+            final CachedResourceStore cachedStore = (CachedResourceStore) store;
+            for (final String folder : FOLDERS) {
+                fetches.put(folder, () -> {
+                    cachedStore.prefetch(folder);
+                    return null;
+                });
+            }
+        } else {
+            logger.warn("Metadata bootstrap does not prefetch metadata folders, as the resource store is not cached."
+                    + " Set kylin.resourcestore.cache-enabled=true to enable it");
+        }
+        if (ServerMode.SERVER_MODE.canServeQuery() && config.isAutoStartSparder()) {
+            fetches.put(SPARDER, () -> {
+                SparderContext.init();
+                return null;
+            });
+        }
+
+        // a manager creates the managers it depends on anyway, so only a chain of dependencies is created in order
+        List<Map<String, Callable<?>>> managerChains = new ArrayList<>();
+        Map<String, Callable<?>> cubeChain = new LinkedHashMap<>();
+        cubeChain.put(ProjectManager.class.getSimpleName(), () -> ProjectManager.getInstance(config));
+        cubeChain.put(DataModelManager.class.getSimpleName(), () -> DataModelManager.getInstance(config));
+        cubeChain.put(CubeDescManager.class.getSimpleName(), () -> CubeDescManager.getInstance(config));
+        cubeChain.put(CubeManager.class.getSimpleName(), () -> CubeManager.getInstance(config));
+        managerChains.add(cubeChain);
+        managerChains.add(Collections.<String, Callable<?>> singletonMap(
+                TableMetadataManager.class.getSimpleName(), () -> TableMetadataManager.getInstance(config)));
+        managerChains.add(Collections.<String, Callable<?>> singletonMap(HybridManager.class.getSimpleName(),
+                () -> HybridManager.getInstance(config)));
+        managerChains.add(Collections.<String, Callable<?>> singletonMap(ExecutableDao.class.getSimpleName(),
+                () -> ExecutableDao.getInstance(config)));
+
+        Map<String, Long> timings = new LinkedHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(config.getMetadataBootstrapThreads(), fetches.size() + managerChains.size()),
+                new DaemonThreadFactory());
+        try {
+            Map<String, Future<Long>> futures = new LinkedHashMap<>();
+            for (Map.Entry<String, Callable<?>> fetch : fetches.entrySet()) {
+                futures.put(fetch.getKey(), pool.submit(timed(fetch.getValue())));
+            }
+            for (Map.Entry<String, Future<Long>> future : futures.entrySet()) {
+                if (!SPARDER.equals(future.getKey())) {
+                    Long elapsed = waitFor(future.getKey(), future.getValue(), deadline);
+                    timings.put(future.getKey(), elapsed == null ? -1 : elapsed);
+                }
+            }
+
+            List<Future<Map<String, Long>>> creations = new ArrayList<>();
+            for (final Map<String, Callable<?>> chain : managerChains) {
+                creations.add(pool.submit(() -> createAll(chain)));
+            }
+            for (int i = 0; i < creations.size(); i++) {
+                // not bounded by the deadline, as the managers were created on the startup thread before
+                Map<String, Long> created = waitFor(managerChains.get(i).keySet().toString(), creations.get(i),
+                        Long.MAX_VALUE);
+                for (String manager : managerChains.get(i).keySet()) {
+                    timings.put(manager, created == null ? -1 : created.get(manager));
+                }
+            }
+
+            if (futures.containsKey(SPARDER)) {
+                Long elapsed = waitFor(SPARDER, futures.get(SPARDER), deadline);
+                timings.put(SPARDER, elapsed == null ? -1 : elapsed);
+            }
+            logger.info("Metadata bootstrap finished in {} ms, breakdown: {}", System.currentTimeMillis() - start,
+                    timings);
+            return timings;
+        } finally {
+            // a manager failed here is created again on first access, as if there is no bootstrap
+            pool.shutdownNow();
+        }
+    }
+
+    private static Callable<Long> timed(final Callable<?> task) {
+        return () -> {
+            long taskStart = System.currentTimeMillis();
+            task.call();
+            return System.currentTimeMillis() - taskStart;
+        };
+    }
+
+    private Map<String, Long> createAll(Map<String, Callable<?>> managers) {
+        Map<String, Long> timings = new LinkedHashMap<>();
+        for (Map.Entry<String, Callable<?>> manager : managers.entrySet()) {
+            timings.put(manager.getKey(), create(manager.getKey(), manager.getValue()));
+        }
+        return timings;
+    }
+
+    private long create(String name, Callable<?> manager) {
+        try {
+            return timed(manager).call();
+        } catch (Exception e) {
+            logger.error("Metadata bootstrap failed to load " + name, e);
+            return -1;
+        }
+    }
+
+    // null if the task failed or did not finish by the deadline
+    private <T> T waitFor(String name, Future<T> future, long deadline) {
+        try {
+            return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Metadata bootstrap interrupted when waiting for {}", name);
+        } catch (Exception e) {
+            logger.error("Metadata bootstrap failed to load " + name, e);
+        }
+        return null;
+    }
+}
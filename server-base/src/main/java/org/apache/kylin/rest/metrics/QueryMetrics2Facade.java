@@ -75,6 +75,7 @@ public class QueryMetrics2Facade {
         try {
             incrQueryCount(name, sqlResponse);
             incrCacheHitCount(name, sqlResponse);
+            incrCoalescedCount(name, sqlResponse);
             if (!sqlResponse.getIsException()) {
                 metrics.updateTimer(MetricsNameBuilder.buildMetricName(name, MetricsConstant.QUERY_DURATION),
                         sqlResponse.getDuration(), TimeUnit.MILLISECONDS);
@@ -104,4 +105,10 @@ public class QueryMetrics2Facade {
         }
     }
 
+    private static void incrCoalescedCount(String name, SQLResponse sqlResponse) {
+        if (sqlResponse.isQueryCoalesced()) {
+            metrics.incrementCounter(MetricsNameBuilder.buildMetricName(name, MetricsConstant.QUERY_COALESCED_COUNT));
+        }
+    }
+
 }
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.rest.request;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statements of a project queried together, like those of a dashboard. The other fields apply to each statement.
+ */
+public class BatchSQLRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private List<String> sqls;
+
+    private String project;
+    private Integer offset = 0;
+    private Integer limit = 0;
+    private boolean acceptPartial = false;
+
+    private Map<String, String> backdoorToggles;
+
+    public List<String> getSqls() {
+        return sqls;
+    }
+
+    public void setSqls(List<String> sqls) {
+        this.sqls = sqls;
+    }
+
+    public String getProject() {
+        return project;
+    }
+
+    public void setProject(String project) {
+        this.project = project;
+    }
+
+    public Integer getOffset() {
+        return offset;
+    }
+
+    public void setOffset(Integer offset) {
+        this.offset = offset;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    public boolean isAcceptPartial() {
+        return acceptPartial;
+    }
+
+    public void setAcceptPartial(boolean acceptPartial) {
+        this.acceptPartial = acceptPartial;
+    }
+
+    public Map<String, String> getBackdoorToggles() {
+        return backdoorToggles;
+    }
+
+    public void setBackdoorToggles(Map<String, String> backdoorToggles) {
+        this.backdoorToggles = backdoorToggles;
+    }
+
+    public SQLRequest toSQLRequest(String sql) {
+        SQLRequest sqlRequest = new SQLRequest();
+        sqlRequest.setSql(sql);
+        sqlRequest.setProject(project);
+        sqlRequest.setOffset(offset);
+        sqlRequest.setLimit(limit);
+        sqlRequest.setAcceptPartial(acceptPartial);
+        sqlRequest.setBackdoorToggles(backdoorToggles);
+        return sqlRequest;
+    }
+}
@@ -95,6 +95,16 @@ public class SQLResponse implements Serializable {
     // indicating the lazy query start time, -1 indicating not enabled
     protected long lazyQueryStartTime = -1L;
 
+    // it's a temporary flag, no need to return and should be JsonIgnore
+    // indicating the response is shared from an identical query running concurrently
+    protected boolean queryCoalesced = false;
+
+    // fraction of cuboid files scanned by an approximate query, 1 for an exact query
+    protected double sampleFraction = 1.0;
+
+    // relative error bound of scaled SUM and COUNT at 95% confidence, a value v means [v*(1-e), v*(1+e)]
+    protected double sampleRelativeError = 0;
+
     private List<SQLResponseTrace> traces;
 
     protected String queryId;
@@ -292,6 +302,65 @@ public class SQLResponse implements Serializable {
         this.lazyQueryStartTime = lazyQueryStartTime;
     }
 
+    @JsonIgnore
+    public boolean isQueryCoalesced() {
+        return queryCoalesced;
+    }
+
+    public void setQueryCoalesced(boolean queryCoalesced) {
+        this.queryCoalesced = queryCoalesced;
+    }
+
+    @JsonIgnore
+    public boolean isApproximate() {
+        return sampleFraction < 1.0;
+    }
+
+    public double getSampleFraction() {
+        return sampleFraction;
+    }
+
+    public void setSampleFraction(double sampleFraction) {
+        this.sampleFraction = sampleFraction;
+    }
+
+    public double getSampleRelativeError() {
+        return sampleRelativeError;
+    }
+
+    public void setSampleRelativeError(double sampleRelativeError) {
+        this.sampleRelativeError = sampleRelativeError;
+    }
+
+    /**
+     * A shallow copy, for sharing a response among coalesced queries which set their own query id and duration.
+     */
+    public SQLResponse copy() {
+        SQLResponse copy = new SQLResponse(columnMetas, results, cube, affectedRowCount, isException,
+                exceptionMessage, isPartial, queryPushDown);
+        copy.cuboidIds = cuboidIds;
+        copy.realizationTypes = realizationTypes;
+        copy.throwable = throwable;
+        copy.duration = duration;
+        copy.totalScanCount = totalScanCount;
+        copy.totalScanBytes = totalScanBytes;
+        copy.totalScanFiles = totalScanFiles;
+        copy.metadataTime = metadataTime;
+        copy.totalSparkScanTime = totalSparkScanTime;
+        copy.hitExceptionCache = hitExceptionCache;
+        copy.storageCacheUsed = storageCacheUsed;
+        copy.querySparkPool = querySparkPool;
+        copy.queryStatistics = queryStatistics;
+        copy.traceUrl = traceUrl;
+        copy.signature = signature;
+        copy.traces = traces;
+        copy.queryId = queryId;
+        copy.queryCoalesced = queryCoalesced;
+        copy.sampleFraction = sampleFraction;
+        copy.sampleRelativeError = sampleRelativeError;
+        return copy;
+    }
+
     public String getRealizationTypes() {
         return realizationTypes;
     }
@@ -47,6 +47,10 @@ public class CacheService extends BasicService implements InitializingBean {
     @Autowired
     private CacheManager cacheManager;
 
+    @Autowired(required = false)
+    @Qualifier("incrementalQueryCache")
+    private IncrementalQueryCache incrementalQueryCache;
+
     private Broadcaster.Listener cacheSyncListener = new Broadcaster.Listener() {
         @Override
         public void onClearAll(Broadcaster broadcaster) throws IOException {
@@ -57,6 +61,7 @@ public class CacheService extends BasicService implements InitializingBean {
         @Override
         public void onProjectSchemaChange(Broadcaster broadcaster, String project) throws IOException {
             cleanDataCache(project);
+            cleanIncrementalCache();
         }
 
         @Override
@@ -67,6 +72,7 @@ public class CacheService extends BasicService implements InitializingBean {
         @Override
         public void onProjectQueryACLChange(Broadcaster broadcaster, String project) throws IOException {
             cleanDataCache(project);
+            cleanIncrementalCache();
         }
 
         @Override
@@ -128,7 +134,16 @@ public class CacheService extends BasicService implements InitializingBean {
         }
     }
 
+    // partial results survive new segments, but not schema or ACL changes
+    private void cleanIncrementalCache() {
+        if (incrementalQueryCache != null) {
+            logger.info("cleaning incremental query cache");
+            incrementalQueryCache.invalidateAll();
+        }
+    }
+
     protected void cleanAllDataCache() {
+        cleanIncrementalCache();
         if (cacheManager != null) {
             logger.warn("cleaning all storage cache");
             for (String cacheName : cacheManager.getCacheNames()) {
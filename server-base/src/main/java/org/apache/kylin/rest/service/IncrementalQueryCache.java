@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.rest.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.cube.CubeSegment;
+import org.apache.kylin.metadata.querymeta.SelectedColumnMeta;
+import org.apache.kylin.rest.util.DecomposableQuery;
+import org.springframework.stereotype.Component;
+
+import org.apache.kylin.shaded.com.google.common.cache.Cache;
+import org.apache.kylin.shaded.com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches partial results of decomposable aggregate queries, each partial covering a batch of segments.
+ *
+ * Unlike StorageCache, entries are not cleared when a cube gets new segments. Instead a hit computes
+ * the query only on the segments not covered by any valid batch, i.e. new segments and segments of a
+ * batch that has a refreshed or removed segment, then merges all batches with measure aggregators.
+ *
+ * An entry lives at most kylin.query.cache-incremental-ttl-seconds since its first batch was computed,
+ * no matter how often it is hit, so that results of anything not tracked by segments are not kept forever.
+ */
+@Component("incrementalQueryCache")
+public class IncrementalQueryCache {
+
+    // batches are merged into one beyond this, to bound the merge cost of hourly segments
+    static final int MAX_BATCHES = 16;
+
+    private volatile Cache<Object, Entry> cache;
+
+    public Entry get(Object key) {
+        Entry entry = getCache().getIfPresent(key);
+        if (entry != null && System.currentTimeMillis() - entry.getCreateTime() > getTtlMillis()) {
+            getCache().invalidate(key);
+            return null;
+        }
+        return entry;
+    }
+
+    public void put(Object key, Entry entry) {
+        getCache().put(key, entry);
+    }
+
+    public void invalidate(Object key) {
+        getCache().invalidate(key);
+    }
+
+    public void invalidateAll() {
+        getCache().invalidateAll();
+    }
+
+    private Cache<Object, Entry> getCache() {
+        if (cache == null) {
+            synchronized (this) {
+                if (cache == null) {
+                    cache = CacheBuilder.newBuilder()
+                            .maximumSize(KylinConfig.getInstanceFromEnv().getQueryCacheIncrementalMaxEntries())
+                            .expireAfterWrite(getTtlMillis(), TimeUnit.MILLISECONDS).build();
+                }
+            }
+        }
+        return cache;
+    }
+
+    private long getTtlMillis() {
+        return KylinConfig.getInstanceFromEnv().getQueryCacheIncrementalTtlSeconds() * 1000L;
+    }
+
+    /**
+     * @return segment name to last build time, which changes when the segment is refreshed
+     */
+    public static Map<String, Long> toSignatures(List<CubeSegment> segments) {
+        Map<String, Long> signatures = new HashMap<>();
+        for (CubeSegment seg : segments) {
+            signatures.put(seg.getName(), seg.getLastBuildTime());
+        }
+        return signatures;
+    }
+
+    public static class Batch {
+        private final Map<String, Long> segments;
+        private final List<List<String>> rows;
+
+        public Batch(Map<String, Long> segments, List<List<String>> rows) {
+            this.segments = Collections.unmodifiableMap(new HashMap<>(segments));
+            this.rows = rows;
+        }
+
+        public Map<String, Long> getSegments() {
+            return segments;
+        }
+
+        public List<List<String>> getRows() {
+            return rows;
+        }
+
+        boolean isValid(Map<String, Long> readySegments) {
+            for (Map.Entry<String, Long> seg : segments.entrySet()) {
+                if (!seg.getValue().equals(readySegments.get(seg.getKey())))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    public static class Entry {
+        private final String cubeName;
+        private final String realization; // as in SQLResponse.getCube()
+        private final long descLastModified;
+        private final List<SelectedColumnMeta> columnMetas;
+        private final DecomposableQuery query;
+        private final List<Batch> batches;
+        private final long createTime;
+
+        public Entry(String cubeName, String realization, long descLastModified,
+                List<SelectedColumnMeta> columnMetas, DecomposableQuery query, List<Batch> batches) {
+            this(cubeName, realization, descLastModified, columnMetas, query, batches, System.currentTimeMillis());
+        }
+
+        private Entry(String cubeName, String realization, long descLastModified,
+                List<SelectedColumnMeta> columnMetas, DecomposableQuery query, List<Batch> batches,
+                long createTime) {
+            this.cubeName = cubeName;
+            this.realization = realization;
+            this.descLastModified = descLastModified;
+            this.columnMetas = columnMetas;
+            this.query = query;
+            this.batches = Collections.unmodifiableList(new ArrayList<>(batches));
+            this.createTime = createTime;
+        }
+
+        public String getCubeName() {
+            return cubeName;
+        }
+
+        public String getRealization() {
+            return realization;
+        }
+
+        public long getDescLastModified() {
+            return descLastModified;
+        }
+
+        public List<SelectedColumnMeta> getColumnMetas() {
+            return columnMetas;
+        }
+
+        public List<Batch> getBatches() {
+            return batches;
+        }
+
+        public long getCreateTime() {
+            return createTime;
+        }
+
+        /**
+         * @return batches whose segments are all ready and not refreshed since computed
+         */
+        public List<Batch> validBatches(Map<String, Long> readySegments) {
+            List<Batch> valid = new ArrayList<>();
+            for (Batch batch : batches) {
+                if (batch.isValid(readySegments))
+                    valid.add(batch);
+            }
+            return valid;
+        }
+
+        /**
+         * @return ready segments not covered by given batches
+         */
+        public static Set<String> missingSegments(Map<String, Long> readySegments, List<Batch> batches) {
+            Set<String> missing = new HashSet<>(readySegments.keySet());
+            for (Batch batch : batches) {
+                missing.removeAll(batch.getSegments().keySet());
+            }
+            return missing;
+        }
+
+        public Entry withBatches(List<Batch> newBatches) {
+            if (newBatches.size() > MAX_BATCHES) {
+                Map<String, Long> segments = new HashMap<>();
+                for (Batch batch : newBatches) {
+                    segments.putAll(batch.getSegments());
+                }
+                newBatches = Collections.singletonList(new Batch(segments, merge(newBatches)));
+            }
+            return new Entry(cubeName, realization, descLastModified, columnMetas, query, newBatches, createTime);
+        }
+
+        public List<List<String>> merge() {
+            return merge(batches);
+        }
+
+        private List<List<String>> merge(List<Batch> toMerge) {
+            if (toMerge.size() == 1)
+                return toMerge.get(0).getRows();
+
+            List<List<List<String>>> partials = new ArrayList<>(toMerge.size());
+            for (Batch batch : toMerge) {
+                partials.add(batch.getRows());
+            }
+            return query.merge(columnMetas, partials);
+        }
+    }
+}
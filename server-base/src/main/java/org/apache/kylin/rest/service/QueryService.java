@@ -24,6 +24,7 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
@@ -43,6 +44,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
@@ -70,7 +72,9 @@ import org.apache.kylin.common.QueryContextFacade;
 import org.apache.kylin.common.QueryTrace;
 import org.apache.kylin.metrics.QuerySparkMetrics;
 import org.apache.kylin.common.debug.BackdoorToggles;
+import org.apache.kylin.common.exceptions.KylinTimeoutException;
 import org.apache.kylin.common.exceptions.ResourceLimitExceededException;
+import org.apache.kylin.common.lock.DistributedLock;
 import org.apache.kylin.common.persistence.ResourceStore;
 import org.apache.kylin.common.persistence.RootPersistentEntity;
 import org.apache.kylin.common.persistence.Serializer;
@@ -100,9 +104,11 @@ import org.apache.kylin.metadata.realization.IRealization;
 import org.apache.kylin.metrics.MetricsManager;
 import org.apache.kylin.query.QueryConnection;
 import org.apache.kylin.query.relnode.OLAPContext;
+import org.apache.kylin.query.runtime.SharedScanScope;
 import org.apache.kylin.query.util.PushDownUtil;
 import org.apache.kylin.query.util.QueryInfoCollector;
 import org.apache.kylin.query.util.QueryModelPriorities;
+import org.apache.kylin.query.util.QuerySampleHint;
 import org.apache.kylin.query.util.QueryUtil;
 import org.apache.kylin.query.util.TempStatementUtil;
 import org.apache.kylin.rest.constant.Constant;
@@ -113,12 +119,16 @@ import org.apache.kylin.rest.metrics.QueryMetricsFacade;
 import org.apache.kylin.rest.model.Query;
 import org.apache.kylin.rest.msg.Message;
 import org.apache.kylin.rest.msg.MsgPicker;
+import org.apache.kylin.rest.request.BatchSQLRequest;
 import org.apache.kylin.rest.request.PrepareSqlRequest;
 import org.apache.kylin.rest.request.SQLRequest;
 import org.apache.kylin.rest.response.SQLResponse;
 import org.apache.kylin.rest.response.SQLResponseTrace;
 import org.apache.kylin.rest.util.AclEvaluate;
 import org.apache.kylin.rest.util.AclPermissionUtil;
+import org.apache.kylin.rest.util.DecomposableQuery;
+import org.apache.kylin.rest.util.ParameterizedSql;
+import org.apache.kylin.rest.util.QueryCoalescer;
 import org.apache.kylin.rest.util.QueryRequestLimits;
 import org.apache.kylin.rest.util.SQLResponseSignatureUtil;
 import org.apache.kylin.rest.util.TableauInterceptor;
@@ -138,7 +148,9 @@ import org.springframework.stereotype.Component;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.apache.kylin.shaded.com.google.common.base.Preconditions;
 import org.apache.kylin.shaded.com.google.common.base.Strings;
+import org.apache.kylin.shaded.com.google.common.cache.CacheBuilder;
 import org.apache.kylin.shaded.com.google.common.collect.Lists;
+import org.apache.kylin.shaded.com.google.common.hash.Hashing;
 
 /**
  * @author xduo
@@ -149,7 +161,10 @@ public class QueryService extends BasicService {
     public static final String QUERY_CACHE = "StorageCache";
     public static final String QUERY_STORE_PATH_PREFIX = "/query/";
     private static final Logger logger = LoggerFactory.getLogger(QueryService.class);
+    private static final String COALESCING_LOCK_PATH = "/query_coalescing/";
+    private static final int UNPREPARABLE_SQL_CACHE_SIZE = 10000;
     final BadQueryDetector badQueryDetector = new BadQueryDetector();
+    final QueryCoalescer<Object, SQLResponse> queryCoalescer = new QueryCoalescer<>();
     final ResourceStore queryStore;
 
     @Autowired
@@ -163,6 +178,10 @@ public class QueryService extends BasicService {
     @Qualifier("modelMgmtService")
     private ModelService modelService;
 
+    @Autowired(required = false)
+    @Qualifier("incrementalQueryCache")
+    private IncrementalQueryCache incrementalQueryCache;
+
     @Autowired
     @Qualifier("TableAclService")
     private TableACLService tableAclService;
@@ -172,6 +191,10 @@ public class QueryService extends BasicService {
 
     private GenericKeyedObjectPool<PreparedContextKey, PreparedContext> preparedContextPool;
 
+    // parameterized queries failed to prepare, which are executed with literals
+    private final org.apache.kylin.shaded.com.google.common.cache.Cache<PreparedContextKey, Boolean> unpreparableSqls = CacheBuilder
+            .newBuilder().maximumSize(UNPREPARABLE_SQL_CACHE_SIZE).build();
+
     public QueryService() {
         queryStore = ResourceStore.getStore(getConfig());
         preparedContextPool = createPreparedContextPool();
@@ -388,6 +411,7 @@ public class QueryService extends BasicService {
 //        stringBuilder.append("Is Partial Result: ").append(response.isPartial()).append(newLine);
 //        stringBuilder.append("Hit Exception Cache: ").append(response.isHitExceptionCache()).append(newLine);
         stringBuilder.append("Storage cache used: ").append(storageCacheUsed).append(newLine);
+        stringBuilder.append("Query coalesced: ").append(response.isQueryCoalesced()).append(newLine);
         stringBuilder.append("Is Query Push-Down: ").append(isPushDown).append(newLine);
         stringBuilder.append("Is Prepare: ").append(BackdoorToggles.getPrepareOnly()).append(newLine);
         stringBuilder.append("Used Spark pool: ").append(response.getSparkPool()).append(newLine);
@@ -417,6 +441,58 @@ public class QueryService extends BasicService {
         return doQueryWithCache(sqlRequest, false);
     }
 
+    /**
+     * Runs the statements of a batch one after another, those filtering the same cuboid of the same segments
+     * alike share one scan, see SharedScanScope. A failed statement gets a response with its exception, and does
+     * not fail the others.
+     */
+    public List<SQLResponse> doBatchQueryWithCache(BatchSQLRequest batchRequest) {
+        Message msg = MsgPicker.getMsg();
+        KylinConfig kylinConfig = getConfig();
+        List<String> sqls = batchRequest.getSqls();
+        if (sqls == null || sqls.isEmpty()) {
+            throw new BadRequestException(msg.getNULL_EMPTY_SQL());
+        }
+        if (sqls.size() > kylinConfig.getQueryBatchMaxStatements()) {
+            throw new BadRequestException(String.format(Locale.ROOT,
+                    "The batch has %d statements, more than the limit %d", sqls.size(),
+                    kylinConfig.getQueryBatchMaxStatements()));
+        }
+        if (StringUtils.isBlank(batchRequest.getProject())) {
+            throw new BadRequestException(msg.getEMPTY_PROJECT_NAME());
+        }
+        aclEvaluate.checkProjectReadPermission(batchRequest.getProject());
+
+        long start = System.currentTimeMillis();
+        List<SQLResponse> responses = Lists.newArrayListWithCapacity(sqls.size());
+        try (SharedScanScope scope = kylinConfig.isQueryBatchSharedScanEnabled()
+                ? SharedScanScope.open(sqls.size(), kylinConfig.getQueryBatchSharedScanMaxCacheBytes())
+                : null) {
+            for (String sql : sqls) {
+                if (scope != null) {
+                    scope.nextStatement();
+                }
+                responses.add(doQueryInBatch(batchRequest.toSQLRequest(sql)));
+            }
+            logger.info("Batch of {} statements finished in {} ms, scans shared {} times", sqls.size(),
+                    System.currentTimeMillis() - start, scope == null ? 0 : scope.getSharedCount());
+        }
+        return responses;
+    }
+
+    private SQLResponse doQueryInBatch(SQLRequest sqlRequest) {
+        try {
+            return doQueryWithCache(sqlRequest, false);
+        } catch (RuntimeException e) {
+            logger.error("Statement of batch failed: " + sqlRequest.getSql(), e);
+            SQLResponse response = new SQLResponse();
+            response.setIsException(true);
+            response.setExceptionMessage(e.getMessage());
+            response.setThrowable(e);
+            return response;
+        }
+    }
+
     public SQLResponse doQueryWithCache(SQLRequest sqlRequest, boolean isQueryInspect) {
         Message msg = MsgPicker.getMsg();
         sqlRequest.setUsername(getUserName());
@@ -457,11 +533,13 @@ public class QueryService extends BasicService {
             SQLResponse sqlResponse = null;
             String sql = sqlRequest.getSql();
             String project = sqlRequest.getProject();
-            boolean isQueryCacheEnabled = isQueryCacheEnabled(kylinConfig);
             logger.info("Using project: " + project);
             logger.info("The original query:  " + sql);
 
             QueryContextFacade.current().setCubePriorities(QueryModelPriorities.getCubePrioritiesFromComment(sql));
+            queryContext.setSampleFraction(getSampleFraction(sql, kylinConfig));
+            // after the sample fraction is known, as the sample hint is not part of the cache key
+            boolean isQueryCacheEnabled = isQueryCacheEnabled(kylinConfig);
             sql = QueryUtil.removeCommentInSql(sql);
 
             Pair<Boolean, String> result = TempStatementUtil.handleTempStatement(sql, kylinConfig);
@@ -483,9 +561,13 @@ public class QueryService extends BasicService {
                     sqlResponse = searchQueryInCache(sqlRequest);
                 }
 
+                if (sqlResponse == null && isQueryCacheEnabled && isIncrementalCacheEnabled(kylinConfig, sqlRequest)) {
+                    sqlResponse = searchIncrementalCache(sqlRequest);
+                }
+
                 // real execution if required
                 if (sqlResponse == null) {
-                    sqlResponse = queryAndUpdateCache(sqlRequest, isQueryCacheEnabled);
+                    sqlResponse = queryWithCoalescing(sqlRequest, isQueryCacheEnabled);
                 }
             }
             sqlResponse.setQueryId(queryContext.getQueryId());
@@ -513,6 +595,119 @@ public class QueryService extends BasicService {
         }
     }
 
+    /**
+     * @return the fraction of cuboid files to sample from the hint or backdoor toggle, 1 for an exact query
+     */
+    private double getSampleFraction(String sql, KylinConfig kylinConfig) {
+        Double fraction = BackdoorToggles.getSampleFraction();
+        if (fraction == null) {
+            try {
+                fraction = QuerySampleHint.getSampleFraction(sql);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException(e.getMessage());
+            }
+        }
+        if (fraction == null) {
+            return 1.0;
+        }
+        if (!kylinConfig.isQuerySampleEnabled()) {
+            throw new BadRequestException("Approximate query by sampling is disabled");
+        }
+        if (!(fraction > 0 && fraction <= 1)) {
+            throw new BadRequestException("Sample fraction should be in (0, 1], but is " + fraction);
+        }
+        return fraction;
+    }
+
+    /**
+     * Identical select queries running at the same time share one execution, see QueryCoalescer.
+     */
+    private SQLResponse queryWithCoalescing(SQLRequest sqlRequest, boolean queryCacheEnabled) {
+        KylinConfig kylinConfig = getConfig();
+        // a query streaming its pushdown rows has no result to share with others, neither does a sampled one
+        if (!kylinConfig.isQueryCoalescingEnabled() || !QueryUtil.isSelectStatement(sqlRequest.getSql())
+                || QueryContextFacade.current().getPushDownRowHandler() != null
+                || QueryContextFacade.current().isApproximate()) {
+            return queryAndUpdateCache(sqlRequest, queryCacheEnabled);
+        }
+
+        QueryCoalescer.Result<SQLResponse> result;
+        try {
+            result = queryCoalescer.execute(sqlRequest.getCacheKey(),
+                    () -> queryAcrossNodesOnce(sqlRequest, queryCacheEnabled),
+                    // a failed, timed out or stopped leader does not pass its error to the others
+                    response -> !response.getIsException(), kylinConfig.getQueryCoalescingMaxWaitMillis());
+        } catch (Exception e) {
+            throw new InternalErrorException(e); // not expected, queryAndUpdateCache() does not throw
+        }
+        if (!result.isCoalesced()) {
+            return result.getValue();
+        }
+
+        logger.info("Identical query is running, coalesced with it. Running: {}, waiting: {}, coalesced in total: {}",
+                queryCoalescer.getRunningCount(), queryCoalescer.getWaitingCount(),
+                queryCoalescer.getCoalescedCount());
+        SQLResponse response = result.getValue().copy();
+        response.setQueryCoalesced(true);
+        return response;
+    }
+
+    /**
+     * With a shared query cache, waits for another server running the identical query, then reads its result
+     * from cache. The running server is known by the distributed lock on the query.
+     */
+    private SQLResponse queryAcrossNodesOnce(SQLRequest sqlRequest, boolean queryCacheEnabled) {
+        KylinConfig kylinConfig = getConfig();
+        if (!queryCacheEnabled || !kylinConfig.isQueryCoalescingAcrossNodesEnabled()
+                || !(cacheManager.getCache(QUERY_CACHE) instanceof MemcachedCacheManager.MemCachedCacheAdaptor)) {
+            return queryAndUpdateCache(sqlRequest, queryCacheEnabled);
+        }
+
+        String lockPath = COALESCING_LOCK_PATH + Hashing.md5()
+                .hashString(String.valueOf(sqlRequest.getCacheKey()), StandardCharsets.UTF_8).toString();
+        DistributedLock lock;
+        boolean locked;
+        try {
+            lock = kylinConfig.getDistributedLockFactory().lockForCurrentThread();
+            locked = lock.lock(lockPath);
+        } catch (Exception e) {
+            logger.warn("Failed to acquire query coalescing lock, query without coalescing", e);
+            return queryAndUpdateCache(sqlRequest, queryCacheEnabled);
+        }
+
+        if (locked) {
+            try {
+                return queryAndUpdateCache(sqlRequest, queryCacheEnabled);
+            } finally {
+                try {
+                    lock.unlock(lockPath);
+                } catch (Exception e) {
+                    logger.warn("Failed to release query coalescing lock " + lockPath, e);
+                }
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + kylinConfig.getQueryCoalescingMaxWaitMillis();
+        try {
+            while (lock.isLocked(lockPath) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100L);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Failed to check query coalescing lock " + lockPath, e);
+        }
+
+        SQLResponse response = searchQueryInCache(sqlRequest);
+        if (response == null) {
+            logger.info("Identical query on another server did not leave a result in cache, execute on its own");
+            return queryAndUpdateCache(sqlRequest, queryCacheEnabled);
+        }
+        logger.info("Identical query is running on another server, coalesced with it.");
+        response.setQueryCoalesced(true);
+        return response;
+    }
+
     private SQLResponse queryAndUpdateCache(SQLRequest sqlRequest, boolean queryCacheEnabled) {
         KylinConfig kylinConfig = KylinConfig.getInstanceFromEnv();
         Message msg = MsgPicker.getMsg();
@@ -570,6 +765,8 @@ public class QueryService extends BasicService {
                             !(sqlResponse.isPushDown()
                                     && (isSelect == false || kylinConfig.isPushdownQueryCacheEnabled() == false)),
                             "query is executed with pushdown, but it is non-select, or the cache for pushdown is disabled") //
+                    && checkCondition(!(sqlResponse.isPushDown() && queryContext.getPushDownRowHandler() != null),
+                            "query is executed with pushdown, and its rows are streamed instead of returned") //
                     && checkCondition(
                             cacheManager.getCache(QUERY_CACHE) instanceof MemcachedCacheManager.MemCachedCacheAdaptor
                                     || sqlResponse.getDuration() > durationThreshold
@@ -589,6 +786,10 @@ public class QueryService extends BasicService {
                 cacheManager.getCache(QUERY_CACHE).evict(sqlRequest.getCacheKey());
             }
 
+            if (queryCacheEnabled && isSelect && isIncrementalCacheEnabled(kylinConfig, sqlRequest)) {
+                updateIncrementalCache(sqlRequest, sqlResponse);
+            }
+
         } catch (Throwable e) { // calcite may throw AssertError
             queryContext.stop(e);
 
@@ -611,9 +812,112 @@ public class QueryService extends BasicService {
         return sqlResponse;
     }
 
+    private boolean isIncrementalCacheEnabled(KylinConfig kylinConfig, SQLRequest sqlRequest) {
+        return incrementalQueryCache != null && kylinConfig.isQueryCacheIncrementalEnabled()
+                && !QueryContextFacade.current().isApproximate()
+                && sqlRequest.getOffset() == 0 && sqlRequest.getLimit() == 0
+                && !isPrepareStatementWithParams(sqlRequest);
+    }
+
+    /**
+     * Computes the query only on segments not covered by cached partial results, and merges.
+     */
+    private SQLResponse searchIncrementalCache(SQLRequest sqlRequest) {
+        Object key = sqlRequest.getCacheKey();
+        IncrementalQueryCache.Entry entry = incrementalQueryCache.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        CubeInstance cube = CubeManager.getInstance(getConfig()).getCube(entry.getCubeName());
+        if (cube == null || cube.getDescriptor().getLastModified() != entry.getDescLastModified()) {
+            incrementalQueryCache.invalidate(key);
+            return null;
+        }
+
+        Map<String, Long> readySegments = IncrementalQueryCache
+                .toSignatures(cube.getReadySegmentIndex().getSegments());
+        List<IncrementalQueryCache.Batch> batches = entry.validBatches(readySegments);
+        Set<String> missing = IncrementalQueryCache.Entry.missingSegments(readySegments, batches);
+
+        SQLResponse delta = null;
+        if (!missing.isEmpty()) {
+            logger.info("Incremental query cache hit, computing {} out of {} segments", missing.size(),
+                    readySegments.size());
+            QueryContext queryContext = QueryContextFacade.current();
+            queryContext.setSegmentScope(missing);
+            try {
+                delta = query(sqlRequest, queryContext.getQueryId());
+            } catch (Throwable e) {
+                logger.warn("Failed to compute segments incrementally, fall back to the whole query", e);
+            } finally {
+                queryContext.setSegmentScope(null);
+            }
+
+            Map<String, Long> scanned = delta == null ? null : getIncrementallyCachedSegments(delta, cube.getName());
+            if (scanned == null || !missing.equals(scanned.keySet())) {
+                incrementalQueryCache.invalidate(key);
+                return null;
+            }
+            batches.add(new IncrementalQueryCache.Batch(scanned, delta.getResults()));
+        }
+        if (batches.size() != entry.getBatches().size() || delta != null) {
+            entry = entry.withBatches(batches);
+            incrementalQueryCache.put(key, entry);
+        }
+
+        SQLResponse response = new SQLResponse(entry.getColumnMetas(), entry.merge(), entry.getRealization(), 0,
+                false, null, false, false);
+        if (delta == null) {
+            response.setStorageCacheUsed(true);
+        } else {
+            response.setCuboidIds(delta.getCuboidIds());
+            response.setRealizationTypes(delta.getRealizationTypes());
+            response.setTotalScanCount(delta.getTotalScanCount());
+            response.setTotalScanBytes(delta.getTotalScanBytes());
+            response.setTotalScanFiles(delta.getTotalScanFiles());
+            response.setSparkPool(delta.getSparkPool());
+        }
+        return response;
+    }
+
+    private void updateIncrementalCache(SQLRequest sqlRequest, SQLResponse sqlResponse) {
+        Map<String, Long> scanned = getIncrementallyCachedSegments(sqlResponse, null);
+        if (scanned == null || sqlResponse.getResults().size() >= getConfig().getLargeQueryThreshold()) {
+            return;
+        }
+        DecomposableQuery query = DecomposableQuery.analyze(sqlRequest.getSql());
+        if (query == null || !query.accepts(sqlResponse.getColumnMetas())) {
+            return;
+        }
+
+        CubeInstance cube = (CubeInstance) OLAPContext.getThreadLocalContexts().iterator().next().realization;
+        incrementalQueryCache.put(sqlRequest.getCacheKey(),
+                new IncrementalQueryCache.Entry(cube.getName(), sqlResponse.getCube(),
+                        cube.getDescriptor().getLastModified(), sqlResponse.getColumnMetas(), query,
+                        Collections.singletonList(new IncrementalQueryCache.Batch(scanned, sqlResponse.getResults()))));
+    }
+
+    /**
+     * @return segments scanned by a query answered by a single cube, or null if the query is not of the kind
+     */
+    private Map<String, Long> getIncrementallyCachedSegments(SQLResponse sqlResponse, String expectedCube) {
+        Collection<OLAPContext> contexts = OLAPContext.getThreadLocalContexts();
+        if (sqlResponse.getIsException() || sqlResponse.isPushDown() || contexts == null || contexts.size() != 1) {
+            return null;
+        }
+        IRealization realization = contexts.iterator().next().realization;
+        if (!(realization instanceof CubeInstance)
+                || (expectedCube != null && !expectedCube.equals(realization.getName()))) {
+            return null;
+        }
+        return QueryContextFacade.current().getScannedSegments().get(realization.getName());
+    }
+
     private boolean isQueryCacheEnabled(KylinConfig kylinConfig) {
         return checkCondition(kylinConfig.isQueryCacheEnabled(), "query cache disabled in KylinConfig") && //
-                checkCondition(!BackdoorToggles.getDisableCache(), "query cache disabled in BackdoorToggles");
+                checkCondition(!BackdoorToggles.getDisableCache(), "query cache disabled in BackdoorToggles") && //
+                checkCondition(!QueryContextFacade.current().isApproximate(), "query is approximate by sampling");
     }
 
     protected void recordMetric(String queryId, SQLRequest sqlRequest, SQLResponse sqlResponse) throws UnknownHostException {
@@ -726,39 +1030,68 @@ public class QueryService extends BasicService {
                         columnMetas);
             }
             if (!isPrepareRequest) {
-                return executeRequest(correctedSql, sqlRequest, conn);
+                ParameterizedSql parameterized = isPlanCacheEnabled(sqlRequest)
+                        ? ParameterizedSql.parameterize(correctedSql)
+                        : null;
+                if (parameterized == null) {
+                    return executeRequest(correctedSql, sqlRequest, conn);
+                }
+
+                // reuse the plan prepared for queries differing only in literals, and bind the literals
+                preparedContextKey = new PreparedContextKey(sqlRequest.getProject(),
+                        getPlanMetadataVersion(sqlRequest.getProject()), parameterized.getSql());
+                if (unpreparableSqls.getIfPresent(preparedContextKey) != null) {
+                    return executeRequest(correctedSql, sqlRequest, conn);
+                }
+                try {
+                    preparedContext = preparedContextPool.borrowObject(preparedContextKey);
+                    borrowPrepareContext = true;
+                } catch (NoSuchElementException noElementException) {
+                    return executeRequest(correctedSql, sqlRequest, conn);
+                } catch (Exception e) {
+                    logger.info("Failed to prepare the parameterized query, execute it with literals: {}",
+                            e.getMessage());
+                    unpreparableSqls.put(preparedContextKey, Boolean.TRUE);
+                    return executeRequest(correctedSql, sqlRequest, conn);
+                }
+                bindCachedPlan(preparedContext);
+                if (!parameterized.isBindableTo(preparedContext.preparedStatement.getParameterMetaData())) {
+                    return executeRequest(correctedSql, sqlRequest, conn);
+                }
+                registerContexts(preparedContext);
+                try {
+                    return executePrepareRequest(correctedSql, sqlRequest, parameterized.getParams(),
+                            preparedContext);
+                } catch (Exception e) {
+                    if (QueryContextFacade.current().isStopped()
+                            || ExceptionUtils.indexOfType(e, KylinTimeoutException.class) >= 0) {
+                        throw e;
+                    }
+                    // the query worked with literals before its plan was shared, do not fail it now
+                    logger.warn("Failed to execute the parameterized query, execute it with literals", e);
+                    unpreparableSqls.put(preparedContextKey, Boolean.TRUE);
+                    OLAPContext.clearThreadLocalContexts();
+                    return executeRequest(correctedSql, sqlRequest, conn);
+                }
             } else {
-                long prjLastModifyTime = getProjectManager().getProject(sqlRequest.getProject()).getLastModified();
-                preparedContextKey = new PreparedContextKey(sqlRequest.getProject(), prjLastModifyTime, correctedSql);
+                preparedContextKey = new PreparedContextKey(sqlRequest.getProject(),
+                        getPlanMetadataVersion(sqlRequest.getProject()), correctedSql);
                 PrepareSqlRequest prepareSqlRequest = (PrepareSqlRequest) sqlRequest;
                 if (getConfig().isQueryPreparedStatementCacheEnable() && prepareSqlRequest.isEnableStatementCache()) {
                     try {
                         preparedContext = preparedContextPool.borrowObject(preparedContextKey);
-
-                        // preparedContext initialized by current thread, put relNode and resultType into cache
-                        if (preparedContext.olapRel == null) {
-                            preparedContext.olapRel = QueryContextFacade.current().getOlapRel();
-                            preparedContext.resultType = (QueryContextFacade.current().getResultType());
-                        } else {
-                            //set cached RelNode and ResultType into current QueryContext
-                            QueryContextFacade.current().setOlapRel(preparedContext.olapRel);
-                            QueryContextFacade.current().setResultType(preparedContext.resultType);
-                        }
-
+                        bindCachedPlan(preparedContext);
                         borrowPrepareContext = true;
                     } catch (NoSuchElementException noElementException) {
                         borrowPrepareContext = false;
                         preparedContext = createPreparedContext(sqlRequest.getProject(), sqlRequest.getSql());
                     }
-
-                    for (OLAPContext olapContext : preparedContext.olapContexts) {
-                        resetRealizationInContext(olapContext);
-                        OLAPContext.registerContext(olapContext);
-                    }
+                    registerContexts(preparedContext);
                 } else {
                     preparedContext = createPreparedContext(sqlRequest.getProject(), sqlRequest.getSql());
                 }
-                return executePrepareRequest(correctedSql, prepareSqlRequest, preparedContext);
+                return executePrepareRequest(correctedSql, prepareSqlRequest, prepareSqlRequest.getParams(),
+                        preparedContext);
             }
 
         } finally {
@@ -780,6 +1113,53 @@ public class QueryService extends BasicService {
         }
     }
 
+    private void bindCachedPlan(PreparedContext preparedContext) {
+        // preparedContext initialized by current thread, put relNode and resultType into cache
+        if (preparedContext.olapRel == null) {
+            preparedContext.olapRel = QueryContextFacade.current().getOlapRel();
+            preparedContext.resultType = (QueryContextFacade.current().getResultType());
+        } else {
+            //set cached RelNode and ResultType into current QueryContext
+            QueryContextFacade.current().setOlapRel(preparedContext.olapRel);
+            QueryContextFacade.current().setResultType(preparedContext.resultType);
+        }
+    }
+
+    private void registerContexts(PreparedContext preparedContext) {
+        for (OLAPContext olapContext : preparedContext.olapContexts) {
+            resetRealizationInContext(olapContext);
+            OLAPContext.registerContext(olapContext);
+        }
+    }
+
+    private boolean isPlanCacheEnabled(SQLRequest sqlRequest) {
+        ProjectInstance project = getProjectManager().getProject(sqlRequest.getProject());
+        return project != null && project.getConfig().isQueryPlanCacheEnabled();
+    }
+
+    /**
+     * Changes when the project, or the definition, model or readiness of any of its realizations changes,
+     * so that plans prepared before, with the realizations chosen, are not reused.
+     */
+    private long getPlanMetadataVersion(String project) {
+        long version = getProjectManager().getProject(project).getLastModified();
+        long realizations = 0;
+        for (IRealization realization : getProjectManager().listAllRealizations(project)) {
+            long hash = realization.getName().hashCode();
+            if (realization instanceof CubeInstance) {
+                CubeInstance cube = (CubeInstance) realization;
+                hash = 31 * hash + (cube.getDescriptor() == null ? 0 : cube.getDescriptor().getLastModified());
+            } else if (realization instanceof RootPersistentEntity) {
+                hash = 31 * hash + ((RootPersistentEntity) realization).getLastModified();
+            }
+            hash = 31 * hash + (realization.getModel() == null ? 0 : realization.getModel().getLastModified());
+            hash = 31 * hash + (realization.isReady() ? 1 : 0);
+            // order independent
+            realizations += hash;
+        }
+        return 31 * version + realizations;
+    }
+
     private void resetRealizationInContext(OLAPContext olapContext) {
         IRealization realization = olapContext.realization;
         if (realization == null) {
@@ -1060,8 +1440,8 @@ public class QueryService extends BasicService {
         return buildSqlResponse(sqlRequest.getProject(), isPushDown, r.getFirst(), r.getSecond());
     }
 
-    private SQLResponse executePrepareRequest(String correctedSql, PrepareSqlRequest sqlRequest,
-            PreparedContext preparedContext) throws Exception {
+    private SQLResponse executePrepareRequest(String correctedSql, SQLRequest sqlRequest,
+            PrepareSqlRequest.StateParam[] params, PreparedContext preparedContext) throws Exception {
         ResultSet resultSet = null;
         boolean isPushDown = false;
 
@@ -1070,8 +1450,8 @@ public class QueryService extends BasicService {
         try {
             PreparedStatement preparedStatement = preparedContext.preparedStatement;
             processStatementAttr(preparedStatement, sqlRequest);
-            for (int i = 0; i < sqlRequest.getParams().length; i++) {
-                setParam(preparedStatement, i + 1, (sqlRequest.getParams()[i]));
+            for (int i = 0; i < params.length; i++) {
+                setParam(preparedStatement, i + 1, params[i]);
             }
             resultSet = preparedStatement.executeQuery();
             r = createResponseFromResultSet(resultSet);
@@ -1256,6 +1636,10 @@ public class QueryService extends BasicService {
                 (queryContext.getSourceScanBytes() < 1 ? -1 : queryContext.getSourceScanBytes()) : queryContext.getScannedBytes());
         response.setCubeSegmentStatisticsList(queryContext.getCubeSegmentStatisticsResultList());
         response.setSparkPool(queryContext.getSparkPool());
+        if (queryContext.isApproximate()) {
+            response.setSampleFraction(queryContext.getSampleFraction());
+            response.setSampleRelativeError(queryContext.getSampleRelativeError());
+        }
         if (getConfig().isQueryCacheSignatureEnabled()) {
             response.setSignature(SQLResponseSignatureUtil.createSignature(getConfig(), response, projectName));
         }
@@ -1426,12 +1810,12 @@ public class QueryService extends BasicService {
 
     private static class PreparedContextKey {
         private String project;
-        private long prjLastModifyTime;
+        private long metadataVersion;
         private String sql;
 
-        public PreparedContextKey(String project, long prjLastModifyTime, String sql) {
+        public PreparedContextKey(String project, long metadataVersion, String sql) {
             this.project = project;
-            this.prjLastModifyTime = prjLastModifyTime;
+            this.metadataVersion = metadataVersion;
             this.sql = sql;
         }
 
@@ -1444,7 +1828,7 @@ public class QueryService extends BasicService {
 
             PreparedContextKey that = (PreparedContextKey) o;
 
-            if (prjLastModifyTime != that.prjLastModifyTime)
+            if (metadataVersion != that.metadataVersion)
                 return false;
             if (project != null ? !project.equals(that.project) : that.project != null)
                 return false;
@@ -1455,7 +1839,7 @@ public class QueryService extends BasicService {
         @Override
         public int hashCode() {
             int result = project != null ? project.hashCode() : 0;
-            result = 31 * result + (int) (prjLastModifyTime ^ (prjLastModifyTime >>> 32));
+            result = 31 * result + (int) (metadataVersion ^ (metadataVersion >>> 32));
             result = 31 * result + (sql != null ? sql.hashCode() : 0);
             return result;
         }
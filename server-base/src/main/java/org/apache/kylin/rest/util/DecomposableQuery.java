@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.rest.util;
+
+import java.math.BigDecimal;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.calcite.sql.SqlBasicCall;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlFunction;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlJoin;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.apache.kylin.measure.MeasureAggregator;
+import org.apache.kylin.metadata.datatype.DataType;
+import org.apache.kylin.metadata.model.FunctionDesc;
+import org.apache.kylin.metadata.model.tool.CalciteParser;
+import org.apache.kylin.metadata.querymeta.SelectedColumnMeta;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.kylin.shaded.com.google.common.collect.ImmutableSet;
+import org.apache.kylin.shaded.com.google.common.collect.Lists;
+
+/**
+ * An aggregate query whose result over a set of segments can be computed by merging its results over
+ * disjoint subsets of the segments, e.g. "select a, sum(b), count(*) from t where ... group by a".
+ *
+ * Each output column is either a group by key, or SUM / COUNT / MIN / MAX (not DISTINCT). HAVING,
+ * ORDER BY, LIMIT, DISTINCT and any other expression over aggregates make a query not decomposable.
+ * So do subqueries, nested aggregates, FROM other than tables and their joins, and functions whose result
+ * depends on when the query runs, e.g. CURRENT_DATE.
+ */
+public class DecomposableQuery {
+
+    private static final Logger logger = LoggerFactory.getLogger(DecomposableQuery.class);
+
+    // not marked dynamic or non-deterministic by every parser version, or parsed as unresolved functions
+    private static final Set<String> NON_DETERMINISTIC_FUNCS = ImmutableSet.of("CURRENT_DATE", "CURRENT_TIME",
+            "CURRENT_TIMESTAMP", "LOCALTIME", "LOCALTIMESTAMP", "NOW", "SYSDATE", "RAND", "RAND_INTEGER", "RANDOM",
+            "UUID", "UNIX_TIMESTAMP");
+
+    // per output column, null for group by keys
+    private final String[] aggFuncs;
+
+    private DecomposableQuery(String[] aggFuncs) {
+        this.aggFuncs = aggFuncs;
+    }
+
+    /**
+     * @return null if the query is not decomposable
+     */
+    public static DecomposableQuery analyze(String sql) {
+        SqlNode node;
+        try {
+            node = CalciteParser.parse(sql);
+        } catch (SqlParseException e) {
+            logger.debug("Failed to parse sql, treat as not decomposable", e);
+            return null;
+        }
+        if (!(node instanceof SqlSelect))
+            return null;
+
+        SqlSelect select = (SqlSelect) node;
+        if (select.isDistinct() || select.getHaving() != null || select.getOrderList() != null
+                || select.getFetch() != null || select.getOffset() != null
+                || (select.getWindowList() != null && select.getWindowList().size() > 0))
+            return null;
+        if (!isPlainFrom(select.getFrom()) || !isDeterministicFlat(select.getSelectList(), false)
+                || !isDeterministicFlat(select.getWhere(), false) || !isDeterministicFlat(select.getGroup(), false))
+            return null;
+
+        List<String> groupBy = Lists.newArrayList();
+        if (select.getGroup() != null) {
+            for (SqlNode group : select.getGroup()) {
+                groupBy.add(group.toString());
+            }
+        }
+
+        SqlNodeList selectList = select.getSelectList();
+        String[] aggFuncs = new String[selectList.size()];
+        boolean hasAgg = false;
+        for (int i = 0; i < selectList.size(); i++) {
+            SqlNode item = selectList.get(i);
+            if (item.getKind() == SqlKind.AS)
+                item = ((SqlCall) item).operand(0);
+
+            if (groupBy.contains(item.toString())) {
+                continue;
+            }
+            String func = toAggFunc(item);
+            if (func == null)
+                return null;
+            aggFuncs[i] = func;
+            hasAgg = true;
+        }
+        return hasAgg || !groupBy.isEmpty() ? new DecomposableQuery(aggFuncs) : null;
+    }
+
+    private static boolean isPlainFrom(SqlNode from) {
+        if (from instanceof SqlIdentifier)
+            return true;
+        if (from != null && from.getKind() == SqlKind.AS)
+            return ((SqlCall) from).operand(0) instanceof SqlIdentifier;
+        if (from instanceof SqlJoin) {
+            SqlJoin join = (SqlJoin) from;
+            return isPlainFrom(join.getLeft()) && isPlainFrom(join.getRight())
+                    && isDeterministicFlat(join.getCondition(), false);
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the expression has a subquery, an aggregate within an aggregate, or a function whose
+     * result is not the same on each run
+     */
+    private static boolean isDeterministicFlat(SqlNode node, boolean inAgg) {
+        if (node == null)
+            return true;
+        if (node instanceof SqlNodeList) {
+            for (SqlNode child : (SqlNodeList) node) {
+                if (!isDeterministicFlat(child, inAgg))
+                    return false;
+            }
+            return true;
+        }
+        if (node instanceof SqlIdentifier) {
+            // niladic functions like CURRENT_DATE may parse as identifiers
+            SqlIdentifier id = (SqlIdentifier) node;
+            return !id.isSimple() || !NON_DETERMINISTIC_FUNCS.contains(id.getSimple().toUpperCase(Locale.ROOT));
+        }
+        if (!(node instanceof SqlCall))
+            return true;
+
+        SqlCall call = (SqlCall) node;
+        if (node instanceof SqlSelect || node.getKind().belongsTo(SqlKind.QUERY))
+            return false;
+        if (call.getOperator().isDynamicFunction() || !call.getOperator().isDeterministic())
+            return false;
+        if (call.getOperator() instanceof SqlFunction && NON_DETERMINISTIC_FUNCS
+                .contains(call.getOperator().getName().toUpperCase(Locale.ROOT)))
+            return false;
+
+        boolean isAgg = call.getOperator().isAggregator();
+        if (isAgg && inAgg)
+            return false;
+        for (SqlNode operand : call.getOperandList()) {
+            if (!isDeterministicFlat(operand, inAgg || isAgg))
+                return false;
+        }
+        return true;
+    }
+
+    private static String toAggFunc(SqlNode item) {
+        if (!(item instanceof SqlBasicCall) || ((SqlBasicCall) item).getFunctionQuantifier() != null)
+            return null;
+
+        switch (item.getKind()) {
+        case SUM:
+        case SUM0:
+        case COUNT:
+            return FunctionDesc.FUNC_SUM;
+        case MIN:
+            return FunctionDesc.FUNC_MIN;
+        case MAX:
+            return FunctionDesc.FUNC_MAX;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Whether results of the query with given columns can be merged, e.g. SUM over strings cannot.
+     */
+    public boolean accepts(List<SelectedColumnMeta> columnMetas) {
+        if (columnMetas == null || columnMetas.size() != aggFuncs.length)
+            return false;
+        for (int i = 0; i < aggFuncs.length; i++) {
+            if (FunctionDesc.FUNC_SUM.equals(aggFuncs[i]) && toDataType(columnMetas.get(i)) == null)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Merges results over disjoint sets of segments into the result over all of them.
+     */
+    public List<List<String>> merge(List<SelectedColumnMeta> columnMetas, List<List<List<String>>> partials) {
+        DataType[] types = new DataType[aggFuncs.length];
+        for (int i = 0; i < aggFuncs.length; i++) {
+            types[i] = toDataType(columnMetas.get(i));
+        }
+
+        Map<List<String>, Object[]> groups = new LinkedHashMap<>();
+        for (List<List<String>> partial : partials) {
+            for (List<String> row : partial) {
+                List<String> key = new ArrayList<>();
+                for (int i = 0; i < aggFuncs.length; i++) {
+                    if (aggFuncs[i] == null)
+                        key.add(row.get(i));
+                }
+                Object[] states = groups.get(key);
+                if (states == null) {
+                    states = new Object[aggFuncs.length];
+                    groups.put(key, states);
+                }
+                for (int i = 0; i < aggFuncs.length; i++) {
+                    if (aggFuncs[i] == null)
+                        states[i] = row.get(i);
+                    else
+                        states[i] = aggregate(aggFuncs[i], types[i], states[i], row.get(i));
+                }
+            }
+        }
+
+        List<List<String>> result = new ArrayList<>(groups.size());
+        for (Object[] states : groups.values()) {
+            List<String> row = new ArrayList<>(states.length);
+            for (int i = 0; i < states.length; i++) {
+                Object state = states[i];
+                if (state instanceof MeasureAggregator)
+                    state = ((MeasureAggregator<?>) state).getState();
+                row.add(state == null ? null : state.toString());
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object aggregate(String func, DataType type, Object state, String value) {
+        if (value == null)
+            return state;
+
+        if (type == null) {
+            // MIN / MAX of dates and strings, whose string forms compare as the values do
+            if (state == null)
+                return value;
+            int cmp = value.compareTo((String) state);
+            return (FunctionDesc.FUNC_MIN.equals(func) ? cmp < 0 : cmp > 0) ? value : state;
+        }
+
+        MeasureAggregator<Object> aggregator = (MeasureAggregator<Object>) state;
+        if (aggregator == null)
+            aggregator = (MeasureAggregator<Object>) MeasureAggregator.create(func, type);
+        if (type.isIntegerFamily())
+            aggregator.aggregate(Long.parseLong(value));
+        else if (type.isDecimal())
+            aggregator.aggregate(new BigDecimal(value));
+        else
+            aggregator.aggregate(Double.parseDouble(value));
+        return aggregator;
+    }
+
+    private static DataType toDataType(SelectedColumnMeta meta) {
+        switch (meta.getColumnType()) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+            return DataType.getType("bigint");
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+            return DataType.getType("decimal");
+        case Types.FLOAT:
+        case Types.REAL:
+        case Types.DOUBLE:
+            return DataType.getType("double");
+        default:
+            return null;
+        }
+    }
+}
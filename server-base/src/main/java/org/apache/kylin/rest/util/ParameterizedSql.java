@@ -0,0 +1,311 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.rest.util;
+
+import java.math.BigDecimal;
+import java.sql.ParameterMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.apache.calcite.sql.SqlAbstractDateTimeLiteral;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlDynamicParam;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlNumericLiteral;
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.util.SqlBasicVisitor;
+import org.apache.calcite.util.NlsString;
+import org.apache.kylin.common.util.Pair;
+import org.apache.kylin.metadata.model.tool.CalciteParser;
+import org.apache.kylin.rest.request.PrepareSqlRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sql with literals compared to columns replaced by dynamic parameters, so that queries differing only
+ * in filter values share one prepared plan, e.g. "select sum(price) from t where cal_dt = ?".
+ *
+ * Only string, integer, date and timestamp literals directly compared to a column (=, <>, <, >, <=, >=,
+ * IN, BETWEEN) are replaced, the type of such a parameter is inferred from the column. Other literals
+ * stay in the sql as they may affect the plan, like those in LIMIT, GROUP BY or expressions.
+ *
+ * Integers are bound as longs and strings as strings. Dates and timestamps are bound in their JDBC escape
+ * format, which Sparder converts to the type of the parameter. The parameters are bound only if each
+ * literal gives the same value as it would in the sql, see {@link #isBindableTo(ParameterMetaData)}.
+ */
+public class ParameterizedSql {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParameterizedSql.class);
+
+    private static final Pattern DATE_PATTERN = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+    private static final Pattern TIMESTAMP_PATTERN = Pattern
+            .compile("\\d{4}-\\d{2}-\\d{2}( \\d{2}:\\d{2}:\\d{2}(\\.\\d{1,9})?)?");
+
+    private final String sql;
+    private final PrepareSqlRequest.StateParam[] params;
+    private final SqlTypeName[] literalTypes;
+
+    private ParameterizedSql(String sql, PrepareSqlRequest.StateParam[] params, SqlTypeName[] literalTypes) {
+        this.sql = sql;
+        this.params = params;
+        this.literalTypes = literalTypes;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public PrepareSqlRequest.StateParam[] getParams() {
+        return params;
+    }
+
+    /**
+     * @return whether the literals can be bound to the parameters of the prepared sql, false if a literal
+     * would be implicitly cast in the sql in a way binding does not, e.g. a string compared to a number
+     */
+    public boolean isBindableTo(ParameterMetaData metaData) throws SQLException {
+        if (metaData.getParameterCount() != params.length)
+            return false;
+        int[] paramTypes = new int[params.length];
+        for (int i = 0; i < params.length; i++) {
+            paramTypes[i] = metaData.getParameterType(i + 1);
+        }
+        return isBindableTo(paramTypes);
+    }
+
+    boolean isBindableTo(int[] paramTypes) {
+        if (paramTypes.length != params.length)
+            return false;
+        for (int i = 0; i < params.length; i++) {
+            if (!isBindable(literalTypes[i], params[i].getValue(), paramTypes[i]))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isBindable(SqlTypeName literalType, String value, int paramType) {
+        switch (literalType) {
+        case CHAR:
+            switch (paramType) {
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+                return true;
+            case Types.DATE:
+                return DATE_PATTERN.matcher(value).matches();
+            case Types.TIMESTAMP:
+                return TIMESTAMP_PATTERN.matcher(value).matches();
+            default:
+                return false;
+            }
+        case DECIMAL:
+            long number = Long.parseLong(value);
+            switch (paramType) {
+            case Types.TINYINT:
+                return number >= Byte.MIN_VALUE && number <= Byte.MAX_VALUE;
+            case Types.SMALLINT:
+                return number >= Short.MIN_VALUE && number <= Short.MAX_VALUE;
+            case Types.INTEGER:
+                return number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE;
+            case Types.BIGINT:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.DOUBLE:
+                return true;
+            default:
+                return false;
+            }
+        case DATE:
+            return paramType == Types.DATE || paramType == Types.TIMESTAMP;
+        case TIMESTAMP:
+            return paramType == Types.TIMESTAMP;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return null if the sql cannot be parsed or already has dynamic parameters
+     */
+    public static ParameterizedSql parameterize(String sql) {
+        SqlNode node;
+        try {
+            node = CalciteParser.parse(sql);
+        } catch (SqlParseException e) {
+            logger.debug("Failed to parse sql, not parameterized", e);
+            return null;
+        }
+
+        LiteralCollector collector = new LiteralCollector();
+        node.accept(collector);
+        if (collector.hasDynamicParam)
+            return null;
+
+        List<Replacement> replacements = new ArrayList<>();
+        for (SqlLiteral literal : collector.literals) {
+            Replacement replacement = toReplacement(literal, sql);
+            if (replacement != null)
+                replacements.add(replacement);
+        }
+        Collections.sort(replacements, new Comparator<Replacement>() {
+            @Override
+            public int compare(Replacement r1, Replacement r2) {
+                return Integer.compare(r1.start, r2.start);
+            }
+        });
+
+        StringBuilder parameterized = new StringBuilder(sql.length());
+        PrepareSqlRequest.StateParam[] params = new PrepareSqlRequest.StateParam[replacements.size()];
+        SqlTypeName[] literalTypes = new SqlTypeName[replacements.size()];
+        int last = 0;
+        for (int i = 0; i < replacements.size(); i++) {
+            Replacement replacement = replacements.get(i);
+            parameterized.append(sql, last, replacement.start).append('?');
+            last = replacement.end;
+
+            PrepareSqlRequest.StateParam param = new PrepareSqlRequest.StateParam();
+            param.setClassName(replacement.type == SqlTypeName.DECIMAL ? Long.class.getName()
+                    : String.class.getName());
+            param.setValue(replacement.value);
+            params[i] = param;
+            literalTypes[i] = replacement.type;
+        }
+        parameterized.append(sql, last, sql.length());
+        return new ParameterizedSql(parameterized.toString(), params, literalTypes);
+    }
+
+    private static Replacement toReplacement(SqlLiteral literal, String sql) {
+        Pair<Integer, Integer> pos;
+        try {
+            pos = CalciteParser.getReplacePos(literal, sql);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        int start = pos.getFirst();
+        int end = pos.getSecond();
+        if (start < 0 || end > sql.length() || start >= end)
+            return null;
+
+        // the text must be the literal itself, otherwise it stays in the sql
+        String text = sql.substring(start, end);
+        String value;
+        switch (literal.getTypeName()) {
+        case CHAR:
+            if (text.length() < 2 || text.charAt(0) != '\'' || text.charAt(text.length() - 1) != '\'')
+                return null;
+            value = ((NlsString) literal.getValue()).getValue();
+            break;
+        case DECIMAL:
+            SqlNumericLiteral numeric = (SqlNumericLiteral) literal;
+            BigDecimal decimal = (BigDecimal) numeric.getValue();
+            // decimals may be compared to integer columns, which is valid only with the literal
+            if (!numeric.isExact() || decimal.scale() > 0 || !text.equals(numeric.toValue()))
+                return null;
+            value = numeric.toValue();
+            break;
+        case DATE:
+        case TIMESTAMP:
+            String upper = text.toUpperCase(Locale.ROOT);
+            if (!upper.startsWith(literal.getTypeName().getName()) || !text.endsWith("'"))
+                return null;
+            value = ((SqlAbstractDateTimeLiteral) literal).toFormattedString();
+            break;
+        default:
+            return null;
+        }
+        return new Replacement(start, end, literal.getTypeName(), value);
+    }
+
+    private static class Replacement {
+        private final int start;
+        private final int end;
+        private final SqlTypeName type;
+        private final String value;
+
+        private Replacement(int start, int end, SqlTypeName type, String value) {
+            this.start = start;
+            this.end = end;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    private static class LiteralCollector extends SqlBasicVisitor<Void> {
+        private final List<SqlLiteral> literals = new ArrayList<>();
+        private boolean hasDynamicParam = false;
+
+        @Override
+        public Void visit(SqlCall call) {
+            switch (call.getKind()) {
+            case EQUALS:
+            case NOT_EQUALS:
+            case LESS_THAN:
+            case GREATER_THAN:
+            case LESS_THAN_OR_EQUAL:
+            case GREATER_THAN_OR_EQUAL:
+                collectComparedToColumn(call.operand(0), call.operand(1));
+                collectComparedToColumn(call.operand(1), call.operand(0));
+                break;
+            case IN:
+            case NOT_IN:
+                if (call.operand(0) instanceof SqlIdentifier && call.operand(1) instanceof SqlNodeList) {
+                    for (SqlNode item : (SqlNodeList) call.operand(1)) {
+                        if (item instanceof SqlLiteral)
+                            literals.add((SqlLiteral) item);
+                    }
+                }
+                break;
+            case BETWEEN:
+                if (call.operand(0) instanceof SqlIdentifier) {
+                    for (int i = 1; i < call.operandCount(); i++) {
+                        if (call.operand(i) instanceof SqlLiteral)
+                            literals.add((SqlLiteral) call.operand(i));
+                    }
+                }
+                break;
+            default:
+                break;
+            }
+            return super.visit(call);
+        }
+
+        private void collectComparedToColumn(SqlNode column, SqlNode literal) {
+            if (column instanceof SqlIdentifier && literal instanceof SqlLiteral)
+                literals.add((SqlLiteral) literal);
+        }
+
+        @Override
+        public Void visit(SqlDynamicParam param) {
+            hasDynamicParam = true;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.rest.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.kylin.shaded.com.google.common.collect.Maps;
+
+/**
+ * Executes identical tasks running at the same time only once.
+ *
+ * The first caller of a key becomes the leader and runs the task, callers arriving before it finishes
+ * wait and get the leader's result. A waiter runs the task on its own if the leader fails or does not
+ * finish in time. Failing is throwing, or returning a value the success predicate rejects.
+ */
+public class QueryCoalescer<K, V> {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryCoalescer.class);
+
+    private final ConcurrentMap<K, Flight<V>> flights = Maps.newConcurrentMap();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public Result<V> execute(K key, Callable<V> task, long maxWaitMillis) throws Exception {
+        return execute(key, task, value -> true, maxWaitMillis);
+    }
+
+    public Result<V> execute(K key, Callable<V> task, Predicate<V> isSuccess, long maxWaitMillis)
+            throws Exception {
+        Flight<V> flight = new Flight<>();
+        Flight<V> running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            if (await(running, maxWaitMillis)) {
+                coalescedCount.incrementAndGet();
+                return new Result<>(running.value, true);
+            }
+            logger.info("The identical running query did not finish in time or failed, execute on its own");
+            return new Result<>(task.call(), false);
+        }
+
+        try {
+            flight.value = task.call();
+            flight.succeeded = isSuccess.test(flight.value);
+            return new Result<>(flight.value, false);
+        } finally {
+            flights.remove(key, flight);
+            flight.done.countDown();
+        }
+    }
+
+    private boolean await(Flight<V> running, long maxWaitMillis) {
+        waiting.incrementAndGet();
+        try {
+            return running.done.await(maxWaitMillis, TimeUnit.MILLISECONDS) && running.succeeded;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    public int getRunningCount() {
+        return flights.size();
+    }
+
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    private static class Flight<V> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile V value;
+        private volatile boolean succeeded;
+    }
+
+    public static class Result<V> {
+        private final V value;
+        private final boolean coalesced;
+
+        Result(V value, boolean coalesced) {
+            this.value = value;
+            this.coalesced = coalesced;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        /**
+         * @return true if the value comes from another caller's execution
+         */
+        public boolean isCoalesced() {
+            return coalesced;
+        }
+    }
+}
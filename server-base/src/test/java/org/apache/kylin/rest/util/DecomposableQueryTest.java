@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.rest.util;
+
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.kylin.common.util.LocalFileMetadataTestCase;
+import org.apache.kylin.metadata.querymeta.SelectedColumnMeta;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DecomposableQueryTest extends LocalFileMetadataTestCase {
+
+    @Before
+    public void setUp() {
+        createTestMetadata();
+    }
+
+    @After
+    public void after() {
+        cleanupTestMetadata();
+    }
+
+    @Test
+    public void testAnalyze() {
+        Assert.assertNotNull(DecomposableQuery.analyze(
+                "select cal_dt, sum(price) as gmv, count(*) from test_kylin_fact where lstg_site_id = 0 group by cal_dt"));
+        Assert.assertNotNull(DecomposableQuery.analyze("select min(cal_dt), max(price) from test_kylin_fact"));
+
+        Assert.assertNull(DecomposableQuery.analyze("select cal_dt, avg(price) from test_kylin_fact group by cal_dt"));
+        Assert.assertNull(DecomposableQuery
+                .analyze("select cal_dt, count(distinct seller_id) from test_kylin_fact group by cal_dt"));
+        Assert.assertNull(DecomposableQuery
+                .analyze("select cal_dt, sum(price) from test_kylin_fact group by cal_dt order by cal_dt"));
+        Assert.assertNull(DecomposableQuery
+                .analyze("select cal_dt, sum(price) from test_kylin_fact group by cal_dt having sum(price) > 1"));
+        Assert.assertNull(DecomposableQuery.analyze("select cal_dt, price from test_kylin_fact"));
+        Assert.assertNull(DecomposableQuery.analyze("select sum(price) + 1 from test_kylin_fact"));
+    }
+
+    @Test
+    public void testAnalyzeFrom() {
+        Assert.assertNotNull(DecomposableQuery.analyze("select t.cal_dt, count(*) from test_kylin_fact t"
+                + " inner join edw.test_cal_dt c on t.cal_dt = c.cal_dt group by t.cal_dt"));
+
+        Assert.assertNull(DecomposableQuery
+                .analyze("select count(*) from (select cal_dt from test_kylin_fact group by cal_dt)"));
+        Assert.assertNull(DecomposableQuery.analyze(
+                "select max(c) from (select cal_dt, count(*) c from test_kylin_fact group by cal_dt) t"));
+        Assert.assertNull(DecomposableQuery.analyze("select t.cal_dt, count(*) from test_kylin_fact t"
+                + " inner join (select cal_dt from edw.test_cal_dt group by cal_dt) c on t.cal_dt = c.cal_dt"
+                + " group by t.cal_dt"));
+        Assert.assertNull(DecomposableQuery.analyze("select count(*) from test_kylin_fact"
+                + " where cal_dt in (select cal_dt from edw.test_cal_dt)"));
+        Assert.assertNull(DecomposableQuery.analyze("select sum(count(*)) from test_kylin_fact group by cal_dt"));
+    }
+
+    @Test
+    public void testAnalyzeNonDeterministic() {
+        Assert.assertNull(DecomposableQuery
+                .analyze("select count(*) from test_kylin_fact where cal_dt > current_date - interval '7' day"));
+        Assert.assertNull(DecomposableQuery
+                .analyze("select count(*) from test_kylin_fact where cal_dt < cast(current_timestamp as date)"));
+        Assert.assertNull(DecomposableQuery.analyze("select max(price * rand()) from test_kylin_fact"));
+    }
+
+    @Test
+    public void testMerge() {
+        DecomposableQuery query = DecomposableQuery.analyze(
+                "select cal_dt, sum(price), count(*), min(cal_dt), max(price) from test_kylin_fact group by cal_dt");
+        List<SelectedColumnMeta> metas = Arrays.asList(meta("CAL_DT", Types.DATE), meta("P", Types.DECIMAL),
+                meta("C", Types.BIGINT), meta("M", Types.DATE), meta("X", Types.DECIMAL));
+        Assert.assertTrue(query.accepts(metas));
+
+        List<List<String>> first = Arrays.asList(Arrays.asList("2012-01-01", "10.50", "2", "2012-01-01", "8.00"),
+                Arrays.asList("2012-01-02", "1.00", "1", "2012-01-02", "1.00"));
+        List<List<String>> second = Arrays.asList(Arrays.asList("2012-01-02", "2.25", "3", "2012-01-02", "1.50"),
+                Arrays.asList("2012-01-03", "4.00", "1", "2012-01-03", null));
+
+        List<List<String>> merged = query.merge(metas, Arrays.asList(first, second));
+        Assert.assertEquals(3, merged.size());
+        Assert.assertEquals(Arrays.asList("2012-01-01", "10.50", "2", "2012-01-01", "8.00"), merged.get(0));
+        Assert.assertEquals(Arrays.asList("2012-01-02", "3.25", "4", "2012-01-02", "1.50"), merged.get(1));
+        Assert.assertEquals(Arrays.asList("2012-01-03", "4.00", "1", "2012-01-03", null), merged.get(2));
+    }
+
+    @Test
+    public void testNotAcceptSumOfString() {
+        DecomposableQuery query = DecomposableQuery.analyze("select sum(price) from test_kylin_fact");
+        Assert.assertFalse(query.accepts(Arrays.asList(meta("P", Types.VARCHAR))));
+        Assert.assertFalse(query.accepts(Arrays.asList(meta("P", Types.DECIMAL), meta("Q", Types.DECIMAL))));
+    }
+
+    private SelectedColumnMeta meta(String label, int type) {
+        return new SelectedColumnMeta(false, false, false, false, 1, true, 10, label, label, null, null, null, 19, 4,
+                type, null, true, false, false);
+    }
+}
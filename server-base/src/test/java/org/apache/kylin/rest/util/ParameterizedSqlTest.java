@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.rest.util;
+
+import java.sql.Types;
+
+import org.apache.kylin.rest.request.PrepareSqlRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParameterizedSqlTest {
+
+    private static String[] values(ParameterizedSql parameterized) {
+        PrepareSqlRequest.StateParam[] params = parameterized.getParams();
+        String[] values = new String[params.length];
+        for (int i = 0; i < params.length; i++) {
+            values[i] = params[i].getValue();
+        }
+        return values;
+    }
+
+    private static String[] classNames(ParameterizedSql parameterized) {
+        PrepareSqlRequest.StateParam[] params = parameterized.getParams();
+        String[] classNames = new String[params.length];
+        for (int i = 0; i < params.length; i++) {
+            classNames[i] = params[i].getClassName();
+        }
+        return classNames;
+    }
+
+    @Test
+    public void testParameterize() {
+        ParameterizedSql p1 = ParameterizedSql.parameterize("select lstg_format_name, sum(price) from test_kylin_fact "
+                + "where cal_dt >= '2012-01-01' and seller_id in (10, 20) and lstg_format_name <> 'it''s' "
+                + "group by lstg_format_name");
+        Assert.assertEquals("select lstg_format_name, sum(price) from test_kylin_fact "
+                + "where cal_dt >= ? and seller_id in (?, ?) and lstg_format_name <> ? "
+                + "group by lstg_format_name", p1.getSql());
+        Assert.assertArrayEquals(new String[] { "2012-01-01", "10", "20", "it's" }, values(p1));
+        Assert.assertArrayEquals(new String[] { String.class.getName(), Long.class.getName(), Long.class.getName(),
+                String.class.getName() }, classNames(p1));
+
+        ParameterizedSql p2 = ParameterizedSql.parameterize("select lstg_format_name, sum(price) from test_kylin_fact "
+                + "where cal_dt >= '2013-06-01' and seller_id in (30, 40) and lstg_format_name <> 'ABIN' "
+                + "group by lstg_format_name");
+        Assert.assertEquals(p1.getSql(), p2.getSql());
+    }
+
+    @Test
+    public void testMultiLinesAndTypedLiterals() {
+        ParameterizedSql p = ParameterizedSql.parameterize("select count(*)\nfrom test_kylin_fact\n"
+                + "where cal_dt between date '2012-01-01' and date '2012-02-01'\n and 5 < seller_id");
+        Assert.assertEquals("select count(*)\nfrom test_kylin_fact\nwhere cal_dt between ? and ?\n and ? < seller_id",
+                p.getSql());
+        Assert.assertArrayEquals(new String[] { "2012-01-01", "2012-02-01", "5" }, values(p));
+    }
+
+    @Test
+    public void testBindable() {
+        ParameterizedSql p = ParameterizedSql.parameterize("select count(*) from test_kylin_fact where cal_dt >= "
+                + "'2012-01-01' and seller_id = 10 and lstg_format_name = 'ABIN' and cal_dt < date '2013-01-01'");
+        Assert.assertTrue(p.isBindableTo(new int[] { Types.DATE, Types.INTEGER, Types.VARCHAR, Types.DATE }));
+        Assert.assertTrue(p.isBindableTo(new int[] { Types.TIMESTAMP, Types.DECIMAL, Types.CHAR, Types.TIMESTAMP }));
+        Assert.assertTrue(p.isBindableTo(new int[] { Types.VARCHAR, Types.BIGINT, Types.VARCHAR, Types.DATE }));
+
+        // a string compared to a number, or a number to a string, is cast in the sql
+        Assert.assertFalse(p.isBindableTo(new int[] { Types.INTEGER, Types.INTEGER, Types.VARCHAR, Types.DATE }));
+        Assert.assertFalse(p.isBindableTo(new int[] { Types.DATE, Types.VARCHAR, Types.VARCHAR, Types.DATE }));
+        Assert.assertFalse(p.isBindableTo(new int[] { Types.DATE, Types.INTEGER, Types.DATE, Types.DATE }));
+        Assert.assertFalse(p.isBindableTo(new int[] { Types.DATE, Types.INTEGER, Types.VARCHAR, Types.VARCHAR }));
+        Assert.assertFalse(p.isBindableTo(new int[] { Types.DATE, Types.INTEGER, Types.VARCHAR }));
+
+        ParameterizedSql large = ParameterizedSql.parameterize("select count(*) from t where a = 3000000000");
+        Assert.assertFalse(large.isBindableTo(new int[] { Types.INTEGER }));
+        Assert.assertTrue(large.isBindableTo(new int[] { Types.BIGINT }));
+    }
+
+    @Test
+    public void testLiteralsKept() {
+        // literals not compared to a column, decimals and limit stay in the sql
+        String sql = "select seller_id, count(*) from test_kylin_fact where price > 1.5 and 1 = 1 "
+                + "and substring(lstg_format_name, 1, 2) = 'AB' group by seller_id limit 10";
+        ParameterizedSql p = ParameterizedSql.parameterize(sql);
+        Assert.assertEquals(sql, p.getSql());
+        Assert.assertEquals(0, p.getParams().length);
+    }
+
+    @Test
+    public void testNotParameterized() {
+        Assert.assertNull(ParameterizedSql.parameterize("select count(*) from test_kylin_fact where seller_id = ?"));
+        Assert.assertNull(ParameterizedSql.parameterize("select count(*) from"));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kylin.rest.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueryCoalescerTest {
+
+    @Test
+    public void testIdenticalQueriesExecuteOnce() throws Exception {
+        final QueryCoalescer<String, String> coalescer = new QueryCoalescer<>();
+        final AtomicInteger executions = new AtomicInteger();
+        final CountDownLatch leaderStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Thread leader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    coalescer.execute("select 1", () -> {
+                        executions.incrementAndGet();
+                        leaderStarted.countDown();
+                        release.await();
+                        return "result";
+                    }, 10000);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        leader.start();
+        leaderStarted.await();
+
+        int nFollower = 5;
+        final AtomicInteger coalesced = new AtomicInteger();
+        Thread[] followers = new Thread[nFollower];
+        for (int i = 0; i < nFollower; i++) {
+            followers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        QueryCoalescer.Result<String> result = coalescer.execute("select 1", () -> {
+                            executions.incrementAndGet();
+                            return "own result";
+                        }, 10000);
+                        if (result.isCoalesced() && "result".equals(result.getValue()))
+                            coalesced.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            followers[i].start();
+        }
+        while (coalescer.getWaitingCount() < nFollower) {
+            Thread.sleep(10);
+        }
+
+        release.countDown();
+        leader.join();
+        for (Thread follower : followers) {
+            follower.join();
+        }
+        Assert.assertEquals(1, executions.get());
+        Assert.assertEquals(nFollower, coalesced.get());
+        Assert.assertEquals(nFollower, coalescer.getCoalescedCount());
+        Assert.assertEquals(0, coalescer.getRunningCount());
+    }
+
+    @Test
+    public void testExecuteOnItsOwnIfLeaderFails() throws Exception {
+        final QueryCoalescer<String, String> coalescer = new QueryCoalescer<>();
+        final CountDownLatch leaderStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Thread leader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    coalescer.execute("select 1", () -> {
+                        leaderStarted.countDown();
+                        release.await();
+                        throw new IllegalStateException("failed");
+                    }, 10000);
+                } catch (Exception e) {
+                    // expected
+                }
+            }
+        });
+        leader.start();
+        leaderStarted.await();
+
+        // leader is too slow
+        QueryCoalescer.Result<String> result = coalescer.execute("select 1", () -> "own result", 50);
+        Assert.assertFalse(result.isCoalesced());
+        Assert.assertEquals("own result", result.getValue());
+
+        release.countDown();
+        leader.join();
+        Assert.assertEquals("own result", coalescer.execute("select 1", () -> "own result", 50).getValue());
+        Assert.assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void testExecuteOnItsOwnIfLeaderReturnsFailure() throws Exception {
+        final QueryCoalescer<String, String> coalescer = new QueryCoalescer<>();
+        final CountDownLatch leaderStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Thread leader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    coalescer.execute("select 1", () -> {
+                        leaderStarted.countDown();
+                        release.await();
+                        return "timeout";
+                    }, value -> !"timeout".equals(value), 10000);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        leader.start();
+        leaderStarted.await();
+
+        final AtomicReference<QueryCoalescer.Result<String>> result = new AtomicReference<>();
+        Thread follower = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(coalescer.execute("select 1", () -> "own result", value -> !"timeout".equals(value),
+                            10000));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        follower.start();
+        while (coalescer.getWaitingCount() < 1) {
+            Thread.sleep(10);
+        }
+
+        release.countDown();
+        leader.join();
+        follower.join();
+        Assert.assertFalse(result.get().isCoalesced());
+        Assert.assertEquals("own result", result.get().getValue());
+        Assert.assertEquals(0, coalescer.getCoalescedCount());
+    }
+}
@@ -28,6 +28,7 @@ import org.apache.kylin.common.QueryContextFacade;
 import org.apache.kylin.job.exception.JobException;
 import org.apache.kylin.metadata.project.ProjectInstance;
 import org.apache.kylin.query.QueryConnection;
+import org.apache.kylin.rest.exception.InternalErrorException;
 import org.apache.kylin.rest.request.SQLRequest;
 import org.apache.kylin.rest.response.SQLResponse;
 import org.junit.Assert;
@@ -121,6 +122,48 @@ public class QueryServiceTest extends ServiceTestBase {
         }
     }
 
+    @Test
+    public void testSampledQueryNotCached() {
+        KylinConfig config = KylinConfig.getInstanceFromEnv();
+        config.setProperty("kylin.query.cache-enabled", "true");
+        config.setProperty("kylin.query.cache-signature-enabled", "false");
+        config.setProperty("kylin.query.sample-enabled", "true");
+        String sampledSql = "select /*+ sample(0.1) */ count(*) from test_kylin_fact";
+
+        try (SetAndUnsetThreadLocalConfig autoUnset = KylinConfig.setAndUnsetThreadLocalConfig(config)) {
+            SQLRequest sampled = new SQLRequest();
+            sampled.setProject("default");
+            sampled.setSql(sampledSql);
+            try {
+                queryService.doQueryWithCache(sampled);
+            } catch (Exception e) {
+                // the query may fail without built segments, it is not cached either way
+            }
+
+            // the exact query has the same cache key, as the hint is removed from the sql
+            SQLRequest exact = new SQLRequest();
+            exact.setProject("default");
+            exact.setSql(sampled.getSql());
+            exact.setUsername(sampled.getUsername());
+            Cache cache = cacheManager.getCache(QueryService.QUERY_CACHE);
+            Cache.ValueWrapper wrapper = cache.get(exact.getCacheKey());
+            Assert.assertTrue(wrapper == null || wrapper.get() == null);
+
+            // nor is a sampled query answered by the result of the exact one
+            SQLResponse exactResponse = new SQLResponse();
+            cache.put(exact.getCacheKey(), exactResponse);
+            SQLRequest sampledAgain = new SQLRequest();
+            sampledAgain.setProject("default");
+            sampledAgain.setSql(sampledSql);
+            try {
+                Assert.assertNotSame(exactResponse, queryService.doQueryWithCache(sampledAgain));
+            } catch (InternalErrorException e) {
+                // executed rather than read from cache
+            }
+            cache.evict(exact.getCacheKey());
+        }
+    }
+
     @Test
     public void testClassName() throws ClassNotFoundException {
         Assert.assertEquals(Class.forName("java.lang.Object"), queryService.getValidClass("java.io.DataInputStream"));
@@ -379,6 +379,8 @@ public class CubeMigrationCLI extends AbstractApplication {
                 dstParquetFiles.add(PathManager.getSegmentParquetStoragePath(dstHdfsWorkDir, cube.getName(), segment));
                 logger.info("Add " + PathManager.getSegmentParquetStoragePath(cube, segment.getName(), segment.getStorageLocationIdentifier()) + " to migrate parquet file list");
             }
+            srcParquetFiles.add(PathManager.getDimensionDictionaryPath(srcHdfsWorkDir, cube.getName()));
+            dstParquetFiles.add(PathManager.getDimensionDictionaryPath(dstHdfsWorkDir, cube.getName()));
         }
 
         if (doAclCopy) {
@@ -18,17 +18,23 @@
 
 package org.apache.kylin.tool.extractor;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.OptionGroup;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.persistence.JsonSerializer;
 import org.apache.kylin.common.persistence.ResourceStore;
 import org.apache.kylin.common.persistence.ResourceTool;
 import org.apache.kylin.common.util.OptionsHelper;
@@ -307,7 +313,11 @@ public class CubeMetaExtractor extends AbstractInfoExtractor {
     private void engineOverwriteInternal(File f) throws IOException {
         try {
             ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode rootNode = objectMapper.readTree(f);
+            byte[] content = Files.readAllBytes(f.toPath());
+            InputStream in = JsonSerializer.decompressIfNeeded(new ByteArrayInputStream(content));
+            // entities saved gzipped by CompressedJsonSerializer are written back gzipped, keeping the source format
+            boolean compressed = in instanceof GZIPInputStream;
+            JsonNode rootNode = objectMapper.readTree(in);
             boolean replaced = false;
             if (engineType != null && rootNode.get("engine_type") != null) {
                 ((ObjectNode) rootNode).put("engine_type", Integer.parseInt(engineType));
@@ -317,7 +327,11 @@ public class CubeMetaExtractor extends AbstractInfoExtractor {
                 ((ObjectNode) rootNode).put("storage_type", Integer.parseInt(storageType));
                 replaced = true;
             }
-            if (replaced) {
+            if (replaced && compressed) {
+                try (GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(f))) {
+                    out.write(objectMapper.writeValueAsBytes(rootNode));
+                }
+            } else if (replaced) {
                 objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
                 objectMapper.writeValue(f, rootNode);
             }
@@ -18,15 +18,26 @@
 
 package org.apache.kylin.tool;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NavigableSet;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.kylin.common.KylinConfig;
+import org.apache.kylin.common.persistence.JsonSerializer;
+import org.apache.kylin.common.persistence.RawResource;
+import org.apache.kylin.common.persistence.ResourceStore;
 import org.apache.kylin.common.persistence.ResourceTool;
+import org.apache.kylin.common.util.JsonUtil;
 import org.apache.kylin.common.util.LocalFileMetadataTestCase;
 import org.apache.kylin.tool.extractor.CubeMetaExtractor;
 import org.junit.After;
@@ -36,6 +47,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
 import org.apache.kylin.shaded.com.google.common.base.Preconditions;
 import org.apache.kylin.shaded.com.google.common.collect.Sets;
 
@@ -106,4 +119,34 @@ public class CubeMetaExtractorTest extends LocalFileMetadataTestCase {
         Assert.assertEquals(expectTbl, tables);
         Assert.assertEquals(expectTblExd, tableExds);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEngineOverwriteCompressed() throws IOException {
+        // the cube desc saved gzipped, like CompressedJsonSerializer does for big entities
+        String descPath = "/cube_desc/ci_inner_join_cube.json";
+        ResourceStore store = ResourceStore.getStore(getTestConfig());
+        RawResource raw = store.getResource(descPath);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            IOUtils.copy(raw.content(), out);
+        } finally {
+            raw.close();
+        }
+        store.putResource(descPath, new ByteArrayInputStream(gzipped.toByteArray()), raw.lastModified());
+
+        folder.create();
+        File tempDir = folder.getRoot();
+        CubeMetaExtractor cubeMetaExtractor = new CubeMetaExtractor();
+        cubeMetaExtractor.execute(new String[] { "-destDir", tempDir.getAbsolutePath(), "-cube", "ci_inner_join_cube",
+                "-engineType", "6", "-storageType", "4", "-compress", "false", "-packagetype", "cubemeta" });
+
+        File[] files = tempDir.listFiles();
+        Preconditions.checkState(files.length == 1);
+        byte[] content = Files.readAllBytes(new File(files[0], descPath).toPath());
+        InputStream in = JsonSerializer.decompressIfNeeded(new ByteArrayInputStream(content));
+        Assert.assertTrue(in instanceof GZIPInputStream);
+        JsonNode desc = JsonUtil.readValue(in, JsonNode.class);
+        Assert.assertEquals(6, desc.get("engine_type").asInt());
+        Assert.assertEquals(4, desc.get("storage_type").asInt());
+    }
+}